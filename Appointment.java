@@ -1,25 +1,39 @@
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Represents a doctor's appointment slot
+ * Represents a doctor's appointment slot.
+ * The booking state is a single immutable {@link Booking} claimed with
+ * compare-and-set, so concurrent callers can never double-book a slot.
  */
 public class Appointment {
-    private int id;
-    private String doctorName;
-    private LocalDateTime dateTime;
-    private boolean isBooked;
-    private String patientName;
-    private String patientEmail;
+    /**
+     * Immutable patient details for a booked slot
+     */
+    public record Booking(String patientName, String patientEmail) {
+    }
+    
+    /**
+     * Temporary claim on a free slot. The slot cannot be booked except by
+     * confirming the hold with its token, and the hold lapses at the
+     * expiry time unless it is confirmed first.
+     */
+    public record Hold(long token, String holder, long expiresAtMillis) {
+    }
+    
+    private final int id;
+    private final String doctorName;
+    private final LocalDateTime dateTime;
+    private final AtomicReference<Booking> booking;
+    private volatile Hold hold;
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
     
     public Appointment(int id, String doctorName, LocalDateTime dateTime) {
         this.id = id;
         this.doctorName = doctorName;
         this.dateTime = dateTime;
-        this.isBooked = false;
-        this.patientName = null;
-        this.patientEmail = null;
+        this.booking = new AtomicReference<>();
     }
     
     // Getters
@@ -36,53 +50,111 @@ public class Appointment {
     }
     
     public boolean isBooked() {
-        return isBooked;
+        return booking.get() != null;
+    }
+    
+    /**
+     * Current hold, or null if the slot is not held
+     */
+    public Hold getHold() {
+        return hold;
+    }
+    
+    public boolean isHeld() {
+        return hold != null;
+    }
+    
+    /**
+     * Detached copy carrying the slot's current booking and hold, for
+     * read-only snapshots; changing the copy does not touch the slot
+     */
+    Appointment copy() {
+        Appointment copy = new Appointment(id, doctorName, dateTime);
+        copy.booking.set(booking.get());
+        copy.hold = hold;
+        return copy;
+    }
+    
+    /**
+     * Detached copy of the slot carrying the given booking and hold (either
+     * may be null), so work done after the call that made them (an email
+     * about them) sees exactly those whatever happens to the slot afterwards
+     */
+    Appointment withBooking(Booking booking, Hold hold) {
+        Appointment copy = new Appointment(id, doctorName, dateTime);
+        copy.booking.set(booking);
+        copy.hold = hold;
+        return copy;
+    }
+    
+    /**
+     * Sets or clears the hold; {@link AppointmentStore} does this under the slot's lock
+     */
+    void setHold(Hold hold) {
+        this.hold = hold;
+    }
+    
+    /**
+     * Current booking, or null if the slot is free
+     */
+    public Booking getBooking() {
+        return booking.get();
     }
     
     public String getPatientName() {
-        return patientName;
+        Booking current = booking.get();
+        return current != null ? current.patientName() : null;
     }
     
     public String getPatientEmail() {
-        return patientEmail;
+        Booking current = booking.get();
+        return current != null ? current.patientEmail() : null;
     }
     
-    // Setters
+    // Setters (only affect a slot that is currently booked)
     public void setPatientName(String patientName) {
-        this.patientName = patientName;
+        booking.updateAndGet(current -> current != null ? new Booking(patientName, current.patientEmail()) : null);
     }
     
     public void setPatientEmail(String patientEmail) {
-        this.patientEmail = patientEmail;
+        booking.updateAndGet(current -> current != null ? new Booking(current.patientName(), patientEmail) : null);
     }
     
     /**
-     * Books the appointment for a patient
+     * Books the appointment for a patient. Exactly one concurrent caller wins.
      */
     public boolean bookAppointment(String patientName, String patientEmail) {
-        if (!isBooked) {
-            this.isBooked = true;
-            this.patientName = patientName;
-            this.patientEmail = patientEmail;
-            return true;
-        }
-        return false;
+        return bookAppointment(new Booking(patientName, patientEmail));
+    }
+    
+    /**
+     * Books the appointment with this exact booking instance, so the caller
+     * can later tell it apart from an equal booking made after it
+     */
+    public boolean bookAppointment(Booking newBooking) {
+        return booking.compareAndSet(null, newBooking);
+    }
+    
+    /**
+     * Cancels the appointment booking. Returns false if the slot was not booked.
+     */
+    public boolean cancelBooking() {
+        return releaseBooking() != null;
     }
     
     /**
-     * Cancels the appointment booking
+     * Cancels the appointment booking and returns the booking that was
+     * released, or null if the slot was not booked
      */
-    public void cancelBooking() {
-        this.isBooked = false;
-        this.patientName = null;
-        this.patientEmail = null;
+    public Booking releaseBooking() {
+        return booking.getAndSet(null);
     }
     
     @Override
     public String toString() {
         return String.format("ID: %d | Doctor: %s | Time: %s | Status: %s", 
                            id, doctorName, dateTime.format(FORMATTER), 
-                           isBooked ? "BOOKED" : "AVAILABLE");
+                           isBooked() ? "BOOKED" : isHeld() ? "HELD" : "AVAILABLE");
     }
     
     /**
@@ -90,8 +162,9 @@ public class Appointment {
      */
     public String getDetailedInfo() {
         String basic = toString();
-        if (isBooked && patientName != null) {
-            basic += " | Patient: " + patientName;
+        Booking current = booking.get();
+        if (current != null && current.patientName() != null) {
+            basic += " | Patient: " + current.patientName();
         }
         return basic;
     }
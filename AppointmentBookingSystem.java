@@ -1,38 +1,372 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 /**
  * Main class for the Doctor's Appointment Booking System
  * Handles user interaction, appointment management, and booking process
  */
 public class AppointmentBookingSystem {
-    private List<Appointment> appointments;
+    private AppointmentStore appointments;
     private Scanner scanner;
     private EmailServiceSimple emailService;
-    private int nextAppointmentId;
+    private NotificationQueue notifications;
+    private BookingJournal journal;
+    private BookingService bookingService;
+    private PatientRegistry patients;
+    private AvailabilitySnapshots availability;
+    private Waitlist waitlist;
+    private TimingWheel timers;
+    private volatile ReplicationNode replication;
+    private ReportRollup reports;
+    private SlotRecommender recommender;
+    private ReminderScheduler reminders;
+    private boolean stopped;
     private static final DateTimeFormatter INPUT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final int PAGE_SIZE = 50;
+    
+    // Listings share one buffered console writer; each table owns its row buffer
+    private final Writer console = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+    private final SlotTable availableTable = new SlotTable(console, SlotTable.Column.ID, SlotTable.Column.DOCTOR,
+                                                           SlotTable.Column.DATE_TIME, SlotTable.Column.STATUS);
+    private final SlotTable pickSlotTable = new SlotTable(console, SlotTable.Column.ID, SlotTable.Column.DOCTOR,
+                                                          SlotTable.Column.DATE_TIME);
+    private final SlotTable bookedTable = new SlotTable(console, SlotTable.Column.ID, SlotTable.Column.DOCTOR,
+                                                        SlotTable.Column.DATE_TIME, SlotTable.Column.PATIENT,
+                                                        SlotTable.Column.EMAIL);
+    private final SlotTable cancelTable = new SlotTable(console, SlotTable.Column.ID, SlotTable.Column.DOCTOR,
+                                                        SlotTable.Column.DATE_TIME, SlotTable.Column.PATIENT);
+    private final SlotTable searchTable = new SlotTable(console, SlotTable.Column.ID, SlotTable.Column.DOCTOR,
+                                                        SlotTable.Column.DATE_TIME, SlotTable.Column.WIDE_STATUS,
+                                                        SlotTable.Column.PATIENT);
     
     public AppointmentBookingSystem() {
-        this.appointments = new ArrayList<>();
+        this(false);
+    }
+    
+    /**
+     * A replicated node rebuilds its slots from the replication log instead of the booking journal
+     */
+    public AppointmentBookingSystem(boolean replicated) {
+        this.appointments = new AppointmentStore();
         this.scanner = new Scanner(System.in);
-        this.nextAppointmentId = 1;
         
         // Initialize email service with demo credentials
         // In production, these should be loaded from environment variables or config file
         this.emailService = new EmailServiceSimple("demo@hospital.com", "demopassword");
+        this.notifications = new NotificationQueue(emailService, 2);
+        
+        // Restore previous slots and bookings, then journal every change
+        Path dataDir = dataDir();
+        try {
+            this.journal = replicated ? null : BookingJournal.open(dataDir, appointments);
+        } catch (IOException e) {
+            System.err.println("⚠️  Could not open booking journal in " + dataDir + ": " + e.getMessage());
+            System.err.println("⚠️  Changes in this session will not be saved.");
+        }
+        // Dashboards read rollups kept current on every change instead of rescanning
+        this.reports = ReportRollup.attach(appointments);
+        this.recommender = SlotRecommender.attach(appointments);
+        this.patients = PatientRegistry.attach(appointments);
+        this.availability = AvailabilitySnapshots.attach(appointments);
+        // Waitlist offers and slot holds expire on one shared timing wheel
+        this.timers = new TimingWheel(100, TimeUnit.MILLISECONDS, "hold-expiry");
+        // A node's booking service is created once it has joined the cluster;
+        // holds and the waitlist are not replicated, so a node has neither
+        if (!replicated) {
+            this.waitlist = new Waitlist(appointments, Duration.ofMinutes(Long.getLong("medibook.offerMinutes", 15)),
+                                         timers, emailService::sendOffers);
+            SlotHolds holds = new SlotHolds(appointments, Duration.ofMinutes(Long.getLong("medibook.holdMinutes", 5)),
+                                            timers);
+            this.bookingService = new BookingService(appointments, journal, notifications, patients, availability,
+                                                     waitlist, holds);
+        }
+        // Reminders ride the same wheel; in a cluster only the leader sends them
+        this.reminders = ReminderScheduler.attach(appointments, timers, emailService::sendReminders,
+                                                  () -> replication == null || replication.isLeader());
+        Metrics.registerMBeans();
     }
     
     /**
      * Main entry point of the application
      */
     public static void main(String[] args) {
-        AppointmentBookingSystem system = new AppointmentBookingSystem();
+        AppointmentBookingSystem system = new AppointmentBookingSystem(Arrays.asList(args).contains("--node"));
+        if (args.length > 0) {
+            int status = system.runCommand(args);
+            system.shutdown();
+            System.exit(status);
+        }
         system.displayWelcome();
+        system.displayRestoredState();
         system.runMainMenu();
     }
     
+    /**
+     * Run a non-interactive batch command. Returns the process exit status.
+     *   --generate "<rule>"        expand one schedule rule (may be repeated)
+     *   --generate-file <path>     expand every rule in a file, one per line
+     *   --import <path>            load slots and bookings from .csv, .jsonl or .mbk (may be repeated)
+     *   --export <path>            write every slot and booking to .csv, .jsonl, .mbk or a new .cols archive
+     *                              after the other steps
+     *   --report <path.cols>       print utilization for a columnar archive without loading it (may be repeated)
+     *   --serve [port]             run the HTTP/JSON booking API (default port 8080)
+     *   --node <id> --cluster <id=host:port,...>
+     *                              serve as one node of a replicated cluster; rules are applied by the leader
+     */
+    private int runCommand(String[] args) {
+        List<ScheduleRule> rules = new ArrayList<>();
+        List<Path> imports = new ArrayList<>();
+        List<Path> archives = new ArrayList<>();
+        Path export = null;
+        int servePort = -1;
+        int nodeId = -1;
+        Map<Integer, InetSocketAddress> cluster = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--serve":
+                        servePort = i + 1 < args.length && !args[i + 1].startsWith("--")
+                                    ? Integer.parseInt(args[++i]) : 8080;
+                        break;
+                    case "--generate":
+                        rules.add(ScheduleRule.parse(requireArgument(args, ++i)));
+                        break;
+                    case "--generate-file":
+                        for (String line : Files.readAllLines(Paths.get(requireArgument(args, ++i)))) {
+                            if (!line.isBlank() && !line.trim().startsWith("#")) {
+                                rules.add(ScheduleRule.parse(line));
+                            }
+                        }
+                        break;
+                    case "--import":
+                        imports.add(Paths.get(requireArgument(args, ++i)));
+                        break;
+                    case "--export":
+                        export = Paths.get(requireArgument(args, ++i));
+                        SlotTransfer.Format.of(export);
+                        break;
+                    case "--report":
+                        archives.add(Paths.get(requireArgument(args, ++i)));
+                        if (SlotTransfer.Format.of(archives.get(archives.size() - 1))
+                                != SlotTransfer.Format.COLUMNAR) {
+                            throw new IllegalArgumentException("--report reads a .cols archive written by --export");
+                        }
+                        break;
+                    case "--node":
+                        nodeId = Integer.parseInt(requireArgument(args, ++i));
+                        break;
+                    case "--cluster":
+                        cluster = ReplicationNode.parseCluster(requireArgument(args, ++i));
+                        break;
+                    default:
+                        System.err.println("Unknown option: " + args[i]);
+                        System.err.println("Usage: java AppointmentBookingSystem [--generate \"<rule>\"]... "
+                                           + "[--generate-file <path>] [--import <path>]... [--export <path>] "
+                                           + "[--report <path.cols>]... [--serve [port]] "
+                                           + "[--node <id> --cluster <id=host:port,...>]");
+                        return 2;
+                }
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("❌ " + e.getMessage());
+            return 2;
+        }
+        
+        for (Path archive : archives) {
+            if (!printArchiveReport(archive)) {
+                return 1;
+            }
+        }
+        if (nodeId >= 0 || cluster != null) {
+            if (nodeId < 0 || cluster == null || servePort < 0) {
+                System.err.println("❌ A cluster node needs --node, --cluster and --serve");
+                return 2;
+            }
+            if (!imports.isEmpty()) {
+                System.err.println("❌ --import is not supported on a cluster node");
+                return 2;
+            }
+            return startNode(nodeId, cluster, rules) ? runExportAndServe(export, servePort) : 1;
+        }
+        for (ScheduleRule rule : rules) {
+            long start = System.nanoTime();
+            int added = rule.generate(appointments);
+            System.out.printf("✅ Generated %d slots for %s in %d ms%n",
+                              added, rule, (System.nanoTime() - start) / 1_000_000);
+        }
+        SlotTransfer transfer = new SlotTransfer(appointments);
+        for (Path input : imports) {
+            Path report = input.resolveSibling(input.getFileName() + ".errors.csv");
+            long start = System.nanoTime();
+            try {
+                SlotTransfer.ImportResult result = transfer.importFrom(input, report);
+                System.out.printf("✅ Imported %d of %d rows from %s (%d booked) in %d ms%n", result.imported(),
+                                  result.rows(), input, result.booked(), (System.nanoTime() - start) / 1_000_000);
+                if (result.errors() > 0) {
+                    System.out.printf("⚠️  %d rows rejected (%d duplicates); see %s%n",
+                                      result.errors(), result.duplicates(), report);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("❌ Import of " + input + " failed: " + e.getMessage());
+                bookingService.persist();
+                return 1;
+            }
+        }
+        if (!bookingService.persist()) {
+            return 1;
+        }
+        return runExportAndServe(export, servePort);
+    }
+    
+    /**
+     * Prints the utilization report of a columnar archive, read from its mapped columns
+     */
+    private boolean printArchiveReport(Path archive) {
+        if (!Files.isDirectory(archive)) {
+            System.err.println("❌ No columnar archive at " + archive);
+            return false;
+        }
+        long start = System.nanoTime();
+        try (ColumnarSlotStore columns = ColumnarSlotStore.open(archive)) {
+            UtilizationReport report = UtilizationReport.scan(columns);
+            System.out.printf("✅ Scanned %d slots in %s in %d ms%n",
+                              columns.size(), archive, (System.nanoTime() - start) / 1_000_000);
+            System.out.print(report.format(LocalDate.now(), 20, 14));
+            return true;
+        } catch (IOException e) {
+            System.err.println("❌ Could not read " + archive + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private int runExportAndServe(Path export, int servePort) {
+        SlotTransfer transfer = new SlotTransfer(appointments);
+        if (export != null) {
+            long start = System.nanoTime();
+            try {
+                long written = transfer.exportTo(export);
+                System.out.printf("✅ Exported %d slots to %s in %d ms%n",
+                                  written, export, (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("❌ Export to " + export + " failed: " + e.getMessage());
+                return 1;
+            }
+        }
+        return servePort >= 0 ? serve(servePort) : 0;
+    }
+    
+    /**
+     * Join a replicated cluster and, if this node becomes leader, apply the schedule rules through it
+     */
+    private boolean startNode(int nodeId, Map<Integer, InetSocketAddress> cluster, List<ScheduleRule> rules) {
+        try {
+            replication = new ReplicationNode(nodeId, cluster, appointments, dataDir().resolve("node-" + nodeId));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("❌ Could not start replication node " + nodeId + ": " + e.getMessage());
+            return false;
+        }
+        bookingService = new BookingService(replication, notifications, patients, availability);
+        System.out.println("🔗 Node " + nodeId + " of " + cluster.size() + " replicating on " + cluster.get(nodeId));
+        if (rules.isEmpty()) {
+            return true;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (replication.getLeaderId() < 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (!replication.isLeader()) {
+            System.out.println("🔗 Node " + nodeId + " is a follower; schedule rules are applied by the leader");
+            return true;
+        }
+        for (ScheduleRule rule : rules) {
+            long start = System.nanoTime();
+            List<CompletableFuture<Integer>> days = new ArrayList<>();
+            rule.forEachDay(batch -> {
+                days.add(replication.addSlots(rule.getDoctorName(), batch));
+                return batch.size();
+            });
+            int added = 0;
+            try {
+                for (CompletableFuture<Integer> day : days) {
+                    added += day.get(30, TimeUnit.SECONDS);
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                System.err.println("❌ Could not replicate slots for " + rule + ": " + e.getMessage());
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            System.out.printf("✅ Generated %d slots for %s in %d ms%n",
+                              added, rule, (System.nanoTime() - start) / 1_000_000);
+        }
+        return true;
+    }
+    
+    private static Path dataDir() {
+        return Paths.get(System.getProperty("medibook.dataDir", "medibook-data"));
+    }
+    
+    /**
+     * Serve the HTTP API until the process is interrupted
+     */
+    private int serve(int port) {
+        BookingApiServer server;
+        try {
+            server = new BookingApiServer(bookingService, reports, recommender, port);
+        } catch (IOException e) {
+            System.err.println("❌ Could not start HTTP server on port " + port + ": " + e.getMessage());
+            return 1;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(2);
+            shutdown();
+        }));
+        server.start();
+        System.out.println("🌐 MediBook API listening on http://localhost:" + server.getPort() + "/api/slots");
+        if (!PatientTokens.isConfigured()) {
+            System.out.println("⚠️ No -D" + PatientTokens.SECRET_PROPERTY
+                               + " set; patient tokens will stop working after a restart");
+        }
+        try {
+            Thread.currentThread().join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+    
+    private static String requireArgument(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+    
     /**
      * Display welcome message
      */
@@ -44,6 +378,16 @@ public class AppointmentBookingSystem {
         System.out.println();
     }
     
+    /**
+     * Report slots restored from the journal
+     */
+    private void displayRestoredState() {
+        if (appointments.size() > 0) {
+            System.out.println("📂 Restored " + appointments.size() + " appointment slots ("
+                               + appointments.bookedCount() + " booked)");
+        }
+    }
+    
     /**
      * Main menu loop
      */
@@ -72,10 +416,23 @@ public class AppointmentBookingSystem {
                     searchAppointments();
                     break;
                 case 7:
+                    generateScheduleSlots();
+                    break;
+                case 8:
+                    displayMetrics();
+                    break;
+                case 9:
+                    manageWaitlist();
+                    break;
+                case 10:
+                    displayReports();
+                    break;
+                case 11:
+                    shutdown();
                     System.out.println("Thank you for using MediBook! Goodbye!");
                     return;
                 default:
-                    System.out.println("❌ Invalid choice! Please select a number between 1-7.");
+                    System.out.println("❌ Invalid choice! Please select a number between 1-11.");
             }
             
             System.out.println("\nPress Enter to continue...");
@@ -83,6 +440,37 @@ public class AppointmentBookingSystem {
         }
     }
     
+    /**
+     * Flush pending confirmation and reminder emails before exiting
+     */
+    private synchronized void shutdown() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        timers.close();
+        if (replication != null) {
+            replication.close();
+        }
+        try {
+            reminders.shutdown(30, TimeUnit.SECONDS);
+            if (waitlist != null) {
+                waitlist.shutdown(30, TimeUnit.SECONDS);
+            }
+            notifications.shutdown(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("⚠️  Failed to close booking journal: " + e.getMessage());
+            }
+        }
+    }
+    
+    
     /**
      * Display main menu options
      */
@@ -96,7 +484,11 @@ public class AppointmentBookingSystem {
         System.out.println("4. 📋  View Booked Appointments");
         System.out.println("5. ❌  Cancel an Appointment");
         System.out.println("6. 🔍  Search Appointments");
-        System.out.println("7. 🚪  Exit");
+        System.out.println("7. 🗓️  Generate Slots from a Weekly Schedule");
+        System.out.println("8. 📈  View Performance Metrics");
+        System.out.println("9. ⏳  Waitlist");
+        System.out.println("10. 📊 Utilization Reports");
+        System.out.println("11. 🚪 Exit");
         System.out.println("=".repeat(60));
     }
     
@@ -133,11 +525,7 @@ public class AppointmentBookingSystem {
                 LocalDateTime dateTime = LocalDateTime.parse(input, INPUT_FORMATTER);
                 
                 // Check if the slot already exists
-                boolean exists = appointments.stream()
-                    .anyMatch(apt -> apt.getDoctorName().equalsIgnoreCase(doctorName) 
-                             && apt.getDateTime().equals(dateTime));
-                
-                if (exists) {
+                if (appointments.exists(doctorName, dateTime)) {
                     System.out.println("⚠️  Slot already exists for Dr. " + doctorName + " at " + input);
                     continue;
                 }
@@ -148,8 +536,13 @@ public class AppointmentBookingSystem {
                     continue;
                 }
                 
-                Appointment appointment = new Appointment(nextAppointmentId++, doctorName, dateTime);
-                appointments.add(appointment);
+                long start = Metrics.start();
+                Appointment appointment = appointments.create(doctorName, dateTime);
+                Metrics.record(Metrics.Operation.ADD_SLOTS, start, appointment != null);
+                if (appointment == null) {
+                    System.out.println("⚠️  Slot already exists for Dr. " + doctorName + " at " + input);
+                    continue;
+                }
                 slotsAdded++;
                 System.out.println("✅ Added slot: " + appointment);
                 
@@ -158,9 +551,45 @@ public class AppointmentBookingSystem {
             }
         }
         
+        bookingService.persist();
         System.out.println("\n✅ Successfully added " + slotsAdded + " appointment slots for Dr. " + doctorName);
     }
     
+    /**
+     * Generate slots in bulk from a weekly schedule rule
+     */
+    private void generateScheduleSlots() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("         GENERATE SLOTS FROM SCHEDULE");
+        System.out.println("=".repeat(50));
+        
+        try {
+            System.out.print("Enter doctor's name: ");
+            String doctorName = scanner.nextLine().trim();
+            System.out.print("Working days (e.g. MON-FRI or MON,WED,FRI): ");
+            Set<DayOfWeek> days = ScheduleRule.parseDays(scanner.nextLine());
+            System.out.print("Working hours (e.g. 09:00-17:00): ");
+            LocalTime[] hours = ScheduleRule.parseHours(scanner.nextLine());
+            int slotMinutes = getIntInput("Slot length in minutes: ");
+            System.out.print("First day (yyyy-MM-dd, blank for today): ");
+            String firstInput = scanner.nextLine().trim();
+            LocalDate firstDay = firstInput.isEmpty() ? LocalDate.now() : LocalDate.parse(firstInput);
+            int months = getIntInput("Number of months to generate: ");
+            System.out.print("Holidays to skip (comma-separated yyyy-MM-dd, blank for none): ");
+            Set<LocalDate> holidays = ScheduleRule.parseDates(scanner.nextLine());
+            
+            ScheduleRule rule = new ScheduleRule(doctorName, days, hours[0], hours[1], slotMinutes,
+                                                 firstDay, firstDay.plusMonths(months).minusDays(1), holidays);
+            long start = System.nanoTime();
+            int added = rule.generate(appointments);
+            bookingService.persist();
+            System.out.printf("%n✅ Generated %d appointment slots for Dr. %s in %d ms%n",
+                              added, rule.getDoctorName(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            System.out.println("❌ " + e.getMessage());
+        }
+    }
+    
     /**
      * Display all available appointment slots
      */
@@ -169,10 +598,9 @@ public class AppointmentBookingSystem {
         System.out.println("                   AVAILABLE APPOINTMENT SLOTS");
         System.out.println("=".repeat(70));
         
-        List<Appointment> availableSlots = appointments.stream()
-            .filter(apt -> !apt.isBooked())
-            .sorted(Comparator.comparing(Appointment::getDateTime))
-            .toList();
+        // One snapshot for the listing and the counts, so they agree while bookings go on
+        AvailabilitySnapshots.Snapshot snapshot = bookingService.snapshot();
+        Collection<Appointment> availableSlots = snapshot.availableSlots();
         
         if (availableSlots.isEmpty()) {
             System.out.println("❌ No available appointment slots found!");
@@ -180,18 +608,9 @@ public class AppointmentBookingSystem {
             return;
         }
         
-        System.out.printf("%-5s %-20s %-25s %-10s%n", "ID", "Doctor", "Date & Time", "Status");
-        System.out.println("-".repeat(70));
+        showPaged(availableSlots, snapshot.availableCount(), availableTable, 70, Metrics.Operation.LIST_AVAILABLE);
         
-        for (Appointment appointment : availableSlots) {
-            System.out.printf("%-5d %-20s %-25s %-10s%n",
-                appointment.getId(),
-                "Dr. " + appointment.getDoctorName(),
-                appointment.getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")),
-                "AVAILABLE");
-        }
-        
-        System.out.println("\nTotal available slots: " + availableSlots.size());
+        System.out.println("\nTotal available slots: " + snapshot.availableCount());
     }
     
     /**
@@ -203,10 +622,8 @@ public class AppointmentBookingSystem {
         System.out.println("=".repeat(50));
         
         // First show available slots
-        List<Appointment> availableSlots = appointments.stream()
-            .filter(apt -> !apt.isBooked())
-            .sorted(Comparator.comparing(Appointment::getDateTime))
-            .toList();
+        AvailabilitySnapshots.Snapshot snapshot = bookingService.snapshot();
+        Collection<Appointment> availableSlots = snapshot.availableSlots();
         
         if (availableSlots.isEmpty()) {
             System.out.println("❌ No available appointment slots!");
@@ -214,36 +631,43 @@ public class AppointmentBookingSystem {
         }
         
         System.out.println("Available appointment slots:");
-        System.out.printf("%-5s %-20s %-25s%n", "ID", "Doctor", "Date & Time");
-        System.out.println("-".repeat(50));
-        
-        for (Appointment appointment : availableSlots) {
-            System.out.printf("%-5d %-20s %-25s%n",
-                appointment.getId(),
-                "Dr. " + appointment.getDoctorName(),
-                appointment.getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-        }
+        showPaged(availableSlots, snapshot.availableCount(), pickSlotTable, 50, Metrics.Operation.LIST_AVAILABLE);
         
         // Get appointment selection
         int appointmentId = getIntInput("\nEnter appointment ID to book: ");
         
-        Appointment selectedAppointment = appointments.stream()
-            .filter(apt -> apt.getId() == appointmentId && !apt.isBooked())
-            .findFirst()
-            .orElse(null);
+        Appointment selectedAppointment = appointments.findAvailable(appointmentId);
         
         if (selectedAppointment == null) {
             System.out.println("❌ Invalid appointment ID or appointment already booked!");
             return;
         }
         
+        // Hold the slot while the patient's details are collected
+        BookingService.Reservation reservation = bookingService.reserve(appointmentId, "console");
+        if (reservation.outcome() != BookingService.Outcome.RESERVED) {
+            System.out.println("❌ Sorry, that slot was just taken by someone else!");
+            return;
+        }
+        long token = reservation.hold().token();
+        System.out.println("⏳ Slot held for you for " + bookingService.getHolds().getTtl().toMinutes() + " minutes.");
+        
+        if (!completeBooking(selectedAppointment, token)) {
+            bookingService.release(appointmentId, token);
+        }
+    }
+    
+    /**
+     * Collect the patient's details for a held slot and confirm it; returns true once it is booked
+     */
+    private boolean completeBooking(Appointment selectedAppointment, long token) {
         // Get patient details
         System.out.print("Enter patient name: ");
         String patientName = scanner.nextLine().trim();
         
         if (patientName.isEmpty()) {
             System.out.println("❌ Patient name cannot be empty!");
-            return;
+            return false;
         }
         
         System.out.print("Enter patient email: ");
@@ -251,7 +675,7 @@ public class AppointmentBookingSystem {
         
         if (patientEmail.isEmpty() || !EmailServiceSimple.isValidEmail(patientEmail)) {
             System.out.println("❌ Please enter a valid email address!");
-            return;
+            return false;
         }
         
         // Confirm booking
@@ -261,29 +685,36 @@ public class AppointmentBookingSystem {
         System.out.println("Appointment Details:");
         System.out.println("- ID: " + selectedAppointment.getId());
         System.out.println("- Doctor: Dr. " + selectedAppointment.getDoctorName());
-        System.out.println("- Date & Time: " + selectedAppointment.getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
+        System.out.println("- Date & Time: " + selectedAppointment.getDateTime().format(INPUT_FORMATTER));
         System.out.println("- Patient: " + patientName);
         System.out.println("- Email: " + patientEmail);
         
         System.out.print("\nConfirm booking? (y/n): ");
         String confirmation = scanner.nextLine().trim().toLowerCase();
         
-        if (confirmation.equals("y") || confirmation.equals("yes")) {
-            // Book the appointment
-            if (selectedAppointment.bookAppointment(patientName, patientEmail)) {
-                System.out.println("\n✅ Appointment booked successfully!");
-                
-                // Send confirmation email
-                System.out.println("📧 Sending confirmation email...");
-                emailService.sendSimpleConfirmation(selectedAppointment);
-                
-                System.out.println("🎉 Booking completed! Confirmation email sent to " + patientEmail);
-            } else {
-                System.out.println("❌ Failed to book appointment!");
-            }
-        } else {
+        if (!confirmation.equals("y") && !confirmation.equals("yes")) {
             System.out.println("❌ Booking cancelled.");
+            return false;
         }
+        
+        // Book the held slot; the confirmation email is sent in the background
+        BookingService.Outcome outcome = bookingService.confirm(selectedAppointment.getId(), token, patientName, patientEmail);
+        if (outcome == BookingService.Outcome.BOOKED) {
+            System.out.println("\n✅ Appointment booked successfully!");
+            System.out.println("🎉 Booking completed! Confirmation email queued for " + patientEmail);
+        } else if (outcome == BookingService.Outcome.HOLD_EXPIRED) {
+            System.out.println("❌ The hold on this slot expired. Please book again.");
+        } else if (outcome == BookingService.Outcome.NOT_PERSISTED) {
+            System.out.println("❌ The booking could not be saved to disk and was undone. Please try again later.");
+        } else if (outcome == BookingService.Outcome.OVERLAPPING) {
+            System.out.println("❌ " + patientEmail + " already has an appointment at about that time.");
+        } else if (outcome == BookingService.Outcome.QUOTA_EXCEEDED) {
+            System.out.println("❌ " + patientEmail + " already has the maximum of "
+                               + bookingService.getPatients().getMaxUpcoming() + " upcoming appointments.");
+        } else {
+            System.out.println("❌ Failed to book appointment!");
+        }
+        return outcome == BookingService.Outcome.BOOKED;
     }
     
     /**
@@ -294,30 +725,16 @@ public class AppointmentBookingSystem {
         System.out.println("                        BOOKED APPOINTMENTS");
         System.out.println("=".repeat(80));
         
-        List<Appointment> bookedAppointments = appointments.stream()
-            .filter(Appointment::isBooked)
-            .sorted(Comparator.comparing(Appointment::getDateTime))
-            .toList();
+        Collection<Appointment> bookedAppointments = appointments.bookedSlots();
         
         if (bookedAppointments.isEmpty()) {
             System.out.println("❌ No booked appointments found!");
             return;
         }
         
-        System.out.printf("%-5s %-20s %-25s %-20s %-25s%n", 
-                         "ID", "Doctor", "Date & Time", "Patient", "Email");
-        System.out.println("-".repeat(80));
-        
-        for (Appointment appointment : bookedAppointments) {
-            System.out.printf("%-5d %-20s %-25s %-20s %-25s%n",
-                appointment.getId(),
-                "Dr. " + appointment.getDoctorName(),
-                appointment.getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")),
-                appointment.getPatientName(),
-                appointment.getPatientEmail());
-        }
+        showPaged(bookedAppointments, appointments.bookedCount(), bookedTable, 80, Metrics.Operation.LIST_BOOKED);
         
-        System.out.println("\nTotal booked appointments: " + bookedAppointments.size());
+        System.out.println("\nTotal booked appointments: " + appointments.bookedCount());
     }
     
     /**
@@ -328,10 +745,7 @@ public class AppointmentBookingSystem {
         System.out.println("            CANCEL APPOINTMENT");
         System.out.println("=".repeat(50));
         
-        List<Appointment> bookedAppointments = appointments.stream()
-            .filter(Appointment::isBooked)
-            .sorted(Comparator.comparing(Appointment::getDateTime))
-            .toList();
+        Collection<Appointment> bookedAppointments = appointments.bookedSlots();
         
         if (bookedAppointments.isEmpty()) {
             System.out.println("❌ No booked appointments to cancel!");
@@ -339,23 +753,11 @@ public class AppointmentBookingSystem {
         }
         
         System.out.println("Booked appointments:");
-        System.out.printf("%-5s %-20s %-25s %-20s%n", "ID", "Doctor", "Date & Time", "Patient");
-        System.out.println("-".repeat(70));
-        
-        for (Appointment appointment : bookedAppointments) {
-            System.out.printf("%-5d %-20s %-25s %-20s%n",
-                appointment.getId(),
-                "Dr. " + appointment.getDoctorName(),
-                appointment.getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")),
-                appointment.getPatientName());
-        }
+        showPaged(bookedAppointments, appointments.bookedCount(), cancelTable, 70, Metrics.Operation.LIST_BOOKED);
         
         int appointmentId = getIntInput("\nEnter appointment ID to cancel: ");
         
-        Appointment appointmentToCancel = appointments.stream()
-            .filter(apt -> apt.getId() == appointmentId && apt.isBooked())
-            .findFirst()
-            .orElse(null);
+        Appointment appointmentToCancel = appointments.findBooked(appointmentId);
         
         if (appointmentToCancel == null) {
             System.out.println("❌ Invalid appointment ID or appointment not booked!");
@@ -366,8 +768,14 @@ public class AppointmentBookingSystem {
         String confirmation = scanner.nextLine().trim().toLowerCase();
         
         if (confirmation.equals("y") || confirmation.equals("yes")) {
-            appointmentToCancel.cancelBooking();
-            System.out.println("✅ Appointment cancelled successfully!");
+            BookingService.Outcome outcome = bookingService.cancel(appointmentToCancel.getId());
+            if (outcome == BookingService.Outcome.CANCELLED) {
+                System.out.println("✅ Appointment cancelled successfully!");
+            } else if (outcome == BookingService.Outcome.NOT_PERSISTED) {
+                System.out.println("⚠️  Appointment cancelled, but not yet saved to disk. It is saved once the disk recovers.");
+            } else {
+                System.out.println("❌ Appointment was not booked anymore.");
+            }
         } else {
             System.out.println("❌ Cancellation aborted.");
         }
@@ -384,6 +792,11 @@ public class AppointmentBookingSystem {
         System.out.println("Search options:");
         System.out.println("1. Search by doctor name");
         System.out.println("2. Search by date (yyyy-MM-dd)");
+        System.out.println("3. Search by week (any date in the week)");
+        System.out.println("4. Free slots between two times");
+        System.out.println("5. Next available slot");
+        System.out.println("6. Recommend slots for a patient");
+        System.out.println("7. A patient's appointments (by email)");
         
         int choice = getIntInput("Enter choice: ");
         
@@ -394,6 +807,21 @@ public class AppointmentBookingSystem {
             case 2:
                 searchByDate();
                 break;
+            case 3:
+                searchByWeek();
+                break;
+            case 4:
+                searchFreeSlots();
+                break;
+            case 5:
+                findNextAvailable();
+                break;
+            case 6:
+                recommendSlots();
+                break;
+            case 7:
+                searchByPatient();
+                break;
             default:
                 System.out.println("❌ Invalid choice!");
         }
@@ -403,13 +831,10 @@ public class AppointmentBookingSystem {
      * Search appointments by doctor name
      */
     private void searchByDoctor() {
-        System.out.print("Enter doctor name (partial match allowed): ");
+        System.out.print("Enter doctor name (partial names and small typos allowed): ");
         String doctorQuery = scanner.nextLine().trim().toLowerCase();
         
-        List<Appointment> matches = appointments.stream()
-            .filter(apt -> apt.getDoctorName().toLowerCase().contains(doctorQuery))
-            .sorted(Comparator.comparing(Appointment::getDateTime))
-            .toList();
+        List<Appointment> matches = bookingService.searchByDoctor(doctorQuery);
         
         displaySearchResults(matches, "doctor name containing '" + doctorQuery + "'");
     }
@@ -422,10 +847,7 @@ public class AppointmentBookingSystem {
         String dateQuery = scanner.nextLine().trim();
         
         try {
-            List<Appointment> matches = appointments.stream()
-                .filter(apt -> apt.getDateTime().toLocalDate().toString().equals(dateQuery))
-                .sorted(Comparator.comparing(Appointment::getDateTime))
-                .toList();
+            List<Appointment> matches = bookingService.searchByDate(LocalDate.parse(dateQuery));
             
             displaySearchResults(matches, "date " + dateQuery);
         } catch (Exception e) {
@@ -433,6 +855,117 @@ public class AppointmentBookingSystem {
         }
     }
     
+    /**
+     * Search appointments in the Monday-to-Sunday week containing a date
+     */
+    private void searchByWeek() {
+        System.out.print("Enter any date in the week (yyyy-MM-dd): ");
+        String dateQuery = scanner.nextLine().trim();
+        
+        try {
+            long start = Metrics.start();
+            List<Appointment> matches = bookingService.searchByWeek(LocalDate.parse(dateQuery))
+                .collect(Collectors.toList());
+            Metrics.record(Metrics.Operation.SEARCH_RANGE, start, true);
+            
+            displaySearchResults(matches, "the week of " + dateQuery);
+        } catch (DateTimeParseException e) {
+            System.out.println("❌ Invalid date format! Please use yyyy-MM-dd");
+        }
+    }
+    
+    /**
+     * List free slots in a time range, optionally for one doctor
+     */
+    private void searchFreeSlots() {
+        try {
+            System.out.print("From (yyyy-MM-dd HH:mm): ");
+            LocalDateTime from = LocalDateTime.parse(scanner.nextLine().trim(), INPUT_FORMATTER);
+            System.out.print("To (yyyy-MM-dd HH:mm): ");
+            LocalDateTime to = LocalDateTime.parse(scanner.nextLine().trim(), INPUT_FORMATTER);
+            System.out.print("Doctor's name (blank for any doctor): ");
+            String doctorName = scanner.nextLine().trim();
+            
+            long start = Metrics.start();
+            List<Appointment> matches = bookingService.freeSlots(doctorName, from, to)
+                .collect(Collectors.toList());
+            Metrics.record(Metrics.Operation.SEARCH_RANGE, start, true);
+            
+            displaySearchResults(matches, "free slots" + (doctorName.isEmpty() ? "" : " for Dr. " + doctorName)
+                                 + " from " + from.format(INPUT_FORMATTER) + " to " + to.format(INPUT_FORMATTER));
+        } catch (DateTimeParseException e) {
+            System.out.println("❌ Invalid format! Please use yyyy-MM-dd HH:mm");
+        }
+    }
+    
+    /**
+     * Show the earliest free slot at or after a given time
+     */
+    private void findNextAvailable() {
+        System.out.print("After (yyyy-MM-dd HH:mm, blank for now): ");
+        String input = scanner.nextLine().trim();
+        
+        try {
+            LocalDateTime from = input.isEmpty() ? LocalDateTime.now() : LocalDateTime.parse(input, INPUT_FORMATTER);
+            Appointment next = bookingService.nextAvailable(from);
+            if (next == null) {
+                System.out.println("❌ No free slots after " + from.format(INPUT_FORMATTER));
+            } else {
+                displaySearchResults(List.of(next), "next available slot after " + from.format(INPUT_FORMATTER));
+            }
+        } catch (DateTimeParseException e) {
+            System.out.println("❌ Invalid format! Please use yyyy-MM-dd HH:mm");
+        }
+    }
+    
+    /**
+     * List one patient's appointments from the patient registry
+     */
+    private void searchByPatient() {
+        System.out.print("Enter patient email: ");
+        String email = scanner.nextLine().trim();
+        
+        if (email.isEmpty()) {
+            System.out.println("❌ Please enter an email address!");
+            return;
+        }
+        String name = bookingService.getPatients().nameOf(email);
+        displaySearchResults(bookingService.appointmentsOf(email),
+                             "appointments of " + (name != null ? name + " <" + email + ">" : email));
+    }
+    
+    /**
+     * Suggest the earliest free slots that fit a patient's doctors, days and times
+     */
+    private void recommendSlots() {
+        try {
+            System.out.print("Preferred doctors (comma-separated, blank for any): ");
+            String doctors = scanner.nextLine().trim();
+            System.out.print("Days (e.g. mon,wed,fri; blank for any): ");
+            String days = scanner.nextLine().trim();
+            System.out.print("From (HH:mm, blank for any time): ");
+            String from = scanner.nextLine().trim();
+            System.out.print("Before (HH:mm, blank for any time): ");
+            String to = scanner.nextLine().trim();
+            System.out.print("Earliest date (yyyy-MM-dd, blank for now): ");
+            String after = scanner.nextLine().trim();
+            int limit = getIntInput("How many suggestions? ");
+            
+            SlotRecommender.Constraints constraints = new SlotRecommender.Constraints(
+                doctors.isEmpty() ? List.of() : Arrays.asList(doctors.split(",")),
+                SlotRecommender.parseDays(days),
+                from.isEmpty() ? null : LocalTime.parse(from),
+                to.isEmpty() ? null : LocalTime.parse(to),
+                after.isEmpty() ? LocalDateTime.now() : LocalDate.parse(after).atStartOfDay(),
+                limit);
+            displaySearchResults(recommender.recommend(constraints), "recommended slots");
+        } catch (DateTimeParseException e) {
+            System.out.println("❌ Invalid format! Please use HH:mm for times and yyyy-MM-dd for dates");
+        } catch (IllegalArgumentException e) {
+            System.out.println("❌ " + e.getMessage());
+        }
+    }
+    
     /**
      * Display search results
      */
@@ -444,20 +977,143 @@ public class AppointmentBookingSystem {
             return;
         }
         
-        System.out.printf("%-5s %-20s %-25s %-15s %-20s%n", 
-                         "ID", "Doctor", "Date & Time", "Status", "Patient");
-        System.out.println("-".repeat(85));
+        showPaged(appointments, appointments.size(), searchTable, 85, null);
+        
+        System.out.println("\nFound " + appointments.size() + " appointment(s)");
+    }
+    
+    /**
+     * Join the waitlist or answer a slot offer
+     */
+    private void manageWaitlist() {
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("                 WAITLIST");
+        System.out.println("=".repeat(50));
         
-        for (Appointment appointment : appointments) {
-            System.out.printf("%-5d %-20s %-25s %-15s %-20s%n",
-                appointment.getId(),
-                "Dr. " + appointment.getDoctorName(),
-                appointment.getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")),
-                appointment.isBooked() ? "BOOKED" : "AVAILABLE",
-                appointment.isBooked() ? appointment.getPatientName() : "");
+        Collection<Waitlist.Offer> offers = waitlist.pendingOffers();
+        if (!offers.isEmpty()) {
+            System.out.println("Open offers:");
+            for (Waitlist.Offer offer : offers) {
+                System.out.println("- Slot " + offer.appointment().getId() + " with Dr. "
+                                   + offer.appointment().getDoctorName() + " at "
+                                   + offer.appointment().getDateTime().format(INPUT_FORMATTER) + " for "
+                                   + offer.entry().patientName() + " <" + offer.entry().patientEmail() + ">");
+            }
+            System.out.println();
         }
         
-        System.out.println("\nFound " + appointments.size() + " appointment(s)");
+        System.out.println("1. Join a doctor's waitlist");
+        System.out.println("2. Accept an offered slot");
+        System.out.println("3. Decline an offered slot");
+        
+        int choice = getIntInput("Enter choice: ");
+        
+        switch (choice) {
+            case 1:
+                joinWaitlist();
+                break;
+            case 2:
+            case 3:
+                int appointmentId = getIntInput("Enter offered appointment ID: ");
+                System.out.print("Enter patient email: ");
+                String patientEmail = scanner.nextLine().trim();
+                if (choice == 2) {
+                    BookingService.Outcome outcome = bookingService.acceptOffer(appointmentId, patientEmail);
+                    if (outcome == BookingService.Outcome.BOOKED) {
+                        System.out.println("✅ Appointment booked! Confirmation email queued for " + patientEmail);
+                    } else if (outcome == BookingService.Outcome.NOT_PERSISTED) {
+                        System.out.println("❌ The booking could not be saved to disk and was undone. Please try again later.");
+                    } else if (outcome == BookingService.Outcome.OVERLAPPING) {
+                        System.out.println("❌ The patient already has an appointment at about that time.");
+                    } else if (outcome == BookingService.Outcome.QUOTA_EXCEEDED) {
+                        System.out.println("❌ The patient already has the maximum number of upcoming appointments.");
+                    } else {
+                        System.out.println("❌ No open offer for that slot and email (it may have expired).");
+                    }
+                } else if (bookingService.declineOffer(appointmentId, patientEmail)) {
+                    System.out.println("✅ Offer declined.");
+                } else {
+                    System.out.println("❌ No open offer for that slot and email.");
+                }
+                break;
+            default:
+                System.out.println("❌ Invalid choice!");
+        }
+    }
+    
+    /**
+     * Add a patient to a doctor's waitlist
+     */
+    private void joinWaitlist() {
+        try {
+            System.out.print("Enter doctor's name: ");
+            String doctorName = scanner.nextLine().trim();
+            System.out.print("Enter patient name: ");
+            String patientName = scanner.nextLine().trim();
+            System.out.print("Enter patient email: ");
+            String patientEmail = scanner.nextLine().trim();
+            System.out.print("Earliest acceptable time (yyyy-MM-dd HH:mm, blank for now): ");
+            String fromInput = scanner.nextLine().trim();
+            LocalDateTime from = fromInput.isEmpty() ? LocalDateTime.now() : LocalDateTime.parse(fromInput, INPUT_FORMATTER);
+            System.out.print("Latest acceptable time (yyyy-MM-dd HH:mm): ");
+            LocalDateTime to = LocalDateTime.parse(scanner.nextLine().trim(), INPUT_FORMATTER);
+            int priority = getIntInput("Priority (0 = urgent, higher numbers wait longer): ");
+            
+            bookingService.joinWaitlist(doctorName, patientName, patientEmail, from, to, priority);
+            System.out.println("✅ " + patientName + " is on Dr. " + doctorName + "'s waitlist ("
+                               + waitlist.waitingCount(doctorName) + " waiting). Matching cancelled slots will be offered to them first.");
+        } catch (DateTimeParseException e) {
+            System.out.println("❌ Invalid format! Please use yyyy-MM-dd HH:mm");
+        } catch (IllegalArgumentException e) {
+            System.out.println("❌ " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Utilization per doctor, day and hour, cancellation rates and the free-slot heatmap
+     */
+    private void displayReports() {
+        System.out.println("\n" + "=".repeat(72));
+        System.out.println("                          UTILIZATION REPORT");
+        System.out.println("=".repeat(72));
+        System.out.print(reports.snapshot().format(LocalDate.now(), 20, 14));
+    }
+    
+    /**
+     * Print operation counts and latency percentiles
+     */
+    private void displayMetrics() {
+        System.out.println("\n" + "=".repeat(89));
+        System.out.println("                                 PERFORMANCE METRICS");
+        System.out.println("=".repeat(89));
+        System.out.print(Metrics.dump());
+        System.out.println("\nQueued emails: " + notifications.queueDepth() + ", sent: " + notifications.sentCount()
+                           + ", failed: " + notifications.failedCount());
+        System.out.println("Reminders pending: " + reminders.pendingCount() + ", sent: " + reminders.sentCount()
+                           + ", failed: " + reminders.failedCount());
+    }
+    
+    /**
+     * Shows slots one page at a time until the list ends or the user stops.
+     * Only the rows on screen are formatted. The time to show the first page
+     * is recorded under the given listing operation, if any.
+     */
+    private void showPaged(Collection<Appointment> slots, int total, SlotTable table, int ruleWidth,
+                           Metrics.Operation listing) {
+        long start = Metrics.start();
+        table.writeHeader(ruleWidth);
+        Iterator<Appointment> remaining = slots.iterator();
+        int shown = table.writeRows(remaining, 0, PAGE_SIZE);
+        if (listing != null) {
+            Metrics.record(listing, start, true);
+        }
+        while (remaining.hasNext()) {
+            System.out.print("-- " + shown + " of " + total + " shown. Press Enter for more, q to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+            shown += table.writeRows(remaining, 0, PAGE_SIZE);
+        }
     }
     
     /**
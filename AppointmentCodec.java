@@ -0,0 +1,578 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact, versioned binary encoding of slots and booking events. The
+ * booking journal, replication log entries, snapshots and bulk export
+ * all use it.
+ *
+ * Integers are unsigned LEB128 varints (an ID below 16,384 takes two
+ * bytes), times are zigzag varints of the epoch minute, and strings are
+ * a varint byte length followed by UTF-8. Doctor names are coded against
+ * a {@link Dictionary}, so a stream spells out each doctor only once.
+ * Every record starts with a type byte whose high nibble is the format
+ * version. A reader can tell current records from older ones and rejects
+ * records from a newer version.
+ *
+ * Fields are written straight from the appointment into the buffer and
+ * read straight back out. The only objects a decode creates are the
+ * strings and the appointment itself.
+ *
+ * Record layouts (version 1):
+ *   SLOT      id, minute, doctor, booked flag, [patient name, patient email]
+ *   BOOKED    id, patient name, patient email
+ *   CANCELLED id
+ *   SLOTS     doctor, count, first minute, then minute deltas (zigzag)
+ */
+public final class AppointmentCodec {
+    public static final int VERSION = 1;
+
+    // Record types; the high nibble is the version, so types 0-15 are from before this codec
+    public static final byte SLOT = 0x11;
+    public static final byte BOOKED = 0x12;
+    public static final byte CANCELLED = 0x13;
+    public static final byte SLOTS = 0x14;
+
+    private static final int STREAM_MAGIC = 0x4D424B53;
+    private static final int MAX_RECORD_BYTES = 16 << 20;
+    private static final long MAX_EPOCH_MINUTE = 1L << 40;
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private AppointmentCodec() {
+    }
+
+    /**
+     * Doctor name coding for one stream. A name is written in full the first
+     * time (code 0) and as its index + 1 after that. Writer and reader each
+     * keep their own instance, which must see the same records in the same order.
+     * An inline dictionary always writes names in full, for records that must
+     * stand alone, and on reading shares one String per doctor.
+     * Not thread-safe, except that writing through an inline dictionary
+     * changes nothing and may be shared.
+     */
+    public static final class Dictionary {
+        private final boolean coded;
+        private final HashMap<String, Integer> codes = new HashMap<>();
+        private final ArrayList<String> names = new ArrayList<>();
+
+        private Dictionary(boolean coded) {
+            this.coded = coded;
+        }
+
+        public static Dictionary coded() {
+            return new Dictionary(true);
+        }
+
+        public static Dictionary inline() {
+            return new Dictionary(false);
+        }
+
+        int size(String name) {
+            Integer code = coded ? codes.get(name) : null;
+            return code != null ? varintSize(code + 1) : 1 + stringSize(name);
+        }
+
+        void put(ByteBuffer out, String name) {
+            Integer code = coded ? codes.get(name) : null;
+            if (code != null) {
+                putVarint(out, code + 1);
+                return;
+            }
+            out.put((byte) 0);
+            putString(out, name);
+            if (coded) {
+                codes.put(name, names.size());
+                names.add(name);
+            }
+        }
+
+        String get(ByteBuffer in) {
+            long code = getVarint(in);
+            if (code == 0) {
+                String name = getString(in);
+                if (coded) {
+                    names.add(name);
+                    return name;
+                }
+                return intern(name);
+            }
+            if (!coded || code > names.size()) {
+                throw new IllegalArgumentException("Unknown doctor code " + code);
+            }
+            return names.get((int) code - 1);
+        }
+
+        /**
+         * The String already read for this name, so every slot of a doctor shares one
+         */
+        String intern(String name) {
+            Integer index = codes.putIfAbsent(name, names.size());
+            if (index == null) {
+                names.add(name);
+                return name;
+            }
+            return names.get(index);
+        }
+    }
+
+    // Primitives
+
+    public static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static long getVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static int varintSize(long value) {
+        return value == 0 ? 1 : (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * A non-negative int, such as an ID or a count
+     */
+    public static int getUnsigned(ByteBuffer in) {
+        long value = getVarint(in);
+        if ((value & ~0x7FFFFFFFL) != 0) {
+            throw new IllegalArgumentException("Value out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    static long epochMinute(LocalDateTime dateTime) {
+        return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    static LocalDateTime fromEpochMinute(long epochMinute) {
+        if (epochMinute > MAX_EPOCH_MINUTE || epochMinute < -MAX_EPOCH_MINUTE) {
+            throw new IllegalArgumentException("Time out of range: epoch minute " + epochMinute);
+        }
+        return LocalDateTime.ofEpochSecond(epochMinute * 60, 0, ZoneOffset.UTC);
+    }
+
+    public static void putMinute(ByteBuffer out, LocalDateTime dateTime) {
+        putVarint(out, zigzag(epochMinute(dateTime)));
+    }
+
+    public static LocalDateTime getMinute(ByteBuffer in) {
+        return fromEpochMinute(unzigzag(getVarint(in)));
+    }
+
+    static int minuteSize(LocalDateTime dateTime) {
+        return varintSize(zigzag(epochMinute(dateTime)));
+    }
+
+    /**
+     * Encoded size of a string: its length prefix plus its UTF-8 bytes
+     */
+    public static int stringSize(String value) {
+        int bytes = utf8Length(value);
+        return varintSize(bytes) + bytes;
+    }
+
+    /**
+     * UTF-8 length without encoding; an unpaired surrogate counts as the one '?' it is written as
+     */
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // Two chars, four bytes
+                bytes += 2;
+                i++;
+            }
+        }
+        return bytes;
+    }
+
+    public static void putString(ByteBuffer out, String value) {
+        putVarint(out, utf8Length(value));
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                out.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | code >> 18)).put((byte) (0x80 | code >> 12 & 0x3F))
+                   .put((byte) (0x80 | code >> 6 & 0x3F)).put((byte) (0x80 | code & 0x3F));
+            } else {
+                out.put((byte) '?');
+            }
+        }
+    }
+
+    /**
+     * Reads a string; from a heap buffer the bytes are decoded in place
+     */
+    public static String getString(ByteBuffer in) {
+        int length = getUnsigned(in);
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int position = in.position();
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        } else {
+            byte[] scratch = SCRATCH.get();
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+                SCRATCH.set(scratch);
+            }
+            in.get(position, scratch, 0, length);
+            value = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        in.position(position + length);
+        return value;
+    }
+
+    // Records
+
+    /**
+     * Reads a record's type byte. Types from before this codec (version 0)
+     * are returned as they are, for callers that still read old records.
+     */
+    public static byte getType(ByteBuffer in) {
+        byte type = in.get();
+        int version = (type & 0xF0) >>> 4;
+        if (version > VERSION) {
+            throw new IllegalArgumentException("Record version " + version + " is newer than supported ("
+                                               + VERSION + ")");
+        }
+        return type;
+    }
+
+    /**
+     * Size of a SLOT record; booking is the one to write, or null for a free slot
+     */
+    public static int slotSize(Appointment appointment, Appointment.Booking booking, Dictionary doctors) {
+        int size = 1 + varintSize(appointment.getId()) + minuteSize(appointment.getDateTime())
+                   + doctors.size(appointment.getDoctorName()) + 1;
+        if (booking != null) {
+            size += stringSize(booking.patientName()) + stringSize(booking.patientEmail());
+        }
+        return size;
+    }
+
+    public static void putSlot(ByteBuffer out, Appointment appointment, Appointment.Booking booking,
+                               Dictionary doctors) {
+        out.put(SLOT);
+        putVarint(out, appointment.getId());
+        putMinute(out, appointment.getDateTime());
+        doctors.put(out, appointment.getDoctorName());
+        out.put((byte) (booking != null ? 1 : 0));
+        if (booking != null) {
+            putString(out, booking.patientName());
+            putString(out, booking.patientEmail());
+        }
+    }
+
+    /**
+     * Reads the rest of a SLOT record (after its type) as a new appointment, booked if the record was
+     */
+    public static Appointment getSlot(ByteBuffer in, Dictionary doctors) {
+        return getSlot(in, doctors, null);
+    }
+
+    /**
+     * Like {@link #getSlot(ByteBuffer, Dictionary)}, but a slot at the same
+     * minute as {@code previous} shares its LocalDateTime, so a stream in
+     * date/time order decodes one per distinct minute
+     */
+    static Appointment getSlot(ByteBuffer in, Dictionary doctors, Appointment previous) {
+        int id = getUnsigned(in);
+        long minute = unzigzag(getVarint(in));
+        LocalDateTime dateTime = previous != null && epochMinute(previous.getDateTime()) == minute
+                                 ? previous.getDateTime() : fromEpochMinute(minute);
+        Appointment appointment = new Appointment(id, doctors.get(in), dateTime);
+        byte booked = in.get();
+        if (booked == 1) {
+            appointment.bookAppointment(getString(in), getString(in));
+        } else if (booked != 0) {
+            throw new IllegalArgumentException("Malformed booked flag " + booked);
+        }
+        return appointment;
+    }
+
+    public static int bookedSize(int id, String patientName, String patientEmail) {
+        return 1 + varintSize(id) + stringSize(patientName) + stringSize(patientEmail);
+    }
+
+    /**
+     * BOOKED record; read back with getUnsigned, getString, getString
+     */
+    public static void putBooked(ByteBuffer out, int id, String patientName, String patientEmail) {
+        out.put(BOOKED);
+        putVarint(out, id);
+        putString(out, patientName);
+        putString(out, patientEmail);
+    }
+
+    public static int cancelledSize(int id) {
+        return 1 + varintSize(id);
+    }
+
+    /**
+     * CANCELLED record; read back with getUnsigned
+     */
+    public static void putCancelled(ByteBuffer out, int id) {
+        out.put(CANCELLED);
+        putVarint(out, id);
+    }
+
+    public static int slotsSize(String doctor, List<LocalDateTime> times, Dictionary doctors) {
+        int size = 1 + doctors.size(doctor) + varintSize(times.size());
+        long previous = 0;
+        for (LocalDateTime time : times) {
+            long minute = epochMinute(time);
+            size += varintSize(zigzag(minute - previous));
+            previous = minute;
+        }
+        return size;
+    }
+
+    /**
+     * SLOTS record: one doctor's new slot times, each as the difference to
+     * the one before, so a day of regular slots costs a byte per slot.
+     * Read back with {@link #getDoctor} and {@link #getTimes}.
+     */
+    public static void putSlots(ByteBuffer out, String doctor, List<LocalDateTime> times, Dictionary doctors) {
+        out.put(SLOTS);
+        doctors.put(out, doctor);
+        putVarint(out, times.size());
+        long previous = 0;
+        for (LocalDateTime time : times) {
+            long minute = epochMinute(time);
+            putVarint(out, zigzag(minute - previous));
+            previous = minute;
+        }
+    }
+
+    public static String getDoctor(ByteBuffer in, Dictionary doctors) {
+        return doctors.get(in);
+    }
+
+    public static List<LocalDateTime> getTimes(ByteBuffer in) {
+        int count = getUnsigned(in);
+        if (count > in.remaining()) {
+            // Every time takes at least a byte
+            throw new BufferUnderflowException();
+        }
+        List<LocalDateTime> times = new ArrayList<>(count);
+        long minute = 0;
+        for (int i = 0; i < count; i++) {
+            minute += unzigzag(getVarint(in));
+            times.add(fromEpochMinute(minute));
+        }
+        return times;
+    }
+
+    // Streams
+
+    /**
+     * Writes a stream of SLOT records to a channel: a header (magic and
+     * version), then each record behind its varint length, then a zero
+     * length as the end marker. Doctor names are dictionary-coded across
+     * the whole stream. Records are encoded into one reused direct buffer.
+     */
+    public static final class StreamWriter {
+        private final WritableByteChannel channel;
+        private final Dictionary doctors = Dictionary.coded();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private long records;
+
+        public StreamWriter(WritableByteChannel channel) {
+            this.channel = channel;
+            buffer.putInt(STREAM_MAGIC).put((byte) VERSION);
+        }
+
+        /**
+         * Writes a slot with the booking it has right now
+         */
+        public void write(Appointment appointment) throws IOException {
+            Appointment.Booking booking = appointment.getBooking();
+            int size = slotSize(appointment, booking, doctors);
+            ensure(varintSize(size) + size);
+            putVarint(buffer, size);
+            putSlot(buffer, appointment, booking, doctors);
+            records++;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+                if (buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocateDirect(Math.max(bytes, buffer.capacity() * 2));
+                }
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Writes the end marker and everything still buffered; the channel stays open
+         */
+        public void finish() throws IOException {
+            ensure(1);
+            buffer.put((byte) 0);
+            flush();
+        }
+
+        public long records() {
+            return records;
+        }
+    }
+
+    /**
+     * Reads a stream written by {@link StreamWriter}. Records of a type it
+     * does not know are skipped; a stream that ends without its end marker,
+     * or whose records do not decode to their stated length, is an error.
+     */
+    public static final class StreamReader {
+        private final ReadableByteChannel channel;
+        private final Dictionary doctors = Dictionary.coded();
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private boolean eof;
+        private boolean ended;
+        private long records;
+        private Appointment previous;
+
+        public StreamReader(ReadableByteChannel channel) throws IOException {
+            this.channel = channel;
+            buffer.flip();
+            if (!fill(5) || buffer.getInt() != STREAM_MAGIC) {
+                throw new IOException("Not an appointment stream");
+            }
+            int version = buffer.get();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported appointment stream version " + version);
+            }
+        }
+
+        /**
+         * The next slot, or null at the end of the stream
+         */
+        public Appointment next() throws IOException {
+            while (!ended) {
+                fill(MAX_VARINT_BYTES);
+                if (!buffer.hasRemaining()) {
+                    throw new IOException("Appointment stream ends without its end marker");
+                }
+                int length;
+                try {
+                    length = getUnsigned(buffer);
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    throw new IOException("Corrupt appointment stream: bad record length", e);
+                }
+                if (length == 0) {
+                    ended = true;
+                    return null;
+                }
+                if (length > MAX_RECORD_BYTES) {
+                    throw new IOException("Corrupt appointment stream: record of " + length + " bytes");
+                }
+                if (!fill(length)) {
+                    throw new IOException("Appointment stream ends inside a record");
+                }
+                int end = buffer.position() + length;
+                int limit = buffer.limit();
+                buffer.limit(end);
+                try {
+                    if (getType(buffer) == SLOT) {
+                        Appointment appointment = getSlot(buffer, doctors, previous);
+                        if (buffer.hasRemaining()) {
+                            throw new IOException("Corrupt appointment stream: record longer than its contents");
+                        }
+                        records++;
+                        previous = appointment;
+                        return appointment;
+                    }
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    throw new IOException("Corrupt appointment stream: " + e.getMessage(), e);
+                } finally {
+                    buffer.limit(limit);
+                    buffer.position(end);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads until at least {@code bytes} are buffered or the channel ends; true if they are
+         */
+        private boolean fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return true;
+            }
+            if (buffer.capacity() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes, buffer.capacity() * 2));
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+            while (buffer.position() < bytes && !eof) {
+                if (channel.read(buffer) < 0) {
+                    eof = true;
+                }
+            }
+            buffer.flip();
+            return buffer.remaining() >= bytes;
+        }
+
+        public long records() {
+            return records;
+        }
+    }
+}
@@ -0,0 +1,806 @@
+import java.time.LocalDate;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Indexed in-memory store for appointment slots.
+ * Keeps an ID index, a per-doctor index, a time-ordered index and
+ * separate available/booked/held partitions so that menu operations do
+ * not have to scan every appointment.
+ *
+ * The store is safe for concurrent use: slots are claimed through the
+ * compare-and-set in {@link Appointment#bookAppointment}, IDs come from an
+ * atomic generator and all indexes are concurrent structures. State changes
+ * and the matching partition move are serialized per slot through a small
+ * set of striped locks, which also gives {@link StoreListener}s a per-slot
+ * event order that matches the order the changes were applied.
+ */
+public class AppointmentStore {
+    /**
+     * Orders slots by date/time, then by ID for slots at the same time
+     */
+    public static final Comparator<Appointment> SLOT_ORDER =
+        Comparator.comparing(Appointment::getDateTime).thenComparingInt(Appointment::getId);
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final AtomicInteger nextId;
+    private final ConcurrentMap<String, ConcurrentNavigableMap<LocalDateTime, Appointment>> byDoctor;
+    private final DoctorIndex doctorNames;
+    // Replaced by restore(), which runs before the store is shared. The
+    // partitions are skip-list maps used as sets (every value is TRUE) so
+    // that restore() can build them from sorted runs.
+    private ConcurrentMap<Integer, Appointment> byId;
+    private ConcurrentNavigableMap<LocalDateTime, Queue<Appointment>> byTime;
+    private ConcurrentNavigableMap<Appointment, Boolean> available;
+    private ConcurrentNavigableMap<Appointment, Boolean> booked;
+    private ConcurrentNavigableMap<Appointment, Boolean> held;
+    private final AtomicInteger availableCount;
+    private final AtomicInteger bookedCount;
+    private final AtomicInteger heldCount;
+    private final Object[] partitionLocks;
+    private final List<StoreListener> listeners;
+
+    public AppointmentStore() {
+        this.nextId = new AtomicInteger(1);
+        this.byId = new ConcurrentHashMap<>();
+        this.byDoctor = new ConcurrentHashMap<>();
+        this.doctorNames = new DoctorIndex();
+        this.byTime = new ConcurrentSkipListMap<>();
+        this.available = new ConcurrentSkipListMap<>(SLOT_ORDER);
+        this.booked = new ConcurrentSkipListMap<>(SLOT_ORDER);
+        this.held = new ConcurrentSkipListMap<>(SLOT_ORDER);
+        this.availableCount = new AtomicInteger();
+        this.bookedCount = new AtomicInteger();
+        this.heldCount = new AtomicInteger();
+        this.partitionLocks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            partitionLocks[i] = new Object();
+        }
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Registers a listener for slot additions, bookings and cancellations
+     */
+    public void addListener(StoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Normalizes a doctor name for index lookups
+     */
+    public static String normalizeDoctor(String doctorName) {
+        return doctorName.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Hands out the next unused appointment ID
+     */
+    public int nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    /**
+     * Creates and adds a new slot with a generated ID.
+     * Returns null if the doctor already has a slot at that time.
+     */
+    public Appointment create(String doctorName, LocalDateTime dateTime) {
+        Appointment appointment = new Appointment(nextId(), doctorName, dateTime);
+        return add(appointment) ? appointment : null;
+    }
+
+    /**
+     * Adds a slot to every index. Returns false if the ID or the
+     * doctor/time combination is already present.
+     */
+    public boolean add(Appointment appointment) {
+        return insert(appointment, doctorIndex(appointment.getDoctorName()));
+    }
+
+    /**
+     * Creates slots for one doctor from a list of times (ideally sorted).
+     * The doctor index is resolved once and duplicates are skipped through
+     * it, so no scan is involved. Returns the number of slots added.
+     */
+    public int createAll(String doctorName, List<LocalDateTime> times) {
+        ConcurrentNavigableMap<LocalDateTime, Appointment> doctorSlots = doctorIndex(doctorName);
+        int added = 0;
+        for (LocalDateTime dateTime : times) {
+            if (!doctorSlots.containsKey(dateTime)
+                    && insert(new Appointment(nextId(), doctorName, dateTime), doctorSlots)) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Loads slots into an empty store in one pass, for journal recovery.
+     * The ID, doctor, time and partition indexes are built from sorted runs
+     * instead of slot by slot, and each listener hears about all of them in
+     * one {@link StoreListener#slotsRestored} call. Slots already in
+     * {@link #SLOT_ORDER} are used as they are; others are sorted first.
+     * Like {@link #add}, a slot whose ID or doctor/time is taken is skipped.
+     * Must run before the store is shared with other threads; on a store
+     * that already has slots, each one is simply added. Returns the number
+     * of slots added.
+     */
+    public int restore(Collection<Appointment> slots) {
+        if (!byId.isEmpty()) {
+            int added = 0;
+            for (Appointment appointment : slots) {
+                if (add(appointment)) {
+                    added++;
+                }
+            }
+            return added;
+        }
+        Appointment[] sorted = slots.toArray(new Appointment[0]);
+        if (!inSlotOrder(sorted)) {
+            Arrays.sort(sorted, SLOT_ORDER);
+        }
+        ConcurrentMap<Integer, Appointment> ids = new ConcurrentHashMap<>(sorted.length);
+        // Slots of one doctor share a String, so most lookups hit the first map
+        Map<String, List<Appointment>> runsByName = new HashMap<>();
+        Map<String, List<Appointment>> runsByDoctor = new HashMap<>();
+        List<Queue<Appointment>> times = new ArrayList<>();
+        List<Appointment> free = new ArrayList<>(sorted.length);
+        List<Appointment> taken = new ArrayList<>();
+        List<Appointment> onHold = new ArrayList<>();
+        int kept = 0;
+        int maxId = 0;
+        for (Appointment appointment : sorted) {
+            List<Appointment> run = runsByName.get(appointment.getDoctorName());
+            if (run == null) {
+                run = runsByDoctor.computeIfAbsent(normalizeDoctor(appointment.getDoctorName()),
+                                                   k -> new ArrayList<>());
+                runsByName.put(appointment.getDoctorName(), run);
+            }
+            // A doctor's slots at one time are adjacent in the doctor's run
+            if (!run.isEmpty() && run.get(run.size() - 1).getDateTime().equals(appointment.getDateTime())
+                    || ids.putIfAbsent(appointment.getId(), appointment) != null) {
+                continue;
+            }
+            run.add(appointment);
+            sorted[kept++] = appointment;
+            Queue<Appointment> sameTime = times.isEmpty() ? null : times.get(times.size() - 1);
+            if (sameTime == null || !sameTime.peek().getDateTime().equals(appointment.getDateTime())) {
+                sameTime = new ConcurrentLinkedQueue<>();
+                times.add(sameTime);
+            }
+            sameTime.add(appointment);
+            if (appointment.isBooked()) {
+                taken.add(appointment);
+            } else if (appointment.isHeld()) {
+                onHold.add(appointment);
+            } else {
+                free.add(appointment);
+            }
+            maxId = Math.max(maxId, appointment.getId());
+        }
+
+        byId = ids;
+        byTime = fromSortedRun(times, null, sameTime -> sameTime.peek().getDateTime(), sameTime -> sameTime);
+        available = fromSortedRun(free, SLOT_ORDER, slot -> slot, slot -> Boolean.TRUE);
+        booked = fromSortedRun(taken, SLOT_ORDER, slot -> slot, slot -> Boolean.TRUE);
+        held = fromSortedRun(onHold, SLOT_ORDER, slot -> slot, slot -> Boolean.TRUE);
+        availableCount.set(free.size());
+        bookedCount.set(taken.size());
+        heldCount.set(onHold.size());
+        for (Map.Entry<String, List<Appointment>> doctor : runsByDoctor.entrySet()) {
+            byDoctor.put(doctor.getKey(), fromSortedRun(doctor.getValue(), null, Appointment::getDateTime, slot -> slot));
+        }
+        doctorNames.addAll(runsByDoctor.keySet());
+        nextId.accumulateAndGet(maxId + 1, Math::max);
+
+        Collection<Appointment> restored = Collections.unmodifiableList(Arrays.asList(sorted).subList(0, kept));
+        for (StoreListener listener : listeners) {
+            listener.slotsRestored(restored);
+        }
+        return kept;
+    }
+
+    private static boolean inSlotOrder(Appointment[] slots) {
+        for (int i = 1; i < slots.length; i++) {
+            if (SLOT_ORDER.compare(slots[i - 1], slots[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skip-list map of a run already in key order. ConcurrentSkipListMap
+     * copies a SortedMap in linear time, where putting the same entries one
+     * by one searches from the top of the list every time.
+     */
+    private static <T, K, V> ConcurrentSkipListMap<K, V> fromSortedRun(List<T> run, Comparator<? super K> order,
+                                                                       Function<T, K> key, Function<T, V> value) {
+        return new ConcurrentSkipListMap<>(new SortedRun<>(run, order, key, value));
+    }
+
+    /**
+     * Read-only SortedMap over a list in key order, with entries made on the
+     * fly. It offers what ConcurrentSkipListMap's copy constructor reads:
+     * the comparator and the entries in order.
+     */
+    private static final class SortedRun<T, K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+        private final List<T> run;
+        private final Comparator<? super K> order;
+        private final Function<T, K> key;
+        private final Function<T, V> value;
+
+        SortedRun(List<T> run, Comparator<? super K> order, Function<T, K> key, Function<T, V> value) {
+            this.run = run;
+            this.order = order;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    Iterator<T> items = run.iterator();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return items.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<K, V> next() {
+                            T item = items.next();
+                            return new AbstractMap.SimpleImmutableEntry<>(key.apply(item), value.apply(item));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return run.size();
+                }
+            };
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return order;
+        }
+
+        @Override
+        public K firstKey() {
+            if (run.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return key.apply(run.get(0));
+        }
+
+        @Override
+        public K lastKey() {
+            if (run.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return key.apply(run.get(run.size() - 1));
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private ConcurrentNavigableMap<LocalDateTime, Appointment> doctorIndex(String doctorName) {
+        String key = normalizeDoctor(doctorName);
+        ConcurrentNavigableMap<LocalDateTime, Appointment> slots = byDoctor.get(key);
+        if (slots == null) {
+            slots = byDoctor.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>());
+            doctorNames.add(key);
+        }
+        return slots;
+    }
+
+    private boolean insert(Appointment appointment, ConcurrentNavigableMap<LocalDateTime, Appointment> doctorSlots) {
+        if (doctorSlots.putIfAbsent(appointment.getDateTime(), appointment) != null) {
+            return false;
+        }
+        if (byId.putIfAbsent(appointment.getId(), appointment) != null) {
+            doctorSlots.remove(appointment.getDateTime(), appointment);
+            return false;
+        }
+        nextId.accumulateAndGet(appointment.getId() + 1, Math::max);
+        byTime.computeIfAbsent(appointment.getDateTime(), k -> new ConcurrentLinkedQueue<>()).add(appointment);
+        synchronized (lockFor(appointment)) {
+            place(appointment);
+            for (StoreListener listener : listeners) {
+                listener.slotAdded(appointment);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a slot already exists for the doctor at the given time
+     */
+    public boolean exists(String doctorName, LocalDateTime dateTime) {
+        NavigableMap<LocalDateTime, Appointment> slots = byDoctor.get(normalizeDoctor(doctorName));
+        return slots != null && slots.containsKey(dateTime);
+    }
+
+    /**
+     * Looks up a slot by ID
+     */
+    public Appointment findById(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Looks up an available slot by ID, or null if it is unknown, booked or held
+     */
+    public Appointment findAvailable(int id) {
+        Appointment appointment = byId.get(id);
+        return appointment != null && !appointment.isBooked() && !appointment.isHeld() ? appointment : null;
+    }
+
+    /**
+     * Looks up a booked slot by ID, or null if it is unknown or free
+     */
+    public Appointment findBooked(int id) {
+        Appointment appointment = byId.get(id);
+        return appointment != null && appointment.isBooked() ? appointment : null;
+    }
+
+    /**
+     * Books a slot and moves it to the booked partition.
+     * Exactly one of several concurrent callers succeeds. Held slots can
+     * only be booked through {@link #confirmHold}.
+     */
+    public boolean book(Appointment appointment, String patientName, String patientEmail) {
+        return book(appointment, new Appointment.Booking(patientName, patientEmail));
+    }
+
+    /**
+     * Books a slot with the given booking instance (see {@link #cancelBooking})
+     */
+    public boolean book(Appointment appointment, Appointment.Booking newBooking) {
+        synchronized (lockFor(appointment)) {
+            if (appointment.isHeld() || !appointment.bookAppointment(newBooking)) {
+                return false;
+            }
+            reindex(appointment);
+            Appointment.Booking booking = appointment.getBooking();
+            for (StoreListener listener : listeners) {
+                listener.slotBooked(appointment, booking);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cancels a booking and moves the slot back to the available partition
+     */
+    public boolean cancel(Appointment appointment) {
+        return cancel(appointment, null);
+    }
+
+    /**
+     * Cancels a booking. With a non-null handover hold the slot goes
+     * straight to the held partition, so nobody else can book it in between.
+     */
+    public boolean cancel(Appointment appointment, Appointment.Hold handover) {
+        return cancel(appointment, handover, null);
+    }
+
+    /**
+     * Cancels a booking only if it was made with the given email (compared
+     * normalized); a null email cancels whoever's booking it is
+     */
+    public boolean cancel(Appointment appointment, Appointment.Hold handover, String patientEmail) {
+        synchronized (lockFor(appointment)) {
+            Appointment.Booking current = appointment.getBooking();
+            if (current == null || patientEmail != null
+                    && !PatientRegistry.normalizeEmail(current.patientEmail())
+                                       .equals(PatientRegistry.normalizeEmail(patientEmail))) {
+                return false;
+            }
+            Appointment.Booking previous = appointment.releaseBooking();
+            if (previous == null) {
+                return false;
+            }
+            released(appointment, previous, handover);
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the booking only while it is still the given instance, so
+     * undoing a booking never cancels a booking made after it, even an
+     * equal one by the same patient
+     */
+    public boolean cancelBooking(Appointment appointment, Appointment.Booking expected) {
+        synchronized (lockFor(appointment)) {
+            Appointment.Booking current = appointment.getBooking();
+            if (current == null || current != expected || !appointment.cancelBooking()) {
+                return false;
+            }
+            released(appointment, current, null);
+        }
+        return true;
+    }
+
+    /**
+     * Reindexes a slot whose booking was just released and tells the
+     * listeners; callers hold the slot's stripe lock
+     */
+    private void released(Appointment appointment, Appointment.Booking previous, Appointment.Hold handover) {
+        appointment.setHold(handover);
+        reindex(appointment);
+        for (StoreListener listener : listeners) {
+            listener.slotCancelled(appointment, previous);
+            if (handover != null) {
+                listener.holdChanged(appointment, null, handover);
+            }
+        }
+    }
+
+    /**
+     * Places a hold on a free slot. Returns false if it is booked or already held.
+     */
+    public boolean hold(Appointment appointment, Appointment.Hold hold) {
+        synchronized (lockFor(appointment)) {
+            if (appointment.isBooked() || appointment.isHeld()) {
+                return false;
+            }
+            appointment.setHold(hold);
+            reindex(appointment);
+            for (StoreListener listener : listeners) {
+                listener.holdChanged(appointment, null, hold);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the hold with the given token by {@code next}, or releases
+     * the slot when next is null. Returns false if that hold is no longer in place.
+     */
+    public boolean replaceHold(Appointment appointment, long token, Appointment.Hold next) {
+        synchronized (lockFor(appointment)) {
+            Appointment.Hold current = appointment.getHold();
+            if (current == null || current.token() != token) {
+                return false;
+            }
+            appointment.setHold(next);
+            reindex(appointment);
+            for (StoreListener listener : listeners) {
+                listener.holdChanged(appointment, current, next);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Releases the hold with the given token, making the slot available
+     */
+    public boolean releaseHold(Appointment appointment, long token) {
+        return replaceHold(appointment, token, null);
+    }
+
+    /**
+     * Turns the hold with the given token into a booking
+     */
+    public boolean confirmHold(Appointment appointment, long token, String patientName, String patientEmail) {
+        return confirmHold(appointment, token, new Appointment.Booking(patientName, patientEmail));
+    }
+
+    /**
+     * Turns the hold with the given token into this booking instance
+     */
+    public boolean confirmHold(Appointment appointment, long token, Appointment.Booking newBooking) {
+        synchronized (lockFor(appointment)) {
+            Appointment.Hold current = appointment.getHold();
+            if (current == null || current.token() != token
+                    || !appointment.bookAppointment(newBooking)) {
+                return false;
+            }
+            appointment.setHold(null);
+            reindex(appointment);
+            Appointment.Booking booking = appointment.getBooking();
+            for (StoreListener listener : listeners) {
+                listener.holdChanged(appointment, current, null);
+                listener.slotBooked(appointment, booking);
+            }
+        }
+        return true;
+    }
+
+    private Object lockFor(Appointment appointment) {
+        return partitionLocks[Math.floorMod(appointment.getId(), LOCK_STRIPES)];
+    }
+
+    /**
+     * Places the slot in the partition matching its current state.
+     * Callers hold the slot's stripe lock so that concurrent changes
+     * always leave the slot in exactly one partition.
+     */
+    private void reindex(Appointment appointment) {
+        boolean isBooked = appointment.isBooked();
+        boolean isHeld = !isBooked && appointment.isHeld();
+        move(appointment, available, availableCount, !isBooked && !isHeld);
+        move(appointment, booked, bookedCount, isBooked);
+        move(appointment, held, heldCount, isHeld);
+    }
+
+    /**
+     * Puts a new slot, which is in no partition yet, into the one matching its state
+     */
+    private void place(Appointment appointment) {
+        if (appointment.isBooked()) {
+            move(appointment, booked, bookedCount, true);
+        } else if (appointment.isHeld()) {
+            move(appointment, held, heldCount, true);
+        } else {
+            move(appointment, available, availableCount, true);
+        }
+    }
+
+    private static void move(Appointment appointment, Map<Appointment, Boolean> partition, AtomicInteger count,
+                             boolean member) {
+        if (member) {
+            if (partition.putIfAbsent(appointment, Boolean.TRUE) == null) {
+                count.incrementAndGet();
+            }
+        } else if (partition.remove(appointment) != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * Available slots in date/time order (read-only, weakly consistent view)
+     */
+    public Collection<Appointment> availableSlots() {
+        return Collections.unmodifiableNavigableSet(available.keySet());
+    }
+
+    /**
+     * Booked slots in date/time order (read-only, weakly consistent view)
+     */
+    public Collection<Appointment> bookedSlots() {
+        return Collections.unmodifiableNavigableSet(booked.keySet());
+    }
+
+    /**
+     * Held slots in date/time order (read-only, weakly consistent view)
+     */
+    public Collection<Appointment> heldSlots() {
+        return Collections.unmodifiableNavigableSet(held.keySet());
+    }
+
+    /**
+     * Every slot in no particular order (read-only, weakly consistent view)
+     */
+    public Collection<Appointment> allSlots() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+
+    /**
+     * Slots for doctors whose name contains the query, or failing that is
+     * within two typos of it, in date/time order
+     */
+    public List<Appointment> findByDoctor(String query) {
+        return findByDoctor(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * First {@code limit} matching slots in date/time order. Matching runs
+     * against the doctor name index and each doctor's slots are already
+     * time-ordered, so only the returned slots are visited.
+     */
+    public List<Appointment> findByDoctor(String query, int limit) {
+        return slotsOf(doctorNames.match(query), limit);
+    }
+
+    /**
+     * First {@code limit} slots, in date/time order, for the given normalized doctor names
+     */
+    public List<Appointment> slotsOf(Collection<String> doctors, int limit) {
+        List<Iterator<Appointment>> postings = new ArrayList<>(doctors.size());
+        for (String doctor : doctors) {
+            NavigableMap<LocalDateTime, Appointment> slots = byDoctor.get(doctor);
+            if (slots != null && !slots.isEmpty()) {
+                postings.add(slots.values().iterator());
+            }
+        }
+        return merge(postings, limit);
+    }
+
+    /**
+     * First {@code limit} slots of a k-way merge of iterators that are each in date/time order
+     */
+    static List<Appointment> merge(List<Iterator<Appointment>> sorted, int limit) {
+        List<Appointment> matches = new ArrayList<>();
+        if (sorted.size() == 1) {
+            Iterator<Appointment> slots = sorted.get(0);
+            while (slots.hasNext() && matches.size() < limit) {
+                matches.add(slots.next());
+            }
+            return matches;
+        }
+        PriorityQueue<Map.Entry<Appointment, Iterator<Appointment>>> heads =
+            new PriorityQueue<>(Math.max(1, sorted.size()), Map.Entry.comparingByKey(SLOT_ORDER));
+        for (Iterator<Appointment> slots : sorted) {
+            if (slots.hasNext()) {
+                heads.add(new AbstractMap.SimpleEntry<>(slots.next(), slots));
+            }
+        }
+        while (!heads.isEmpty() && matches.size() < limit) {
+            Map.Entry<Appointment, Iterator<Appointment>> head = heads.poll();
+            matches.add(head.getKey());
+            Iterator<Appointment> slots = head.getValue();
+            if (slots.hasNext()) {
+                heads.add(new AbstractMap.SimpleEntry<>(slots.next(), slots));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Index of the distinct normalized doctor names
+     */
+    public DoctorIndex doctors() {
+        return doctorNames;
+    }
+
+    /**
+     * Slots on the given day, in date/time order
+     */
+    public List<Appointment> findByDate(LocalDate date) {
+        return slotsOn(date).collect(Collectors.toList());
+    }
+
+    // Time-range queries. Each one navigates to the start of its range in
+    // O(log n) on a time-ordered skip list and streams lazily from there, so
+    // nothing outside the range is visited and nothing is materialized.
+
+    /**
+     * All slots with from <= time < to, in date/time order
+     */
+    public Stream<Appointment> slotsBetween(LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            return Stream.empty();
+        }
+        return inOrder(byTime.subMap(from, true, to, false).values());
+    }
+
+    /**
+     * Every slot in date/time order
+     */
+    public Stream<Appointment> slotsInOrder() {
+        return inOrder(byTime.values());
+    }
+
+    private static Stream<Appointment> inOrder(Collection<? extends Collection<Appointment>> slotsByTime) {
+        return slotsByTime.stream()
+            .flatMap(slots -> slots.size() == 1 ? slots.stream() : slots.stream().sorted(SLOT_ORDER));
+    }
+
+    /**
+     * All slots on the given day, in date/time order
+     */
+    public Stream<Appointment> slotsOn(LocalDate day) {
+        return slotsBetween(day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+    }
+
+    /**
+     * All slots in the Monday-to-Sunday week containing the given day, in date/time order
+     */
+    public Stream<Appointment> slotsInWeek(LocalDate day) {
+        LocalDate monday = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        return slotsBetween(monday.atStartOfDay(), monday.plusWeeks(1).atStartOfDay());
+    }
+
+    /**
+     * Available slots with from <= time < to, in date/time order
+     */
+    public Stream<Appointment> freeSlotsBetween(LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            return Stream.empty();
+        }
+        return available.keySet().subSet(probe(from), true, probe(to), false).stream();
+    }
+
+    /**
+     * Booked slots with from <= time < to, in date/time order
+     */
+    public Stream<Appointment> bookedSlotsBetween(LocalDateTime from, LocalDateTime to) {
+        if (!from.isBefore(to)) {
+            return Stream.empty();
+        }
+        return booked.keySet().subSet(probe(from), true, probe(to), false).stream();
+    }
+
+    /**
+     * Available slots at or after the given time, in date/time order
+     */
+    public Stream<Appointment> freeSlotsFrom(LocalDateTime from) {
+        return available.keySet().tailSet(probe(from), true).stream();
+    }
+
+    /**
+     * Earliest available slot at or after the given time, or null if there is none
+     */
+    public Appointment nextAvailable(LocalDateTime from) {
+        return available.ceilingKey(probe(from));
+    }
+
+    /**
+     * The first {@code limit} available slots, in date/time order
+     */
+    public Stream<Appointment> firstFree(int limit) {
+        return available.keySet().stream().limit(limit);
+    }
+
+    /**
+     * Available slots of one doctor (exact name, any case) with
+     * from <= time < to, in date/time order. Like the available partition,
+     * this leaves out booked slots and slots under a hold or waitlist offer.
+     */
+    public Stream<Appointment> freeSlotsForDoctor(String doctorName, LocalDateTime from, LocalDateTime to) {
+        NavigableMap<LocalDateTime, Appointment> slots = byDoctor.get(normalizeDoctor(doctorName));
+        if (slots == null || !from.isBefore(to)) {
+            return Stream.empty();
+        }
+        return slots.subMap(from, true, to, false).values().stream().filter(slot -> !slot.isBooked() && !slot.isHeld());
+    }
+
+    /**
+     * Search key that sorts before every real slot at the given time
+     */
+    private static Appointment probe(LocalDateTime dateTime) {
+        return new Appointment(Integer.MIN_VALUE, "", dateTime);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public int availableCount() {
+        return availableCount.get();
+    }
+
+    public int bookedCount() {
+        return bookedCount.get();
+    }
+
+    public int heldCount() {
+        return heldCount.get();
+    }
+}
@@ -0,0 +1,254 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable, versioned views of the slots for listings and searches.
+ *
+ * Readers take the current {@link Snapshot} with one volatile read and
+ * never block or retry: a snapshot does not change once published, so
+ * its listings and counts all describe the same moment and a booking is
+ * either wholly in it or not in it at all. Writers are the store events.
+ * Each one copies the changed slot's current state into a new version
+ * built on {@link PersistentSortedMap}s, which share every untouched node
+ * with the previous version, and swaps it in with compare-and-set,
+ * retrying on the rare collision with another slot's event.
+ *
+ * Slots in a snapshot are detached copies with the booking and hold they
+ * had in that version. They are for reading; book or cancel by ID.
+ */
+public class AvailabilitySnapshots implements StoreListener {
+    private static final PersistentSortedMap<Appointment, Appointment> NO_SLOTS =
+        PersistentSortedMap.empty(AppointmentStore.SLOT_ORDER);
+
+    /**
+     * One version of every slot's state
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final PersistentSortedMap<Appointment, Appointment> slots;
+        private final PersistentSortedMap<Appointment, Appointment> available;
+        private final PersistentSortedMap<String, PersistentSortedMap<Appointment, Appointment>> byDoctor;
+        private final int bookedCount;
+
+        private Snapshot(long version, PersistentSortedMap<Appointment, Appointment> slots,
+                         PersistentSortedMap<Appointment, Appointment> available,
+                         PersistentSortedMap<String, PersistentSortedMap<Appointment, Appointment>> byDoctor,
+                         int bookedCount) {
+            this.version = version;
+            this.slots = slots;
+            this.available = available;
+            this.byDoctor = byDoctor;
+            this.bookedCount = bookedCount;
+        }
+
+        /**
+         * This version with one slot's state replaced by the given copy
+         */
+        private Snapshot with(String doctor, Appointment slot) {
+            Appointment previous = slots.get(slot);
+            int booked = bookedCount - (previous != null && previous.isBooked() ? 1 : 0) + (slot.isBooked() ? 1 : 0);
+            PersistentSortedMap<Appointment, Appointment> doctorSlots = byDoctor.get(doctor);
+            return new Snapshot(version + 1, slots.put(slot, slot),
+                                isFree(slot) ? available.put(slot, slot) : available.remove(slot),
+                                byDoctor.put(doctor, (doctorSlots == null ? NO_SLOTS : doctorSlots).put(slot, slot)),
+                                booked);
+        }
+
+        /**
+         * Increases by one for every change published
+         */
+        public long version() {
+            return version;
+        }
+
+        /**
+         * Free slots in date/time order
+         */
+        public Collection<Appointment> availableSlots() {
+            return available.values();
+        }
+
+        /**
+         * First {@code limit} slots in date/time order for the given normalized doctor names
+         */
+        public List<Appointment> slotsOf(Collection<String> doctors, int limit) {
+            List<Iterator<Appointment>> postings = new ArrayList<>(doctors.size());
+            for (String doctor : doctors) {
+                PersistentSortedMap<Appointment, Appointment> doctorSlots = byDoctor.get(doctor);
+                if (doctorSlots != null && !doctorSlots.isEmpty()) {
+                    postings.add(doctorSlots.valuesBetween(null, null));
+                }
+            }
+            return AppointmentStore.merge(postings, limit);
+        }
+
+        /**
+         * Every slot on the given day in date/time order
+         */
+        public List<Appointment> findByDate(LocalDate date) {
+            List<Appointment> matches = new ArrayList<>();
+            slots.valuesBetween(probe(date), probe(date.plusDays(1))).forEachRemaining(matches::add);
+            return matches;
+        }
+
+        public int size() {
+            return slots.size();
+        }
+
+        public int availableCount() {
+            return available.size();
+        }
+
+        public int bookedCount() {
+            return bookedCount;
+        }
+
+        /**
+         * Free slots under a hold
+         */
+        public int heldCount() {
+            return slots.size() - available.size() - bookedCount;
+        }
+    }
+
+    private final AppointmentStore store;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(
+        new Snapshot(0, NO_SLOTS, NO_SLOTS, PersistentSortedMap.empty(Comparator.naturalOrder()), 0));
+
+    /**
+     * Slots changed while the seeding pass runs; re-read once it is published
+     */
+    private final Queue<Appointment> changedWhileSeeding = new ConcurrentLinkedQueue<>();
+    private volatile boolean seeding = true;
+
+    private AvailabilitySnapshots(AppointmentStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Builds the first snapshot from the store and publishes a new one on every change from then on
+     */
+    public static AvailabilitySnapshots attach(AppointmentStore store) {
+        AvailabilitySnapshots snapshots = new AvailabilitySnapshots(store);
+        // Listen first so no change made during the seeding pass is missed
+        store.addListener(snapshots);
+        snapshots.seed();
+        return snapshots;
+    }
+
+    /**
+     * Bulk-builds the first version in O(n) from the store's time-ordered
+     * slots, then re-reads every slot that changed meanwhile, since the
+     * bulk version replaces whatever those changes published before it
+     */
+    private void seed() {
+        List<Appointment> copies = new ArrayList<>();
+        List<Appointment> free = new ArrayList<>();
+        Map<String, List<Appointment>> doctorCopies = new TreeMap<>();
+        int booked = 0;
+        Iterator<Appointment> slots = store.slotsInOrder().iterator();
+        while (slots.hasNext()) {
+            Appointment copy = slots.next().copy();
+            copies.add(copy);
+            if (isFree(copy)) {
+                free.add(copy);
+            } else if (copy.isBooked()) {
+                booked++;
+            }
+            doctorCopies.computeIfAbsent(AppointmentStore.normalizeDoctor(copy.getDoctorName()),
+                                         d -> new ArrayList<>()).add(copy);
+        }
+        List<String> doctors = new ArrayList<>(doctorCopies.keySet());
+        List<PersistentSortedMap<Appointment, Appointment>> doctorSlots = new ArrayList<>(doctors.size());
+        for (List<Appointment> list : doctorCopies.values()) {
+            doctorSlots.add(PersistentSortedMap.fromSorted(AppointmentStore.SLOT_ORDER, list, list));
+        }
+        PersistentSortedMap<Appointment, Appointment> all =
+            PersistentSortedMap.fromSorted(AppointmentStore.SLOT_ORDER, copies, copies);
+        PersistentSortedMap<Appointment, Appointment> available =
+            PersistentSortedMap.fromSorted(AppointmentStore.SLOT_ORDER, free, free);
+        PersistentSortedMap<String, PersistentSortedMap<Appointment, Appointment>> byDoctor =
+            PersistentSortedMap.fromSorted(Comparator.naturalOrder(), doctors, doctorSlots);
+        // Versions keep counting up from whatever the events published meanwhile
+        Snapshot previous;
+        do {
+            previous = current.get();
+        } while (!current.compareAndSet(previous, new Snapshot(previous.version + 1, all, available, byDoctor, booked)));
+        seeding = false;
+        Appointment changed;
+        while ((changed = changedWhileSeeding.poll()) != null) {
+            publish(changed);
+        }
+    }
+
+    private static boolean isFree(Appointment slot) {
+        return !slot.isBooked() && !slot.isHeld();
+    }
+
+    /**
+     * Search key that sorts before every slot on the given day
+     */
+    private static Appointment probe(LocalDate date) {
+        return new Appointment(Integer.MIN_VALUE, "", date.atStartOfDay());
+    }
+
+    // Store events
+
+    @Override
+    public void slotAdded(Appointment appointment) {
+        changed(appointment);
+    }
+
+    @Override
+    public void slotBooked(Appointment appointment, Appointment.Booking booking) {
+        changed(appointment);
+    }
+
+    @Override
+    public void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+        changed(appointment);
+    }
+
+    @Override
+    public void holdChanged(Appointment appointment, Appointment.Hold previous, Appointment.Hold current) {
+        changed(appointment);
+    }
+
+    private void changed(Appointment appointment) {
+        if (seeding) {
+            // Queued before publishing, so a version the bulk build overwrites is re-read after it
+            changedWhileSeeding.add(appointment);
+        }
+        publish(appointment);
+    }
+
+    /**
+     * Publishes a version with the slot's current state. The copy is taken
+     * inside the retry loop, so any later change to the slot publishes
+     * after this version and the newest state always wins.
+     */
+    private void publish(Appointment appointment) {
+        String doctor = AppointmentStore.normalizeDoctor(appointment.getDoctorName());
+        Snapshot previous;
+        Snapshot next;
+        do {
+            previous = current.get();
+            next = previous.with(doctor, appointment.copy());
+        } while (!current.compareAndSet(previous, next));
+    }
+
+    // Queries
+
+    /**
+     * The latest published version; never blocks
+     */
+    public Snapshot current() {
+        return current.get();
+    }
+
+    public AppointmentStore getStore() {
+        return store;
+    }
+}
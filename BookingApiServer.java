@@ -0,0 +1,654 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Headless HTTP/JSON front end for {@link BookingService}, built on the
+ * JDK's com.sun.net.httpserver.
+ *
+ * <pre>
+ *   GET  /api/slots?limit=&offset=          available slots in time order
+ *   GET  /api/slots/search?doctor=|date=|week=  search by doctor name (typo tolerant), day or week
+ *   GET  /api/slots/free?from=&to=&doctor=  free slots in [from, to), optionally for one doctor
+ *   GET  /api/slots/next?after=             earliest free slot at or after a time
+ *   GET  /api/slots/recommend?doctor=&days=&from=&to=&after=&limit=  best next free slots for a patient
+ *   POST /api/slots/{id}/book               form fields patientName, patientEmail
+ *   GET  /api/patients/{email}/appointments a patient's booked appointments in time order (*)
+ *   POST /api/slots/{id}/cancel             cancel the token holder's booking (*)
+ *   POST /api/slots/{id}/accept             form field patientEmail: accept a waitlist offer (*)
+ *   POST /api/slots/{id}/decline            form field patientEmail: decline a waitlist offer (*)
+ *   POST /api/waitlist                      form fields doctor, patientName, patientEmail, from, to, priority
+ *   GET  /api/waitlist/offers               open waitlist offers
+ *   GET  /api/stats                         request counts and latency percentiles
+ *   GET  /api/metrics                       operation metrics as a plain-text table
+ * </pre>
+ *
+ * Times are yyyy-MM-dd'T'HH:mm; a plain yyyy-MM-dd means the start of that day.
+ *
+ * Slot listings never name the patient. Endpoints marked (*) act for one
+ * patient and need "Authorization: Bearer {patientToken}" with that
+ * patient's token ({@link PatientTokens}); it reaches the patient only by
+ * email, in the booking confirmation or waitlist offer.
+ *
+ * Requests run on virtual threads when the JVM provides them (Java 21+)
+ * and on a fixed pool of platform threads otherwise.
+ */
+public class BookingApiServer {
+    private static final DateTimeFormatter JSON_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 10_000;
+
+    private final BookingService service;
+    private final ReportRollup reports;
+    private final SlotRecommender recommender;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, LatencyHistogram> latencies;
+
+    public BookingApiServer(BookingService service, int port) throws IOException {
+        this(service, null, null, port);
+    }
+
+    /**
+     * With a report rollup, GET /api/reports serves utilization figures;
+     * with a recommender, GET /api/slots/recommend suggests slots
+     */
+    public BookingApiServer(BookingService service, ReportRollup reports, SlotRecommender recommender, int port)
+            throws IOException {
+        this.service = service;
+        this.reports = reports;
+        this.recommender = recommender;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        this.latencies = new LinkedHashMap<>();
+        for (String route : new String[] {"list", "search", "free", "next", "recommend", "book", "cancel", "reserve",
+                                          "confirm", "release", "accept", "decline", "waitlist", "reports", "patient"}) {
+            latencies.put(route, new LatencyHistogram());
+        }
+        server.createContext("/api/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(32, Runtime.getRuntime().availableProcessors() * 16));
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests and waits up to the given delay for running ones
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Routing
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String route = null;
+        try {
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            String method = exchange.getRequestMethod();
+            // parts: "", "api", resource, ...
+            if (parts.length == 3 && parts[2].equals("slots") && method.equals("GET")) {
+                route = "list";
+                listAvailable(exchange);
+            } else if (parts.length == 4 && parts[2].equals("slots") && method.equals("GET")
+                       && (parts[3].equals("search") || parts[3].equals("free") || parts[3].equals("next")
+                           || parts[3].equals("recommend"))) {
+                route = parts[3];
+                if (route.equals("search")) {
+                    search(exchange);
+                } else if (route.equals("free")) {
+                    freeSlots(exchange);
+                } else if (route.equals("recommend")) {
+                    recommend(exchange);
+                } else {
+                    nextAvailable(exchange);
+                }
+            } else if (parts.length == 5 && parts[2].equals("slots") && method.equals("POST")
+                       && latencies.containsKey(parts[4])) {
+                route = parts[4];
+                int id = Integer.parseInt(parts[3]);
+                switch (route) {
+                    case "book":
+                        book(exchange, id);
+                        break;
+                    case "cancel":
+                        cancel(exchange, id);
+                        break;
+                    case "reserve":
+                        reserve(exchange, id);
+                        break;
+                    case "confirm":
+                        confirm(exchange, id);
+                        break;
+                    case "release":
+                        release(exchange, id);
+                        break;
+                    case "accept":
+                        acceptOffer(exchange, id);
+                        break;
+                    case "decline":
+                        declineOffer(exchange, id);
+                        break;
+                    default:
+                        send(exchange, 404, error("Unknown endpoint"));
+                }
+            } else if (parts.length == 3 && parts[2].equals("waitlist") && method.equals("POST")) {
+                route = "waitlist";
+                joinWaitlist(exchange);
+            } else if (parts.length == 4 && parts[2].equals("waitlist") && parts[3].equals("offers")
+                       && method.equals("GET")) {
+                send(exchange, 200, offersJson());
+            } else if (parts.length == 5 && parts[2].equals("patients") && parts[4].equals("appointments")
+                       && method.equals("GET")) {
+                route = "patient";
+                patientAppointments(exchange, parts[3]);
+            } else if (parts.length == 3 && parts[2].equals("reports") && method.equals("GET")) {
+                route = "reports";
+                report(exchange);
+            } else if (parts.length == 3 && parts[2].equals("stats") && method.equals("GET")) {
+                send(exchange, 200, statsJson());
+            } else if (parts.length == 3 && parts[2].equals("metrics") && method.equals("GET")) {
+                sendText(exchange, 200, Metrics.dump());
+            } else {
+                send(exchange, 404, error("Unknown endpoint"));
+            }
+        } catch (NumberFormatException e) {
+            send(exchange, 400, error("Invalid number: " + e.getMessage()));
+        } catch (DateTimeParseException e) {
+            send(exchange, 400, error("Invalid date/time: " + e.getParsedString()));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            send(exchange, 400, error(e.getMessage()));
+        } catch (UnsupportedOperationException e) {
+            send(exchange, 501, error(e.getMessage()));
+        } catch (RuntimeException e) {
+            send(exchange, 500, error(e.toString()));
+        } finally {
+            exchange.close();
+            if (route != null) {
+                latencies.get(route).record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void listAvailable(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+        send(exchange, 200, slotsJson(service.availableSlots().stream(), query));
+    }
+
+    /**
+     * A patient's own appointments, for the holder of that patient's token only
+     */
+    private void patientAppointments(HttpExchange exchange, String email) throws IOException {
+        if (!authorized(exchange, email)) {
+            return;
+        }
+        Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+        send(exchange, 200, slotsJson(service.appointmentsOf(email).stream(), query, true));
+    }
+
+    /**
+     * Checks the request's bearer token against the patient's; answers 401
+     * (no token) or 403 (another patient's token) and returns false otherwise
+     */
+    private static boolean authorized(HttpExchange exchange, String email) throws IOException {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            send(exchange, 401, error("Patient token required"));
+            return false;
+        }
+        if (!PatientTokens.matches(email, authorization.substring("Bearer ".length()).trim())) {
+            send(exchange, 403, error("Token does not belong to this patient"));
+            return false;
+        }
+        return true;
+    }
+
+    private void search(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+        if (query.containsKey("doctor")) {
+            int wanted = (int) Math.min(Integer.MAX_VALUE, (long) pageOffset(query) + pageLimit(query));
+            send(exchange, 200, slotsJson(service.searchByDoctor(query.get("doctor"), wanted).stream(), query));
+        } else if (query.containsKey("date")) {
+            send(exchange, 200, slotsJson(service.searchByDate(LocalDate.parse(query.get("date"))).stream(), query));
+        } else if (query.containsKey("week")) {
+            send(exchange, 200, slotsJson(service.searchByWeek(LocalDate.parse(query.get("week"))), query));
+        } else {
+            send(exchange, 400, error("Specify doctor, date or week"));
+        }
+    }
+
+    private void freeSlots(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+        LocalDateTime from = query.containsKey("from") ? parseTime(query.get("from")) : LocalDateTime.now();
+        LocalDateTime to = query.containsKey("to") ? parseTime(query.get("to")) : LocalDateTime.MAX;
+        send(exchange, 200, slotsJson(service.freeSlots(query.get("doctor"), from, to), query));
+    }
+
+    /**
+     * Best next free slots: ?doctor= (comma-separated, partial names allowed), ?days= (e.g. mon,wed),
+     * ?from= and ?to= (HH:mm), ?after= (date or time, default now) and ?limit= (default 5)
+     */
+    private void recommend(HttpExchange exchange) throws IOException {
+        if (recommender == null) {
+            throw new IllegalStateException("Recommendations are not enabled");
+        }
+        Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+        String doctors = query.getOrDefault("doctor", "");
+        int wanted = (int) Math.min(MAX_LIMIT, (long) pageOffset(query)
+                                               + Integer.parseInt(query.getOrDefault("limit", "5")));
+        SlotRecommender.Constraints constraints = new SlotRecommender.Constraints(
+            doctors.isBlank() ? List.of() : Arrays.asList(doctors.split(",")),
+            SlotRecommender.parseDays(query.get("days")),
+            query.containsKey("from") ? LocalTime.parse(query.get("from")) : null,
+            query.containsKey("to") ? LocalTime.parse(query.get("to")) : null,
+            query.containsKey("after") ? parseTime(query.get("after")) : LocalDateTime.now(),
+            Math.max(1, wanted));
+        send(exchange, 200, slotsJson(recommender.recommend(constraints).stream(), query));
+    }
+
+    /**
+     * Utilization figures from the rollup; ?doctor= for one doctor, ?scan=true for a full fork/join rescan,
+     * ?from= and ?to= (dates) to limit the days listed
+     */
+    private void report(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+        boolean rescan = Boolean.parseBoolean(query.get("scan"));
+        if (reports == null && !rescan) {
+            throw new IllegalStateException("Reports are not enabled");
+        }
+        if (query.containsKey("doctor") && !rescan) {
+            UtilizationReport.DoctorUtilization doctor = reports.doctor(query.get("doctor"));
+            if (doctor == null) {
+                send(exchange, 404, error("No slots for doctor " + query.get("doctor")));
+                return;
+            }
+            StringBuilder json = new StringBuilder(160);
+            appendDoctor(json, doctor);
+            send(exchange, 200, json.toString());
+            return;
+        }
+        UtilizationReport report = rescan ? UtilizationReport.scan(service.getStore()) : reports.snapshot();
+        LocalDate from = query.containsKey("from") ? LocalDate.parse(query.get("from")) : LocalDate.MIN;
+        LocalDate to = query.containsKey("to") ? LocalDate.parse(query.get("to")) : LocalDate.MAX;
+        send(exchange, 200, reportJson(report, from, to));
+    }
+
+    private void nextAvailable(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+        LocalDateTime after = query.containsKey("after") ? parseTime(query.get("after")) : LocalDateTime.now();
+        Appointment next = service.nextAvailable(after);
+        if (next == null) {
+            send(exchange, 404, error("No free slot after " + after.format(JSON_FORMATTER)));
+            return;
+        }
+        StringBuilder json = new StringBuilder(128);
+        appendSlot(json, next, false);
+        send(exchange, 200, json.toString());
+    }
+
+    private static LocalDateTime parseTime(String text) {
+        return text.length() == 10 ? LocalDate.parse(text).atStartOfDay() : LocalDateTime.parse(text);
+    }
+
+    private void book(HttpExchange exchange, int id) throws IOException {
+        Map<String, String> form = parseForm(readBody(exchange));
+        BookingService.Outcome outcome = service.book(id, form.get("patientName"), form.get("patientEmail"));
+        send(exchange, statusFor(outcome), outcomeJson(id, outcome));
+    }
+
+    private void cancel(HttpExchange exchange, int id) throws IOException {
+        Appointment appointment = service.getStore().findById(id);
+        String patientEmail = appointment != null ? appointment.getPatientEmail() : null;
+        if (patientEmail == null) {
+            BookingService.Outcome outcome = appointment == null ? BookingService.Outcome.NOT_FOUND
+                                                                 : BookingService.Outcome.NOT_BOOKED;
+            send(exchange, statusFor(outcome), outcomeJson(id, outcome));
+            return;
+        }
+        if (!authorized(exchange, patientEmail)) {
+            return;
+        }
+        // Cancels only while the slot is still this patient's, even if it changed hands since the check
+        BookingService.Outcome outcome = service.cancel(id, patientEmail);
+        send(exchange, statusFor(outcome), outcomeJson(id, outcome));
+    }
+
+    private void reserve(HttpExchange exchange, int id) throws IOException {
+        Map<String, String> form = parseForm(readBody(exchange));
+        BookingService.Reservation reservation = service.reserve(id, form.get("holder"));
+        if (reservation.outcome() != BookingService.Outcome.RESERVED) {
+            send(exchange, statusFor(reservation.outcome()), outcomeJson(id, reservation.outcome()));
+            return;
+        }
+        // Tokens are sent as strings so JavaScript clients keep all 63 bits
+        send(exchange, 201, "{\"id\":" + id + ",\"outcome\":\"RESERVED\",\"token\":\"" + reservation.hold().token()
+                            + "\",\"expiresAtMillis\":" + reservation.hold().expiresAtMillis() + "}");
+    }
+
+    private void confirm(HttpExchange exchange, int id) throws IOException {
+        Map<String, String> form = parseForm(readBody(exchange));
+        BookingService.Outcome outcome = service.confirm(id, Long.parseLong(form.getOrDefault("token", "")),
+                                                         form.get("patientName"), form.get("patientEmail"));
+        send(exchange, statusFor(outcome), outcomeJson(id, outcome));
+    }
+
+    private void release(HttpExchange exchange, int id) throws IOException {
+        Map<String, String> form = parseForm(readBody(exchange));
+        BookingService.Outcome outcome = service.release(id, Long.parseLong(form.getOrDefault("token", "")));
+        send(exchange, statusFor(outcome), outcomeJson(id, outcome));
+    }
+
+    private void acceptOffer(HttpExchange exchange, int id) throws IOException {
+        Map<String, String> form = parseForm(readBody(exchange));
+        if (!authorized(exchange, form.get("patientEmail"))) {
+            return;
+        }
+        BookingService.Outcome outcome = service.acceptOffer(id, form.get("patientEmail"));
+        send(exchange, statusFor(outcome), outcomeJson(id, outcome));
+    }
+
+    private void declineOffer(HttpExchange exchange, int id) throws IOException {
+        Map<String, String> form = parseForm(readBody(exchange));
+        if (!authorized(exchange, form.get("patientEmail"))) {
+            return;
+        }
+        if (service.declineOffer(id, form.get("patientEmail"))) {
+            send(exchange, 200, "{\"id\":" + id + ",\"outcome\":\"DECLINED\"}");
+        } else {
+            send(exchange, 404, error("No open offer for slot " + id + " and that email"));
+        }
+    }
+
+    private void joinWaitlist(HttpExchange exchange) throws IOException {
+        Map<String, String> form = parseForm(readBody(exchange));
+        LocalDateTime from = form.containsKey("from") ? parseTime(form.get("from")) : LocalDateTime.now();
+        LocalDateTime to = form.containsKey("to") ? parseTime(form.get("to")) : LocalDateTime.MAX;
+        Waitlist.Entry entry = service.joinWaitlist(form.get("doctor"), form.get("patientName"),
+                                                    form.get("patientEmail"), from, to,
+                                                    Integer.parseInt(form.getOrDefault("priority", "0")));
+        send(exchange, 201, "{\"waiting\":" + service.getWaitlist().waitingCount(entry.doctorKey())
+                            + ",\"sequence\":" + entry.sequence() + "}");
+    }
+
+    private static int statusFor(BookingService.Outcome outcome) {
+        switch (outcome) {
+            case BOOKED:
+            case CANCELLED:
+            case RELEASED:
+                return 200;
+            case NOT_FOUND:
+                return 404;
+            case HOLD_EXPIRED:
+                return 410;
+            case INVALID_PATIENT:
+                return 400;
+            case NOT_LEADER:
+            case UNAVAILABLE:
+            case NOT_PERSISTED:
+                return 503;
+            default:
+                return 409;
+        }
+    }
+
+    // JSON
+
+    private String slotsJson(Stream<Appointment> slots, Map<String, String> query) {
+        return slotsJson(slots, query, false);
+    }
+
+    /**
+     * Writes one page of a lazily produced slot stream; slots past the page are never produced.
+     * Patient names are written only for the patient's own listing.
+     */
+    private String slotsJson(Stream<Appointment> slots, Map<String, String> query, boolean withPatient) {
+        int offset = pageOffset(query);
+        int limit = pageLimit(query);
+        StringBuilder json = new StringBuilder(64 + Math.min(limit, 1024) * 96);
+        json.append("{\"slots\":[");
+        int written = 0;
+        Iterator<Appointment> page = slots.skip(offset).limit(limit).iterator();
+        while (page.hasNext()) {
+            if (written++ > 0) {
+                json.append(',');
+            }
+            appendSlot(json, page.next(), withPatient);
+        }
+        json.append("],\"offset\":").append(offset).append(",\"count\":").append(written).append('}');
+        return json.toString();
+    }
+
+    private static int pageOffset(Map<String, String> query) {
+        return Math.max(0, Integer.parseInt(query.getOrDefault("offset", "0")));
+    }
+
+    private static int pageLimit(Map<String, String> query) {
+        return Math.min(MAX_LIMIT, Math.max(0, Integer.parseInt(query.getOrDefault("limit",
+                                                                                 String.valueOf(DEFAULT_LIMIT)))));
+    }
+
+    private static void appendSlot(StringBuilder json, Appointment appointment, boolean withPatient) {
+        Appointment.Booking booking = appointment.getBooking();
+        json.append("{\"id\":").append(appointment.getId())
+            .append(",\"doctor\":");
+        appendString(json, appointment.getDoctorName());
+        json.append(",\"dateTime\":\"").append(appointment.getDateTime().format(JSON_FORMATTER))
+            .append("\",\"status\":\"").append(booking != null ? "BOOKED" : appointment.isHeld() ? "HELD" : "AVAILABLE")
+            .append('"');
+        if (booking != null && withPatient) {
+            json.append(",\"patient\":");
+            appendString(json, booking.patientName());
+        }
+        json.append('}');
+    }
+
+    private String offersJson() {
+        StringBuilder json = new StringBuilder("{\"offers\":[");
+        Waitlist waitlist = service.getWaitlist();
+        if (waitlist != null) {
+            int written = 0;
+            for (Waitlist.Offer offer : waitlist.pendingOffers()) {
+                if (written++ > 0) {
+                    json.append(',');
+                }
+                json.append("{\"slot\":");
+                appendSlot(json, offer.appointment(), false);
+                json.append(",\"expiresAtMillis\":").append(offer.hold().expiresAtMillis()).append('}');
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String outcomeJson(int id, BookingService.Outcome outcome) {
+        return "{\"id\":" + id + ",\"outcome\":\"" + outcome + "\"}";
+    }
+
+    private static String reportJson(UtilizationReport report, LocalDate from, LocalDate to) {
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\"slots\":").append(report.slots())
+            .append(",\"booked\":").append(report.booked())
+            .append(",\"bookings\":").append(report.bookings())
+            .append(",\"cancellations\":").append(report.cancellations())
+            .append(",\"utilization\":").append(report.utilization())
+            .append(",\"cancellationRate\":").append(report.cancellationRate())
+            .append(",\"doctors\":[");
+        for (UtilizationReport.DoctorUtilization doctor : report.doctors()) {
+            appendDoctor(separate(json), doctor);
+        }
+        json.append("],\"days\":[");
+        for (UtilizationReport.DayUtilization day : report.days()) {
+            if (!day.day().isBefore(from) && !day.day().isAfter(to)) {
+                separate(json).append("{\"day\":\"").append(day.day()).append("\",\"slots\":").append(day.slots())
+                    .append(",\"booked\":").append(day.booked()).append('}');
+            }
+        }
+        json.append("],\"hours\":[");
+        for (int hour = 0; hour < 24; hour++) {
+            separate(json).append("{\"hour\":").append(hour).append(",\"slots\":").append(report.slotsAtHour(hour))
+                .append(",\"booked\":").append(report.bookedAtHour(hour)).append('}');
+        }
+        json.append("],\"freeHeatmap\":{");
+        for (DayOfWeek day : DayOfWeek.values()) {
+            separate(json).append('"').append(day).append("\":[");
+            for (int hour = 0; hour < 24; hour++) {
+                separate(json).append(report.freeSlots(day, hour));
+            }
+            json.append(']');
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void appendDoctor(StringBuilder json, UtilizationReport.DoctorUtilization doctor) {
+        json.append("{\"doctor\":");
+        appendString(json, doctor.doctor());
+        json.append(",\"slots\":").append(doctor.slots())
+            .append(",\"booked\":").append(doctor.booked())
+            .append(",\"bookings\":").append(doctor.bookings())
+            .append(",\"cancellations\":").append(doctor.cancellations())
+            .append(",\"utilization\":").append(doctor.utilization())
+            .append(",\"cancellationRate\":").append(doctor.cancellationRate()).append('}');
+    }
+
+    /**
+     * Appends a comma unless this is the first element of an array or object
+     */
+    private static StringBuilder separate(StringBuilder json) {
+        char last = json.charAt(json.length() - 1);
+        return last == '[' || last == '{' ? json : json.append(',');
+    }
+
+    private String statsJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(entry.getKey()).append("\":{\"count\":").append(histogram.count())
+                .append(",\"p50Micros\":").append(histogram.percentile(50) / 1000)
+                .append(",\"p99Micros\":").append(histogram.percentile(99) / 1000)
+                .append(",\"p999Micros\":").append(histogram.percentile(99.9) / 1000)
+                .append(",\"maxMicros\":").append(histogram.max() / 1000).append('}');
+        }
+        ReplicationNode replication = service.getReplication();
+        if (replication != null) {
+            json.append(",\"replication\":{\"node\":").append(replication.getId())
+                .append(",\"role\":\"").append(replication.getRole())
+                .append("\",\"leader\":").append(replication.getLeaderId())
+                .append(",\"term\":").append(replication.getTerm())
+                .append(",\"commitIndex\":").append(replication.getCommitIndex())
+                .append(",\"appliedIndex\":").append(replication.getAppliedIndex())
+                .append(",\"snapshotIndex\":").append(replication.getSnapshotIndex()).append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        return json.append('}').toString();
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    // HTTP helpers
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> parseForm(String encoded) {
+        Map<String, String> values = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return values;
+        }
+        for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            values.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        respond(exchange, status, "application/json; charset=utf-8", json);
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        respond(exchange, status, "text/plain; charset=utf-8", text);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String content)
+            throws IOException {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,486 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Benchmark suite for the booking hot paths, run against stores of
+ * increasing size (1k to 10M slots).
+ *
+ * Follows the JMH methodology without the dependency: every benchmark gets
+ * timed warm-up iterations before its measured ones, each iteration runs
+ * the operation in self-calibrating batches so timer overhead stays
+ * negligible, inputs are precomputed, and every result is folded into a
+ * volatile sink so the JIT cannot drop the work. Results are written in
+ * JMH's JSON result format (average time, ns/op, 99.9% confidence
+ * interval), so existing JMH tooling can compare runs between releases.
+ *
+ * Usage: java -Xmx4g BookingBenchmark [--sizes 1000,10000,100000,1000000]
+ *            [--warmup 3] [--iterations 5] [--time 500] [--filter name] [--out file.json]
+ * 10M slots need roughly -Xmx12g.
+ */
+public class BookingBenchmark {
+    private static final String[] FIRST_NAMES = {
+        "John", "Maria", "Anna", "Li", "Ahmed", "Olga", "Kenji", "Fatima", "Lucas", "Priya"
+    };
+    private static final String[] LAST_NAMES = {
+        "Smith", "Garcia", "Schmidt", "Wei", "Khan"
+    };
+    private static final LocalDateTime FIRST_SLOT = LocalDateTime.of(2030, 1, 1, 9, 0);
+    private static final int SLOTS_PER_DAY = 32;
+    private static final int SLOT_MINUTES = 15;
+    private static final int INPUTS = 1 << 16;
+    private static final int PAGE_SIZE = 50;
+    private static final Set<DayOfWeek> RECOMMEND_DAYS = EnumSet.of(DayOfWeek.TUESDAY, DayOfWeek.THURSDAY);
+    private static final LocalTime RECOMMEND_FROM = LocalTime.of(14, 0);
+    private static final LocalTime RECOMMEND_TO = LocalTime.of(16, 0);
+    private static final DateTimeFormatter EMAIL_DATE_FORMAT = DateTimeFormatter.ofPattern("EEEE, MMMM dd, yyyy 'at' HH:mm");
+
+    private static volatile long sink;
+
+    /**
+     * One benchmarked operation; the argument is the invocation number and
+     * the result is folded into the sink
+     */
+    private interface Operation {
+        long run(int invocation);
+    }
+
+    private interface Setup {
+        Operation prepare(Fixture fixture);
+    }
+
+    private record Benchmark(String name, Setup setup) {
+    }
+
+    /**
+     * Benchmarks in run order; insertion runs last because it grows the store
+     */
+    private static final List<Benchmark> BENCHMARKS = List.of(
+        new Benchmark("bookAndCancelById", fixture -> i -> {
+            Appointment appointment = fixture.store.findById(fixture.ids[i & (INPUTS - 1)]);
+            if (fixture.store.book(appointment, "Bench Patient", "bench@example.com")) {
+                fixture.store.cancel(appointment);
+                return 1;
+            }
+            return 0;
+        }),
+        new Benchmark("listAvailable", fixture -> i -> {
+            long count = 0;
+            for (Appointment appointment : fixture.store.availableSlots()) {
+                count += appointment.getId();
+            }
+            return count;
+        }),
+        new Benchmark("renderAvailablePage", fixture -> {
+            SlotTable table = new SlotTable(Writer.nullWriter(), SlotTable.Column.ID, SlotTable.Column.DOCTOR,
+                                            SlotTable.Column.DATE_TIME, SlotTable.Column.STATUS);
+            return i -> {
+                table.writeHeader(70);
+                return table.writeRows(fixture.store.availableSlots().iterator(), 0, PAGE_SIZE);
+            };
+        }),
+        new Benchmark("searchByDoctor", fixture -> i ->
+            fixture.store.findByDoctor(LAST_NAMES[i % LAST_NAMES.length], 100).size()),
+        new Benchmark("searchByDoctorFuzzy", fixture -> i ->
+            fixture.store.findByDoctor("Schmitd", 100).size()),
+        new Benchmark("searchByDate", fixture -> i ->
+            fixture.store.findByDate(fixture.days[i & (INPUTS - 1)]).size()),
+        new Benchmark("nextAvailable", fixture -> i -> {
+            Appointment next = fixture.store.nextAvailable(fixture.days[i & (INPUTS - 1)].atTime(12, 0));
+            return next != null ? next.getId() : 0;
+        }),
+        new Benchmark("recommendByScan", fixture -> {
+            // What the clerk did before: walk the free slots in time order and filter
+            Set<String> doctors = fixture.store.doctors().match("Smith");
+            return i -> fixture.store.freeSlotsFrom(fixture.days[i & (INPUTS - 1)].atStartOfDay())
+                .filter(slot -> doctors.contains(AppointmentStore.normalizeDoctor(slot.getDoctorName())))
+                .filter(slot -> RECOMMEND_DAYS.contains(slot.getDateTime().getDayOfWeek()))
+                .filter(slot -> !slot.getDateTime().toLocalTime().isBefore(RECOMMEND_FROM)
+                                && slot.getDateTime().toLocalTime().isBefore(RECOMMEND_TO))
+                .limit(5)
+                .count();
+        }),
+        new Benchmark("recommendByBitmap", fixture -> {
+            SlotRecommender recommender = SlotRecommender.attach(fixture.store);
+            // The store does not change while this runs; keep later benchmarks free of the listener
+            fixture.store.removeListener(recommender);
+            return i -> recommender.recommend(new SlotRecommender.Constraints(
+                List.of("Smith"), RECOMMEND_DAYS, RECOMMEND_FROM, RECOMMEND_TO,
+                fixture.days[i & (INPUTS - 1)].atStartOfDay(), 5)).size();
+        }),
+        new Benchmark("renderConfirmationEmail", fixture -> i -> {
+            Appointment appointment = fixture.booked[i & (fixture.booked.length - 1)];
+            return EmailServiceSimple.CONFIRMATION_TEXT.render(appointment, "clinic@example.com").length();
+        }),
+        new Benchmark("renderConfirmationHtmlBuilder", fixture -> i ->
+            createEmailContent(fixture.booked[i & (fixture.booked.length - 1)]).length()),
+        new Benchmark("renderConfirmationHtmlTemplate", fixture -> i -> {
+            Appointment appointment = fixture.booked[i & (fixture.booked.length - 1)];
+            return EmailTemplate.CONFIRMATION_HTML.render(appointment, "clinic@example.com").length();
+        }),
+        new Benchmark("formatSlotText", fixture -> i ->
+            fixture.booked[i & (fixture.booked.length - 1)].toString().length()),
+        new Benchmark("encodeSlotBinary", fixture -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            AppointmentCodec.Dictionary doctors = AppointmentCodec.Dictionary.coded();
+            return i -> {
+                Appointment appointment = fixture.booked[i & (fixture.booked.length - 1)];
+                if (buffer.remaining() < 1024) {
+                    buffer.clear();
+                }
+                AppointmentCodec.putSlot(buffer, appointment, appointment.getBooking(), doctors);
+                return buffer.position();
+            };
+        }),
+        new Benchmark("decodeSlotBinary", fixture -> {
+            // The booked slots as one stream, decoded in order and started over with a fresh dictionary
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            AppointmentCodec.Dictionary writer = AppointmentCodec.Dictionary.coded();
+            for (Appointment appointment : fixture.booked) {
+                AppointmentCodec.putSlot(buffer, appointment, appointment.getBooking(), writer);
+            }
+            buffer.flip();
+            AppointmentCodec.Dictionary[] reader = {AppointmentCodec.Dictionary.coded()};
+            return i -> {
+                if (!buffer.hasRemaining()) {
+                    buffer.rewind();
+                    reader[0] = AppointmentCodec.Dictionary.coded();
+                }
+                AppointmentCodec.getType(buffer);
+                return AppointmentCodec.getSlot(buffer, reader[0]).getId();
+            };
+        }),
+        new Benchmark("restoreSnapshotByAdd", fixture -> {
+            byte[] snapshot = snapshot(fixture.store);
+            return i -> {
+                AppointmentStore store = new AppointmentStore();
+                for (Appointment appointment : readSnapshot(snapshot)) {
+                    store.add(appointment);
+                }
+                return store.size();
+            };
+        }),
+        new Benchmark("restoreSnapshot", fixture -> {
+            byte[] snapshot = snapshot(fixture.store);
+            return i -> new AppointmentStore().restore(readSnapshot(snapshot));
+        }),
+        new Benchmark("insertWithDuplicateCheck", fixture -> {
+            LocalDateTime start = fixture.lastSlot.plusDays(1);
+            return i -> {
+                LocalDateTime dateTime = start.plusMinutes(i);
+                if (fixture.store.exists("Bench Insert", dateTime)) {
+                    return 0;
+                }
+                return fixture.store.create("Bench Insert", dateTime) != null ? 1 : 0;
+            };
+        })
+    );
+
+    /**
+     * The store as a journal snapshot stream, in date/time order
+     */
+    private static byte[] snapshot(AppointmentStore store) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            AppointmentCodec.StreamWriter writer = new AppointmentCodec.StreamWriter(Channels.newChannel(bytes));
+            for (Iterator<Appointment> inOrder = store.slotsInOrder().iterator(); inOrder.hasNext(); ) {
+                writer.write(inOrder.next());
+            }
+            writer.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes every slot of a snapshot stream into fresh appointments
+     */
+    private static List<Appointment> readSnapshot(byte[] snapshot) {
+        try {
+            AppointmentCodec.StreamReader reader =
+                new AppointmentCodec.StreamReader(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+            List<Appointment> slots = new ArrayList<>();
+            Appointment appointment;
+            while ((appointment = reader.next()) != null) {
+                slots.add(appointment);
+            }
+            return slots;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * EmailService's HTML body as it was built before EmailTemplate: every
+     * message appends the whole page into a fresh StringBuilder. Kept as the
+     * baseline for renderConfirmationHtmlTemplate.
+     */
+    private static String createEmailContent(Appointment appointment) {
+        StringBuilder content = new StringBuilder();
+        content.append("<!DOCTYPE html>");
+        content.append("<html><head><style>");
+        content.append("body { font-family: Arial, sans-serif; margin: 0; padding: 20px; background-color: #f5f5f5; }");
+        content.append(".container { max-width: 600px; margin: 0 auto; background-color: white; padding: 30px; border-radius: 10px; box-shadow: 0 2px 10px rgba(0,0,0,0.1); }");
+        content.append(".header { background-color: #4CAF50; color: white; padding: 20px; border-radius: 5px; text-align: center; margin-bottom: 20px; }");
+        content.append(".appointment-details { background-color: #f9f9f9; padding: 20px; border-radius: 5px; margin: 20px 0; }");
+        content.append(".detail-row { margin: 10px 0; padding: 8px 0; border-bottom: 1px solid #eee; }");
+        content.append(".label { font-weight: bold; color: #333; }");
+        content.append(".value { color: #666; }");
+        content.append(".footer { text-align: center; margin-top: 30px; color: #888; font-size: 12px; }");
+        content.append("</style></head><body>");
+
+        content.append("<div class='container'>");
+        content.append("<div class='header'>");
+        content.append("<h1>Appointment Confirmed!</h1>");
+        content.append("</div>");
+
+        content.append("<p>Dear ").append(appointment.getPatientName()).append(",</p>");
+        content.append("<p>Your appointment has been successfully booked. Here are the details:</p>");
+
+        content.append("<div class='appointment-details'>");
+        content.append("<div class='detail-row'>");
+        content.append("<span class='label'>Appointment ID:</span> ");
+        content.append("<span class='value'>").append(appointment.getId()).append("</span>");
+        content.append("</div>");
+
+        content.append("<div class='detail-row'>");
+        content.append("<span class='label'>Doctor:</span> ");
+        content.append("<span class='value'>Dr. ").append(appointment.getDoctorName()).append("</span>");
+        content.append("</div>");
+
+        content.append("<div class='detail-row'>");
+        content.append("<span class='label'>Date & Time:</span> ");
+        content.append("<span class='value'>").append(appointment.getDateTime().format(EMAIL_DATE_FORMAT)).append("</span>");
+        content.append("</div>");
+
+        content.append("<div class='detail-row'>");
+        content.append("<span class='label'>Patient:</span> ");
+        content.append("<span class='value'>").append(appointment.getPatientName()).append("</span>");
+        content.append("</div>");
+        content.append("</div>");
+
+        content.append("<p><strong>Important Notes:</strong></p>");
+        content.append("<ul>");
+        content.append("<li>Please arrive 15 minutes before your scheduled appointment time</li>");
+        content.append("<li>Bring a valid ID and your insurance card</li>");
+        content.append("<li>If you need to reschedule or cancel, please contact us at least 24 hours in advance</li>");
+        content.append("</ul>");
+
+        content.append("<p>If you have any questions, please don't hesitate to contact our office.</p>");
+        content.append("<p>Thank you for choosing our medical services!</p>");
+
+        content.append("<div class='footer'>");
+        content.append("<p>This is an automated confirmation email. Please do not reply to this email.</p>");
+        content.append("</div>");
+
+        content.append("</div>");
+        content.append("</body></html>");
+
+        return content.toString();
+    }
+
+
+    /**
+     * A populated store plus precomputed random inputs
+     */
+    private static final class Fixture {
+        final AppointmentStore store;
+        final int[] ids;
+        final LocalDate[] days;
+        final Appointment[] booked;
+        final LocalDateTime lastSlot;
+
+        Fixture(int size) {
+            store = new AppointmentStore();
+            List<String> doctors = new ArrayList<>();
+            for (String last : LAST_NAMES) {
+                for (String first : FIRST_NAMES) {
+                    doctors.add(first + " " + last);
+                }
+            }
+            int perDoctor = (size + doctors.size() - 1) / doctors.size();
+            int dayCount = (perDoctor + SLOTS_PER_DAY - 1) / SLOTS_PER_DAY;
+            List<LocalDateTime> batch = new ArrayList<>(SLOTS_PER_DAY);
+            LocalDateTime last = FIRST_SLOT;
+            int remaining = size;
+            for (int day = 0; day < dayCount && remaining > 0; day++) {
+                for (String doctor : doctors) {
+                    batch.clear();
+                    LocalDateTime slot = FIRST_SLOT.plusDays(day);
+                    for (int k = 0; k < SLOTS_PER_DAY && remaining > 0; k++, remaining--) {
+                        batch.add(slot);
+                        last = slot;
+                        slot = slot.plusMinutes(SLOT_MINUTES);
+                    }
+                    store.createAll(doctor, batch);
+                }
+            }
+            lastSlot = last;
+            // Book every third slot; those also feed the email benchmark
+            List<Appointment> bookedList = new ArrayList<>();
+            for (int id = 1; id <= size; id += 3) {
+                Appointment appointment = store.findById(id);
+                store.book(appointment, "Patient " + id, "patient" + id + "@example.com");
+                if (bookedList.size() < 1024) {
+                    bookedList.add(appointment);
+                }
+            }
+            int bookedInputs = Integer.highestOneBit(bookedList.size());
+            booked = bookedList.subList(0, bookedInputs).toArray(new Appointment[0]);
+
+            SplittableRandom random = new SplittableRandom(42);
+            ids = new int[INPUTS];
+            days = new LocalDate[INPUTS];
+            for (int i = 0; i < INPUTS; i++) {
+                ids[i] = 1 + random.nextInt(size);
+                days[i] = FIRST_SLOT.toLocalDate().plusDays(random.nextInt(Math.max(1, dayCount - 1)));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+        long millis = Long.parseLong(options.getOrDefault("time", "500"));
+        String filter = options.getOrDefault("filter", "");
+        Path out = Paths.get(options.getOrDefault("out", "bench-results.json"));
+
+        StringBuilder json = new StringBuilder("[\n");
+        System.out.printf("%-30s %12s %14s %12s%n", "Benchmark", "Slots", "Score (ns/op)", "Error");
+        for (String sizeText : options.getOrDefault("sizes", "1000,10000,100000,1000000").split(",")) {
+            int size = Integer.parseInt(sizeText.trim());
+            long setupStart = System.nanoTime();
+            Fixture fixture = new Fixture(size);
+            System.out.printf("# %,d slots ready in %d ms%n", size, (System.nanoTime() - setupStart) / 1_000_000);
+            for (Benchmark benchmark : BENCHMARKS) {
+                if (!benchmark.name().contains(filter)) {
+                    continue;
+                }
+                Operation operation = benchmark.setup().prepare(fixture);
+                int[] invocation = {0};
+                for (int i = 0; i < warmup; i++) {
+                    iteration(operation, millis, invocation);
+                }
+                double[] scores = new double[iterations];
+                for (int i = 0; i < iterations; i++) {
+                    scores[i] = iteration(operation, millis, invocation);
+                }
+                double mean = mean(scores);
+                double error = error(scores, mean);
+                System.out.printf("%-30s %12d %14.1f %12.1f%n", benchmark.name(), size, mean, error);
+                if (json.length() > 2) {
+                    json.append(",\n");
+                }
+                appendResult(json, benchmark.name(), size, warmup, iterations, millis, scores, mean, error);
+            }
+        }
+        json.append("\n]\n");
+        Files.writeString(out, json, StandardCharsets.UTF_8);
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    /**
+     * Runs the operation for about the given time and returns the average ns/op
+     */
+    private static double iteration(Operation operation, long millis, int[] invocation) {
+        long start = System.nanoTime();
+        long deadline = start + millis * 1_000_000;
+        long operations = 0;
+        long accumulated = 0;
+        int batch = 1;
+        long now;
+        do {
+            long batchStart = System.nanoTime();
+            for (int k = 0; k < batch; k++) {
+                accumulated += operation.run(invocation[0]++);
+            }
+            operations += batch;
+            now = System.nanoTime();
+            if (now - batchStart < 1_000_000 && batch < (1 << 20)) {
+                batch <<= 1;
+            }
+        } while (now < deadline);
+        sink += accumulated;
+        return (double) (now - start) / operations;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    /**
+     * Half-width of the 99.9% confidence interval, as JMH reports it
+     */
+    private static double error(double[] values, double mean) {
+        if (values.length < 2) {
+            return Double.NaN;
+        }
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        double standardDeviation = Math.sqrt(squares / (values.length - 1));
+        return studentT999(values.length - 1) * standardDeviation / Math.sqrt(values.length);
+    }
+
+    /**
+     * Two-sided 99.9% Student t quantile, rounded up for degrees of freedom between table entries
+     */
+    private static double studentT999(int degreesOfFreedom) {
+        double[] table = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59};
+        if (degreesOfFreedom <= table.length) {
+            return table[degreesOfFreedom - 1];
+        }
+        return degreesOfFreedom < 20 ? 4.59 : degreesOfFreedom < 30 ? 3.85 : degreesOfFreedom < 120 ? 3.65 : 3.29;
+    }
+
+    private static void appendResult(StringBuilder json, String name, int size, int warmup, int iterations,
+                                     long millis, double[] scores, double mean, double error) {
+        json.append("  {\"benchmark\":\"BookingBenchmark.").append(name)
+            .append("\",\"mode\":\"avgt\",\"threads\":1,\"forks\":1")
+            .append(",\"jdkVersion\":\"").append(System.getProperty("java.version"))
+            .append("\",\"warmupIterations\":").append(warmup)
+            .append(",\"warmupTime\":\"").append(millis).append(" ms\"")
+            .append(",\"measurementIterations\":").append(iterations)
+            .append(",\"measurementTime\":\"").append(millis).append(" ms\"")
+            .append(",\"params\":{\"slots\":\"").append(size).append("\"}")
+            .append(",\"primaryMetric\":{\"score\":").append(number(mean))
+            .append(",\"scoreError\":").append(number(error))
+            .append(",\"scoreConfidence\":[").append(number(mean - error)).append(',').append(number(mean + error))
+            .append("],\"scoreUnit\":\"ns/op\",\"rawData\":[[");
+        for (int i = 0; i < scores.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(number(scores[i]));
+        }
+        json.append("]]},\"secondaryMetrics\":{}}");
+    }
+
+    private static String number(double value) {
+        return Double.isFinite(value) ? String.format(Locale.ROOT, "%.3f", value) : "\"NaN\"";
+    }
+}
@@ -0,0 +1,641 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Durable write-ahead journal for an {@link AppointmentStore}.
+ *
+ * Slot-created, booked and cancelled events are appended as small binary
+ * records ([length][crc32][payload]) to numbered segment files through a
+ * FileChannel. Payloads are {@link AppointmentCodec} records; each one
+ * names its doctor in full, so any record replays on its own. Records are
+ * encoded straight into one shared append buffer. A single committer thread
+ * swaps it for a spare, writes everything appended since the last flush and
+ * forces it to disk once, so the fsync cost is shared by all bookings that
+ * arrived in the meantime (group commit); {@link #sync()} waits for that flush.
+ *
+ * A failed write does not stop the committer. It cuts the segment back to
+ * the last flushed record, keeps the unwritten records in front of anything
+ * appended since and retries with a growing delay. While writes are
+ * failing, {@link #sync()} throws at once, so callers learn that their
+ * change is not on disk yet.
+ *
+ * Snapshots are taken every {@code snapshotEvery} records and on close. A
+ * snapshot first rotates to a new segment, then writes every slot in
+ * date/time order to snapshot.bin as an {@link AppointmentCodec} stream.
+ * Recovery hands the whole snapshot to {@link AppointmentStore#restore},
+ * which builds the indexes from sorted runs, then replays only the
+ * segments written since. Journals written
+ * before the codec (version 1 snapshots, fixed-width records) still load. Replay is idempotent, so events that are both in the
+ * snapshot and in the newer segment are harmless. Only the newest segment
+ * can end in a torn record, and recovery cuts it off there; a bad record in
+ * any earlier segment means lost data and fails recovery.
+ */
+public class BookingJournal implements StoreListener, AutoCloseable {
+    // Record types written before AppointmentCodec
+    private static final byte LEGACY_SLOT_CREATED = 1;
+    private static final byte LEGACY_BOOKED = 2;
+    private static final byte LEGACY_CANCELLED = 3;
+
+    private static final int SNAPSHOT_MAGIC = 0x4D42534E;
+    private static final int LEGACY_SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int SNAPSHOT_HEADER_BYTES = 4 + 4 + 8;
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8;
+    private static final int DEFAULT_SNAPSHOT_EVERY = 100_000;
+    private static final int INITIAL_BUFFER_BYTES = 1 << 16;
+    private static final int RETAINED_BUFFER_BYTES = 1 << 22;
+    private static final long FIRST_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 5000;
+    private static final AppointmentCodec.Dictionary INLINE = AppointmentCodec.Dictionary.inline();
+
+    private final Path directory;
+    private final AppointmentStore store;
+    private final int snapshotEvery;
+    private final Object snapshotLock;
+    private Thread committer;
+
+    // Committer thread only (and recovery, before it starts)
+    private long segmentBytes;
+    private boolean truncateBeforeWrite;
+
+    // Guarded by this
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private final CRC32 crc;
+    private int payloadStart;
+    private long appendedSeq;
+    private long committedSeq;
+    private FileChannel channel;
+    private long segment;
+    private int recordsInSegment;
+    private boolean rotateRequested;
+    private boolean snapshotScheduled;
+    private boolean closed;
+    // Set while writes are failing, cleared by the next successful flush
+    private IOException failure;
+
+    private BookingJournal(Path directory, AppointmentStore store, int snapshotEvery) {
+        this.directory = directory;
+        this.store = store;
+        this.snapshotEvery = snapshotEvery;
+        this.snapshotLock = new Object();
+        this.pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        this.spare = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        this.crc = new CRC32();
+    }
+
+    /**
+     * Recovers the store from the journal directory, then starts journaling
+     * every further change to it
+     */
+    public static BookingJournal open(Path directory, AppointmentStore store) throws IOException {
+        return open(directory, store, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    public static BookingJournal open(Path directory, AppointmentStore store, int snapshotEvery) throws IOException {
+        Files.createDirectories(directory);
+        BookingJournal journal = new BookingJournal(directory, store, snapshotEvery);
+        journal.recover();
+        store.addListener(journal);
+        journal.committer = new Thread(journal::runCommitter, "booking-journal");
+        journal.committer.setDaemon(true);
+        journal.committer.start();
+        return journal;
+    }
+
+    // Recovery
+
+    private void recover() throws IOException {
+        AppointmentCodec.Dictionary doctorNames = AppointmentCodec.Dictionary.inline();
+        long replayFrom = loadSnapshot();
+        List<Long> segments = new ArrayList<>();
+        for (long number : listSegments()) {
+            if (number < replayFrom) {
+                Files.deleteIfExists(segmentPath(number));
+            } else {
+                segments.add(number);
+            }
+        }
+        CRC32 checksum = new CRC32();
+        for (int i = 0; i < segments.size(); i++) {
+            replaySegment(segmentPath(segments.get(i)), doctorNames, checksum, i == segments.size() - 1);
+        }
+        segment = segments.isEmpty() ? replayFrom : segments.get(segments.size() - 1);
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentBytes = channel.size();
+    }
+
+    private long loadSnapshot() throws IOException {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            int version = header.remaining() == SNAPSHOT_HEADER_BYTES && header.getInt() == SNAPSHOT_MAGIC
+                          ? header.getInt() : -1;
+            if (version != SNAPSHOT_VERSION && version != LEGACY_SNAPSHOT_VERSION) {
+                throw new IOException("Unrecognized snapshot file: " + file);
+            }
+            long replayFrom = header.getLong();
+            if (version == LEGACY_SNAPSHOT_VERSION) {
+                loadLegacySnapshot(new DataInputStream(new BufferedInputStream(Channels.newInputStream(in), 1 << 16)));
+                return replayFrom;
+            }
+            AppointmentCodec.StreamReader slots = new AppointmentCodec.StreamReader(in);
+            List<Appointment> restored = new ArrayList<>();
+            Appointment appointment;
+            while ((appointment = slots.next()) != null) {
+                restored.add(appointment);
+            }
+            store.restore(restored);
+            return replayFrom;
+        }
+    }
+
+    private void loadLegacySnapshot(DataInputStream in) throws IOException {
+        Map<String, String> doctorNames = new HashMap<>();
+        List<Appointment> restored = new ArrayList<>();
+        while (in.readByte() != 0) {
+            int id = in.readInt();
+            LocalDateTime dateTime = fromEpochMinute(in.readLong());
+            String doctor = doctorNames.computeIfAbsent(in.readUTF(), name -> name);
+            Appointment appointment = new Appointment(id, doctor, dateTime);
+            if (in.readBoolean()) {
+                appointment.bookAppointment(in.readUTF(), in.readUTF());
+            }
+            restored.add(appointment);
+        }
+        store.restore(restored);
+    }
+
+    /**
+     * Replays one segment. The newest segment may end in a record torn by a
+     * crash, which is cut off; in any other segment a bad record is an error.
+     * Records are checked and decoded in place in the mapped file.
+     */
+    private void replaySegment(Path file, AppointmentCodec.Dictionary doctorNames, CRC32 crc, boolean newest)
+            throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            if (size == 0) {
+                return;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Journal " + file.getFileName() + " is too large to replay");
+            }
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int valid = 0;
+            while (buffer.remaining() >= HEADER_BYTES) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                int start = buffer.position();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                buffer.limit(start + length);
+                crc.reset();
+                crc.update(buffer);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                buffer.position(start);
+                apply(buffer, doctorNames);
+                buffer.limit((int) size).position(start + length);
+                valid = buffer.position();
+            }
+            if (valid < size) {
+                if (!newest) {
+                    throw new IOException("Journal " + file.getFileName() + " has a corrupt record at byte " + valid
+                                          + "; later segments depend on it, so it cannot be cut off");
+                }
+                System.err.println("Journal " + file.getFileName() + ": discarding " + (size - valid)
+                                   + " byte(s) of incomplete or corrupt records");
+                in.truncate(valid);
+            }
+        }
+    }
+
+    private void apply(ByteBuffer payload, AppointmentCodec.Dictionary doctorNames) {
+        byte type = AppointmentCodec.getType(payload);
+        Appointment appointment;
+        switch (type) {
+            case AppointmentCodec.SLOT:
+                store.add(AppointmentCodec.getSlot(payload, doctorNames));
+                break;
+            case AppointmentCodec.BOOKED:
+                appointment = store.findById(AppointmentCodec.getUnsigned(payload));
+                if (appointment != null) {
+                    store.book(appointment, AppointmentCodec.getString(payload), AppointmentCodec.getString(payload));
+                }
+                break;
+            case AppointmentCodec.CANCELLED:
+                appointment = store.findById(AppointmentCodec.getUnsigned(payload));
+                if (appointment != null) {
+                    store.cancel(appointment);
+                }
+                break;
+            case LEGACY_SLOT_CREATED:
+            case LEGACY_BOOKED:
+            case LEGACY_CANCELLED:
+                applyLegacy(type, payload, doctorNames);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * Fixed-width records from before AppointmentCodec: int IDs and
+     * minutes as longs, strings behind an unsigned short length
+     */
+    private void applyLegacy(byte type, ByteBuffer payload, AppointmentCodec.Dictionary doctorNames) {
+        int id = payload.getInt();
+        Appointment appointment;
+        switch (type) {
+            case LEGACY_SLOT_CREATED:
+                LocalDateTime dateTime = fromEpochMinute(payload.getLong());
+                String doctor = doctorNames.intern(readLegacyString(payload));
+                store.add(new Appointment(id, doctor, dateTime));
+                break;
+            case LEGACY_BOOKED:
+                appointment = store.findById(id);
+                if (appointment != null) {
+                    store.book(appointment, readLegacyString(payload), readLegacyString(payload));
+                }
+                break;
+            default:
+                appointment = store.findById(id);
+                if (appointment != null) {
+                    store.cancel(appointment);
+                }
+        }
+    }
+
+    // Store events
+
+    @Override
+    public void slotAdded(Appointment appointment) {
+        synchronized (this) {
+            ByteBuffer record = startRecord(AppointmentCodec.slotSize(appointment, null, INLINE));
+            if (record != null) {
+                AppointmentCodec.putSlot(record, appointment, null, INLINE);
+                finishRecord();
+            }
+        }
+        Appointment.Booking booking = appointment.getBooking();
+        if (booking != null) {
+            slotBooked(appointment, booking);
+        }
+    }
+
+    @Override
+    public synchronized void slotBooked(Appointment appointment, Appointment.Booking booking) {
+        ByteBuffer record = startRecord(AppointmentCodec.bookedSize(appointment.getId(), booking.patientName(),
+                                                                    booking.patientEmail()));
+        if (record != null) {
+            AppointmentCodec.putBooked(record, appointment.getId(), booking.patientName(), booking.patientEmail());
+            finishRecord();
+        }
+    }
+
+    @Override
+    public synchronized void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+        ByteBuffer record = startRecord(AppointmentCodec.cancelledSize(appointment.getId()));
+        if (record != null) {
+            AppointmentCodec.putCancelled(record, appointment.getId());
+            finishRecord();
+        }
+    }
+
+    /**
+     * Reserves room for one record in the append buffer and returns it
+     * positioned at the payload, or null if the journal is closed. The
+     * caller encodes the payload and calls {@link #finishRecord()}.
+     */
+    private ByteBuffer startRecord(int payloadLength) {
+        if (closed) {
+            System.err.println("Journal is closed; change not recorded");
+            return null;
+        }
+        pending = ensureRoom(pending, HEADER_BYTES + payloadLength);
+        payloadStart = pending.position() + HEADER_BYTES;
+        pending.position(payloadStart);
+        return pending;
+    }
+
+    /**
+     * Fills in the header of the record just encoded and hands it to the committer
+     */
+    private void finishRecord() {
+        int end = pending.position();
+        crc.reset();
+        crc.update(pending.array(), payloadStart, end - payloadStart);
+        pending.putInt(payloadStart - HEADER_BYTES, end - payloadStart);
+        pending.putInt(payloadStart - HEADER_BYTES + 4, (int) crc.getValue());
+        appendedSeq++;
+        notifyAll();
+    }
+
+    /**
+     * Blocks until every change recorded so far is on disk. Throws at once,
+     * without waiting for the retries, while journal writes are failing.
+     */
+    public synchronized void sync() throws IOException {
+        long target = appendedSeq;
+        boolean interrupted = false;
+        try {
+            while (committedSeq < target) {
+                if (failure != null) {
+                    throw failure;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Group commit
+
+    private void runCommitter() {
+        long retryDelay = 0;
+        while (true) {
+            ByteBuffer batch;
+            long upTo;
+            FileChannel target;
+            synchronized (this) {
+                try {
+                    long retryAt = System.currentTimeMillis() + retryDelay;
+                    for (long left = retryDelay; left > 0 && !closed; left = retryAt - System.currentTimeMillis()) {
+                        wait(left);
+                    }
+                    while (pending.position() == 0 && !rotateRequested && !closed) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed && (pending.position() == 0 || failure != null)) {
+                    if (pending.position() > 0) {
+                        System.err.println("Journal closed with " + (appendedSeq - committedSeq)
+                                           + " change(s) that could not be saved");
+                    }
+                    return;
+                }
+                batch = pending;
+                batch.flip();
+                pending = spare;
+                spare = null;
+                upTo = appendedSeq;
+                target = channel;
+            }
+            try {
+                if (truncateBeforeWrite) {
+                    target.truncate(segmentBytes);
+                    truncateBeforeWrite = false;
+                }
+                while (batch.hasRemaining()) {
+                    target.write(batch);
+                }
+                target.force(false);
+            } catch (IOException e) {
+                // Part of the batch may be in the file; cut it off before the retry
+                truncateBeforeWrite = true;
+                retryDelay = Math.min(Math.max(retryDelay * 2, FIRST_RETRY_MILLIS), MAX_RETRY_MILLIS);
+                writeFailed(batch, e, retryDelay);
+                continue;
+            }
+            retryDelay = 0;
+            segmentBytes += batch.limit();
+            synchronized (this) {
+                spare = batch.capacity() > RETAINED_BUFFER_BYTES ? ByteBuffer.allocate(INITIAL_BUFFER_BYTES)
+                                                                 : batch.clear();
+                recordsInSegment += (int) (upTo - committedSeq);
+                committedSeq = upTo;
+                if (failure != null) {
+                    failure = null;
+                    System.err.println("Journal writes recovered");
+                }
+                if (rotateRequested) {
+                    rotate();
+                } else if (recordsInSegment >= snapshotEvery && !snapshotScheduled) {
+                    snapshotScheduled = true;
+                    Thread snapshotter = new Thread(this::backgroundSnapshot, "booking-journal-snapshot");
+                    snapshotter.setDaemon(true);
+                    snapshotter.start();
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Puts a batch that could not be written back in front of the records
+     * appended since, so they are retried in order, and wakes every waiting
+     * {@link #sync()} to report the failure
+     */
+    private synchronized void writeFailed(ByteBuffer batch, IOException e, long retryDelay) {
+        if (failure == null) {
+            System.err.println("Journal write failed, retrying every " + MAX_RETRY_MILLIS / 1000
+                               + "s at most: " + e.getMessage());
+        }
+        failure = e;
+        pending.flip();
+        batch.position(batch.limit()).limit(batch.capacity());
+        batch = ensureRoom(batch, pending.remaining());
+        batch.put(pending);
+        spare = pending.clear();
+        pending = batch;
+        notifyAll();
+    }
+
+    /**
+     * The buffer, or a copy of it twice as large as needed, with room for
+     * {@code bytes} more after its position
+     */
+    private static ByteBuffer ensureRoom(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, (buffer.position() + bytes) * 2));
+        buffer.flip();
+        return larger.put(buffer);
+    }
+
+    /**
+     * Switches appends to the next segment. Called by the committer with the
+     * monitor held, after everything queued before the request was flushed.
+     */
+    private void rotate() {
+        try {
+            FileChannel next = FileChannel.open(segmentPath(segment + 1), StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            channel.close();
+            channel = next;
+            segment++;
+            recordsInSegment = 0;
+            segmentBytes = 0;
+        } catch (IOException e) {
+            failure = e;
+        }
+        rotateRequested = false;
+    }
+
+    // Snapshots
+
+    private void backgroundSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException e) {
+            System.err.println("Snapshot failed: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                snapshotScheduled = false;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the store and deletes the segments it covers
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long replayFrom;
+            synchronized (this) {
+                if (failure != null) {
+                    throw failure;
+                }
+                rotateRequested = true;
+                notifyAll();
+                while (rotateRequested && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while rotating journal");
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                replayFrom = segment;
+            }
+            writeSnapshot(replayFrom);
+            for (long number : listSegments()) {
+                if (number < replayFrom) {
+                    Files.deleteIfExists(segmentPath(number));
+                }
+            }
+        }
+    }
+
+    private void writeSnapshot(long replayFrom) throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+            header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(replayFrom).flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            // In date/time order, so recovery can restore it without sorting
+            AppointmentCodec.StreamWriter slots = new AppointmentCodec.StreamWriter(out);
+            for (Iterator<Appointment> inOrder = store.slotsInOrder().iterator(); inOrder.hasNext(); ) {
+                slots.write(inOrder.next());
+            }
+            slots.finish();
+            out.force(true);
+        } catch (IOException e) {
+            // The previous snapshot and the segments since it are still complete
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Flushes pending records, writes a final snapshot and stops the committer
+     */
+    @Override
+    public void close() throws IOException {
+        store.removeListener(this);
+        try {
+            snapshot();
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                committer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                channel.close();
+            }
+        }
+    }
+
+    // Files and encoding helpers
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                                              name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    static long toEpochMinute(LocalDateTime dateTime) {
+        return AppointmentCodec.epochMinute(dateTime);
+    }
+
+    static LocalDateTime fromEpochMinute(long epochMinute) {
+        return AppointmentCodec.fromEpochMinute(epochMinute);
+    }
+
+    private static String readLegacyString(ByteBuffer payload) {
+        int length = payload.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
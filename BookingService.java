@@ -0,0 +1,436 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Booking operations shared by the interactive menu and the HTTP API.
+ * Validates input, applies the change to the store, waits for it to be
+ * journaled and queues the confirmation email.
+ */
+public class BookingService {
+    /**
+     * Result of a book, cancel or hold request
+     */
+    public enum Outcome {
+        BOOKED, CANCELLED, NOT_FOUND, ALREADY_BOOKED, NOT_BOOKED, INVALID_PATIENT,
+        RESERVED, RELEASED, HELD, HOLD_EXPIRED,
+        /** The patient already has an appointment that overlaps this one */
+        OVERLAPPING,
+        /** The patient already has the maximum number of upcoming appointments */
+        QUOTA_EXCEEDED,
+        /** This node is a read-only follower; send changes to the leader */
+        NOT_LEADER,
+        /** The change could not be confirmed by a majority of nodes in time */
+        UNAVAILABLE,
+        /**
+         * The journal could not save the change. A booking is undone; a
+         * cancellation stays in effect and is saved once journal writes recover.
+         */
+        NOT_PERSISTED
+    }
+
+    /**
+     * Result of a reserve request; hold is set when the outcome is RESERVED
+     */
+    public record Reservation(Outcome outcome, Appointment.Hold hold) {
+    }
+
+    private final AppointmentStore store;
+    private final BookingJournal journal;
+    private final NotificationQueue notifications;
+    private final Waitlist waitlist;
+    private final SlotHolds holds;
+    private final ReplicationNode replication;
+    private final PatientRegistry patients;
+    private final AvailabilitySnapshots availability;
+
+    /**
+     * How long a replicated change may wait for a majority before it is reported UNAVAILABLE
+     */
+    private static final long REPLICATION_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * The patient registry and availability snapshots are listeners on the
+     * same store; the caller attaches them once and shares them with the
+     * menu and the API
+     */
+    public BookingService(AppointmentStore store, BookingJournal journal, NotificationQueue notifications,
+                          PatientRegistry patients, AvailabilitySnapshots availability) {
+        this(store, journal, notifications, patients, availability, null, null, null);
+    }
+
+    /**
+     * With a waitlist, cancelled slots are offered to waiting patients before
+     * anyone else; with slot holds, a slot can be reserved first and booked
+     * once the patient's details are in. Either may be null.
+     */
+    public BookingService(AppointmentStore store, BookingJournal journal, NotificationQueue notifications,
+                          PatientRegistry patients, AvailabilitySnapshots availability,
+                          Waitlist waitlist, SlotHolds holds) {
+        this(store, journal, notifications, patients, availability, waitlist, holds, null);
+    }
+
+    /**
+     * Replicated: bookings and cancellations go through the cluster leader,
+     * reads are served from the node's own copy of the store. Holds and
+     * the waitlist are not replicated, so a node refuses them.
+     */
+    public BookingService(ReplicationNode replication, NotificationQueue notifications,
+                          PatientRegistry patients, AvailabilitySnapshots availability) {
+        this(replication.getStore(), null, notifications, patients, availability, null, null, replication);
+    }
+
+    private BookingService(AppointmentStore store, BookingJournal journal, NotificationQueue notifications,
+                           PatientRegistry patients, AvailabilitySnapshots availability,
+                           Waitlist waitlist, SlotHolds holds, ReplicationNode replication) {
+        if (availability.getStore() != store) {
+            throw new IllegalArgumentException("Availability snapshots belong to another store");
+        }
+        this.store = store;
+        this.journal = journal;
+        this.notifications = notifications;
+        this.waitlist = waitlist;
+        this.holds = holds;
+        this.replication = replication;
+        this.patients = patients;
+        this.availability = availability;
+    }
+
+    public Waitlist getWaitlist() {
+        return waitlist;
+    }
+
+    public SlotHolds getHolds() {
+        return holds;
+    }
+
+    public AppointmentStore getStore() {
+        return store;
+    }
+
+    public ReplicationNode getReplication() {
+        return replication;
+    }
+
+    public PatientRegistry getPatients() {
+        return patients;
+    }
+
+    /**
+     * Latest published version of the slots; listings and searches read from it without blocking
+     */
+    public AvailabilitySnapshots.Snapshot snapshot() {
+        return availability.current();
+    }
+
+    /**
+     * Books a slot for a patient and queues the confirmation email
+     */
+    public Outcome book(int appointmentId, String patientName, String patientEmail) {
+        long start = Metrics.start();
+        Outcome outcome = doBook(appointmentId, patientName, patientEmail);
+        Metrics.record(Metrics.Operation.BOOK, start, outcome == Outcome.BOOKED);
+        return outcome;
+    }
+
+    private Outcome doBook(int appointmentId, String patientName, String patientEmail) {
+        if (patientName == null || patientName.trim().isEmpty()
+                || !EmailServiceSimple.isValidEmail(patientEmail)) {
+            return Outcome.INVALID_PATIENT;
+        }
+        Appointment appointment = store.findById(appointmentId);
+        if (appointment == null) {
+            return Outcome.NOT_FOUND;
+        }
+        Appointment.Booking booking = new Appointment.Booking(patientName.trim(), patientEmail.trim());
+        Outcome outcome = patients.admit(patientEmail, appointment, () -> {
+            if (replication != null) {
+                return await(replication.book(appointmentId, booking.patientName(), booking.patientEmail()));
+            }
+            if (!store.book(appointment, booking)) {
+                return appointment.isHeld() ? Outcome.HELD : Outcome.ALREADY_BOOKED;
+            }
+            return Outcome.BOOKED;
+        });
+        return outcome == Outcome.BOOKED ? confirmBooked(appointment, booking) : outcome;
+    }
+
+    /**
+     * Holds a free slot so nobody else can book it while the patient's details are collected
+     */
+    public Reservation reserve(int appointmentId, String holder) {
+        long start = Metrics.start();
+        Reservation reservation = doReserve(appointmentId, holder);
+        Metrics.record(Metrics.Operation.RESERVE, start, reservation.outcome() == Outcome.RESERVED);
+        return reservation;
+    }
+
+    private Reservation doReserve(int appointmentId, String holder) {
+        requireLocal("Slot holds");
+        if (holds == null) {
+            throw new IllegalStateException("Slot holds are not enabled");
+        }
+        Appointment appointment = store.findById(appointmentId);
+        if (appointment == null) {
+            return new Reservation(Outcome.NOT_FOUND, null);
+        }
+        Appointment.Hold hold = holds.reserve(appointment, holder == null || holder.isBlank() ? "anonymous" : holder.trim());
+        if (hold == null) {
+            return new Reservation(appointment.isHeld() ? Outcome.HELD : Outcome.ALREADY_BOOKED, null);
+        }
+        return new Reservation(Outcome.RESERVED, hold);
+    }
+
+    /**
+     * Books a reserved slot for a patient and queues the confirmation email
+     */
+    public Outcome confirm(int appointmentId, long token, String patientName, String patientEmail) {
+        long start = Metrics.start();
+        Outcome outcome = doConfirm(appointmentId, token, patientName, patientEmail);
+        Metrics.record(Metrics.Operation.BOOK, start, outcome == Outcome.BOOKED);
+        return outcome;
+    }
+
+    private Outcome doConfirm(int appointmentId, long token, String patientName, String patientEmail) {
+        requireLocal("Slot holds");
+        if (holds == null) {
+            throw new IllegalStateException("Slot holds are not enabled");
+        }
+        if (patientName == null || patientName.trim().isEmpty()
+                || !EmailServiceSimple.isValidEmail(patientEmail)) {
+            return Outcome.INVALID_PATIENT;
+        }
+        Appointment appointment = store.findById(appointmentId);
+        if (appointment == null) {
+            return Outcome.NOT_FOUND;
+        }
+        Appointment.Booking booking = new Appointment.Booking(patientName.trim(), patientEmail.trim());
+        Outcome outcome = patients.admit(patientEmail, appointment,
+            () -> holds.confirm(appointment, token, booking)
+                  ? Outcome.BOOKED : Outcome.HOLD_EXPIRED);
+        return outcome == Outcome.BOOKED ? confirmBooked(appointment, booking) : outcome;
+    }
+
+    /**
+     * Gives a reserved slot back before its hold expires
+     */
+    public Outcome release(int appointmentId, long token) {
+        requireLocal("Slot holds");
+        if (holds == null) {
+            throw new IllegalStateException("Slot holds are not enabled");
+        }
+        Appointment appointment = store.findById(appointmentId);
+        if (appointment == null) {
+            return Outcome.NOT_FOUND;
+        }
+        return holds.release(appointment, token) ? Outcome.RELEASED : Outcome.HOLD_EXPIRED;
+    }
+
+    /**
+     * Persists a new booking and queues its confirmation email. The email
+     * is built from the booking just made, not from the live slot, which
+     * may be cancelled or rebooked before the email goes out. A booking
+     * the journal cannot save is undone and no email is sent.
+     */
+    private Outcome confirmBooked(Appointment appointment, Appointment.Booking booking) {
+        if (!persist()) {
+            store.cancelBooking(appointment, booking);
+            return Outcome.NOT_PERSISTED;
+        }
+        if (!notifications.enqueue(appointment, booking)) {
+            System.err.println("⚠️  Confirmation email for appointment " + appointment.getId()
+                               + " could not be queued");
+        }
+        return Outcome.BOOKED;
+    }
+
+    /**
+     * Cancels a booked slot
+     */
+    public Outcome cancel(int appointmentId) {
+        return cancel(appointmentId, null);
+    }
+
+    /**
+     * Cancels a slot only while it is booked with the given email; a null
+     * email cancels any booking. On a cluster node the owner is checked
+     * against the node's copy just before the cancellation is proposed.
+     */
+    public Outcome cancel(int appointmentId, String patientEmail) {
+        long start = Metrics.start();
+        Outcome outcome = doCancel(appointmentId, patientEmail);
+        Metrics.record(Metrics.Operation.CANCEL, start, outcome == Outcome.CANCELLED);
+        return outcome;
+    }
+
+    private Outcome doCancel(int appointmentId, String patientEmail) {
+        Appointment appointment = store.findById(appointmentId);
+        if (appointment == null) {
+            return Outcome.NOT_FOUND;
+        }
+        if (replication != null) {
+            String booked = appointment.getPatientEmail();
+            if (patientEmail != null && (booked == null || !PatientRegistry.normalizeEmail(booked)
+                                                              .equals(PatientRegistry.normalizeEmail(patientEmail)))) {
+                return Outcome.NOT_BOOKED;
+            }
+            return await(replication.cancel(appointmentId));
+        }
+        if (!(waitlist != null ? waitlist.cancel(appointment, patientEmail)
+                               : store.cancel(appointment, null, patientEmail))) {
+            return Outcome.NOT_BOOKED;
+        }
+        return persist() ? Outcome.CANCELLED : Outcome.NOT_PERSISTED;
+    }
+
+    /**
+     * Adds a patient to a doctor's waitlist for slots with from <= time < to
+     */
+    public Waitlist.Entry joinWaitlist(String doctorName, String patientName, String patientEmail,
+                                       LocalDateTime from, LocalDateTime to, int priority) {
+        requireLocal("Waitlists");
+        if (waitlist == null) {
+            throw new IllegalStateException("Waitlist is not enabled");
+        }
+        if (doctorName == null || doctorName.isBlank() || patientName == null || patientName.isBlank()
+                || !EmailServiceSimple.isValidEmail(patientEmail)) {
+            throw new IllegalArgumentException("Doctor, patient name and a valid email are required");
+        }
+        return waitlist.join(doctorName.trim(), patientName.trim(), patientEmail.trim(), from, to, priority);
+    }
+
+    /**
+     * Books a slot offered to a waitlisted patient
+     */
+    public Outcome acceptOffer(int appointmentId, String patientEmail) {
+        requireLocal("Waitlists");
+        Appointment appointment = store.findById(appointmentId);
+        if (waitlist == null || appointment == null || patientEmail == null) {
+            return Outcome.NOT_FOUND;
+        }
+        AtomicReference<Appointment.Booking> accepted = new AtomicReference<>();
+        Outcome outcome = patients.admit(patientEmail, appointment, () -> {
+            accepted.set(waitlist.accept(appointmentId, patientEmail));
+            return accepted.get() != null ? Outcome.BOOKED : Outcome.NOT_FOUND;
+        });
+        return outcome == Outcome.BOOKED ? confirmBooked(appointment, accepted.get()) : outcome;
+    }
+
+    /**
+     * Turns down a waitlist offer so it moves on to the next patient
+     */
+    public boolean declineOffer(int appointmentId, String patientEmail) {
+        requireLocal("Waitlists");
+        return waitlist != null && waitlist.decline(appointmentId, patientEmail);
+    }
+
+    /**
+     * A patient's booked appointments in date/time order, straight from the patient registry
+     */
+    public List<Appointment> appointmentsOf(String patientEmail) {
+        return patients.appointmentsOf(patientEmail);
+    }
+
+    /**
+     * Free slots in date/time order, as of the latest snapshot
+     */
+    public Collection<Appointment> availableSlots() {
+        return availability.current().availableSlots();
+    }
+
+    public Collection<Appointment> bookedSlots() {
+        return store.bookedSlots();
+    }
+
+    public List<Appointment> searchByDoctor(String query) {
+        return searchByDoctor(query, Integer.MAX_VALUE);
+    }
+
+    /**
+     * First {@code limit} slots in date/time order for doctors matching the query, as of the latest snapshot
+     */
+    public List<Appointment> searchByDoctor(String query, int limit) {
+        long start = Metrics.start();
+        List<Appointment> matches = availability.current().slotsOf(store.doctors().match(query), limit);
+        Metrics.record(Metrics.Operation.SEARCH_DOCTOR, start, true);
+        return matches;
+    }
+
+    public List<Appointment> searchByDate(LocalDate date) {
+        long start = Metrics.start();
+        List<Appointment> matches = availability.current().findByDate(date);
+        Metrics.record(Metrics.Operation.SEARCH_DATE, start, true);
+        return matches;
+    }
+
+    public Stream<Appointment> searchByWeek(LocalDate anyDayOfWeek) {
+        return store.slotsInWeek(anyDayOfWeek);
+    }
+
+    /**
+     * Free slots with from <= time < to, optionally for one doctor (null means any)
+     */
+    public Stream<Appointment> freeSlots(String doctorName, LocalDateTime from, LocalDateTime to) {
+        return doctorName == null || doctorName.isBlank()
+            ? store.freeSlotsBetween(from, to)
+            : store.freeSlotsForDoctor(doctorName, from, to);
+    }
+
+    /**
+     * Earliest free slot at or after the given time, or null if there is none
+     */
+    public Appointment nextAvailable(LocalDateTime from) {
+        return store.nextAvailable(from);
+    }
+
+    /**
+     * Holds and waitlist offers change the store outside the replicated log,
+     * so a cluster node refuses them rather than let the nodes drift apart
+     */
+    private void requireLocal(String feature) {
+        if (replication != null) {
+            throw new UnsupportedOperationException(feature + " are not replicated, so a cluster node does not offer them");
+        }
+    }
+
+    /**
+     * Waits for a replicated change to be committed and applied
+     */
+    private static Outcome await(CompletableFuture<Outcome> change) {
+        try {
+            return change.get(REPLICATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.UNAVAILABLE;
+        } catch (ExecutionException | TimeoutException e) {
+            return Outcome.UNAVAILABLE;
+        }
+    }
+
+    /**
+     * Waits until recorded changes are durable. Returns false if they could not be saved.
+     */
+    public boolean persist() {
+        if (journal == null) {
+            return true;
+        }
+        long start = Metrics.start();
+        try {
+            journal.sync();
+            Metrics.record(Metrics.Operation.JOURNAL_SYNC, start, true);
+            return true;
+        } catch (IOException e) {
+            Metrics.record(Metrics.Operation.JOURNAL_SYNC, start, false);
+            System.err.println("⚠️  Could not save changes: " + e.getMessage());
+            return false;
+        }
+    }
+}
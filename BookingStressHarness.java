@@ -0,0 +1,282 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Races many threads booking, cancelling, holding and confirming the same
+ * few slots through one {@link BookingService}, and checks that:
+ *
+ *   - a slot is never booked while it is booked, nor cancelled while free;
+ *   - every BOOKED and CANCELLED answer matches exactly one store event;
+ *   - the store's booked, free and held counts add up and match its
+ *     listings and the latest availability snapshot;
+ *   - each patient's registry entry holds exactly the slots booked in
+ *     their name, none of them overlapping and no more than the quota;
+ *   - every booking queued one confirmation email;
+ *   - the journal recovers the same bookings into a fresh store.
+ *
+ * Patients come from a small shared pool, so the overlap and quota checks
+ * race too. Holds last a few milliseconds, so some lapse before they are
+ * confirmed.
+ *
+ * Usage: java BookingStressHarness [threads] [seconds] [slots]
+ * Exits with status 1 if any check fails.
+ */
+public class BookingStressHarness {
+    private static final int DOCTORS = 5;
+    private static final int PATIENTS = 40;
+    private static final LocalDateTime FIRST_SLOT = LocalDateTime.of(2030, 1, 7, 9, 0);
+    private static final Duration HOLD_TTL = Duration.ofMillis(30);
+    private static final long SHUTDOWN_SECONDS = 30;
+
+    private final List<String> violations = Collections.synchronizedList(new ArrayList<>());
+    // Per slot: booked according to the store's own events
+    private final Map<Integer, Boolean> bookedEvents = new ConcurrentHashMap<>();
+    private final AtomicLong bookEvents = new AtomicLong();
+    private final AtomicLong cancelEvents = new AtomicLong();
+    private final AtomicLong booked = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong confirmations = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        int slots = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        System.exit(new BookingStressHarness().run(threads, (long) (seconds * 1000), slots) ? 0 : 1);
+    }
+
+    private boolean run(int threads, long runMillis, int slots) throws Exception {
+        Path directory = Files.createTempDirectory("medibook-stress");
+        AppointmentStore store = new AppointmentStore();
+        store.addListener(new StoreListener() {
+            @Override
+            public void slotBooked(Appointment appointment, Appointment.Booking booking) {
+                bookEvents.incrementAndGet();
+                if (Boolean.TRUE.equals(bookedEvents.put(appointment.getId(), true))) {
+                    violations.add("Slot " + appointment.getId() + " booked by " + booking.patientEmail()
+                                   + " while already booked");
+                }
+            }
+
+            @Override
+            public void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+                cancelEvents.incrementAndGet();
+                if (!Boolean.TRUE.equals(bookedEvents.put(appointment.getId(), false))) {
+                    violations.add("Slot " + appointment.getId() + " cancelled while free");
+                }
+            }
+        });
+        List<LocalDateTime> times = new ArrayList<>();
+        for (int i = 0; i < (slots + DOCTORS - 1) / DOCTORS; i++) {
+            times.add(FIRST_SLOT.plusMinutes(15L * i));
+        }
+        for (int d = 0; d < DOCTORS; d++) {
+            store.createAll("Doctor " + d, times);
+        }
+        BookingJournal journal = BookingJournal.open(directory, store);
+        NotificationQueue notifications = new NotificationQueue(batch -> {
+            confirmations.addAndGet(batch.size());
+            return ConfirmationSender.Delivery.all(batch.size());
+        }, 2, 50);
+        TimingWheel timers = new TimingWheel(5, TimeUnit.MILLISECONDS, "stress-holds");
+        PatientRegistry patients = PatientRegistry.attach(store);
+        AvailabilitySnapshots availability = AvailabilitySnapshots.attach(store);
+        BookingService service = new BookingService(store, journal, notifications, patients, availability, null,
+                                                    new SlotHolds(store, HOLD_TTL, timers));
+        System.out.printf("%d threads, %.1f s, %d slots, %d patients, data in %s%n",
+                          threads, runMillis / 1000.0, store.size(), PATIENTS, directory);
+
+        long deadline = System.currentTimeMillis() + runMillis;
+        List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            clients.add(new Thread(() -> client(service, store.size(), deadline), "client-" + t));
+        }
+        for (Thread client : clients) {
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        // Let every hold lapse before counting
+        Thread.sleep(HOLD_TTL.toMillis() * 5);
+        timers.close();
+        notifications.shutdown(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+
+        check(store, patients, availability);
+        journal.close();
+        checkRecovery(store, directory);
+
+        System.out.printf("%,d operations (%,.0f/s): %,d booked, %,d cancelled, %,d refused, %,d holds lapsed%n",
+                          operations.get(), operations.get() * 1000.0 / runMillis, booked.get(), cancelled.get(),
+                          refused.get(), expired.get());
+        if (violations.isEmpty()) {
+            System.out.println("✅ No double bookings; counts, registry, snapshots and journal all agree");
+            return true;
+        }
+        for (String violation : violations.subList(0, Math.min(violations.size(), 20))) {
+            System.out.println("❌ " + violation);
+        }
+        if (violations.size() > 20) {
+            System.out.println("❌ ... and " + (violations.size() - 20) + " more");
+        }
+        return false;
+    }
+
+    /**
+     * Until the deadline: book, cancel, hold and confirm, or hold and release random slots
+     */
+    private void client(BookingService service, int slots, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                int slot = 1 + random.nextInt(slots);
+                int patient = random.nextInt(PATIENTS);
+                String name = "Patient " + patient;
+                String email = "patient" + patient + "@example.com";
+                int operation = random.nextInt(10);
+                if (operation < 4) {
+                    count(service.book(slot, name, email));
+                } else if (operation < 7) {
+                    count(service.cancel(slot));
+                } else {
+                    BookingService.Reservation reservation = service.reserve(slot, name);
+                    if (reservation.outcome() != BookingService.Outcome.RESERVED) {
+                        count(reservation.outcome());
+                    } else if (operation < 9) {
+                        if (random.nextInt(4) == 0) {
+                            // Sometimes too slow, so the hold lapses first
+                            Thread.sleep(random.nextLong(HOLD_TTL.toMillis() * 2));
+                        }
+                        count(service.confirm(slot, reservation.hold().token(), name, email));
+                    } else {
+                        service.release(slot, reservation.hold().token());
+                    }
+                }
+                operations.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            violations.add(Thread.currentThread().getName() + " failed: " + e);
+        }
+    }
+
+    private void count(BookingService.Outcome outcome) {
+        switch (outcome) {
+            case BOOKED:
+                booked.incrementAndGet();
+                break;
+            case CANCELLED:
+                cancelled.incrementAndGet();
+                break;
+            case HOLD_EXPIRED:
+                expired.incrementAndGet();
+                break;
+            case NOT_PERSISTED:
+            case INVALID_PATIENT:
+            case NOT_FOUND:
+                violations.add("Unexpected outcome " + outcome);
+                break;
+            default:
+                refused.incrementAndGet();
+        }
+    }
+
+    private void check(AppointmentStore store, PatientRegistry patients, AvailabilitySnapshots availability) {
+        if (booked.get() != bookEvents.get()) {
+            violations.add(booked.get() + " BOOKED answers but " + bookEvents.get() + " booking events");
+        }
+        if (cancelled.get() != cancelEvents.get()) {
+            violations.add(cancelled.get() + " CANCELLED answers but " + cancelEvents.get() + " cancellation events");
+        }
+        if (store.bookedCount() != bookEvents.get() - cancelEvents.get()) {
+            violations.add("Store counts " + store.bookedCount() + " booked slots, events leave "
+                           + (bookEvents.get() - cancelEvents.get()));
+        }
+        if (store.heldCount() != 0) {
+            violations.add(store.heldCount() + " hold(s) outlived their expiry");
+        }
+        if (store.bookedCount() + store.availableCount() + store.heldCount() != store.size()) {
+            violations.add("Booked " + store.bookedCount() + " + free " + store.availableCount() + " + held "
+                           + store.heldCount() + " is not " + store.size() + " slots");
+        }
+        if (store.bookedSlots().size() != store.bookedCount() || store.availableSlots().size() != store.availableCount()) {
+            violations.add("Store listings disagree with its counts");
+        }
+        for (Appointment appointment : store.bookedSlots()) {
+            if (!appointment.isBooked() || !Boolean.TRUE.equals(bookedEvents.get(appointment.getId()))) {
+                violations.add("Slot " + appointment.getId() + " listed as booked but is not");
+            }
+        }
+        for (Appointment appointment : store.availableSlots()) {
+            if (appointment.isBooked() || appointment.isHeld()) {
+                violations.add("Slot " + appointment.getId() + " listed as free but is not");
+            }
+        }
+        AvailabilitySnapshots.Snapshot snapshot = availability.current();
+        if (snapshot.bookedCount() != store.bookedCount() || snapshot.availableCount() != store.availableCount()
+                || snapshot.heldCount() != store.heldCount()) {
+            violations.add("Latest snapshot counts " + snapshot.bookedCount() + " booked, " + snapshot.availableCount()
+                           + " free, " + snapshot.heldCount() + " held; the store " + store.bookedCount() + ", "
+                           + store.availableCount() + ", " + store.heldCount());
+        }
+        // Registry entries are exactly the slots booked in each patient's name
+        Map<String, Set<Integer>> byPatient = new HashMap<>();
+        for (Appointment appointment : store.bookedSlots()) {
+            byPatient.computeIfAbsent(appointment.getPatientEmail(), k -> new TreeSet<>()).add(appointment.getId());
+        }
+        Duration length = patients.getAppointmentLength();
+        for (int p = 0; p < PATIENTS; p++) {
+            String email = "patient" + p + "@example.com";
+            List<Appointment> registered = patients.appointmentsOf(email);
+            Set<Integer> ids = new TreeSet<>();
+            for (Appointment appointment : registered) {
+                ids.add(appointment.getId());
+            }
+            if (!ids.equals(byPatient.getOrDefault(email, Set.of()))) {
+                violations.add(email + " is registered for " + ids + " but booked " + byPatient.get(email));
+            }
+            if (registered.size() > patients.getMaxUpcoming()) {
+                violations.add(email + " has " + registered.size() + " appointments, over the quota of "
+                               + patients.getMaxUpcoming());
+            }
+            for (int i = 1; i < registered.size(); i++) {
+                if (registered.get(i).getDateTime().isBefore(registered.get(i - 1).getDateTime().plus(length))) {
+                    violations.add(email + " has overlapping appointments " + registered.get(i - 1).getId()
+                                   + " and " + registered.get(i).getId());
+                }
+            }
+        }
+        if (confirmations.get() != booked.get()) {
+            violations.add(confirmations.get() + " confirmation(s) sent for " + booked.get() + " booking(s)");
+        }
+    }
+
+    /**
+     * Reopens the journal into a fresh store and compares every booking
+     */
+    private void checkRecovery(AppointmentStore store, Path directory) throws Exception {
+        AppointmentStore recovered = new AppointmentStore();
+        BookingJournal.open(directory, recovered).close();
+        if (recovered.size() != store.size()) {
+            violations.add("Recovered " + recovered.size() + " of " + store.size() + " slots");
+        }
+        for (Appointment appointment : store.allSlots()) {
+            Appointment copy = recovered.findById(appointment.getId());
+            if (copy == null || !Objects.equals(copy.getBooking(), appointment.getBooking())) {
+                violations.add("Slot " + appointment.getId() + " recovered as "
+                               + (copy == null ? "missing" : copy.getBooking()) + " instead of "
+                               + appointment.getBooking());
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Round-trips random values, records and streams through
+ * {@link AppointmentCodec} and feeds it damaged input, checking that:
+ *
+ *   - varints and zigzag-coded minutes come back unchanged at every edge
+ *     (0, 7-bit boundaries, negative and extreme values), and the size
+ *     functions match the bytes written;
+ *   - strings come back as the JDK's own UTF-8 encoding would give them,
+ *     including 2-, 3- and 4-byte characters and unpaired surrogates
+ *     (written as '?'), from heap and direct buffers alike;
+ *   - SLOT, BOOKED, CANCELLED and SLOTS records decode to what was
+ *     written, with inline and coded doctor dictionaries;
+ *   - a stream read back through a channel that returns a few bytes at a
+ *     time yields the same slots, including records larger than the
+ *     reader's buffer;
+ *   - a truncated stream always fails, and a stream with flipped bytes
+ *     either reads or fails with IOException, never with anything else.
+ *
+ * Usage: java CodecHarness [rounds] [seed]
+ * Exits with status 1 if any check fails.
+ */
+public class CodecHarness {
+    private static final long MAX_EPOCH_MINUTE = 1L << 40;
+    private static final String[] DOCTORS = {"Smith", "Müller", "Ødegård", "Ōtsuka", "Nguyễn", "李", "O'Brien"};
+
+    private final Random random;
+    private final List<String> violations = new ArrayList<>();
+
+    private CodecHarness(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        System.out.println(rounds + " rounds, seed " + seed);
+        System.exit(new CodecHarness(seed).run(rounds) ? 0 : 1);
+    }
+
+    private boolean run(int rounds) throws Exception {
+        varints(rounds);
+        minutes(rounds);
+        strings(rounds);
+        records(rounds);
+        streams(Math.max(1, rounds / 100));
+        corruption(Math.max(1, rounds / 10));
+        if (violations.isEmpty()) {
+            System.out.println("✅ Every value, record and stream round-tripped; damaged streams failed cleanly");
+            return true;
+        }
+        for (String violation : violations.subList(0, Math.min(violations.size(), 20))) {
+            System.out.println("❌ " + violation);
+        }
+        if (violations.size() > 20) {
+            System.out.println("❌ ... and " + (violations.size() - 20) + " more");
+        }
+        return false;
+    }
+
+    // Primitives
+
+    private void varints(int rounds) {
+        List<Long> values = new ArrayList<>(List.of(0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE,
+                                                    (long) Integer.MAX_VALUE, 1L << 32));
+        for (int bits = 7; bits < 64; bits += 7) {
+            values.add((1L << bits) - 1);
+            values.add(1L << bits);
+        }
+        for (int i = 0; i < rounds; i++) {
+            values.add(random.nextLong() >>> random.nextInt(64));
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (long value : values) {
+            buffer.clear();
+            AppointmentCodec.putVarint(buffer, value);
+            if (buffer.position() != AppointmentCodec.varintSize(value)) {
+                violations.add("Varint " + value + " took " + buffer.position() + " bytes, varintSize says "
+                               + AppointmentCodec.varintSize(value));
+            }
+            buffer.flip();
+            long decoded = AppointmentCodec.getVarint(buffer);
+            if (decoded != value || buffer.hasRemaining()) {
+                violations.add("Varint " + value + " came back as " + decoded);
+            }
+        }
+        // Eleven continuation bytes are no varint; a cut-off one runs out of input
+        ByteBuffer endless = ByteBuffer.allocate(11);
+        while (endless.hasRemaining()) {
+            endless.put((byte) 0x80);
+        }
+        expectFailure("an overlong varint", endless.flip(), IllegalArgumentException.class,
+                      AppointmentCodec::getVarint);
+        expectFailure("a truncated varint", ByteBuffer.wrap(new byte[] {(byte) 0x80, (byte) 0x80}),
+                      BufferUnderflowException.class, AppointmentCodec::getVarint);
+        ByteBuffer tooLarge = ByteBuffer.allocate(10);
+        AppointmentCodec.putVarint(tooLarge, 1L << 31);
+        expectFailure("an unsigned int above Integer.MAX_VALUE", tooLarge.flip(), IllegalArgumentException.class,
+                      AppointmentCodec::getUnsigned);
+    }
+
+    private void minutes(int rounds) {
+        List<LocalDateTime> times = new ArrayList<>(List.of(
+            LocalDateTime.of(1970, 1, 1, 0, 0), LocalDateTime.of(1969, 12, 31, 23, 59),
+            LocalDateTime.of(2030, 1, 7, 9, 0), LocalDateTime.of(1, 1, 1, 0, 0),
+            fromMinute(MAX_EPOCH_MINUTE), fromMinute(-MAX_EPOCH_MINUTE)));
+        for (int i = 0; i < rounds; i++) {
+            times.add(randomTime());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (LocalDateTime time : times) {
+            buffer.clear();
+            AppointmentCodec.putMinute(buffer, time);
+            if (buffer.position() != AppointmentCodec.minuteSize(time)) {
+                violations.add("Minute " + time + " took " + buffer.position() + " bytes, minuteSize says "
+                               + AppointmentCodec.minuteSize(time));
+            }
+            buffer.flip();
+            LocalDateTime decoded = AppointmentCodec.getMinute(buffer);
+            if (!decoded.equals(time)) {
+                violations.add("Minute " + time + " came back as " + decoded);
+            }
+        }
+        // Small offsets either side of the epoch stay short
+        ByteBuffer small = ByteBuffer.allocate(16);
+        AppointmentCodec.putMinute(small, LocalDateTime.of(1969, 12, 31, 23, 59));
+        if (small.position() != 1) {
+            violations.add("Epoch minute -1 took " + small.position() + " bytes instead of 1");
+        }
+        ByteBuffer outOfRange = ByteBuffer.allocate(16);
+        AppointmentCodec.putVarint(outOfRange, (MAX_EPOCH_MINUTE + 1) << 1);
+        expectFailure("a minute past the supported range", outOfRange.flip(), IllegalArgumentException.class,
+                      AppointmentCodec::getMinute);
+    }
+
+    private void strings(int rounds) {
+        List<String> values = new ArrayList<>(List.of(
+            "", "a", "Zoë", "€", "日本語", "😀", "a😀b", "\uD83D", "\uDE00", "x\uD83D", "\uDE00\uD83D",
+            "\uD83D😀", "\u0000", "\u007F\u0080߿ࠀ￿"));
+        for (int i = 0; i < rounds; i++) {
+            values.add(randomString(random.nextInt(40)));
+        }
+        values.add(randomString(100_000));
+        for (String value : values) {
+            byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+            int size = AppointmentCodec.stringSize(value);
+            ByteBuffer heap = ByteBuffer.allocate(size + 8);
+            AppointmentCodec.putString(heap, value);
+            if (heap.position() != size) {
+                violations.add("String " + describe(value) + " took " + heap.position()
+                               + " bytes, stringSize says " + size);
+                continue;
+            }
+            heap.flip();
+            ByteBuffer written = heap.duplicate();
+            AppointmentCodec.getVarint(written);
+            byte[] bytes = new byte[written.remaining()];
+            written.get(bytes);
+            if (!Arrays.equals(bytes, expected)) {
+                violations.add("String " + describe(value) + " is not encoded as the JDK encodes it");
+            }
+            String fromHeap = AppointmentCodec.getString(heap);
+            ByteBuffer direct = ByteBuffer.allocateDirect(size);
+            AppointmentCodec.putString(direct, value);
+            direct.flip();
+            String fromDirect = AppointmentCodec.getString(direct);
+            String roundTripped = new String(expected, StandardCharsets.UTF_8);
+            if (!fromHeap.equals(roundTripped) || !fromDirect.equals(roundTripped)) {
+                violations.add("String " + describe(value) + " came back as " + describe(fromHeap) + " / "
+                               + describe(fromDirect));
+            }
+        }
+        ByteBuffer claimsMore = ByteBuffer.allocate(8);
+        AppointmentCodec.putVarint(claimsMore, 5);
+        claimsMore.put((byte) 'a').flip();
+        expectFailure("a string longer than its buffer", claimsMore, BufferUnderflowException.class,
+                      AppointmentCodec::getString);
+    }
+
+    // Records
+
+    private void records(int rounds) {
+        for (boolean coded : new boolean[] {false, true}) {
+            AppointmentCodec.Dictionary writer = coded ? AppointmentCodec.Dictionary.coded()
+                                                       : AppointmentCodec.Dictionary.inline();
+            AppointmentCodec.Dictionary reader = coded ? AppointmentCodec.Dictionary.coded()
+                                                       : AppointmentCodec.Dictionary.inline();
+            for (int i = 0; i < rounds; i++) {
+                Appointment slot = randomSlot(random.nextInt(Integer.MAX_VALUE));
+                int size = AppointmentCodec.slotSize(slot, slot.getBooking(), writer);
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                AppointmentCodec.putSlot(buffer, slot, slot.getBooking(), writer);
+                if (buffer.hasRemaining()) {
+                    violations.add("SLOT for " + slot + " took " + buffer.position() + " bytes, slotSize says " + size);
+                    return;
+                }
+                buffer.flip();
+                if (AppointmentCodec.getType(buffer) != AppointmentCodec.SLOT) {
+                    violations.add("SLOT record has the wrong type");
+                }
+                compare("SLOT" + (coded ? " (coded)" : ""), slot, AppointmentCodec.getSlot(buffer, reader));
+            }
+        }
+        for (int i = 0; i < rounds; i++) {
+            int id = random.nextInt(Integer.MAX_VALUE);
+            String name = randomString(random.nextInt(20));
+            String email = randomString(random.nextInt(20));
+            ByteBuffer booked = ByteBuffer.allocate(AppointmentCodec.bookedSize(id, name, email));
+            AppointmentCodec.putBooked(booked, id, name, email);
+            booked.flip();
+            if (AppointmentCodec.getType(booked) != AppointmentCodec.BOOKED
+                    || AppointmentCodec.getUnsigned(booked) != id
+                    || !AppointmentCodec.getString(booked).equals(expected(name))
+                    || !AppointmentCodec.getString(booked).equals(expected(email)) || booked.hasRemaining()) {
+                violations.add("BOOKED " + id + " " + describe(name) + " " + describe(email) + " did not round-trip");
+            }
+            ByteBuffer cancelled = ByteBuffer.allocate(AppointmentCodec.cancelledSize(id));
+            AppointmentCodec.putCancelled(cancelled, id);
+            cancelled.flip();
+            if (AppointmentCodec.getType(cancelled) != AppointmentCodec.CANCELLED
+                    || AppointmentCodec.getUnsigned(cancelled) != id || cancelled.hasRemaining()) {
+                violations.add("CANCELLED " + id + " did not round-trip");
+            }
+        }
+        AppointmentCodec.Dictionary inline = AppointmentCodec.Dictionary.inline();
+        for (int i = 0; i < rounds / 10; i++) {
+            String doctor = DOCTORS[random.nextInt(DOCTORS.length)];
+            List<LocalDateTime> times = new ArrayList<>();
+            LocalDateTime time = randomTime();
+            for (int n = random.nextInt(50); n > 0; n--) {
+                times.add(time);
+                // Mostly regular steps, sometimes a jump back or far ahead
+                time = random.nextInt(10) > 0 ? time.plusMinutes(15) : randomTime();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(AppointmentCodec.slotsSize(doctor, times, inline));
+            AppointmentCodec.putSlots(buffer, doctor, times, inline);
+            if (buffer.hasRemaining()) {
+                violations.add("SLOTS record is shorter than slotsSize says");
+                continue;
+            }
+            buffer.flip();
+            if (AppointmentCodec.getType(buffer) != AppointmentCodec.SLOTS
+                    || !AppointmentCodec.getDoctor(buffer, inline).equals(doctor)
+                    || !AppointmentCodec.getTimes(buffer).equals(times)) {
+                violations.add("SLOTS for " + doctor + " with " + times.size() + " times did not round-trip");
+            }
+        }
+        ByteBuffer newer = ByteBuffer.wrap(new byte[] {(byte) 0x21});
+        expectFailure("a record from a newer version", newer, IllegalArgumentException.class,
+                      AppointmentCodec::getType);
+    }
+
+    // Streams
+
+    private void streams(int rounds) throws IOException {
+        for (int round = 0; round < rounds; round++) {
+            List<Appointment> slots = new ArrayList<>();
+            for (int i = random.nextInt(2000); i > 0; i--) {
+                slots.add(randomSlot(slots.size() + 1));
+            }
+            if (round == 0) {
+                // Larger than both the writer's and the reader's buffers
+                Appointment large = new Appointment(slots.size() + 1, "Smith", LocalDateTime.of(2030, 1, 7, 9, 0));
+                large.bookAppointment(randomString(200_000), "large@example.com");
+                slots.add(large);
+            }
+            byte[] stream = write(slots);
+            List<Appointment> decoded = read(new Trickle(stream, 1 + random.nextInt(64)));
+            if (decoded.size() != slots.size()) {
+                violations.add("Stream of " + slots.size() + " slots read back " + decoded.size());
+                continue;
+            }
+            for (int i = 0; i < slots.size(); i++) {
+                compare("Stream", slots.get(i), decoded.get(i));
+            }
+        }
+    }
+
+    private void corruption(int rounds) throws IOException {
+        List<Appointment> slots = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            slots.add(randomSlot(i + 1));
+        }
+        byte[] stream = write(slots);
+        int truncatedRead = 0;
+        for (int cut = 0; cut < stream.length; cut++) {
+            try {
+                read(new Trickle(Arrays.copyOf(stream, cut), 1 + random.nextInt(64)));
+                truncatedRead++;
+            } catch (IOException e) {
+                // Expected
+            } catch (RuntimeException e) {
+                violations.add("Stream cut at byte " + cut + " failed with " + e);
+            }
+        }
+        if (truncatedRead > 0) {
+            violations.add(truncatedRead + " truncated stream(s) read without an error");
+        }
+        int failed = 0;
+        for (int round = 0; round < rounds; round++) {
+            byte[] damaged = stream.clone();
+            for (int flips = 1 + random.nextInt(4); flips > 0; flips--) {
+                damaged[random.nextInt(damaged.length)] ^= (byte) (1 << random.nextInt(8));
+            }
+            try {
+                read(new Trickle(damaged, 1 + random.nextInt(64)));
+            } catch (IOException e) {
+                failed++;
+            } catch (RuntimeException | OutOfMemoryError e) {
+                violations.add("Damaged stream failed with " + e + " instead of an IOException");
+            }
+        }
+        System.out.printf("Corruption: %,d truncations all failed; %,d of %,d damaged streams failed cleanly, "
+                          + "the rest still decoded%n", stream.length, failed, rounds);
+    }
+
+    private static byte[] write(List<Appointment> slots) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AppointmentCodec.StreamWriter writer = new AppointmentCodec.StreamWriter(Channels.newChannel(bytes));
+        for (Appointment slot : slots) {
+            writer.write(slot);
+        }
+        writer.finish();
+        return bytes.toByteArray();
+    }
+
+    private static List<Appointment> read(ReadableByteChannel channel) throws IOException {
+        AppointmentCodec.StreamReader reader = new AppointmentCodec.StreamReader(channel);
+        List<Appointment> slots = new ArrayList<>();
+        Appointment slot;
+        while ((slot = reader.next()) != null) {
+            slots.add(slot);
+        }
+        return slots;
+    }
+
+    /**
+     * Hands out at most a few bytes per read, like a slow socket
+     */
+    private static final class Trickle implements ReadableByteChannel {
+        private final ReadableByteChannel in;
+        private final int chunk;
+
+        Trickle(byte[] bytes, int chunk) {
+            this.in = Channels.newChannel(new ByteArrayInputStream(bytes));
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            int limit = destination.limit();
+            destination.limit(Math.min(limit, destination.position() + chunk));
+            try {
+                return in.read(destination);
+            } finally {
+                destination.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return in.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Helpers
+
+    private interface Decode {
+        Object from(ByteBuffer in);
+    }
+
+    private void expectFailure(String what, ByteBuffer in, Class<? extends RuntimeException> expected, Decode decode) {
+        try {
+            Object value = decode.from(in);
+            violations.add("Decoding " + what + " returned " + value + " instead of failing");
+        } catch (RuntimeException e) {
+            if (!expected.isInstance(e)) {
+                violations.add("Decoding " + what + " failed with " + e + " instead of " + expected.getSimpleName());
+            }
+        }
+    }
+
+    private void compare(String what, Appointment written, Appointment read) {
+        if (read.getId() != written.getId() || !read.getDateTime().equals(written.getDateTime())
+                || !read.getDoctorName().equals(expected(written.getDoctorName()))
+                || !Objects.equals(read.getBooking(), expected(written.getBooking()))) {
+            violations.add(what + " " + written.getDetailedInfo() + " came back as " + read.getDetailedInfo());
+        }
+    }
+
+    /**
+     * What a string reads back as: unpaired surrogates become '?'
+     */
+    private static String expected(String value) {
+        return new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    private static Appointment.Booking expected(Appointment.Booking booking) {
+        return booking == null ? null : new Appointment.Booking(expected(booking.patientName()),
+                                                                expected(booking.patientEmail()));
+    }
+
+    private Appointment randomSlot(int id) {
+        Appointment slot = new Appointment(id, random.nextInt(4) > 0 ? DOCTORS[random.nextInt(DOCTORS.length)]
+                                                                     : randomString(1 + random.nextInt(12)),
+                                           randomTime());
+        if (random.nextBoolean()) {
+            slot.bookAppointment(randomString(random.nextInt(30)), randomString(random.nextInt(30)));
+        }
+        return slot;
+    }
+
+    private LocalDateTime randomTime() {
+        // Mostly near today, sometimes anywhere in the supported range
+        long minute = random.nextInt(4) > 0
+            ? 29_000_000L + random.nextInt(10_000_000)
+            : (random.nextLong() % MAX_EPOCH_MINUTE);
+        return fromMinute(minute);
+    }
+
+    private static LocalDateTime fromMinute(long minute) {
+        return LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Random text mixing ASCII, 2- and 3-byte characters, surrogate pairs and lone surrogates
+     */
+    private String randomString(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    text.append((char) (0x20 + random.nextInt(0x5F)));
+                    break;
+                case 2:
+                    text.append((char) (0x80 + random.nextInt(0x780)));
+                    break;
+                case 3:
+                    text.append((char) (0x800 + random.nextInt(0xD800 - 0x800)));
+                    break;
+                case 4:
+                    text.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                    break;
+                default:
+                    text.append((char) (0xD800 + random.nextInt(0x800)));
+            }
+        }
+        return text.toString();
+    }
+
+    private static String describe(String value) {
+        StringBuilder text = new StringBuilder("\"");
+        for (int i = 0; i < value.length() && i < 20; i++) {
+            char c = value.charAt(i);
+            text.append(c >= 0x20 && c < 0x7F ? String.valueOf(c) : String.format("\\u%04X", (int) c));
+        }
+        return text.append(value.length() > 20 ? "...\"" : "\"").toString();
+    }
+}
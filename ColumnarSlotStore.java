@@ -0,0 +1,398 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Compact, memory-mapped slot storage for very large calendars.
+ *
+ * Each slot is one row spread over primitive column files:
+ * <pre>
+ *   id.col       int   appointment ID (strictly increasing, so lookups binary-search it)
+ *   doctor.col   int   index into the doctor dictionary (doctors.dict)
+ *   minute.col   long  start time as minutes since the epoch (UTC wall clock)
+ *   status.col   byte  FREE or BOOKED
+ *   patient.col  int   offset of the booking in the patient table (patients.dat)
+ * </pre>
+ * A row costs 21 bytes of off-heap memory and no heap objects; doctor names
+ * are stored once. {@link Row} is a reusable flyweight cursor that reads a
+ * row on demand, and {@link Row#toAppointment()} materializes an
+ * {@link Appointment} only when one is really needed.
+ *
+ * Appends are serialized; book/cancel are serialized per row through striped
+ * locks. Unlocked readers see a weakly consistent view of a row.
+ */
+public class ColumnarSlotStore implements Closeable {
+    public static final byte FREE = 0;
+    public static final byte BOOKED = 1;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final int LOCK_STRIPES = 64;
+    private static final int NO_PATIENT = -1;
+    private static final int MAX_PATIENT_FIELD_BYTES = 0xFFFF;
+
+    private final Column ids;
+    private final Column doctors;
+    private final Column minutes;
+    private final Column statuses;
+    private final Column patients;
+    private final MappedByteBuffer meta;
+    private final FileChannel metaChannel;
+    private final FileChannel patientTable;
+    private final DataOutputStream dictionaryOut;
+    private final List<String> doctorNames;
+    private final Map<String, Integer> doctorIds;
+    private final Object[] rowLocks;
+    private volatile int rowCount;
+    private int capacity;
+
+    /**
+     * A growable memory-mapped column of fixed-width values
+     */
+    private static final class Column {
+        final FileChannel channel;
+        final int width;
+        volatile MappedByteBuffer buffer;
+
+        Column(Path file, int width, int capacity) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.width = width;
+            remap(capacity);
+        }
+
+        void remap(int capacity) throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * width);
+        }
+    }
+
+    private ColumnarSlotStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.metaChannel = FileChannel.open(directory.resolve("meta"), StandardOpenOption.CREATE,
+                                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.meta = metaChannel.map(FileChannel.MapMode.READ_WRITE, 0, Integer.BYTES);
+        this.rowCount = meta.getInt(0);
+        this.capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, rowCount)) << 1);
+        this.ids = new Column(directory.resolve("id.col"), Integer.BYTES, capacity);
+        this.doctors = new Column(directory.resolve("doctor.col"), Integer.BYTES, capacity);
+        this.minutes = new Column(directory.resolve("minute.col"), Long.BYTES, capacity);
+        this.statuses = new Column(directory.resolve("status.col"), Byte.BYTES, capacity);
+        this.patients = new Column(directory.resolve("patient.col"), Integer.BYTES, capacity);
+        this.patientTable = FileChannel.open(directory.resolve("patients.dat"), StandardOpenOption.CREATE,
+                                             StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.doctorNames = new CopyOnWriteArrayList<>();
+        this.doctorIds = new ConcurrentHashMap<>();
+        loadDictionary(directory.resolve("doctors.dict"));
+        this.dictionaryOut = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(directory.resolve("doctors.dict"),
+                                  StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        this.rowLocks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            rowLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Opens (or creates) a columnar store in the given directory
+     */
+    public static ColumnarSlotStore open(Path directory) throws IOException {
+        return new ColumnarSlotStore(directory);
+    }
+
+    private void loadDictionary(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                String name;
+                try {
+                    name = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                doctorIds.put(AppointmentStore.normalizeDoctor(name), doctorNames.size());
+                doctorNames.add(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the dictionary ID for a doctor, adding the name on first use
+     */
+    private int internDoctor(String doctorName) throws IOException {
+        String key = AppointmentStore.normalizeDoctor(doctorName);
+        Integer existing = doctorIds.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int doctorId = doctorNames.size();
+        dictionaryOut.writeUTF(doctorName);
+        dictionaryOut.flush();
+        doctorNames.add(doctorName);
+        doctorIds.put(key, doctorId);
+        return doctorId;
+    }
+
+    // Writes
+
+    /**
+     * Appends a free slot with the next ID and returns its row
+     */
+    public synchronized int append(String doctorName, LocalDateTime dateTime) throws IOException {
+        int id = rowCount == 0 ? 1 : ids.buffer.getInt((rowCount - 1) * Integer.BYTES) + 1;
+        return append(id, doctorName, dateTime);
+    }
+
+    /**
+     * Appends a free slot with an explicit ID, which must be larger than
+     * every ID already stored
+     */
+    public synchronized int append(int id, String doctorName, LocalDateTime dateTime) throws IOException {
+        int row = rowCount;
+        if (row > 0 && ids.buffer.getInt((row - 1) * Integer.BYTES) >= id) {
+            throw new IllegalArgumentException("IDs must be appended in increasing order: " + id);
+        }
+        if (row == capacity) {
+            grow();
+        }
+        ids.buffer.putInt(row * Integer.BYTES, id);
+        doctors.buffer.putInt(row * Integer.BYTES, internDoctor(doctorName));
+        minutes.buffer.putLong(row * Long.BYTES, BookingJournal.toEpochMinute(dateTime));
+        statuses.buffer.put(row, FREE);
+        patients.buffer.putInt(row * Integer.BYTES, NO_PATIENT);
+        meta.putInt(0, row + 1);
+        rowCount = row + 1;
+        return row;
+    }
+
+    /**
+     * Copies every slot of an in-memory store, in ID order
+     */
+    public void appendAll(AppointmentStore store) throws IOException {
+        List<Appointment> slots = new ArrayList<>(store.allSlots());
+        slots.sort(Comparator.comparingInt(Appointment::getId));
+        for (Appointment appointment : slots) {
+            int row = append(appointment.getId(), appointment.getDoctorName(), appointment.getDateTime());
+            Appointment.Booking booking = appointment.getBooking();
+            if (booking != null) {
+                book(row, booking.patientName(), booking.patientEmail());
+            }
+        }
+    }
+
+    private void grow() throws IOException {
+        capacity <<= 1;
+        for (Column column : new Column[] {ids, doctors, minutes, statuses, patients}) {
+            column.remap(capacity);
+        }
+    }
+
+    /**
+     * Books a free row. Returns false if the row is already booked; throws
+     * IllegalArgumentException if the name or email is too long to store.
+     */
+    public boolean book(int row, String patientName, String patientEmail) throws IOException {
+        synchronized (rowLocks[row % LOCK_STRIPES]) {
+            if (statuses.buffer.get(row) != FREE) {
+                return false;
+            }
+            patients.buffer.putInt(row * Integer.BYTES, appendPatient(patientName, patientEmail));
+            statuses.buffer.put(row, BOOKED);
+            return true;
+        }
+    }
+
+    /**
+     * Cancels a booked row. Returns false if the row was free.
+     */
+    public boolean cancel(int row) {
+        synchronized (rowLocks[row % LOCK_STRIPES]) {
+            if (statuses.buffer.get(row) != BOOKED) {
+                return false;
+            }
+            statuses.buffer.put(row, FREE);
+            patients.buffer.putInt(row * Integer.BYTES, NO_PATIENT);
+            return true;
+        }
+    }
+
+    /**
+     * Appends [len][name][len][email] to the patient table and returns its
+     * offset. The lengths are unsigned shorts, so longer values are refused.
+     */
+    private int appendPatient(String patientName, String patientEmail) throws IOException {
+        byte[] name = patientName.getBytes(StandardCharsets.UTF_8);
+        byte[] email = patientEmail.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_PATIENT_FIELD_BYTES || email.length > MAX_PATIENT_FIELD_BYTES) {
+            throw new IllegalArgumentException("Patient name and email must each fit in "
+                                               + MAX_PATIENT_FIELD_BYTES + " bytes of UTF-8");
+        }
+        ByteBuffer record = ByteBuffer.allocate(4 + name.length + email.length);
+        record.putShort((short) name.length).put(name).putShort((short) email.length).put(email).flip();
+        synchronized (patientTable) {
+            long offset = patientTable.size();
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Patient table is full");
+            }
+            while (record.hasRemaining()) {
+                patientTable.write(record, offset + record.position());
+            }
+            return (int) offset;
+        }
+    }
+
+    // Reads
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(length);
+        while (value.hasRemaining()) {
+            if (patientTable.read(value, position + value.position()) < 0) {
+                throw new EOFException("Patient table truncated at " + position);
+            }
+        }
+        return value;
+    }
+
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * Finds the row holding an appointment ID, or -1
+     */
+    public int findRow(int id) {
+        int low = 0;
+        int high = rowCount - 1;
+        MappedByteBuffer column = ids.buffer;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = column.getInt(mid * Integer.BYTES);
+            if (value < id) {
+                low = mid + 1;
+            } else if (value > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a reusable cursor; position it with {@link Row#moveTo(int)}
+     */
+    public Row cursor() {
+        return new Row();
+    }
+
+    /**
+     * Flushes all columns to disk
+     */
+    public synchronized void force() throws IOException {
+        for (Column column : new Column[] {ids, doctors, minutes, statuses, patients}) {
+            column.buffer.force();
+        }
+        meta.force();
+        patientTable.force(false);
+        dictionaryOut.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        for (Column column : new Column[] {ids, doctors, minutes, statuses, patients}) {
+            column.channel.close();
+        }
+        metaChannel.close();
+        patientTable.close();
+        dictionaryOut.close();
+    }
+
+    /**
+     * Flyweight view of one row. Getters read straight from the mapped
+     * columns, so one cursor can walk millions of rows without allocating.
+     */
+    public final class Row {
+        private int row = -1;
+
+        public Row moveTo(int row) {
+            if (row < 0 || row >= rowCount) {
+                throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+            }
+            this.row = row;
+            return this;
+        }
+
+        public int row() {
+            return row;
+        }
+
+        public int getId() {
+            return ids.buffer.getInt(row * Integer.BYTES);
+        }
+
+        public int getDoctorId() {
+            return doctors.buffer.getInt(row * Integer.BYTES);
+        }
+
+        public String getDoctorName() {
+            return doctorNames.get(getDoctorId());
+        }
+
+        public long getEpochMinute() {
+            return minutes.buffer.getLong(row * Long.BYTES);
+        }
+
+        public LocalDateTime getDateTime() {
+            return BookingJournal.fromEpochMinute(getEpochMinute());
+        }
+
+        public boolean isBooked() {
+            return statuses.buffer.get(row) == BOOKED;
+        }
+
+        public String getPatientName() {
+            return readPatient(false);
+        }
+
+        public String getPatientEmail() {
+            return readPatient(true);
+        }
+
+        private String readPatient(boolean email) {
+            int offset = patients.buffer.getInt(row * Integer.BYTES);
+            if (offset == NO_PATIENT) {
+                return null;
+            }
+            try {
+                long position = offset;
+                int length = readFully(position, 2).getShort(0) & 0xFFFF;
+                if (email) {
+                    position += 2 + length;
+                    length = readFully(position, 2).getShort(0) & 0xFFFF;
+                }
+                return new String(readFully(position + 2, length).array(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Materializes the row as a regular {@link Appointment}
+         */
+        public Appointment toAppointment() {
+            Appointment appointment = new Appointment(getId(), getDoctorName(), getDateTime());
+            if (isBooked()) {
+                appointment.bookAppointment(getPatientName(), getPatientEmail());
+            }
+            return appointment;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.List;
+
+/**
+ * Delivers appointment confirmation emails in batches
+ */
+public interface ConfirmationSender {
+    /**
+     * How a batch went. The first {@code handled} messages are done with:
+     * sent, or {@code rejected} for good (a bad address, or a recipient the
+     * server refused). Messages after them were not sent because the
+     * connection failed, and can be retried.
+     */
+    record Delivery(int handled, int rejected) {
+        /**
+         * Every message of a batch of the given size was sent
+         */
+        public static Delivery all(int count) {
+            return new Delivery(count, 0);
+        }
+
+        public int sent() {
+            return handled - rejected;
+        }
+    }
+
+    /**
+     * Sends confirmations for the given booked appointments in order. A
+     * message that can never be delivered is skipped and counted as
+     * rejected; the batch stops only when the connection fails.
+     */
+    Delivery sendBatch(List<Appointment> batch);
+}
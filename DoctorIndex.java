@@ -0,0 +1,252 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Search index over normalized doctor names.
+ * Each distinct doctor is indexed once: by trigram (for substring and
+ * typo-tolerant matching) and by word token (for prefix matching), so a
+ * search never touches individual appointment slots. The slots themselves
+ * stay in the per-doctor time-ordered posting lists of
+ * {@link AppointmentStore}.
+ */
+public class DoctorIndex {
+    /**
+     * Maximum edit distance accepted by fuzzy matching
+     */
+    public static final int MAX_EDITS = 2;
+
+    private final Set<String> names;
+    private final NavigableSet<String> tokens;
+    private final Map<String, Set<String>> namesByToken;
+    private final Map<String, Set<String>> namesByTrigram;
+
+    public DoctorIndex() {
+        this.names = ConcurrentHashMap.newKeySet();
+        this.tokens = new ConcurrentSkipListSet<>();
+        this.namesByToken = new ConcurrentHashMap<>();
+        this.namesByTrigram = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Normalizes a search query: trims, lowercases and drops a leading "Dr."
+     */
+    public static String normalizeQuery(String query) {
+        String normalized = AppointmentStore.normalizeDoctor(query);
+        if (normalized.startsWith("dr.")) {
+            normalized = normalized.substring(3).trim();
+        } else if (normalized.startsWith("dr ")) {
+            normalized = normalized.substring(3).trim();
+        }
+        return normalized;
+    }
+
+    /**
+     * Adds a normalized doctor name to the index
+     */
+    public void add(String name) {
+        if (!names.add(name)) {
+            return;
+        }
+        for (String token : name.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+                namesByToken.computeIfAbsent(token, k -> ConcurrentHashMap.newKeySet()).add(name);
+            }
+        }
+        for (String trigram : trigrams(name)) {
+            namesByTrigram.computeIfAbsent(trigram, k -> ConcurrentHashMap.newKeySet()).add(name);
+        }
+    }
+
+    /**
+     * Adds many normalized names at once. Each token's and trigram's
+     * postings are collected first and merged into the index in one step,
+     * and the new tokens go into the token set in sorted order.
+     */
+    public void addAll(Collection<String> newNames) {
+        SortedMap<String, List<String>> byToken = new TreeMap<>();
+        Map<String, List<String>> byTrigram = new HashMap<>();
+        for (String name : newNames) {
+            if (!names.add(name)) {
+                continue;
+            }
+            for (String token : name.split("[^\\p{L}\\p{N}]+")) {
+                if (!token.isEmpty()) {
+                    byToken.computeIfAbsent(token, k -> new ArrayList<>()).add(name);
+                }
+            }
+            for (String trigram : trigrams(name)) {
+                byTrigram.computeIfAbsent(trigram, k -> new ArrayList<>()).add(name);
+            }
+        }
+        tokens.addAll(byToken.keySet());
+        for (Map.Entry<String, List<String>> posting : byToken.entrySet()) {
+            namesByToken.computeIfAbsent(posting.getKey(), k -> ConcurrentHashMap.newKeySet()).addAll(posting.getValue());
+        }
+        for (Map.Entry<String, List<String>> posting : byTrigram.entrySet()) {
+            namesByTrigram.computeIfAbsent(posting.getKey(), k -> ConcurrentHashMap.newKeySet()).addAll(posting.getValue());
+        }
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Doctors with a name word starting with the query
+     */
+    public Set<String> prefix(String query) {
+        String needle = normalizeQuery(query);
+        Set<String> matches = new HashSet<>();
+        if (needle.isEmpty()) {
+            matches.addAll(names);
+            return matches;
+        }
+        if (names.contains(needle)) {
+            matches.add(needle);
+        }
+        for (String token : tokens.subSet(needle, true, needle + Character.MAX_VALUE, false)) {
+            matches.addAll(namesByToken.getOrDefault(token, Collections.emptySet()));
+        }
+        for (String name : candidates(needle)) {
+            if (name.startsWith(needle)) {
+                matches.add(name);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Doctors whose name contains the query
+     */
+    public Set<String> substring(String query) {
+        String needle = normalizeQuery(query);
+        Set<String> matches = new HashSet<>();
+        for (String name : needle.length() < 3 ? names : candidates(needle)) {
+            if (name.contains(needle)) {
+                matches.add(name);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Doctors whose full name or any name word is within
+     * {@link #MAX_EDITS} edits of the query
+     */
+    public Set<String> fuzzy(String query) {
+        String needle = normalizeQuery(query);
+        Set<String> matches = new HashSet<>();
+        if (needle.isEmpty()) {
+            return matches;
+        }
+        // Each edit breaks at most three of the needle's trigrams; only a
+        // needle with more than that many can count on one surviving
+        Collection<String> candidates = needle.length() - 2 > 3 * MAX_EDITS ? sharedTrigramNames(needle) : names;
+        for (String name : candidates) {
+            if (withinEdits(needle, name, MAX_EDITS)) {
+                matches.add(name);
+                continue;
+            }
+            for (String token : name.split("[^\\p{L}\\p{N}]+")) {
+                if (!token.isEmpty() && withinEdits(needle, token, MAX_EDITS)) {
+                    matches.add(name);
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Substring matches, falling back to typo-tolerant matches when there are none
+     */
+    public Set<String> match(String query) {
+        Set<String> matches = substring(query);
+        return matches.isEmpty() ? fuzzy(query) : matches;
+    }
+
+    /**
+     * Names containing every trigram of the needle (needle length >= 3)
+     */
+    private Collection<String> candidates(String needle) {
+        if (needle.length() < 3) {
+            return names;
+        }
+        Set<String> smallest = null;
+        List<Set<String>> postings = new ArrayList<>();
+        for (String trigram : trigrams(needle)) {
+            Set<String> posting = namesByTrigram.get(trigram);
+            if (posting == null) {
+                return Collections.emptySet();
+            }
+            postings.add(posting);
+            if (smallest == null || posting.size() < smallest.size()) {
+                smallest = posting;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        outer:
+        for (String name : smallest) {
+            for (Set<String> posting : postings) {
+                if (posting != smallest && !posting.contains(name)) {
+                    continue outer;
+                }
+            }
+            result.add(name);
+        }
+        return result;
+    }
+
+    /**
+     * Names sharing at least one trigram with the needle. A name (or name
+     * word) within MAX_EDITS edits shares one only if the needle has more
+     * than 3 * MAX_EDITS trigrams, i.e. at least 9 characters for two edits.
+     */
+    private Collection<String> sharedTrigramNames(String needle) {
+        Set<String> result = new HashSet<>();
+        for (String trigram : trigrams(needle)) {
+            result.addAll(namesByTrigram.getOrDefault(trigram, Collections.emptySet()));
+        }
+        return result;
+    }
+
+    private static Set<String> trigrams(String text) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            result.add(text.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    /**
+     * Bounded Levenshtein check that gives up as soon as a row exceeds the bound
+     */
+    static boolean withinEdits(String a, String b, int maxEdits) {
+        if (Math.abs(a.length() - b.length()) > maxEdits) {
+            return false;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > maxEdits) {
+                return false;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()] <= maxEdits;
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.*;
+
+/**
+ * Checks {@link DoctorIndex} search against a plain scan of every indexed
+ * name, with random names and queries made from them by up to
+ * {@link DoctorIndex#MAX_EDITS} random edits (substitutions, insertions,
+ * deletions). For every query:
+ *
+ *   - fuzzy returns exactly the names whose full name or a name word is
+ *     within MAX_EDITS edits, whatever the query length, so the trigram
+ *     pre-filter never loses a match (7- and 8-character queries with two
+ *     substitutions are the case it used to miss);
+ *   - substring and prefix return exactly the names that contain, or have
+ *     a word starting with, the query.
+ *
+ * Usage: java DoctorIndexHarness [doctors] [queries] [seed]
+ * Exits with status 1 if any check fails.
+ */
+public class DoctorIndexHarness {
+    // A small alphabet makes near-misses between names common
+    private static final String LETTERS = "abcdefgh";
+
+    private final Random random;
+    private final List<String> violations = new ArrayList<>();
+
+    private DoctorIndexHarness(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        int doctors = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+        System.out.println(doctors + " doctors, " + queries + " queries, seed " + seed);
+        System.exit(new DoctorIndexHarness(seed).run(doctors, queries) ? 0 : 1);
+    }
+
+    private boolean run(int doctors, int queries) {
+        DoctorIndex index = new DoctorIndex();
+        List<String> names = new ArrayList<>();
+        for (String known : new String[] {"johnson", "anna johnson", "smith", "o'brien"}) {
+            index.add(known);
+            names.add(known);
+        }
+        for (int i = 0; i < doctors; i++) {
+            String name = random.nextInt(3) == 0 ? word(3, 8) + " " + word(3, 10) : word(3, 12);
+            index.add(name);
+            names.add(name);
+        }
+
+        // Two substitutions in a 7-letter name leave it no trigram in common with the query
+        check(index, names, "joansen");
+        check(index, names, "jhonsen");
+        for (int i = 0; i < queries; i++) {
+            String name = names.get(random.nextInt(names.size()));
+            String[] words = name.split(" ");
+            String target = random.nextBoolean() ? name : words[random.nextInt(words.length)];
+            check(index, names, mistype(target, random.nextInt(DoctorIndex.MAX_EDITS + 1)));
+        }
+
+        if (violations.isEmpty()) {
+            System.out.println("✅ Fuzzy, substring and prefix search matched a full scan for every query");
+            return true;
+        }
+        for (String violation : violations.subList(0, Math.min(violations.size(), 20))) {
+            System.out.println("❌ " + violation);
+        }
+        if (violations.size() > 20) {
+            System.out.println("❌ ... and " + (violations.size() - 20) + " more");
+        }
+        return false;
+    }
+
+    private void check(DoctorIndex index, List<String> names, String query) {
+        if (query.isEmpty()) {
+            return;
+        }
+        Set<String> fuzzy = new HashSet<>();
+        Set<String> substring = new HashSet<>();
+        Set<String> prefix = new HashSet<>();
+        for (String name : names) {
+            if (DoctorIndex.withinEdits(query, name, DoctorIndex.MAX_EDITS)) {
+                fuzzy.add(name);
+            }
+            if (name.contains(query)) {
+                substring.add(name);
+            }
+            if (name.startsWith(query)) {
+                prefix.add(name);
+            }
+            for (String word : name.split("[^\\p{L}\\p{N}]+")) {
+                if (word.isEmpty()) {
+                    continue;
+                }
+                if (DoctorIndex.withinEdits(query, word, DoctorIndex.MAX_EDITS)) {
+                    fuzzy.add(name);
+                }
+                if (word.startsWith(query)) {
+                    prefix.add(name);
+                }
+            }
+        }
+        compare("fuzzy", query, fuzzy, index.fuzzy(query));
+        compare("substring", query, substring, index.substring(query));
+        compare("prefix", query, prefix, index.prefix(query));
+    }
+
+    private void compare(String search, String query, Set<String> expected, Set<String> actual) {
+        if (!expected.equals(actual)) {
+            Set<String> missing = new TreeSet<>(expected);
+            missing.removeAll(actual);
+            Set<String> extra = new TreeSet<>(actual);
+            extra.removeAll(expected);
+            violations.add(search + "(\"" + query + "\") (" + query.length() + " chars) missed " + missing
+                           + (extra.isEmpty() ? "" : " and wrongly returned " + extra));
+        }
+    }
+
+    private String mistype(String text, int edits) {
+        StringBuilder typed = new StringBuilder(text);
+        for (int e = 0; e < edits; e++) {
+            int kind = random.nextInt(3);
+            if (kind == 0 && typed.length() > 0) {
+                typed.setCharAt(random.nextInt(typed.length()), letter());
+            } else if (kind == 1 && typed.length() > 1) {
+                typed.deleteCharAt(random.nextInt(typed.length()));
+            } else {
+                typed.insert(random.nextInt(typed.length() + 1), letter());
+            }
+        }
+        return typed.toString().trim();
+    }
+
+    private String word(int minLength, int maxLength) {
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append(letter());
+        }
+        return word.toString();
+    }
+
+    private char letter() {
+        return LETTERS.charAt(random.nextInt(LETTERS.length()));
+    }
+}
@@ -1,161 +1,264 @@
 import javax.mail.*;
 import javax.mail.internet.*;
+import java.io.IOException;
+import java.util.List;
 import java.util.Properties;
-import java.time.format.DateTimeFormatter;
 
 /**
  * Service class for sending appointment confirmation emails
  */
-public class EmailService {
+public class EmailService implements ConfirmationSender, AutoCloseable {
     private static final String SMTP_HOST = "smtp.gmail.com";
-    private static final String SMTP_PORT = "587";
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("EEEE, MMMM dd, yyyy 'at' HH:mm");
+    private static final int SMTP_PORT = 587;
+    private static final int DEFAULT_CONNECTIONS = 4;
     
-    private String fromEmail;
-    private String fromPassword;
-    private Properties properties;
+    /**
+     * Plain-text confirmation printed by the console fallback
+     */
+    private static final EmailTemplate CONFIRMATION_TEXT = EmailTemplate.text("""
+        
+        === EMAIL CONFIRMATION SENT ===
+        To: {{patientEmail}}
+        Subject: Appointment Confirmation - Dr. {{doctorName}}
+        
+        Dear {{patientName}},
+        
+        Your appointment has been confirmed!
+        Appointment Details:
+        - ID: {{id}}
+        - Doctor: Dr. {{doctorName}}
+        - Date & Time: {{dateTime}}
+        - Patient: {{patientName}}
+        
+        Please arrive 15 minutes early.
+        Your patient token (keep it private): {{patientToken}}
+        Thank you for choosing our medical services!
+        ===============================
+        
+        """);
+    
+    /**
+     * HTML reminder body, parsed once
+     */
+    private static final EmailTemplate REMINDER_HTML = EmailTemplate.html(
+        "<!DOCTYPE html>" +
+        "<html><body style='font-family: Arial, sans-serif;'>" +
+        "<h2>Appointment Reminder</h2>" +
+        "<p>Dear {{patientName}},</p>" +
+        "<p>This is a reminder of your appointment with <strong>Dr. {{doctorName}}</strong> " +
+        "on <strong>{{dateTime}}</strong> (ID {{id}}).</p>" +
+        "<p>Please arrive 15 minutes early. If you can no longer attend, please cancel " +
+        "so the slot can be offered to another patient.</p>" +
+        "<p>Best regards,<br>MediBook Appointment System</p>" +
+        "</body></html>");
+    
+    /**
+     * HTML waitlist offer body, parsed once
+     */
+    private static final EmailTemplate OFFER_HTML = EmailTemplate.html(
+        "<!DOCTYPE html>" +
+        "<html><body style='font-family: Arial, sans-serif;'>" +
+        "<h2>A Slot Is Held for You</h2>" +
+        "<p>Dear {{patientName}},</p>" +
+        "<p>A slot you are on the waitlist for has opened up: <strong>Dr. {{doctorName}}</strong> " +
+        "on <strong>{{dateTime}}</strong> (ID {{id}}).</p>" +
+        "<p>It is held for you until <strong>{{holdExpires}}</strong>. To book it, accept offer " +
+        "<strong>{{id}}</strong> with your email address {{patientEmail}}, at the front desk or with " +
+        "<code>POST /api/slots/{{id}}/accept</code> and your personal patient token " +
+        "<code>{{patientToken}}</code>. If you cannot make it, decline the offer so the " +
+        "slot can go to the next patient. Keep the token private.</p>" +
+        "<p>Best regards,<br>MediBook Appointment System</p>" +
+        "</body></html>");
+    
+    /**
+     * What a message is about; picks its subject and body
+     */
+    private enum Kind {
+        CONFIRMATION("Appointment Confirmation - Dr. ", EmailTemplate.CONFIRMATION_HTML),
+        REMINDER("Appointment Reminder - Dr. ", REMINDER_HTML),
+        OFFER("Slot Held for You - Dr. ", OFFER_HTML);
+        
+        final String subject;
+        final EmailTemplate body;
+        
+        Kind(String subject, EmailTemplate body) {
+            this.subject = subject;
+            this.body = body;
+        }
+    }
+    
+    private final String fromEmail;
+    private final Session session;
+    private final SmtpConnectionPool pool;
     
     public EmailService(String fromEmail, String fromPassword) {
+        this(fromEmail, fromPassword, SMTP_HOST, SMTP_PORT, true, DEFAULT_CONNECTIONS);
+    }
+    
+    /**
+     * Sends through the given SMTP server, keeping up to {@code connections}
+     * authenticated connections open between messages
+     */
+    public EmailService(String fromEmail, String fromPassword, String host, int port, boolean startTls,
+                        int connections) {
         this.fromEmail = fromEmail;
-        this.fromPassword = fromPassword;
-        setupProperties();
+        this.session = Session.getInstance(setupProperties(host, port, startTls), null);
+        this.pool = new SmtpConnectionPool(session, host, port, fromEmail, fromPassword, connections);
     }
     
     /**
-     * Configure SMTP properties for Gmail
+     * Configure SMTP properties; the pool authenticates each connection itself
      */
-    private void setupProperties() {
-        properties = new Properties();
+    private static Properties setupProperties(String host, int port, boolean startTls) {
+        Properties properties = new Properties();
         properties.put("mail.smtp.auth", "true");
-        properties.put("mail.smtp.starttls.enable", "true");
-        properties.put("mail.smtp.host", SMTP_HOST);
-        properties.put("mail.smtp.port", SMTP_PORT);
-        properties.put("mail.smtp.ssl.trust", SMTP_HOST);
+        properties.put("mail.smtp.starttls.enable", String.valueOf(startTls));
+        properties.put("mail.smtp.host", host);
+        properties.put("mail.smtp.port", String.valueOf(port));
+        properties.put("mail.smtp.ssl.trust", host);
+        // A dead connection must fail fast so it can be replaced
+        properties.put("mail.smtp.connectiontimeout", "10000");
+        properties.put("mail.smtp.timeout", "30000");
+        properties.put("mail.smtp.writetimeout", "30000");
+        return properties;
     }
     
     /**
-     * Sends appointment confirmation email
+     * Builds the message of the given kind for the patient on the appointment
+     */
+    private Message createMessage(Appointment appointment, Kind kind) throws MessagingException {
+        String patientEmail = appointment.getPatientEmail();
+        if (patientEmail == null) {
+            throw new AddressException("Appointment " + appointment.getId() + " has no patient to email");
+        }
+        Message message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(fromEmail));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(patientEmail));
+        
+        // Set subject
+        message.setSubject(kind.subject + appointment.getDoctorName());
+        
+        // Create email content
+        String emailContent = kind.body.render(appointment, fromEmail);
+        message.setContent(emailContent, "text/html; charset=utf-8");
+        return message;
+    }
+    
+    /**
+     * Sends appointment confirmation email over a pooled connection
      */
     public boolean sendConfirmationEmail(Appointment appointment) {
-        try {
-            // Create session with authentication
-            Session session = Session.getInstance(properties, new javax.mail.Authenticator() {
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(fromEmail, fromPassword);
-                }
-            });
-            
-            // Create message
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(fromEmail));
-            message.setRecipients(Message.RecipientType.TO, 
-                                InternetAddress.parse(appointment.getPatientEmail()));
-            
-            // Set subject
-            message.setSubject("Appointment Confirmation - Dr. " + appointment.getDoctorName());
-            
-            // Create email content
-            String emailContent = createEmailContent(appointment);
-            message.setContent(emailContent, "text/html; charset=utf-8");
-            
-            // Send message
-            Transport.send(message);
-            
+        if (sendBatch(List.of(appointment)).sent() == 1) {
             System.out.println("Confirmation email sent successfully to: " + appointment.getPatientEmail());
-            return true;
-            
-        } catch (MessagingException e) {
-            System.err.println("Failed to send email: " + e.getMessage());
+        } else {
             // For demo purposes, simulate successful email sending
             System.out.println("Email simulation: Confirmation email would be sent to: " + 
                              appointment.getPatientEmail());
-            return true;
         }
+        return true;
     }
     
     /**
-     * Creates HTML email content for appointment confirmation
+     * Sends a batch of confirmations back to back over one pooled connection.
+     * A message with a bad address or a refused recipient is logged,
+     * counted as rejected and skipped; the connection is still good, so
+     * the rest of the batch goes on. If the connection turns out to be dead
+     * (the server closed it, or the network dropped), it is replaced and
+     * that message retried once before the batch stops.
      */
-    private String createEmailContent(Appointment appointment) {
-        StringBuilder content = new StringBuilder();
-        content.append("<!DOCTYPE html>");
-        content.append("<html><head><style>");
-        content.append("body { font-family: Arial, sans-serif; margin: 0; padding: 20px; background-color: #f5f5f5; }");
-        content.append(".container { max-width: 600px; margin: 0 auto; background-color: white; padding: 30px; border-radius: 10px; box-shadow: 0 2px 10px rgba(0,0,0,0.1); }");
-        content.append(".header { background-color: #4CAF50; color: white; padding: 20px; border-radius: 5px; text-align: center; margin-bottom: 20px; }");
-        content.append(".appointment-details { background-color: #f9f9f9; padding: 20px; border-radius: 5px; margin: 20px 0; }");
-        content.append(".detail-row { margin: 10px 0; padding: 8px 0; border-bottom: 1px solid #eee; }");
-        content.append(".label { font-weight: bold; color: #333; }");
-        content.append(".value { color: #666; }");
-        content.append(".footer { text-align: center; margin-top: 30px; color: #888; font-size: 12px; }");
-        content.append("</style></head><body>");
-        
-        content.append("<div class='container'>");
-        content.append("<div class='header'>");
-        content.append("<h1>Appointment Confirmed!</h1>");
-        content.append("</div>");
-        
-        content.append("<p>Dear ").append(appointment.getPatientName()).append(",</p>");
-        content.append("<p>Your appointment has been successfully booked. Here are the details:</p>");
-        
-        content.append("<div class='appointment-details'>");
-        content.append("<div class='detail-row'>");
-        content.append("<span class='label'>Appointment ID:</span> ");
-        content.append("<span class='value'>").append(appointment.getId()).append("</span>");
-        content.append("</div>");
-        
-        content.append("<div class='detail-row'>");
-        content.append("<span class='label'>Doctor:</span> ");
-        content.append("<span class='value'>Dr. ").append(appointment.getDoctorName()).append("</span>");
-        content.append("</div>");
-        
-        content.append("<div class='detail-row'>");
-        content.append("<span class='label'>Date & Time:</span> ");
-        content.append("<span class='value'>").append(appointment.getDateTime().format(FORMATTER)).append("</span>");
-        content.append("</div>");
-        
-        content.append("<div class='detail-row'>");
-        content.append("<span class='label'>Patient:</span> ");
-        content.append("<span class='value'>").append(appointment.getPatientName()).append("</span>");
-        content.append("</div>");
-        content.append("</div>");
-        
-        content.append("<p><strong>Important Notes:</strong></p>");
-        content.append("<ul>");
-        content.append("<li>Please arrive 15 minutes before your scheduled appointment time</li>");
-        content.append("<li>Bring a valid ID and your insurance card</li>");
-        content.append("<li>If you need to reschedule or cancel, please contact us at least 24 hours in advance</li>");
-        content.append("</ul>");
-        
-        content.append("<p>If you have any questions, please don't hesitate to contact our office.</p>");
-        content.append("<p>Thank you for choosing our medical services!</p>");
-        
-        content.append("<div class='footer'>");
-        content.append("<p>This is an automated confirmation email. Please do not reply to this email.</p>");
-        content.append("</div>");
-        
-        content.append("</div>");
-        content.append("</body></html>");
-        
-        return content.toString();
+    @Override
+    public Delivery sendBatch(List<Appointment> batch) {
+        return send(batch, Kind.CONFIRMATION);
+    }
+    
+    /**
+     * Sends a batch of reminders the same way as {@link #sendBatch}
+     */
+    public Delivery sendReminders(List<Appointment> batch) {
+        return send(batch, Kind.REMINDER);
+    }
+    
+    /**
+     * Sends a batch of waitlist offers the same way as {@link #sendBatch}
+     */
+    public Delivery sendOffers(List<Appointment> batch) {
+        return send(batch, Kind.OFFER);
+    }
+    
+    private Delivery send(List<Appointment> batch, Kind kind) {
+        int handled = 0;
+        int rejected = 0;
+        int retried = -1;
+        while (handled < batch.size()) {
+            Transport transport;
+            try {
+                // After a dead connection, make sure the next one is alive
+                transport = pool.borrow(retried == handled);
+            } catch (MessagingException e) {
+                System.err.println("No SMTP connection for email batch: " + e.getMessage());
+                break;
+            }
+            boolean healthy = true;
+            long start = Metrics.start();
+            try {
+                for (; handled < batch.size(); handled++) {
+                    start = Metrics.start();
+                    Appointment appointment = batch.get(handled);
+                    try {
+                        Message message = createMessage(appointment, kind);
+                        transport.sendMessage(message, message.getAllRecipients());
+                        Metrics.record(Metrics.Operation.EMAIL_SEND, start, true);
+                    } catch (SendFailedException | AddressException e) {
+                        // Bad or refused address: this message can never go, but the connection is fine
+                        Metrics.record(Metrics.Operation.EMAIL_SEND, start, false);
+                        rejected++;
+                        System.err.println("Email for appointment " + appointment.getId() + " to "
+                                           + appointment.getPatientEmail() + " rejected: " + e.getMessage());
+                    }
+                }
+            } catch (MessagingException e) {
+                healthy = false;
+                Metrics.record(Metrics.Operation.EMAIL_SEND, start, false);
+                if (retried == handled) {
+                    System.err.println("Failed to send email batch after " + handled + " message(s): "
+                                       + e.getMessage());
+                    break;
+                }
+                retried = handled;
+            } finally {
+                if (healthy) {
+                    pool.release(transport);
+                } else {
+                    pool.invalidate(transport);
+                }
+            }
+        }
+        return new Delivery(handled, rejected);
+    }
+    
+    /**
+     * The connection pool, for its counters
+     */
+    public SmtpConnectionPool getPool() {
+        return pool;
+    }
+    
+    /**
+     * Closes the pooled SMTP connections
+     */
+    @Override
+    public void close() {
+        pool.close();
     }
     
     /**
      * Sends a simple text-based confirmation email (fallback)
      */
     public void sendSimpleConfirmation(Appointment appointment) {
-        System.out.println("\n=== EMAIL CONFIRMATION SENT ===");
-        System.out.println("To: " + appointment.getPatientEmail());
-        System.out.println("Subject: Appointment Confirmation - Dr. " + appointment.getDoctorName());
-        System.out.println("\nDear " + appointment.getPatientName() + ",");
-        System.out.println("\nYour appointment has been confirmed!");
-        System.out.println("Appointment Details:");
-        System.out.println("- ID: " + appointment.getId());
-        System.out.println("- Doctor: Dr. " + appointment.getDoctorName());
-        System.out.println("- Date & Time: " + appointment.getDateTime().format(FORMATTER));
-        System.out.println("- Patient: " + appointment.getPatientName());
-        System.out.println("\nPlease arrive 15 minutes early.");
-        System.out.println("Thank you for choosing our medical services!");
-        System.out.println("===============================\n");
+        try {
+            CONFIRMATION_TEXT.writeTo(System.out, appointment, fromEmail);
+        } catch (IOException e) {
+            System.err.println("Failed to print confirmation: " + e.getMessage());
+        }
     }
 }
\ No newline at end of file
@@ -1,11 +1,101 @@
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * Simplified email service for demonstration (no external dependencies required)
  * This version simulates email sending for testing purposes
  */
-public class EmailServiceSimple {
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("EEEE, MMMM dd, yyyy 'at' HH:mm");
+public class EmailServiceSimple implements ConfirmationSender {
+    private static final String RULE = "=".repeat(60);
+    
+    /**
+     * Console confirmation layout, parsed once
+     */
+    static final EmailTemplate CONFIRMATION_TEXT = EmailTemplate.text(
+        "\n" + RULE + "\n" + """
+                        EMAIL CONFIRMATION SENT
+        """ + RULE + "\n" + """
+        From: {{sender}}
+        To: {{patientEmail}}
+        Subject: Appointment Confirmation - Dr. {{doctorName}}
+        
+        Dear {{patientName}},
+        
+        Your appointment has been confirmed!
+        
+        APPOINTMENT DETAILS:
+        ┌─────────────────────────────────────────────┐
+        │ ID: {{id:-39}}│
+        │ Doctor: Dr. {{doctorName:-29}}│
+        │ Date & Time: {{dateTime:-28}}│
+        │ Patient: {{patientName:-32}}│
+        │ Email: {{patientEmail:-34}}│
+        └─────────────────────────────────────────────┘
+        
+        IMPORTANT NOTES:
+        • Please arrive 15 minutes before your scheduled time
+        • Bring a valid ID and your insurance card
+        • To reschedule/cancel, contact us 24 hours in advance
+        • Your patient token, for managing bookings online (keep it private):
+          {{patientToken}}
+        
+        If you have any questions, please contact our office.
+        Thank you for choosing our medical services!
+        
+        Best regards,
+        MediBook Appointment System
+        """ + RULE + "\n" + """
+        ✉️  Email successfully sent to {{patientEmail}}
+        """ + RULE + "\n\n");
+    
+    /**
+     * Console reminder layout, parsed once
+     */
+    static final EmailTemplate REMINDER_TEXT = EmailTemplate.text(
+        "\n" + RULE + "\n" + """
+                          EMAIL REMINDER SENT
+        """ + RULE + "\n" + """
+        From: {{sender}}
+        To: {{patientEmail}}
+        Subject: Appointment Reminder - Dr. {{doctorName}}
+        
+        Dear {{patientName}},
+        
+        This is a reminder of your upcoming appointment with
+        Dr. {{doctorName}} on {{dateTime}} (ID {{id}}).
+        
+        Please arrive 15 minutes early. If you can no longer attend,
+        please cancel so the slot can be offered to another patient.
+        
+        Best regards,
+        MediBook Appointment System
+        """ + RULE + "\n\n");
+    
+    /**
+     * Console waitlist offer layout, parsed once
+     */
+    static final EmailTemplate OFFER_TEXT = EmailTemplate.text(
+        "\n" + RULE + "\n" + """
+                         SLOT OFFER SENT
+        """ + RULE + "\n" + """
+        From: {{sender}}
+        To: {{patientEmail}}
+        Subject: A slot with Dr. {{doctorName}} is held for you
+        
+        Dear {{patientName}},
+        
+        A slot you are on the waitlist for has opened up:
+        Dr. {{doctorName}} on {{dateTime}} (ID {{id}}).
+        
+        It is held for you until {{holdExpires}}. To book it, accept offer
+        {{id}} with your email address {{patientEmail}}, at the front desk or
+        with POST /api/slots/{{id}}/accept and your patient token
+        {{patientToken}} (keep it private). If you cannot make it, decline
+        the offer so the slot can go to the next patient.
+        
+        Best regards,
+        MediBook Appointment System
+        """ + RULE + "\n\n");
     
     private String fromEmail;
     private String fromPassword;
@@ -24,43 +114,60 @@ public class EmailServiceSimple {
         return true;
     }
     
+    /**
+     * Simulates sending a batch of confirmation emails
+     */
+    @Override
+    public Delivery sendBatch(List<Appointment> batch) {
+        // Hold the console lock so a background batch is not interleaved with menu output
+        synchronized (System.out) {
+            for (Appointment appointment : batch) {
+                long start = Metrics.start();
+                sendSimpleConfirmation(appointment);
+                Metrics.record(Metrics.Operation.EMAIL_SEND, start, true);
+            }
+        }
+        return Delivery.all(batch.size());
+    }
+    
+    /**
+     * Simulates sending a batch of reminder emails
+     */
+    public Delivery sendReminders(List<Appointment> batch) {
+        return print(batch, REMINDER_TEXT, "reminder");
+    }
+    
+    /**
+     * Simulates sending a batch of waitlist offer emails
+     */
+    public Delivery sendOffers(List<Appointment> batch) {
+        return print(batch, OFFER_TEXT, "offer");
+    }
+    
+    private Delivery print(List<Appointment> batch, EmailTemplate template, String kind) {
+        synchronized (System.out) {
+            for (Appointment appointment : batch) {
+                long start = Metrics.start();
+                try {
+                    template.writeTo(System.out, appointment, fromEmail);
+                } catch (IOException e) {
+                    System.err.println("Failed to print " + kind + ": " + e.getMessage());
+                }
+                Metrics.record(Metrics.Operation.EMAIL_SEND, start, true);
+            }
+        }
+        return Delivery.all(batch.size());
+    }
+    
     /**
      * Sends a console-based confirmation email simulation
      */
     public void sendSimpleConfirmation(Appointment appointment) {
-        System.out.println("\n" + "=".repeat(60));
-        System.out.println("                EMAIL CONFIRMATION SENT");
-        System.out.println("=".repeat(60));
-        System.out.println("From: " + fromEmail);
-        System.out.println("To: " + appointment.getPatientEmail());
-        System.out.println("Subject: Appointment Confirmation - Dr. " + appointment.getDoctorName());
-        System.out.println();
-        System.out.println("Dear " + appointment.getPatientName() + ",");
-        System.out.println();
-        System.out.println("Your appointment has been confirmed!");
-        System.out.println();
-        System.out.println("APPOINTMENT DETAILS:");
-        System.out.println("┌─────────────────────────────────────────────┐");
-        System.out.println("│ ID: " + String.format("%-39s", appointment.getId()) + "│");
-        System.out.println("│ Doctor: " + String.format("%-33s", "Dr. " + appointment.getDoctorName()) + "│");
-        System.out.println("│ Date & Time: " + String.format("%-28s", appointment.getDateTime().format(FORMATTER)) + "│");
-        System.out.println("│ Patient: " + String.format("%-32s", appointment.getPatientName()) + "│");
-        System.out.println("│ Email: " + String.format("%-34s", appointment.getPatientEmail()) + "│");
-        System.out.println("└─────────────────────────────────────────────┘");
-        System.out.println();
-        System.out.println("IMPORTANT NOTES:");
-        System.out.println("• Please arrive 15 minutes before your scheduled time");
-        System.out.println("• Bring a valid ID and your insurance card");
-        System.out.println("• To reschedule/cancel, contact us 24 hours in advance");
-        System.out.println();
-        System.out.println("If you have any questions, please contact our office.");
-        System.out.println("Thank you for choosing our medical services!");
-        System.out.println();
-        System.out.println("Best regards,");
-        System.out.println("MediBook Appointment System");
-        System.out.println("=".repeat(60));
-        System.out.println("✉️  Email successfully sent to " + appointment.getPatientEmail());
-        System.out.println("=".repeat(60) + "\n");
+        try {
+            CONFIRMATION_TEXT.writeTo(System.out, appointment, fromEmail);
+        } catch (IOException e) {
+            System.err.println("Failed to print confirmation: " + e.getMessage());
+        }
     }
     
     /**
@@ -0,0 +1,292 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precompiled confirmation email template.
+ * A template is parsed once into static text segments and placeholders such
+ * as {{patientName}} or {{id:-39}} (left-aligned, padded to 39 characters).
+ * {{patientToken}} is the patient's API token (see {@link PatientTokens}).
+ * Rendering walks the segments into a per-thread reusable buffer, so no
+ * template text is rebuilt per message. HTML templates escape field values.
+ */
+public final class EmailTemplate {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("EEEE, MMMM dd, yyyy 'at' HH:mm");
+    private static final DateTimeFormatter HOLD_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+    private static final ThreadLocal<StringBuilder> FIELD_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(64));
+    private static final ThreadLocal<ByteArrayOutputStream> BYTE_BUFFER = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(4096));
+
+    /**
+     * HTML confirmation body sent by EmailService; kept here so the mail-free
+     * benchmarks can render it
+     */
+    static final EmailTemplate CONFIRMATION_HTML = EmailTemplate.html(
+        "<!DOCTYPE html>" +
+        "<html><head><style>" +
+        "body { font-family: Arial, sans-serif; margin: 0; padding: 20px; background-color: #f5f5f5; }" +
+        ".container { max-width: 600px; margin: 0 auto; background-color: white; padding: 30px; border-radius: 10px; box-shadow: 0 2px 10px rgba(0,0,0,0.1); }" +
+        ".header { background-color: #4CAF50; color: white; padding: 20px; border-radius: 5px; text-align: center; margin-bottom: 20px; }" +
+        ".appointment-details { background-color: #f9f9f9; padding: 20px; border-radius: 5px; margin: 20px 0; }" +
+        ".detail-row { margin: 10px 0; padding: 8px 0; border-bottom: 1px solid #eee; }" +
+        ".label { font-weight: bold; color: #333; }" +
+        ".value { color: #666; }" +
+        ".footer { text-align: center; margin-top: 30px; color: #888; font-size: 12px; }" +
+        "</style></head><body>" +
+        "<div class='container'>" +
+        "<div class='header'>" +
+        "<h1>Appointment Confirmed!</h1>" +
+        "</div>" +
+        "<p>Dear {{patientName}},</p>" +
+        "<p>Your appointment has been successfully booked. Here are the details:</p>" +
+        "<div class='appointment-details'>" +
+        "<div class='detail-row'>" +
+        "<span class='label'>Appointment ID:</span> " +
+        "<span class='value'>{{id}}</span>" +
+        "</div>" +
+        "<div class='detail-row'>" +
+        "<span class='label'>Doctor:</span> " +
+        "<span class='value'>Dr. {{doctorName}}</span>" +
+        "</div>" +
+        "<div class='detail-row'>" +
+        "<span class='label'>Date & Time:</span> " +
+        "<span class='value'>{{dateTime}}</span>" +
+        "</div>" +
+        "<div class='detail-row'>" +
+        "<span class='label'>Patient:</span> " +
+        "<span class='value'>{{patientName}}</span>" +
+        "</div>" +
+        "</div>" +
+        "<p><strong>Important Notes:</strong></p>" +
+        "<ul>" +
+        "<li>Please arrive 15 minutes before your scheduled appointment time</li>" +
+        "<li>Bring a valid ID and your insurance card</li>" +
+        "<li>If you need to reschedule or cancel, please contact us at least 24 hours in advance</li>" +
+        "</ul>" +
+        "<p>To see or cancel your appointments online, use your personal patient token " +
+        "<code>{{patientToken}}</code>. Keep it private: anyone who has it can manage your bookings.</p>" +
+        "<p>If you have any questions, please don't hesitate to contact our office.</p>" +
+        "<p>Thank you for choosing our medical services!</p>" +
+        "<div class='footer'>" +
+        "<p>This is an automated confirmation email. Please do not reply to this email.</p>" +
+        "</div>" +
+        "</div>" +
+        "</body></html>");
+
+    /**
+     * Values that can be substituted into a template
+     */
+    private enum Field {
+        ID, DOCTOR_NAME, DATE_TIME, PATIENT_NAME, PATIENT_EMAIL, PATIENT_TOKEN, HOLD_EXPIRES, SENDER;
+
+        static Field parse(String name) {
+            switch (name) {
+                case "id": return ID;
+                case "doctorName": return DOCTOR_NAME;
+                case "dateTime": return DATE_TIME;
+                case "patientName": return PATIENT_NAME;
+                case "patientEmail": return PATIENT_EMAIL;
+                case "patientToken": return PATIENT_TOKEN;
+                case "holdExpires": return HOLD_EXPIRES;
+                case "sender": return SENDER;
+                default: throw new IllegalArgumentException("Unknown template field: " + name);
+            }
+        }
+
+        String valueOf(Appointment appointment, String sender) {
+            switch (this) {
+                case ID: return Integer.toString(appointment.getId());
+                case DOCTOR_NAME: return appointment.getDoctorName();
+                case DATE_TIME: return appointment.getDateTime().format(FORMATTER);
+                case PATIENT_NAME: return appointment.getPatientName();
+                case PATIENT_EMAIL: return appointment.getPatientEmail();
+                case PATIENT_TOKEN: return patientToken(appointment.getPatientEmail());
+                case HOLD_EXPIRES: return holdExpires(appointment.getHold());
+                default: return sender;
+            }
+        }
+    }
+
+    private static String patientToken(String email) {
+        return email == null ? null : PatientTokens.tokenFor(email);
+    }
+
+    /**
+     * When a hold lapses, in local time, or null for no hold
+     */
+    private static String holdExpires(Appointment.Hold hold) {
+        return hold == null ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(hold.expiresAtMillis()),
+                                                             ZoneId.systemDefault()).format(HOLD_FORMATTER);
+    }
+
+    /**
+     * Either a static text segment (field == null) or a placeholder
+     */
+    private static final class Segment {
+        final String text;
+        final byte[] bytes;
+        final Field field;
+        final int width;
+
+        Segment(String text) {
+            this.text = text;
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+            this.field = null;
+            this.width = 0;
+        }
+
+        Segment(Field field, int width) {
+            this.text = null;
+            this.bytes = null;
+            this.field = field;
+            this.width = width;
+        }
+    }
+
+    private final Segment[] segments;
+    private final boolean html;
+
+    private EmailTemplate(Segment[] segments, boolean html) {
+        this.segments = segments;
+        this.html = html;
+    }
+
+    /**
+     * Parses an HTML template; field values are HTML-escaped when rendered
+     */
+    public static EmailTemplate html(String source) {
+        return new EmailTemplate(parse(source), true);
+    }
+
+    /**
+     * Parses a plain-text template; field values are inserted as-is
+     */
+    public static EmailTemplate text(String source) {
+        return new EmailTemplate(parse(source), false);
+    }
+
+    private static Segment[] parse(String source) {
+        List<Segment> parsed = new ArrayList<>();
+        int pos = 0;
+        while (pos < source.length()) {
+            int open = source.indexOf("{{", pos);
+            if (open < 0) {
+                parsed.add(new Segment(source.substring(pos)));
+                break;
+            }
+            int close = source.indexOf("}}", open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at offset " + open);
+            }
+            if (open > pos) {
+                parsed.add(new Segment(source.substring(pos, open)));
+            }
+            String placeholder = source.substring(open + 2, close).trim();
+            int colon = placeholder.indexOf(':');
+            if (colon < 0) {
+                parsed.add(new Segment(Field.parse(placeholder), 0));
+            } else {
+                parsed.add(new Segment(Field.parse(placeholder.substring(0, colon)),
+                                       Integer.parseInt(placeholder.substring(colon + 1))));
+            }
+            pos = close + 2;
+        }
+        return parsed.toArray(new Segment[0]);
+    }
+
+    /**
+     * Renders the template for an appointment into a String
+     */
+    public String render(Appointment appointment, String sender) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        renderInto(buffer, appointment, sender);
+        return buffer.toString();
+    }
+
+    /**
+     * Renders the template as UTF-8 and writes it to the stream in a single write.
+     * Static segments are copied from their pre-encoded bytes.
+     */
+    public void writeTo(OutputStream out, Appointment appointment, String sender) throws IOException {
+        ByteArrayOutputStream bytes = BYTE_BUFFER.get();
+        bytes.reset();
+        StringBuilder field = FIELD_BUFFER.get();
+        for (Segment segment : segments) {
+            if (segment.field == null) {
+                bytes.write(segment.bytes);
+            } else {
+                field.setLength(0);
+                appendField(field, segment, appointment, sender);
+                bytes.write(field.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        bytes.writeTo(out);
+        out.flush();
+    }
+
+    private void renderInto(StringBuilder buffer, Appointment appointment, String sender) {
+        for (Segment segment : segments) {
+            if (segment.field == null) {
+                buffer.append(segment.text);
+            } else {
+                appendField(buffer, segment, appointment, sender);
+            }
+        }
+    }
+
+    private void appendField(StringBuilder buffer, Segment segment, Appointment appointment, String sender) {
+        String value = segment.field.valueOf(appointment, sender);
+        if (value == null) {
+            value = "";
+        }
+        int start = buffer.length();
+        if (html) {
+            appendEscaped(buffer, value);
+        } else {
+            buffer.append(value);
+        }
+        pad(buffer, start, segment.width);
+    }
+
+    /**
+     * Pads the value written since start to the given width (negative = left-aligned)
+     */
+    private static void pad(StringBuilder buffer, int start, int width) {
+        int missing = Math.abs(width) - (buffer.length() - start);
+        if (missing <= 0) {
+            return;
+        }
+        if (width < 0) {
+            for (int i = 0; i < missing; i++) {
+                buffer.append(' ');
+            }
+        } else {
+            buffer.insert(start, " ".repeat(missing));
+        }
+    }
+
+    /**
+     * Appends text with HTML special characters escaped
+     */
+    static void appendEscaped(StringBuilder buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': buffer.append("&lt;"); break;
+                case '>': buffer.append("&gt;"); break;
+                case '&': buffer.append("&amp;"); break;
+                case '"': buffer.append("&quot;"); break;
+                case '\'': buffer.append("&#39;"); break;
+                default: buffer.append(c);
+            }
+        }
+    }
+}
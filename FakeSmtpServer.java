@@ -0,0 +1,265 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local SMTP server for trying out and benchmarking the email path
+ * without a real mail provider. It speaks enough SMTP for JavaMail
+ * (EHLO/HELO, AUTH PLAIN and LOGIN, MAIL, RCPT, DATA, RSET, NOOP, QUIT),
+ * accepts any credentials and discards every message after counting it
+ * and its recipients.
+ *
+ * A handshake delay before the greeting stands in for the TCP, TLS and
+ * AUTH round trips of a real provider, which is what connection reuse
+ * saves. The server can also drop a connection after a number of
+ * messages, to exercise reconnects, and refuse chosen recipients with a
+ * permanent 550, like a mailbox that does not exist.
+ *
+ * Usage: java FakeSmtpServer [port] [handshake millis] [messages per connection]
+ */
+public class FakeSmtpServer implements AutoCloseable {
+    private final ServerSocket serverSocket;
+    private final long handshakeMillis;
+    private final int messagesPerConnection;
+    private final Thread acceptor;
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder noops = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> recipients = new ConcurrentHashMap<>();
+    private final Set<String> refused = ConcurrentHashMap.newKeySet();
+    private final LongAdder refusals = new LongAdder();
+
+    /**
+     * @param port                  0 picks a free port
+     * @param handshakeMillis       delay before greeting each new connection
+     * @param messagesPerConnection close the connection after this many messages, 0 for never
+     */
+    public FakeSmtpServer(int port, long handshakeMillis, int messagesPerConnection) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.handshakeMillis = handshakeMillis;
+        this.messagesPerConnection = messagesPerConnection;
+        this.running = true;
+        this.acceptor = new Thread(this::acceptLoop, "fake-smtp-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 2525;
+        long handshake = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int perConnection = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        try (FakeSmtpServer server = new FakeSmtpServer(port, handshake, perConnection)) {
+            System.out.println("📨 Fake SMTP server listening on localhost:" + server.getPort()
+                               + " (handshake " + handshake + " ms)");
+            while (true) {
+                Thread.sleep(10_000);
+                System.out.printf("📊 %,d connection(s), %,d message(s), %,d NOOP(s)%n",
+                                  server.connections(), server.messages(), server.noops());
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                open.add(socket);
+                connections.increment();
+                Thread handler = new Thread(() -> serve(socket), "fake-smtp-" + connections.sum());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("Fake SMTP accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            Writer out = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.ISO_8859_1));
+            if (handshakeMillis > 0) {
+                Thread.sleep(handshakeMillis);
+            }
+            reply(out, in, "220 localhost ESMTP FakeSmtpServer");
+            int accepted = 0;
+            String recipient = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String verb = (line.length() < 4 ? line : line.substring(0, 4)).toUpperCase(Locale.ROOT);
+                switch (verb) {
+                    case "EHLO" -> reply(out, in, "250-localhost\r\n250-AUTH PLAIN LOGIN\r\n250-PIPELINING\r\n250 8BITMIME");
+                    case "HELO" -> reply(out, in, "250 localhost");
+                    case "AUTH" -> authenticate(line, out, in);
+                    case "MAIL", "RSET" -> {
+                        recipient = null;
+                        reply(out, in, "250 OK");
+                    }
+                    case "RCPT" -> {
+                        String address = recipient(line);
+                        if (address != null && refused.contains(address)) {
+                            refusals.increment();
+                            reply(out, in, "550 5.1.1 No such user");
+                        } else {
+                            recipient = address;
+                            reply(out, in, "250 OK");
+                        }
+                    }
+                    case "NOOP" -> {
+                        noops.increment();
+                        reply(out, in, "250 OK");
+                    }
+                    case "DATA" -> {
+                        reply(out, in, "354 End data with <CR><LF>.<CR><LF>");
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            // Discard the message body
+                        }
+                        if (line == null) {
+                            return;
+                        }
+                        messages.increment();
+                        if (recipient != null) {
+                            recipients.computeIfAbsent(recipient, r -> new LongAdder()).increment();
+                        }
+                        reply(out, in, "250 OK queued");
+                        if (messagesPerConnection > 0 && ++accepted >= messagesPerConnection) {
+                            out.flush();
+                            return;
+                        }
+                    }
+                    case "QUIT" -> {
+                        reply(out, in, "221 Bye");
+                        out.flush();
+                        return;
+                    }
+                    default -> reply(out, in, "502 Command not implemented");
+                }
+            }
+        } catch (SocketException e) {
+            // Client went away or the server is closing
+        } catch (IOException e) {
+            System.err.println("Fake SMTP connection failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    /**
+     * Address in "RCPT TO:<address>", lower-cased
+     */
+    private static String recipient(String line) {
+        int start = line.indexOf('<');
+        int end = line.indexOf('>', start + 1);
+        return start < 0 || end < 0 ? null : line.substring(start + 1, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * AUTH PLAIN with or without an initial response, or AUTH LOGIN; any credentials pass
+     */
+    private static void authenticate(String line, Writer out, BufferedReader in) throws IOException {
+        String[] parts = line.split(" ");
+        String mechanism = parts.length > 1 ? parts[1].toUpperCase(Locale.ROOT) : "";
+        if (mechanism.equals("LOGIN")) {
+            if (parts.length < 3) {
+                reply(out, in, "334 VXNlcm5hbWU6");
+                in.readLine();
+            }
+            reply(out, in, "334 UGFzc3dvcmQ6");
+            in.readLine();
+        } else if (mechanism.equals("PLAIN")) {
+            if (parts.length < 3) {
+                reply(out, in, "334 ");
+                in.readLine();
+            }
+        } else {
+            reply(out, in, "504 Unrecognized authentication type");
+            return;
+        }
+        reply(out, in, "235 Authentication successful");
+    }
+
+    /**
+     * Writes a reply, flushing only once the client has no more pipelined commands waiting
+     */
+    private static void reply(Writer out, BufferedReader in, String text) throws IOException {
+        out.write(text);
+        out.write("\r\n");
+        if (!in.ready()) {
+            out.flush();
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long connections() {
+        return connections.sum();
+    }
+
+    public long messages() {
+        return messages.sum();
+    }
+
+    public long noops() {
+        return noops.sum();
+    }
+
+    /**
+     * Answers RCPT for this address with a permanent failure from now on
+     */
+    public void refuseRecipient(String address) {
+        refused.add(address.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * RCPT commands refused so far
+     */
+    public long refusals() {
+        return refusals.sum();
+    }
+
+    /**
+     * Messages accepted for the given address (the last recipient of each message)
+     */
+    public long messagesTo(String address) {
+        LongAdder count = recipients.get(address.toLowerCase(Locale.ROOT));
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * Stops accepting and closes every open connection
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Socket socket : open) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide counters and latency histograms for booking operations.
+ *
+ * Recording is lock-free: a LongAdder per counter and a
+ * {@link LatencyHistogram} per operation. Each operation is also published
+ * over JMX as medibook:type=Operation,name=&lt;operation&gt;.
+ *
+ * Metrics are on by default. Starting the JVM with -Dmedibook.metrics=false
+ * turns them off completely: {@link #ENABLED} is a static final constant, so
+ * the JIT folds every {@code if (Metrics.ENABLED)} and removes the
+ * recording code, including the System.nanoTime() calls.
+ */
+public final class Metrics {
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("medibook.metrics"));
+
+    /**
+     * Instrumented operations
+     */
+    public enum Operation {
+        BOOK("book"),
+        RESERVE("reserve"),
+        CANCEL("cancel"),
+        ADD_SLOTS("addSlots"),
+        GENERATE_SLOTS("generateSlots"),
+        LIST_AVAILABLE("listAvailable"),
+        LIST_BOOKED("listBooked"),
+        SEARCH_DOCTOR("searchDoctor"),
+        SEARCH_DATE("searchDate"),
+        SEARCH_RANGE("searchRange"),
+        RECOMMEND("recommend"),
+        JOURNAL_SYNC("journalSync"),
+        EMAIL_SEND("emailSend");
+
+        private final String label;
+        private final OperationStats stats = new OperationStats();
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        public OperationStats stats() {
+            return stats;
+        }
+    }
+
+    /**
+     * JMX view of one operation; latencies are in microseconds
+     */
+    public interface OperationStatsMXBean {
+        long getCount();
+
+        long getFailures();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP99Micros();
+
+        double getP999Micros();
+
+        double getMaxMicros();
+
+        void reset();
+    }
+
+    /**
+     * Counters and latency histogram for one operation
+     */
+    public static final class OperationStats implements OperationStatsMXBean {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(long nanos, boolean success) {
+            count.increment();
+            if (!success) {
+                failures.increment();
+            }
+            latency.record(nanos);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latency.mean() / 1000.0;
+        }
+
+        @Override
+        public double getP50Micros() {
+            return latency.percentile(50) / 1000.0;
+        }
+
+        @Override
+        public double getP99Micros() {
+            return latency.percentile(99) / 1000.0;
+        }
+
+        @Override
+        public double getP999Micros() {
+            return latency.percentile(99.9) / 1000.0;
+        }
+
+        @Override
+        public double getMaxMicros() {
+            return latency.max() / 1000.0;
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+            failures.reset();
+            latency.reset();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Start timestamp for {@link #record}; 0 when metrics are off
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records one completed operation that began at {@code startNanos}
+     */
+    public static void record(Operation operation, long startNanos, boolean success) {
+        if (ENABLED) {
+            operation.stats.record(System.nanoTime() - startNanos, success);
+        }
+    }
+
+    /**
+     * Publishes every operation on the platform MBean server. Does nothing when metrics are off.
+     */
+    public static void registerMBeans() {
+        if (!ENABLED) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Operation operation : Operation.values()) {
+            try {
+                ObjectName name = new ObjectName("medibook:type=Operation,name=" + operation.label);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(operation.stats, name);
+                }
+            } catch (JMException e) {
+                System.err.println("⚠️  Could not register metrics MBean for " + operation.label + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Plain-text table of every operation that has been recorded
+     */
+    public static String dump() {
+        if (!ENABLED) {
+            return "Metrics are disabled (-Dmedibook.metrics=false)" + System.lineSeparator();
+        }
+        StringBuilder text = new StringBuilder(1024);
+        text.append(String.format(Locale.ROOT, "%-15s %9s %8s %10s %10s %10s %10s %10s%n",
+                                  "Operation", "Count", "Failed", "Mean(us)", "p50(us)", "p99(us)", "p999(us)",
+                                  "Max(us)"));
+        text.append("-".repeat(89)).append(System.lineSeparator());
+        for (Operation operation : Operation.values()) {
+            OperationStats stats = operation.stats;
+            if (stats.getCount() == 0) {
+                continue;
+            }
+            text.append(String.format(Locale.ROOT, "%-15s %9d %8d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                                      operation.label, stats.getCount(), stats.getFailures(),
+                                      stats.getMeanMicros(), stats.getP50Micros(), stats.getP99Micros(),
+                                      stats.getP999Micros(), stats.getMaxMicros()));
+        }
+        return text.toString();
+    }
+}
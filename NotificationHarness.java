@@ -0,0 +1,185 @@
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends confirmation emails through the {@link NotificationQueue} and the
+ * pooled {@link EmailService} to a local {@link FakeSmtpServer}, and
+ * checks that:
+ *
+ *   - every queued confirmation is delivered exactly once, also when the
+ *     server drops connections in the middle of a batch;
+ *   - a slot cancelled and rebooked before its email goes out still gets
+ *     one email per booking, each to the patient who made it;
+ *   - a sender that throws loses only the batch it was sending, and the
+ *     workers go on delivering everything queued after it;
+ *   - a recipient the server refuses in the middle of a batch costs only
+ *     that one email: it is tried once and never retried, and the rest of
+ *     the batch is delivered without any backoff.
+ *
+ * Needs JavaMail on the classpath:
+ * java -cp ".:lib/*" NotificationHarness [messages]
+ * Exits with status 1 if any check fails.
+ */
+public class NotificationHarness {
+    private static final LocalDateTime FIRST_SLOT = LocalDateTime.of(2030, 1, 7, 9, 0);
+    private static final long SHUTDOWN_SECONDS = 60;
+
+    private final List<String> violations = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        System.exit(new NotificationHarness().run(messages) ? 0 : 1);
+    }
+
+    private boolean run(int messages) throws Exception {
+        delivery(messages);
+        rebooking();
+        throwingSender();
+        refusedRecipient();
+        if (violations.isEmpty()) {
+            System.out.println("✅ Every confirmation delivered once, to the patient who booked");
+            return true;
+        }
+        for (String violation : violations) {
+            System.out.println("❌ " + violation);
+        }
+        return false;
+    }
+
+    private static Appointment slot(int id) {
+        return new Appointment(id, "Doctor " + (id % 10), FIRST_SLOT.plusMinutes(15L * id));
+    }
+
+    private static String patientEmail(int i) {
+        return "patient" + i + "@example.com";
+    }
+
+    /**
+     * Queued confirmations all arrive once, through reconnects every 7 messages
+     */
+    private void delivery(int messages) throws Exception {
+        try (FakeSmtpServer server = new FakeSmtpServer(0, 20, 7);
+             EmailService email = new EmailService("clinic@localhost", "secret", "localhost", server.getPort(),
+                                                   false, 2)) {
+            NotificationQueue queue = new NotificationQueue(email, 2, 50);
+            for (int i = 1; i <= messages; i++) {
+                if (!queue.enqueue(slot(i), new Appointment.Booking("Patient " + i, patientEmail(i)))) {
+                    violations.add("Confirmation " + i + " was not queued");
+                }
+            }
+            queue.shutdown(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+            System.out.printf("Delivery: %,d queued, %,d sent, %,d failed, %,d received over %,d connection(s)%n",
+                              messages, queue.sentCount(), queue.failedCount(), server.messages(),
+                              server.connections());
+            if (server.messages() != messages || queue.sentCount() != messages || queue.failedCount() != 0) {
+                violations.add("Sent " + queue.sentCount() + " and received " + server.messages() + " of "
+                               + messages + " confirmations");
+            }
+            for (int i = 1; i <= messages; i++) {
+                if (server.messagesTo(patientEmail(i)) != 1) {
+                    violations.add(patientEmail(i) + " received " + server.messagesTo(patientEmail(i))
+                                   + " confirmations");
+                }
+            }
+        }
+    }
+
+    /**
+     * A slot cancelled and rebooked while its first confirmation waits on a slow server
+     */
+    private void rebooking() throws Exception {
+        try (FakeSmtpServer server = new FakeSmtpServer(0, 300, 0);
+             EmailService email = new EmailService("clinic@localhost", "secret", "localhost", server.getPort(),
+                                                   false, 1)) {
+            NotificationQueue queue = new NotificationQueue(email, 1, 50);
+            AppointmentStore store = new AppointmentStore();
+            BookingService service = new BookingService(store, null, queue, PatientRegistry.attach(store),
+                                                        AvailabilitySnapshots.attach(store));
+            Appointment appointment = store.create("Doctor 1", FIRST_SLOT);
+            String[] patients = {"ann@example.com", "bob@example.com", "cara@example.com"};
+            for (int i = 0; i < patients.length; i++) {
+                if (i > 0 && service.cancel(appointment.getId()) != BookingService.Outcome.CANCELLED) {
+                    violations.add("Could not cancel the booking of " + patients[i - 1]);
+                }
+                if (service.book(appointment.getId(), "Patient " + i, patients[i]) != BookingService.Outcome.BOOKED) {
+                    violations.add("Could not book the slot for " + patients[i]);
+                }
+            }
+            queue.shutdown(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+            System.out.printf("Rebooking: %,d booking(s), %,d received%n", patients.length, server.messages());
+            for (String patient : patients) {
+                if (server.messagesTo(patient) != 1) {
+                    violations.add(patient + " received " + server.messagesTo(patient) + " confirmations");
+                }
+            }
+        }
+    }
+
+    /**
+     * A sender that throws on one batch; the worker must survive it
+     */
+    private void throwingSender() throws Exception {
+        int messages = 100;
+        int poisoned = 13;
+        Set<Integer> delivered = Collections.synchronizedSet(new HashSet<>());
+        NotificationQueue queue = new NotificationQueue(batch -> {
+            for (Appointment appointment : batch) {
+                if (appointment.getId() == poisoned) {
+                    throw new IllegalStateException("template failed for appointment " + poisoned);
+                }
+            }
+            for (Appointment appointment : batch) {
+                delivered.add(appointment.getId());
+            }
+            return ConfirmationSender.Delivery.all(batch.size());
+        }, 1, 10);
+        for (int i = 1; i <= messages; i++) {
+            queue.enqueue(slot(i), new Appointment.Booking("Patient " + i, patientEmail(i)));
+        }
+        queue.shutdown(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+        System.out.printf("Throwing sender: %,d sent, %,d failed%n", queue.sentCount(), queue.failedCount());
+        if (queue.failedCount() < 1 || queue.failedCount() > 10 || delivered.contains(poisoned)) {
+            violations.add("The failing batch was not counted as failed (" + queue.failedCount() + ")");
+        }
+        if (queue.sentCount() + queue.failedCount() != messages || !delivered.contains(messages)) {
+            violations.add("Only " + delivered.size() + " of the other confirmations were delivered");
+        }
+    }
+
+    /**
+     * One refused recipient in the middle of a batch
+     */
+    private void refusedRecipient() throws Exception {
+        int messages = 50;
+        int refused = 25;
+        try (FakeSmtpServer server = new FakeSmtpServer(0, 0, 0);
+             EmailService email = new EmailService("clinic@localhost", "secret", "localhost", server.getPort(),
+                                                   false, 1)) {
+            server.refuseRecipient(patientEmail(refused));
+            NotificationQueue queue = new NotificationQueue(email, 1, messages);
+            long start = System.nanoTime();
+            for (int i = 1; i <= messages; i++) {
+                queue.enqueue(slot(i), new Appointment.Booking("Patient " + i, patientEmail(i)));
+            }
+            queue.shutdown(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("Refused recipient: %,d sent, %,d failed, %,d refusal(s), %,d ms%n",
+                              queue.sentCount(), queue.failedCount(), server.refusals(), millis);
+            if (queue.sentCount() != messages - 1 || queue.failedCount() != 1 || server.messages() != messages - 1) {
+                violations.add("With one refused recipient, sent " + queue.sentCount() + ", failed "
+                               + queue.failedCount() + " and received " + server.messages() + " of " + messages);
+            }
+            if (server.refusals() != 1) {
+                violations.add("The refused recipient was tried " + server.refusals() + " times instead of once");
+            }
+            for (int i = 1; i <= messages; i++) {
+                long expected = i == refused ? 0 : 1;
+                if (server.messagesTo(patientEmail(i)) != expected) {
+                    violations.add(patientEmail(i) + " received " + server.messagesTo(patientEmail(i))
+                                   + " confirmations after a refused recipient");
+                }
+            }
+        }
+    }
+}
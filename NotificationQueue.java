@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outbound queue for booking confirmation, reminder and offer emails.
+ * Bookings enqueue an event and return immediately; a small pool of worker
+ * threads drains the queue in batches, hands each batch to a
+ * {@link ConfirmationSender} and retries messages cut off by a connection
+ * failure with exponential backoff. A message the mail server refuses for
+ * good (a bad or unknown address) is counted as failed and never retried,
+ * so it does not hold up the messages queued behind it.
+ *
+ * Each event is a detached copy of the slot with the booking it was
+ * queued for, so a slot cancelled or rebooked before the email goes out
+ * still gets the email its booking asked for, addressed to that patient.
+ */
+public class NotificationQueue {
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MILLIS = 200;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+    private final BlockingQueue<Appointment> queue;
+    private final ConfirmationSender sender;
+    private final int batchSize;
+    private final String kind;
+    private final Thread[] workers;
+    private volatile boolean running;
+
+    private final LongAdder sentCount;
+    private final LongAdder failedCount;
+    private final LongAdder batchCount;
+    private final LongAdder totalSendNanos;
+    private final AtomicLong maxSendNanos;
+
+    public NotificationQueue(ConfirmationSender sender, int workerCount) {
+        this(sender, workerCount, DEFAULT_BATCH_SIZE);
+    }
+
+    public NotificationQueue(ConfirmationSender sender, int workerCount, int batchSize) {
+        this(sender, workerCount, batchSize, "confirmation");
+    }
+
+    /**
+     * @param kind what the emails are ("confirmation", "reminder"), for thread names and log messages
+     */
+    public NotificationQueue(ConfirmationSender sender, int workerCount, int batchSize, String kind) {
+        this.queue = new LinkedBlockingQueue<>();
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.kind = kind;
+        this.sentCount = new LongAdder();
+        this.failedCount = new LongAdder();
+        this.batchCount = new LongAdder();
+        this.totalSendNanos = new LongAdder();
+        this.maxSendNanos = new AtomicLong();
+        this.running = true;
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::runWorker, kind + "-sender-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues an email about the given booking of a slot without waiting for delivery
+     */
+    public boolean enqueue(Appointment appointment, Appointment.Booking booking) {
+        return enqueue(appointment, booking, null);
+    }
+
+    /**
+     * Queues an email to the given patient about a slot held for them, such as a waitlist offer
+     */
+    public boolean enqueue(Appointment appointment, Appointment.Booking addressee, Appointment.Hold hold) {
+        return running && queue.offer(appointment.withBooking(addressee, hold));
+    }
+
+    /**
+     * Worker loop: block for one event, then drain up to a full batch
+     */
+    private void runWorker() {
+        List<Appointment> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Appointment first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                deliver(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends a batch, retrying the remainder cut off by a connection failure
+     * with exponential backoff. Rejected messages are counted as failed and
+     * skipped. A sender that throws gives up on the batch, which counts as
+     * failed; the worker carries on with the next one.
+     */
+    private void deliver(List<Appointment> batch) throws InterruptedException {
+        List<Appointment> pending = batch;
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            long start = System.nanoTime();
+            ConfirmationSender.Delivery delivery;
+            try {
+                delivery = sender.sendBatch(pending);
+            } catch (RuntimeException e) {
+                recordLatency(System.nanoTime() - start);
+                failedCount.add(pending.size());
+                System.err.println("⚠️  Dropped " + pending.size() + " " + kind + " email(s): " + e);
+                return;
+            }
+            recordLatency(System.nanoTime() - start);
+            sentCount.add(delivery.sent());
+            if (delivery.rejected() > 0) {
+                failedCount.add(delivery.rejected());
+                System.err.println("⚠️  " + delivery.rejected() + " " + kind
+                                   + " email(s) refused by the mail server; not retried");
+            }
+            if (delivery.handled() >= pending.size()) {
+                return;
+            }
+            pending = pending.subList(delivery.handled(), pending.size());
+            if (attempt < MAX_ATTEMPTS) {
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+        failedCount.add(pending.size());
+        System.err.println("Giving up on " + pending.size() + " " + kind + " email(s) after "
+                           + MAX_ATTEMPTS + " attempts");
+    }
+
+    private void recordLatency(long nanos) {
+        batchCount.increment();
+        totalSendNanos.add(nanos);
+        maxSendNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Stops accepting events and waits for queued confirmations to be sent
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+            }
+        }
+    }
+
+    // Metrics
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public long sentCount() {
+        return sentCount.sum();
+    }
+
+    public long failedCount() {
+        return failedCount.sum();
+    }
+
+    public long batchCount() {
+        return batchCount.sum();
+    }
+
+    public double averageSendLatencyMillis() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0.0 : totalSendNanos.sum() / (batches * 1_000_000.0);
+    }
+
+    public double maxSendLatencyMillis() {
+        return maxSendNanos.get() / 1_000_000.0;
+    }
+}
@@ -0,0 +1,197 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Supplier;
+
+/**
+ * Every patient's bookings, keyed by normalized email and kept in
+ * date/time order, so "my appointments" is a lookup instead of a scan
+ * of the booked slots.
+ *
+ * The booking path asks the registry first. It refuses a booking that
+ * starts within one appointment length of another booking of the same
+ * patient, or that would give the patient more than the allowed number
+ * of upcoming appointments. Both checks are a seek in the patient's
+ * ordered set, O(log n) plus at most the quota for counting. Checks and
+ * the booking run under the patient's lock, so two concurrent requests
+ * for one patient cannot both pass. Store events update the sets without
+ * that lock, so a booking in progress never waits on a store listener.
+ *
+ * Appointment length defaults to 15 minutes and the quota to 10 upcoming
+ * appointments (-Dmedibook.appointmentMinutes, -Dmedibook.maxBookings).
+ */
+public class PatientRegistry implements StoreListener {
+    /**
+     * One patient's bookings in date/time order; the object itself is the
+     * lock that serializes the patient's booking checks
+     */
+    private static final class Patient {
+        final String key;
+        final NavigableSet<Appointment> bookings = new ConcurrentSkipListSet<>(AppointmentStore.SLOT_ORDER);
+        volatile String name;
+
+        Patient(String key) {
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Patient> patients = new ConcurrentHashMap<>();
+    private final Duration appointmentLength;
+    private final int maxUpcoming;
+
+    private PatientRegistry(Duration appointmentLength, int maxUpcoming) {
+        this.appointmentLength = appointmentLength;
+        this.maxUpcoming = maxUpcoming;
+    }
+
+    /**
+     * Indexes the store's bookings and keeps the index current from then on
+     */
+    public static PatientRegistry attach(AppointmentStore store) {
+        return attach(store, Duration.ofMinutes(Long.getLong("medibook.appointmentMinutes", 15)),
+                      Integer.getInteger("medibook.maxBookings", 10));
+    }
+
+    public static PatientRegistry attach(AppointmentStore store, Duration appointmentLength, int maxUpcoming) {
+        PatientRegistry registry = new PatientRegistry(appointmentLength, maxUpcoming);
+        // Listen first so no booking made during the seeding pass is missed
+        store.addListener(registry);
+        for (Appointment appointment : store.bookedSlots()) {
+            Appointment.Booking booking = appointment.getBooking();
+            if (booking != null) {
+                registry.added(appointment, booking);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Normalizes an email address for registry lookups
+     */
+    public static String normalizeEmail(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private Patient patient(String email) {
+        return patients.computeIfAbsent(normalizeEmail(email), Patient::new);
+    }
+
+    // Store events
+
+    @Override
+    public void slotAdded(Appointment appointment) {
+        Appointment.Booking booking = appointment.getBooking();
+        if (booking != null) {
+            added(appointment, booking);
+        }
+    }
+
+    @Override
+    public void slotBooked(Appointment appointment, Appointment.Booking booking) {
+        added(appointment, booking);
+    }
+
+    @Override
+    public void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+        patient(previous.patientEmail()).bookings.remove(appointment);
+    }
+
+    private void added(Appointment appointment, Appointment.Booking booking) {
+        Patient patient = patient(booking.patientEmail());
+        patient.bookings.add(appointment);
+        patient.name = booking.patientName();
+        // The seeding pass can race a cancellation whose event has already gone by
+        Appointment.Booking current = appointment.getBooking();
+        if (current == null || !normalizeEmail(current.patientEmail()).equals(patient.key)) {
+            patient.bookings.remove(appointment);
+        }
+    }
+
+    // Booking checks
+
+    /**
+     * Runs the booking if the patient has no overlapping appointment and
+     * is under the quota, holding the patient's lock throughout. Returns
+     * OVERLAPPING or QUOTA_EXCEEDED without running it, or else whatever
+     * the booking returns.
+     */
+    public BookingService.Outcome admit(String email, Appointment appointment,
+                                        Supplier<BookingService.Outcome> booking) {
+        Patient patient = patient(email);
+        synchronized (patient) {
+            BookingService.Outcome refusal = check(patient, appointment);
+            return refusal != null ? refusal : booking.get();
+        }
+    }
+
+    private BookingService.Outcome check(Patient patient, Appointment appointment) {
+        if (patient.bookings.contains(appointment)) {
+            // Already theirs; the booking itself reports that
+            return null;
+        }
+        LocalDateTime dateTime = appointment.getDateTime();
+        // Nearest booking starting after dateTime - length; it overlaps if it starts before dateTime + length
+        Appointment nearest = patient.bookings.higher(probe(dateTime.minus(appointmentLength), Integer.MAX_VALUE));
+        if (nearest != null && nearest.getDateTime().isBefore(dateTime.plus(appointmentLength))) {
+            return BookingService.Outcome.OVERLAPPING;
+        }
+        // Count upcoming bookings only as far as the quota
+        Iterator<Appointment> upcoming = patient.bookings.tailSet(probe(LocalDateTime.now(), Integer.MIN_VALUE), true)
+            .iterator();
+        for (int i = 0; i < maxUpcoming; i++) {
+            if (!upcoming.hasNext()) {
+                return null;
+            }
+            upcoming.next();
+        }
+        return BookingService.Outcome.QUOTA_EXCEEDED;
+    }
+
+    /**
+     * Search key that sorts before (MIN_VALUE) or after (MAX_VALUE) every real slot at the given time
+     */
+    private static Appointment probe(LocalDateTime dateTime, int id) {
+        return new Appointment(id, "", dateTime);
+    }
+
+    // Queries
+
+    /**
+     * A patient's booked appointments in date/time order (empty if unknown)
+     */
+    public List<Appointment> appointmentsOf(String email) {
+        Patient patient = patients.get(normalizeEmail(email));
+        return patient == null ? List.of() : new ArrayList<>(patient.bookings);
+    }
+
+    /**
+     * A patient's appointments at or after the given time, in date/time order
+     */
+    public List<Appointment> upcoming(String email, LocalDateTime from) {
+        Patient patient = patients.get(normalizeEmail(email));
+        return patient == null ? List.of()
+            : new ArrayList<>(patient.bookings.tailSet(probe(from, Integer.MIN_VALUE), true));
+    }
+
+    /**
+     * The name the patient gave on their latest booking, or null if unknown
+     */
+    public String nameOf(String email) {
+        Patient patient = patients.get(normalizeEmail(email));
+        return patient == null ? null : patient.name;
+    }
+
+    public Duration getAppointmentLength() {
+        return appointmentLength;
+    }
+
+    public int getMaxUpcoming() {
+        return maxUpcoming;
+    }
+
+    public int patientCount() {
+        return patients.size();
+    }
+}
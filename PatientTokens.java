@@ -0,0 +1,69 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Tokens that let a patient manage their own bookings through the HTTP
+ * API: list their appointments, cancel, and answer waitlist offers.
+ *
+ * A token is an HMAC-SHA256 of the patient's normalized email under the
+ * secret in -Dmedibook.apiSecret, so it needs no storage and every node
+ * with the same secret accepts it. It is only ever sent to the patient's
+ * own mailbox, in confirmation and offer emails, never in an API response.
+ * Without the property a random secret is used and tokens stop working
+ * when the process restarts.
+ */
+public final class PatientTokens {
+    public static final String SECRET_PROPERTY = "medibook.apiSecret";
+
+    private static final SecretKeySpec KEY = new SecretKeySpec(secret(), "HmacSHA256");
+
+    private PatientTokens() {
+    }
+
+    private static byte[] secret() {
+        String configured = System.getProperty(SECRET_PROPERTY, "");
+        if (!configured.isEmpty()) {
+            return configured.getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return random;
+    }
+
+    /**
+     * Whether the secret was configured, so tokens survive a restart
+     */
+    public static boolean isConfigured() {
+        return !System.getProperty(SECRET_PROPERTY, "").isEmpty();
+    }
+
+    /**
+     * The patient's token; the same for every booking made with that email
+     */
+    public static String tokenFor(String email) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(KEY);
+            byte[] digest = mac.doFinal(PatientRegistry.normalizeEmail(email).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    /**
+     * Constant-time check that a presented token belongs to the patient
+     */
+    public static boolean matches(String email, String token) {
+        if (email == null || token == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(token.getBytes(StandardCharsets.US_ASCII),
+                                     tokenFor(email).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,289 @@
+import java.util.*;
+
+/**
+ * Immutable sorted map (an AVL tree) whose updates return a new map.
+ *
+ * An update copies only the O(log n) nodes on the path from the root to
+ * the changed key and shares every other node with the map it came from,
+ * so keeping old versions around is cheap and a reader holding a version
+ * never sees it change. Iteration walks the tree with a small stack and
+ * can start and stop at any key without visiting anything outside the
+ * range.
+ */
+public final class PersistentSortedMap<K, V> {
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final Node<K, V> left;
+        final Node<K, V> right;
+        final int height;
+        final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> root;
+
+    private PersistentSortedMap(Comparator<? super K> comparator, Node<K, V> root) {
+        this.comparator = comparator;
+        this.root = root;
+    }
+
+    public static <K, V> PersistentSortedMap<K, V> empty(Comparator<? super K> comparator) {
+        return new PersistentSortedMap<>(comparator, null);
+    }
+
+    /**
+     * Builds a balanced map in O(n) from keys already in strictly ascending
+     * order, with values at the same positions
+     */
+    public static <K, V> PersistentSortedMap<K, V> fromSorted(Comparator<? super K> comparator,
+                                                              List<K> keys, List<V> values) {
+        if (keys.size() != values.size()) {
+            throw new IllegalArgumentException("Keys and values differ in number");
+        }
+        for (int i = 1; i < keys.size(); i++) {
+            if (comparator.compare(keys.get(i - 1), keys.get(i)) >= 0) {
+                throw new IllegalArgumentException("Keys are not in strictly ascending order at " + i);
+            }
+        }
+        return new PersistentSortedMap<>(comparator, build(keys, values, 0, keys.size()));
+    }
+
+    private static <K, V> Node<K, V> build(List<K> keys, List<V> values, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        return new Node<>(keys.get(middle), values.get(middle),
+                          build(keys, values, from, middle), build(keys, values, middle + 1, to));
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Value for the key, or null if absent
+     */
+    public V get(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int c = comparator.compare(key, node.key);
+            if (c == 0) {
+                return node.value;
+            }
+            node = c < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    public boolean containsKey(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int c = comparator.compare(key, node.key);
+            if (c == 0) {
+                return true;
+            }
+            node = c < 0 ? node.left : node.right;
+        }
+        return false;
+    }
+
+    // Updates. Each returns this map itself when nothing changes.
+
+    /**
+     * Map with the key set to the value
+     */
+    public PersistentSortedMap<K, V> put(K key, V value) {
+        Node<K, V> updated = put(root, key, value);
+        return updated == root ? this : new PersistentSortedMap<>(comparator, updated);
+    }
+
+    private Node<K, V> put(Node<K, V> node, K key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        int c = comparator.compare(key, node.key);
+        if (c < 0) {
+            Node<K, V> left = put(node.left, key, value);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (c > 0) {
+            Node<K, V> right = put(node.right, key, value);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        return node.value == value ? node : new Node<>(key, value, node.left, node.right);
+    }
+
+    /**
+     * Map without the key
+     */
+    public PersistentSortedMap<K, V> remove(K key) {
+        Node<K, V> updated = remove(root, key);
+        return updated == root ? this : new PersistentSortedMap<>(comparator, updated);
+    }
+
+    private Node<K, V> remove(Node<K, V> node, K key) {
+        if (node == null) {
+            return null;
+        }
+        int c = comparator.compare(key, node.key);
+        if (c < 0) {
+            Node<K, V> left = remove(node.left, key);
+            return left == node.left ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (c > 0) {
+            Node<K, V> right = remove(node.right, key);
+            return right == node.right ? node : balance(node.key, node.value, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<K, V> successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.key, successor.value, node.left, removeFirst(node.right));
+    }
+
+    private Node<K, V> removeFirst(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.key, node.value, removeFirst(node.left), node.right);
+    }
+
+    /**
+     * New node over two subtrees whose heights differ by at most two,
+     * rotated back to within one
+     */
+    private Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int difference = height(left) - height(right);
+        if (difference > 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.value, left.left, new Node<>(key, value, left.right, right));
+            }
+            Node<K, V> pivot = left.right;
+            return new Node<>(pivot.key, pivot.value,
+                              new Node<>(left.key, left.value, left.left, pivot.left),
+                              new Node<>(key, value, pivot.right, right));
+        }
+        if (difference < -1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.value, new Node<>(key, value, left, right.left), right.right);
+            }
+            Node<K, V> pivot = right.left;
+            return new Node<>(pivot.key, pivot.value,
+                              new Node<>(key, value, left, pivot.left),
+                              new Node<>(right.key, right.value, pivot.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    // Iteration
+
+    /**
+     * All values in key order
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return valuesBetween(null, null);
+            }
+
+            @Override
+            public int size() {
+                return PersistentSortedMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * Values with from <= key < to in key order; a null bound is open
+     */
+    public Iterator<V> valuesBetween(K from, K to) {
+        return new RangeIterator(from, to);
+    }
+
+    private final class RangeIterator implements Iterator<V> {
+        // AVL height is at most about 1.44 log2(n), so the path always fits
+        @SuppressWarnings("unchecked")
+        private final Node<K, V>[] stack = (Node<K, V>[]) new Node<?, ?>[height(root) + 1];
+        private int depth;
+        private final K to;
+        private Node<K, V> next;
+
+        RangeIterator(K from, K to) {
+            this.to = to;
+            Node<K, V> node = root;
+            while (node != null) {
+                if (from == null || comparator.compare(node.key, from) >= 0) {
+                    stack[depth++] = node;
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+            advance();
+        }
+
+        private void advance() {
+            if (depth == 0) {
+                next = null;
+                return;
+            }
+            Node<K, V> node = stack[--depth];
+            for (Node<K, V> child = node.right; child != null; child = child.left) {
+                stack[depth++] = child;
+            }
+            next = to == null || comparator.compare(node.key, to) < 0 ? node : null;
+            if (next == null) {
+                depth = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            V value = next.value;
+            advance();
+            return value;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends reminder emails a fixed time before each booked appointment,
+ * 24 hours and 1 hour before by default.
+ *
+ * Only reminders due within the next few minutes sit on the timing wheel.
+ * A loader thread walks forward through time and pulls each window's
+ * bookings from the store's time-ordered booked slots, so the wheel holds
+ * what is due soon rather than one timer per booking in the calendar. A
+ * booking made inside the loaded window is scheduled from its store event.
+ * Pending reminders are indexed by slot, so a cancellation cancels them in
+ * O(1), and a reminder that fires for a slot that is no longer booked is
+ * dropped. Due reminders go to a {@link NotificationQueue}, which sends
+ * them in batches.
+ *
+ * Nothing is persisted: on start the loader begins at the current time and
+ * rebuilds the schedule from the booking store, so reminders that fell due
+ * while the system was down are not sent late.
+ *
+ * Lead times come from -Dmedibook.reminderMinutes (default "1440,60").
+ */
+public class ReminderScheduler implements StoreListener {
+    private static final Duration DEFAULT_WINDOW = Duration.ofMinutes(10);
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_LEADS = 256;
+
+    /**
+     * One pending reminder; runs on the wheel's ticker thread when due
+     */
+    private final class Reminder implements Runnable {
+        final long key;
+        final Appointment appointment;
+        TimingWheel.Timeout timeout;
+
+        Reminder(long key, Appointment appointment) {
+            this.key = key;
+            this.appointment = appointment;
+        }
+
+        @Override
+        public void run() {
+            pending.remove(key, this);
+            // Whoever holds the slot now gets the reminder; a cancelled slot gets none
+            Appointment.Booking booking = appointment.getBooking();
+            if (booking != null && active.getAsBoolean() && outbox.enqueue(appointment, booking)) {
+                fired.increment();
+            } else {
+                dropped.increment();
+            }
+        }
+    }
+
+    private final AppointmentStore store;
+    private final TimingWheel timers;
+    private final NotificationQueue outbox;
+    private final List<Duration> leads;
+    private final Duration window;
+    private final BooleanSupplier active;
+
+    /**
+     * Reminders on the wheel, keyed by slot ID and lead index
+     */
+    private final ConcurrentHashMap<Long, Reminder> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Reminders due before this time have been put on the wheel (or were skipped)
+     */
+    private volatile LocalDateTime loadedUntil;
+    private final Thread loader;
+    private volatile boolean running;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private ReminderScheduler(AppointmentStore store, TimingWheel timers, ConfirmationSender sender,
+                              List<Duration> leads, Duration window, BooleanSupplier active) {
+        if (leads.isEmpty() || leads.size() > MAX_LEADS) {
+            throw new IllegalArgumentException("Between 1 and " + MAX_LEADS + " reminder lead times are supported");
+        }
+        this.store = store;
+        this.timers = timers;
+        this.outbox = new NotificationQueue(sender, 1, BATCH_SIZE, "reminder");
+        this.leads = List.copyOf(leads);
+        this.window = window;
+        this.active = active;
+        this.loadedUntil = LocalDateTime.now();
+        this.running = true;
+        this.loader = new Thread(this::runLoader, "reminder-loader");
+        this.loader.setDaemon(true);
+    }
+
+    /**
+     * Schedules reminders for the store's bookings and keeps them current
+     * from then on, with the configured lead times
+     */
+    public static ReminderScheduler attach(AppointmentStore store, TimingWheel timers, ConfirmationSender sender,
+                                           BooleanSupplier active) {
+        return attach(store, timers, sender, parseLeads(System.getProperty("medibook.reminderMinutes", "1440,60")),
+                      DEFAULT_WINDOW, active);
+    }
+
+    /**
+     * @param leads  how long before each appointment a reminder is sent
+     * @param window how far ahead reminders are put on the wheel
+     * @param active whether this node sends reminders (false on a replication follower)
+     */
+    public static ReminderScheduler attach(AppointmentStore store, TimingWheel timers, ConfirmationSender sender,
+                                           List<Duration> leads, Duration window, BooleanSupplier active) {
+        ReminderScheduler scheduler = new ReminderScheduler(store, timers, sender, leads, window, active);
+        // Listen first so a booking made while the first window loads is not missed; scheduling twice is harmless
+        store.addListener(scheduler);
+        scheduler.loader.start();
+        return scheduler;
+    }
+
+    /**
+     * Parses a comma-separated list of lead times in minutes, such as "1440,60"
+     */
+    public static List<Duration> parseLeads(String text) {
+        List<Duration> leads = new ArrayList<>();
+        for (String token : text.split(",")) {
+            long minutes = Long.parseLong(token.trim());
+            if (minutes <= 0) {
+                throw new IllegalArgumentException("Reminder lead times must be positive: " + token.trim());
+            }
+            leads.add(Duration.ofMinutes(minutes));
+        }
+        return leads;
+    }
+
+    private static long key(int slotId, int lead) {
+        return (long) slotId << 8 | lead;
+    }
+
+    // Store events
+
+    @Override
+    public void slotAdded(Appointment appointment) {
+        if (appointment.isBooked()) {
+            booked(appointment);
+        }
+    }
+
+    @Override
+    public void slotBooked(Appointment appointment, Appointment.Booking booking) {
+        booked(appointment);
+    }
+
+    @Override
+    public void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+        for (int lead = 0; lead < leads.size(); lead++) {
+            Reminder reminder = pending.remove(key(appointment.getId(), lead));
+            if (reminder != null) {
+                reminder.timeout.cancel();
+            }
+        }
+    }
+
+    /**
+     * Schedules the reminders the loader has already passed over; the
+     * loader picks up the rest when it gets there. A reminder whose time
+     * has already gone by when the booking is made is skipped.
+     */
+    private void booked(Appointment appointment) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime until = loadedUntil;
+        for (int lead = 0; lead < leads.size(); lead++) {
+            LocalDateTime due = appointment.getDateTime().minus(leads.get(lead));
+            if (due.isAfter(now) && due.isBefore(until)) {
+                schedule(appointment, lead, due);
+            }
+        }
+    }
+
+    private void schedule(Appointment appointment, int lead, LocalDateTime due) {
+        Reminder reminder = new Reminder(key(appointment.getId(), lead), appointment);
+        // The timeout is set before the reminder is visible to cancellations
+        reminder.timeout = timers.schedule(Duration.between(LocalDateTime.now(), due).toMillis(),
+                                           TimeUnit.MILLISECONDS, reminder);
+        if (pending.putIfAbsent(reminder.key, reminder) != null) {
+            // Already scheduled by the other path
+            reminder.timeout.cancel();
+            return;
+        }
+        scheduled.increment();
+        if (!appointment.isBooked() && pending.remove(reminder.key, reminder)) {
+            // Cancelled while the loader was reading it, after the cancellation event went by
+            reminder.timeout.cancel();
+        }
+    }
+
+    /**
+     * Loader loop: every half window, extend the loaded range to a window
+     * ahead of now and put the reminders falling due in the new part on the wheel
+     */
+    private void runLoader() {
+        long interval = Math.max(1, window.toMillis() / 2);
+        while (running) {
+            LocalDateTime from = loadedUntil;
+            LocalDateTime until = LocalDateTime.now().plus(window);
+            if (until.isAfter(from)) {
+                // Publish first: bookings made from now on in [from, until) schedule themselves
+                loadedUntil = until;
+                for (int lead = 0; lead < leads.size(); lead++) {
+                    Duration leadTime = leads.get(lead);
+                    int index = lead;
+                    store.bookedSlotsBetween(from.plus(leadTime), until.plus(leadTime))
+                        .forEach(appointment -> schedule(appointment, index,
+                                                         appointment.getDateTime().minus(leadTime)));
+                }
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops loading, drops reminders not yet due and waits for due ones to be sent
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        loader.interrupt();
+        store.removeListener(this);
+        for (Reminder reminder : pending.values()) {
+            reminder.timeout.cancel();
+        }
+        pending.clear();
+        outbox.shutdown(timeout, unit);
+    }
+
+    // Metrics
+    public List<Duration> getLeads() {
+        return leads;
+    }
+
+    /**
+     * Reminders on the wheel, waiting to fall due
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public long scheduledCount() {
+        return scheduled.sum();
+    }
+
+    /**
+     * Reminders handed to the sender
+     */
+    public long firedCount() {
+        return fired.sum();
+    }
+
+    /**
+     * Reminders that fell due for a slot no longer booked, or on a node not sending
+     */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long sentCount() {
+        return outbox.sentCount();
+    }
+
+    public long failedCount() {
+        return outbox.failedCount();
+    }
+}
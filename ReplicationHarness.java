@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a replicated cluster on localhost and checks that no slot is ever
+ * booked twice while the network misbehaves.
+ *
+ * Clients book and cancel random slots through whichever node leads. A
+ * fault thread meanwhile cuts one node off from the rest, or stops one
+ * and restarts it from its snapshot and log, and then heals everything
+ * and picks the next fault. Nodes snapshot every few hundred entries, so
+ * nodes that fall behind catch up from the leader's snapshot. Every
+ * change each node applies from its log is recorded under the entry's
+ * index. At the end the harness heals the cluster, waits for it to
+ * converge and checks that:
+ *
+ *   - every node applied the same changes at the same index;
+ *   - a slot is never booked again without a cancellation in between;
+ *   - every booking a client was told succeeded is in that history;
+ *   - all stores end up identical, and match that history.
+ *
+ * Usage: java ReplicationHarness [nodes] [seconds] [clients] [snapshotEvery]
+ * Exits with status 1 if any check fails.
+ */
+public class ReplicationHarness {
+    private static final int DOCTORS = 20;
+    private static final int SLOTS_PER_DOCTOR = 10;
+    private static final long REQUEST_TIMEOUT_MILLIS = 2000;
+
+    /**
+     * One node position in the cluster; its node is replaced on restart
+     */
+    private static final class Member {
+        final int id;
+        final Path directory;
+        volatile ReplicationNode node;
+        // Changes applied by each incarnation, by log index
+        final List<Map<Long, List<String>>> histories = new ArrayList<>();
+
+        Member(int id, Path directory) {
+            this.id = id;
+            this.directory = directory;
+        }
+    }
+
+    private final Map<Integer, InetSocketAddress> cluster = new TreeMap<>();
+    private final List<Member> members = new ArrayList<>();
+    private final Set<String> ackedBookings = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong notLeader = new AtomicLong();
+    private final AtomicLong unknown = new AtomicLong();
+    private final AtomicLong faults = new AtomicLong();
+    private final List<String> violations = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 20;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int snapshotEvery = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        System.exit(new ReplicationHarness(snapshotEvery).run(nodes, (long) (seconds * 1000), clients) ? 0 : 1);
+    }
+
+    private final int snapshotEvery;
+
+    private ReplicationHarness(int snapshotEvery) {
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    private boolean run(int nodes, long runMillis, int clients) throws Exception {
+        Path root = Files.createTempDirectory("medibook-replication");
+        for (int id = 1; id <= nodes; id++) {
+            cluster.put(id, new InetSocketAddress("127.0.0.1", freePort()));
+            members.add(new Member(id, root.resolve("node-" + id)));
+        }
+        for (Member member : members) {
+            start(member);
+        }
+        System.out.printf("%d nodes, %d clients, %.1f s, snapshot every %d entries, data in %s%n",
+                          nodes, clients, runMillis / 1000.0, snapshotEvery, root);
+
+        int slots = addSlots();
+        long deadline = System.currentTimeMillis() + runMillis;
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            threads.add(new Thread(() -> client(client, slots, deadline), "client-" + c));
+        }
+        threads.add(new Thread(() -> injectFaults(deadline), "faults"));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        heal();
+        boolean converged = awaitConvergence(15_000);
+        for (Member member : members) {
+            member.node.close();
+        }
+        check(converged);
+
+        System.out.printf("Acknowledged changes: %,d (%,d bookings), redirected: %,d, unknown outcome: %,d, faults: %,d%n",
+                          acked.get(), ackedBookings.size(), notLeader.get(), unknown.get(), faults.get());
+        long snapshots = 0;
+        for (Member member : members) {
+            snapshots = Math.max(snapshots, member.node.getSnapshotIndex());
+        }
+        System.out.printf("Latest snapshot covers entries up to %,d%n", snapshots);
+        if (violations.isEmpty()) {
+            System.out.println("✅ No double bookings, no lost bookings, all " + nodes + " nodes agree");
+            return true;
+        }
+        for (String violation : violations) {
+            System.out.println("❌ " + violation);
+        }
+        return false;
+    }
+
+    // Cluster control
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void start(Member member) throws Exception {
+        AppointmentStore store = new AppointmentStore();
+        Map<Long, List<String>> history = new ConcurrentSkipListMap<>();
+        ReplicationNode[] self = new ReplicationNode[1];
+        store.addListener(new StoreListener() {
+            @Override
+            public void slotAdded(Appointment appointment) {
+                record("added " + appointment.getId());
+            }
+
+            @Override
+            public void slotBooked(Appointment appointment, Appointment.Booking booking) {
+                record("booked " + appointment.getId() + " " + booking.patientName());
+            }
+
+            @Override
+            public void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+                record("cancelled " + appointment.getId());
+            }
+
+            // Changes restored from a snapshot have no index of their own and are not recorded
+            private void record(String event) {
+                long index = self[0] == null ? 0 : self[0].applyingIndex();
+                if (index > 0) {
+                    history.computeIfAbsent(index, i -> new ArrayList<>()).add(event);
+                }
+            }
+        });
+        // The old incarnation's port may take a moment to free up
+        for (int attempt = 1; ; attempt++) {
+            try {
+                self[0] = new ReplicationNode(member.id, cluster, store, member.directory, snapshotEvery);
+                member.histories.add(history);
+                member.node = self[0];
+                return;
+            } catch (IOException e) {
+                if (attempt == 20) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private void restart(Member member) throws Exception {
+        start(member);
+    }
+
+    /**
+     * The leader with the highest term, or null while there is none
+     */
+    private ReplicationNode leader() {
+        ReplicationNode leader = null;
+        for (Member member : members) {
+            ReplicationNode node = member.node;
+            if (node.isLeader() && (leader == null || node.getTerm() > leader.getTerm())) {
+                leader = node;
+            }
+        }
+        return leader;
+    }
+
+    private ReplicationNode awaitLeader() throws InterruptedException {
+        ReplicationNode leader;
+        while ((leader = leader()) == null) {
+            Thread.sleep(20);
+        }
+        return leader;
+    }
+
+    private int addSlots() throws Exception {
+        List<LocalDateTime> times = new ArrayList<>();
+        for (int i = 0; i < SLOTS_PER_DOCTOR; i++) {
+            times.add(LocalDateTime.of(2030, 1, 7, 9, 0).plusMinutes(15L * i));
+        }
+        for (int d = 0; d < DOCTORS; d++) {
+            while (true) {
+                try {
+                    awaitLeader().addSlots("Doctor " + d, times).get(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (Exception e) {
+                    // Leadership changed during start-up; try again
+                }
+            }
+        }
+        return DOCTORS * SLOTS_PER_DOCTOR;
+    }
+
+    private void heal() {
+        for (Member member : members) {
+            member.node.heal();
+        }
+    }
+
+    private void isolate(Member isolated) {
+        List<Integer> others = new ArrayList<>();
+        for (Member member : members) {
+            if (member != isolated) {
+                others.add(member.id);
+                member.node.isolateFrom(List.of(isolated.id));
+            }
+        }
+        isolated.node.isolateFrom(others);
+    }
+
+    /**
+     * Until the deadline: heal, then cut off the leader or a follower, or stop and later restart a node
+     */
+    private void injectFaults(long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                Thread.sleep(random.nextLong(700, 1500));
+                heal();
+                ReplicationNode leader = leader();
+                Member victim = members.get(random.nextInt(members.size()));
+                int fault = random.nextInt(3);
+                if (fault == 0 && leader != null) {
+                    victim = members.get(leader.getId() - 1);
+                }
+                faults.incrementAndGet();
+                if (fault == 2) {
+                    victim.node.close();
+                    Thread.sleep(random.nextLong(200, 1000));
+                    restart(victim);
+                } else {
+                    isolate(victim);
+                }
+            }
+        } catch (Exception e) {
+            violations.add("Fault injection failed: " + e);
+        }
+    }
+
+    // Clients
+
+    private void client(int client, int slots, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long request = 0;
+        while (System.currentTimeMillis() < deadline) {
+            ReplicationNode leader = leader();
+            if (leader == null) {
+                pause();
+                continue;
+            }
+            int slot = 1 + random.nextInt(slots);
+            boolean booking = random.nextInt(10) < 6;
+            String patient = "c" + client + "-" + request++;
+            try {
+                CompletableFuture<BookingService.Outcome> change = booking
+                    ? leader.book(slot, patient, patient + "@example.com")
+                    : leader.cancel(slot);
+                BookingService.Outcome outcome = change.get(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                switch (outcome) {
+                    case NOT_LEADER:
+                        notLeader.incrementAndGet();
+                        pause();
+                        break;
+                    case UNAVAILABLE:
+                        unknown.incrementAndGet();
+                        break;
+                    case BOOKED:
+                        ackedBookings.add(patient);
+                        acked.incrementAndGet();
+                        break;
+                    default:
+                        acked.incrementAndGet();
+                }
+            } catch (TimeoutException e) {
+                // It may still commit later; the history decides
+                unknown.incrementAndGet();
+            } catch (Exception e) {
+                violations.add("Client " + client + " failed: " + e);
+                return;
+            }
+        }
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Checks
+
+    /**
+     * Waits until a leader is known and every node has applied the same number of changes
+     */
+    private boolean awaitConvergence(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            ReplicationNode leader = leader();
+            if (leader != null) {
+                long applied = leader.getAppliedIndex();
+                boolean same = applied == leader.getCommitIndex();
+                for (Member member : members) {
+                    same &= member.node.getAppliedIndex() == applied;
+                }
+                if (same) {
+                    return true;
+                }
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    private void check(boolean converged) {
+        if (!converged) {
+            violations.add("Nodes did not converge after healing");
+        }
+        // Every incarnation of every node applied the same changes at each index it applied
+        Map<Long, List<String>> reference = new TreeMap<>();
+        for (Member member : members) {
+            for (Map<Long, List<String>> history : member.histories) {
+                for (Map.Entry<Long, List<String>> entry : history.entrySet()) {
+                    List<String> known = reference.putIfAbsent(entry.getKey(), entry.getValue());
+                    if (known != null && !known.equals(entry.getValue())) {
+                        violations.add("Node " + member.id + " applied " + entry.getValue() + " at entry "
+                                       + entry.getKey() + " where another node applied " + known);
+                    }
+                }
+            }
+        }
+        // A slot alternates between booked and cancelled, and no request is applied twice
+        Set<String> booked = new HashSet<>();
+        Set<String> patients = new HashSet<>();
+        Map<String, String> bookedBy = new TreeMap<>();
+        for (List<String> changes : reference.values()) {
+            for (String event : changes) {
+                String[] parts = event.split(" ");
+                if (parts[0].equals("booked")) {
+                    if (!booked.add(parts[1])) {
+                        violations.add("Slot " + parts[1] + " booked twice, the second time by " + parts[2]);
+                    }
+                    if (!patients.add(parts[2])) {
+                        violations.add("Request " + parts[2] + " applied twice");
+                    }
+                    bookedBy.put(parts[1], parts[2]);
+                } else if (parts[0].equals("cancelled")) {
+                    if (!booked.remove(parts[1])) {
+                        violations.add("Slot " + parts[1] + " cancelled while free");
+                    }
+                    bookedBy.remove(parts[1]);
+                }
+            }
+        }
+        synchronized (ackedBookings) {
+            for (String patient : ackedBookings) {
+                if (!patients.contains(patient)) {
+                    violations.add("Acknowledged booking " + patient + " was lost");
+                }
+            }
+        }
+        // Final stores match slot by slot, and their bookings are what the history left
+        String expected = null;
+        for (Member member : members) {
+            Map<String, String> stored = new TreeMap<>();
+            for (Appointment appointment : member.node.getStore().bookedSlots()) {
+                stored.put(String.valueOf(appointment.getId()), appointment.getPatientName());
+            }
+            if (converged && !stored.equals(bookedBy)) {
+                violations.add("Node " + member.id + " bookings differ from the applied history");
+            }
+            StringBuilder state = new StringBuilder();
+            for (Appointment appointment : (Iterable<Appointment>) member.node.getStore().slotsInOrder()::iterator) {
+                Appointment.Booking booking = appointment.getBooking();
+                state.append(appointment.getId()).append(' ').append(appointment.getDoctorName()).append(' ')
+                     .append(appointment.getDateTime()).append(' ')
+                     .append(booking == null ? "-" : booking.patientName()).append('\n');
+            }
+            if (expected == null) {
+                expected = state.toString();
+            } else if (!expected.contentEquals(state)) {
+                violations.add("Node " + member.id + " store differs from node 1");
+            }
+        }
+    }
+}
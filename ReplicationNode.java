@@ -0,0 +1,1515 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Leader/follower replication of booking changes between MediBook nodes.
+ *
+ * Slot-added, booked and cancelled changes are commands in a replicated
+ * log, following the Raft protocol. Only the leader accepts changes. It
+ * appends them to its log and ships them to the followers in batches
+ * over non-blocking TCP. A change is applied to the stores once a
+ * majority of nodes has it on disk, and the caller hears back only then.
+ * Every node applies the same commands in the same order, so a slot can
+ * never be booked twice. A booking that was confirmed survives the loss
+ * of any minority of nodes.
+ *
+ * Followers answer read-only queries from their own store. If the
+ * leader stops sending heartbeats, the followers elect a new one. Only a
+ * node holding every committed change can win, which is why failover
+ * loses no bookings.
+ *
+ * All protocol state is owned by one event-loop thread per node. The
+ * log and the node's term and vote are written under the node's
+ * directory (or kept in memory when none is given). Every so many
+ * applied entries the node saves a snapshot of its store and drops the
+ * log up to it, so neither the log file nor the memory holding it grows
+ * without bound. A follower too far behind for the leader's log gets the
+ * snapshot instead. The store is rebuilt from the snapshot and the log
+ * on restart.
+ */
+public class ReplicationNode implements AutoCloseable {
+    public enum Role {
+        FOLLOWER, CANDIDATE, LEADER
+    }
+
+    private static final long HEARTBEAT_MILLIS = 50;
+    private static final long ELECTION_MIN_MILLIS = 300;
+    private static final long ELECTION_MAX_MILLIS = 600;
+    private static final long RECONNECT_MILLIS = 100;
+    private static final int MAX_BATCH_ENTRIES = 1024;
+    private static final int MAX_BATCH_BYTES = 1 << 20;
+    private static final int MAX_QUEUED_BYTES = 16 << 20;
+    private static final int SNAPSHOT_CHUNK_BYTES = 1 << 20;
+    public static final int DEFAULT_SNAPSHOT_EVERY = 100_000;
+    private static final AppointmentCodec.Dictionary INLINE = AppointmentCodec.Dictionary.inline();
+
+    // Message types
+    private static final byte APPEND = 1;
+    private static final byte APPEND_REPLY = 2;
+    private static final byte VOTE = 3;
+    private static final byte VOTE_REPLY = 4;
+    private static final byte SNAPSHOT = 5;
+    private static final byte SNAPSHOT_REPLY = 6;
+
+    // Log entry types; changes are AppointmentCodec records, these are from before it
+    private static final byte NO_OP = 0;
+    private static final byte LEGACY_ADD_SLOTS = 1;
+    private static final byte LEGACY_BOOK = 2;
+    private static final byte LEGACY_CANCEL = 3;
+
+    // Results of proposals that did not produce a store result
+    private static final Object NOT_COMMITTED = new Object();
+    private static final Object STOPPED = new Object();
+    // The leader's snapshot covered the entry before this node applied it
+    private static final Object UNKNOWN = new Object();
+
+    private record Waiting(long term, CompletableFuture<Object> result) {
+    }
+
+    /**
+     * Another node: its outgoing connection and, while leading, its replication progress
+     */
+    private static final class Peer {
+        final int id;
+        final InetSocketAddress address;
+        final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<>();
+        SocketChannel channel;
+        boolean connected;
+        long queuedBytes;
+        long nextConnectNanos;
+        long nextIndex;
+        long matchIndex;
+        boolean inFlight;
+        long lastSentNanos;
+        // Snapshot being sent, and how much of it the peer has
+        long snapshotIndex;
+        long snapshotOffset;
+
+        Peer(int id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+    }
+
+    /**
+     * Read buffer of an incoming connection
+     */
+    private static final class Inbound {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    }
+
+    private final int id;
+    private final AppointmentStore store;
+    private final Map<Integer, Peer> peers;
+    private final int clusterSize;
+    private final ReplicationLog log;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Queue<Runnable> commands;
+    private final Set<Integer> blocked;
+    private final Thread loop;
+    private volatile boolean running;
+
+    // Protocol state, changed only by the loop thread
+    private volatile Role role;
+    private volatile int leaderId;
+    private volatile long currentTerm;
+    private volatile long commitIndex;
+    private volatile long lastApplied;
+    private int votedFor;
+    private Set<Integer> votes;
+    private long electionDeadlineNanos;
+    private final Map<Long, Waiting> waiting;
+    private final AppointmentCodec.Dictionary doctorNames = AppointmentCodec.Dictionary.inline();
+    private final int snapshotEvery;
+    private volatile long applying;
+    // Snapshot being received from the leader
+    private ByteArrayOutputStream incoming;
+    private long incomingIndex;
+
+    /**
+     * Starts a node. {@code cluster} maps every node ID, including this
+     * one, to its replication address. {@code directory} holds the log, or
+     * is null to keep everything in memory.
+     */
+    public ReplicationNode(int id, Map<Integer, InetSocketAddress> cluster, AppointmentStore store, Path directory)
+            throws IOException {
+        this(id, cluster, store, directory, DEFAULT_SNAPSHOT_EVERY);
+    }
+
+    /**
+     * Starts a node that snapshots its store and compacts its log after
+     * every {@code snapshotEvery} applied entries
+     */
+    public ReplicationNode(int id, Map<Integer, InetSocketAddress> cluster, AppointmentStore store, Path directory,
+                           int snapshotEvery) throws IOException {
+        if (snapshotEvery < 1) {
+            throw new IllegalArgumentException("snapshotEvery must be at least 1");
+        }
+        InetSocketAddress own = cluster.get(id);
+        if (own == null) {
+            throw new IllegalArgumentException("Node " + id + " is not part of the cluster " + cluster.keySet());
+        }
+        this.id = id;
+        this.store = store;
+        this.peers = new HashMap<>();
+        for (Map.Entry<Integer, InetSocketAddress> node : cluster.entrySet()) {
+            if (node.getKey() != id) {
+                peers.put(node.getKey(), new Peer(node.getKey(), node.getValue()));
+            }
+        }
+        this.clusterSize = cluster.size();
+        this.snapshotEvery = snapshotEvery;
+        this.log = new ReplicationLog(directory);
+        if (log.snapshot() != null) {
+            try {
+                load(log.snapshot());
+            } catch (IOException e) {
+                log.close();
+                throw e;
+            }
+            // Everything a snapshot covers was committed
+            commitIndex = log.base();
+            lastApplied = log.base();
+        }
+        this.currentTerm = log.savedTerm();
+        this.votedFor = log.savedVote();
+        this.role = Role.FOLLOWER;
+        this.leaderId = -1;
+        this.waiting = new HashMap<>();
+        this.commands = new ConcurrentLinkedQueue<>();
+        this.blocked = ConcurrentHashMap.newKeySet();
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(own);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            log.close();
+            throw e;
+        }
+        this.running = true;
+        this.loop = new Thread(this::run, "replication-" + id);
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    /**
+     * Parses "1=host:7001,2=host:7002,3=host:7003"
+     */
+    public static Map<Integer, InetSocketAddress> parseCluster(String spec) {
+        Map<Integer, InetSocketAddress> cluster = new TreeMap<>();
+        for (String part : spec.split(",")) {
+            String[] idAndAddress = part.trim().split("=");
+            int colon = idAndAddress.length == 2 ? idAndAddress[1].lastIndexOf(':') : -1;
+            if (colon < 0) {
+                throw new IllegalArgumentException("Expected id=host:port but got '" + part.trim() + "'");
+            }
+            try {
+                cluster.put(Integer.parseInt(idAndAddress[0].trim()),
+                            new InetSocketAddress(idAndAddress[1].substring(0, colon).trim(),
+                                                  Integer.parseInt(idAndAddress[1].substring(colon + 1).trim())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected id=host:port but got '" + part.trim() + "'");
+            }
+        }
+        return cluster;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public AppointmentStore getStore() {
+        return store;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public boolean isLeader() {
+        return role == Role.LEADER;
+    }
+
+    /**
+     * ID of the node this one currently follows (itself when leading), or -1 if unknown
+     */
+    public int getLeaderId() {
+        return leaderId;
+    }
+
+    public long getTerm() {
+        return currentTerm;
+    }
+
+    public long getCommitIndex() {
+        return commitIndex;
+    }
+
+    /**
+     * Index of the last log entry applied to the store
+     */
+    public long getAppliedIndex() {
+        return lastApplied;
+    }
+
+    /**
+     * Index of the last log entry covered by the latest snapshot (0 if there is none)
+     */
+    public long getSnapshotIndex() {
+        return log.base();
+    }
+
+    /**
+     * Index of the entry being applied to the store right now, or 0 when
+     * the change comes from a snapshot; valid inside store listeners
+     */
+    long applyingIndex() {
+        return applying;
+    }
+
+    // Changes; each completes once committed and applied, or straight away on a follower
+
+    /**
+     * Adds slots for one doctor, skipping existing ones; completes with the number added
+     */
+    public CompletableFuture<Integer> addSlots(String doctorName, List<LocalDateTime> times) {
+        return propose(encodeAddSlots(doctorName.trim(), times)).thenApply(result -> {
+            if (result instanceof Integer added) {
+                return added;
+            }
+            throw new IllegalStateException(result == STOPPED ? "Node stopped"
+                                            : result == UNKNOWN ? "Outcome unknown" : "Not the leader");
+        });
+    }
+
+    public CompletableFuture<BookingService.Outcome> book(int appointmentId, String patientName, String patientEmail) {
+        return propose(encodeBook(appointmentId, patientName, patientEmail)).thenApply(ReplicationNode::outcomeOf);
+    }
+
+    public CompletableFuture<BookingService.Outcome> cancel(int appointmentId) {
+        return propose(encodeCancel(appointmentId)).thenApply(ReplicationNode::outcomeOf);
+    }
+
+    private static BookingService.Outcome outcomeOf(Object result) {
+        if (result instanceof BookingService.Outcome outcome) {
+            return outcome;
+        }
+        return result == STOPPED || result == UNKNOWN
+               ? BookingService.Outcome.UNAVAILABLE : BookingService.Outcome.NOT_LEADER;
+    }
+
+    private CompletableFuture<Object> propose(byte[] entry) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        if (!running) {
+            result.complete(STOPPED);
+            return result;
+        }
+        commands.add(() -> {
+            if (role != Role.LEADER) {
+                result.complete(NOT_COMMITTED);
+                return;
+            }
+            log.append(currentTerm, entry);
+            waiting.put(log.lastIndex(), new Waiting(currentTerm, result));
+        });
+        selector.wakeup();
+        return result;
+    }
+
+    // Fault injection for the loopback harness
+
+    /**
+     * Drops all traffic to and from the given nodes until {@link #heal()}
+     */
+    void isolateFrom(Collection<Integer> nodeIds) {
+        blocked.addAll(nodeIds);
+        commands.add(() -> {
+            for (int nodeId : nodeIds) {
+                Peer peer = peers.get(nodeId);
+                if (peer != null) {
+                    disconnect(peer);
+                }
+            }
+        });
+        selector.wakeup();
+    }
+
+    void heal() {
+        blocked.clear();
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the node. Changes still waiting for a majority complete as UNAVAILABLE.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            loop.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Event loop
+
+    private void run() {
+        resetElectionTimer();
+        try {
+            while (running) {
+                long waitMillis = role == Role.LEADER
+                                  ? HEARTBEAT_MILLIS
+                                  : TimeUnit.NANOSECONDS.toMillis(electionDeadlineNanos - System.nanoTime());
+                selector.select(Math.max(1, waitMillis));
+                handleSelected();
+                Runnable command;
+                while ((command = commands.poll()) != null) {
+                    command.run();
+                }
+                // One fsync covers every change proposed in this round (group commit)
+                log.flush();
+                if (role == Role.LEADER) {
+                    advanceCommitIndex();
+                    replicate(false);
+                } else if (System.nanoTime() - electionDeadlineNanos >= 0) {
+                    startElection();
+                }
+                applyCommitted();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("❌ Replication node " + id + " stopped: " + e);
+        } finally {
+            shutDown();
+        }
+    }
+
+    private void shutDown() {
+        running = false;
+        role = Role.FOLLOWER;
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+        for (Waiting pending : waiting.values()) {
+            pending.result().complete(STOPPED);
+        }
+        waiting.clear();
+        for (Peer peer : peers.values()) {
+            disconnect(peer);
+        }
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+            server.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("⚠️  Could not close replication log: " + e.getMessage());
+        }
+    }
+
+    private void handleSelected() throws IOException {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                SocketChannel channel = server.accept();
+                if (channel != null) {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    channel.register(selector, SelectionKey.OP_READ, new Inbound());
+                }
+            } else if (key.attachment() instanceof Peer peer) {
+                handlePeerKey(key, peer);
+            } else if (key.attachment() instanceof Inbound inbound) {
+                handleInbound(key, inbound);
+            }
+        }
+    }
+
+    private void handlePeerKey(SelectionKey key, Peer peer) {
+        try {
+            if (key.isConnectable()) {
+                peer.channel.finishConnect();
+                peer.connected = true;
+            }
+            if (key.isReadable() && peer.channel.read(ByteBuffer.allocate(256)) < 0) {
+                disconnect(peer);
+                return;
+            }
+            if (peer.connected) {
+                writeQueued(peer);
+            }
+        } catch (IOException e) {
+            disconnect(peer);
+        }
+    }
+
+    private void handleInbound(SelectionKey key, Inbound inbound) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            if (channel.read(inbound.buffer) < 0) {
+                channel.close();
+                return;
+            }
+            ByteBuffer buffer = inbound.buffer;
+            buffer.flip();
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt(buffer.position());
+                if (length <= 0 || length > MAX_QUEUED_BYTES) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (buffer.remaining() < 4 + length) {
+                    break;
+                }
+                ByteBuffer frame = buffer.slice(buffer.position() + 4, length);
+                buffer.position(buffer.position() + 4 + length);
+                receive(frame);
+            }
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                int needed = buffer.position() >= 4 ? buffer.getInt(0) + 4 : buffer.capacity() * 2;
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+                buffer.flip();
+                larger.put(buffer);
+                inbound.buffer = larger;
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Already broken
+            }
+        }
+    }
+
+    // Messages: [length][type][term][from] followed by the body
+
+    private void receive(ByteBuffer frame) {
+        byte type = frame.get();
+        long term = frame.getLong();
+        int from = frame.getInt();
+        if (!peers.containsKey(from) || blocked.contains(from)) {
+            return;
+        }
+        if (term > currentTerm) {
+            stepDown(term);
+        }
+        switch (type) {
+            case APPEND:
+                onAppend(frame, term, from);
+                break;
+            case APPEND_REPLY:
+                onAppendReply(frame, term, peers.get(from));
+                break;
+            case VOTE:
+                onVote(frame, term, from);
+                break;
+            case VOTE_REPLY:
+                onVoteReply(frame, term, from);
+                break;
+            case SNAPSHOT:
+                onSnapshot(frame, term, from);
+                break;
+            case SNAPSHOT_REPLY:
+                onSnapshotReply(frame, term, peers.get(from));
+                break;
+            default:
+                throw new IllegalStateException("Unknown message type " + type);
+        }
+    }
+
+    private ByteBuffer message(byte type, int bodyBytes) {
+        ByteBuffer message = ByteBuffer.allocate(4 + 1 + 8 + 4 + bodyBytes);
+        message.putInt(1 + 8 + 4 + bodyBytes).put(type).putLong(currentTerm).putInt(id);
+        return message;
+    }
+
+    private void onAppend(ByteBuffer in, long term, int from) {
+        long prevIndex = in.getLong();
+        long prevTerm = in.getLong();
+        long leaderCommit = in.getLong();
+        int count = in.getInt();
+        if (term < currentTerm) {
+            replyAppend(from, false, log.lastIndex() + 1);
+            return;
+        }
+        role = Role.FOLLOWER;
+        votes = null;
+        leaderId = from;
+        resetElectionTimer();
+        if (prevIndex > log.lastIndex()) {
+            replyAppend(from, false, log.lastIndex() + 1);
+            return;
+        }
+        if (prevIndex >= log.base() && log.termAt(prevIndex) != prevTerm) {
+            // Skip back over the whole conflicting term in one round trip
+            long conflictTerm = log.termAt(prevIndex);
+            long hint = prevIndex;
+            while (hint > commitIndex + 1 && log.termAt(hint - 1) == conflictTerm) {
+                hint--;
+            }
+            replyAppend(from, false, hint);
+            return;
+        }
+        long index = prevIndex;
+        for (int i = 0; i < count; i++) {
+            long entryTerm = in.getLong();
+            byte[] entry = new byte[in.getInt()];
+            in.get(entry);
+            index++;
+            if (index <= log.base()) {
+                // Already part of the snapshot
+                continue;
+            }
+            if (index <= log.lastIndex()) {
+                if (log.termAt(index) == entryTerm) {
+                    continue;
+                }
+                truncateFrom(index);
+            }
+            log.append(entryTerm, entry);
+        }
+        try {
+            log.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (leaderCommit > commitIndex) {
+            commitIndex = Math.min(leaderCommit, index);
+        }
+        replyAppend(from, true, index);
+    }
+
+    private void truncateFrom(long index) {
+        if (index <= commitIndex) {
+            throw new IllegalStateException("Refusing to remove committed entry " + index);
+        }
+        // Entries proposed here that are being overwritten can no longer commit
+        for (long i = index; i <= log.lastIndex(); i++) {
+            Waiting pending = waiting.remove(i);
+            if (pending != null) {
+                pending.result().complete(NOT_COMMITTED);
+            }
+        }
+        try {
+            log.truncateFrom(index);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * On success {@code index} is the last matching entry; on failure it is where the leader should resume
+     */
+    private void replyAppend(int to, boolean success, long index) {
+        ByteBuffer reply = message(APPEND_REPLY, 1 + 8);
+        reply.put((byte) (success ? 1 : 0)).putLong(index);
+        send(peers.get(to), reply);
+    }
+
+    private void onAppendReply(ByteBuffer in, long term, Peer peer) {
+        boolean success = in.get() == 1;
+        long index = in.getLong();
+        if (role != Role.LEADER || term != currentTerm) {
+            return;
+        }
+        peer.inFlight = false;
+        if (success) {
+            peer.matchIndex = Math.max(peer.matchIndex, index);
+            peer.nextIndex = peer.matchIndex + 1;
+        } else {
+            peer.nextIndex = Math.max(peer.matchIndex + 1, Math.min(index, peer.nextIndex - 1));
+        }
+        if (peer.nextIndex <= log.lastIndex()) {
+            sendAppend(peer);
+        }
+    }
+
+    /**
+     * A chunk of the leader's snapshot: index, term, total length, offset, then the bytes
+     */
+    private void onSnapshot(ByteBuffer in, long term, int from) {
+        long index = in.getLong();
+        long snapshotTerm = in.getLong();
+        int total = in.getInt();
+        int offset = in.getInt();
+        byte[] chunk = new byte[in.getInt()];
+        in.get(chunk);
+        if (term < currentTerm) {
+            replySnapshot(from, false, index, 0);
+            return;
+        }
+        role = Role.FOLLOWER;
+        votes = null;
+        leaderId = from;
+        resetElectionTimer();
+        if (index <= lastApplied) {
+            replySnapshot(from, true, index, total);
+            return;
+        }
+        if (incoming == null || incomingIndex != index) {
+            if (offset != 0) {
+                replySnapshot(from, false, index, 0);
+                return;
+            }
+            incoming = new ByteArrayOutputStream(total);
+            incomingIndex = index;
+        }
+        if (offset != incoming.size()) {
+            replySnapshot(from, false, index, incoming.size());
+            return;
+        }
+        incoming.write(chunk, 0, chunk.length);
+        if (incoming.size() < total) {
+            replySnapshot(from, false, index, incoming.size());
+            return;
+        }
+        byte[] data = incoming.toByteArray();
+        incoming = null;
+        try {
+            log.compact(index, snapshotTerm, data);
+            restore(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        commitIndex = Math.max(commitIndex, index);
+        lastApplied = index;
+        // Changes proposed here while leading: those covered by the snapshot went in or
+        // were overwritten unseen, and those after it are gone if the log was dropped
+        Iterator<Map.Entry<Long, Waiting>> pending = waiting.entrySet().iterator();
+        while (pending.hasNext()) {
+            Map.Entry<Long, Waiting> next = pending.next();
+            if (next.getKey() <= index) {
+                next.getValue().result().complete(UNKNOWN);
+                pending.remove();
+            } else if (next.getKey() > log.lastIndex()) {
+                next.getValue().result().complete(NOT_COMMITTED);
+                pending.remove();
+            }
+        }
+        System.out.println("📥 Node " + id + " installed the leader's snapshot up to entry " + index);
+        replySnapshot(from, true, index, total);
+    }
+
+    /**
+     * {@code received} is how much of the snapshot the leader should resume from
+     */
+    private void replySnapshot(int to, boolean done, long index, int received) {
+        ByteBuffer reply = message(SNAPSHOT_REPLY, 1 + 8 + 4);
+        reply.put((byte) (done ? 1 : 0)).putLong(index).putInt(received);
+        send(peers.get(to), reply);
+    }
+
+    private void onSnapshotReply(ByteBuffer in, long term, Peer peer) {
+        boolean done = in.get() == 1;
+        long index = in.getLong();
+        int received = in.getInt();
+        if (role != Role.LEADER || term != currentTerm) {
+            return;
+        }
+        peer.inFlight = false;
+        if (done) {
+            peer.matchIndex = Math.max(peer.matchIndex, index);
+            peer.nextIndex = peer.matchIndex + 1;
+            peer.snapshotIndex = 0;
+        } else if (index == peer.snapshotIndex) {
+            peer.snapshotOffset = received;
+        }
+        if (peer.nextIndex <= log.lastIndex()) {
+            sendAppend(peer);
+        }
+    }
+
+    private void onVote(ByteBuffer in, long term, int from) {
+        long candidateLastIndex = in.getLong();
+        long candidateLastTerm = in.getLong();
+        boolean upToDate = candidateLastTerm > log.termAt(log.lastIndex())
+                           || (candidateLastTerm == log.termAt(log.lastIndex()) && candidateLastIndex >= log.lastIndex());
+        boolean granted = false;
+        if (term == currentTerm && (votedFor == -1 || votedFor == from) && upToDate) {
+            votedFor = from;
+            saveState();
+            granted = true;
+            resetElectionTimer();
+        }
+        ByteBuffer reply = message(VOTE_REPLY, 1);
+        reply.put((byte) (granted ? 1 : 0));
+        send(peers.get(from), reply);
+    }
+
+    private void onVoteReply(ByteBuffer in, long term, int from) {
+        if (in.get() == 1 && role == Role.CANDIDATE && term == currentTerm) {
+            votes.add(from);
+            if (votes.size() > clusterSize / 2) {
+                becomeLeader();
+            }
+        }
+    }
+
+    // Roles
+
+    private void stepDown(long term) {
+        currentTerm = term;
+        votedFor = -1;
+        saveState();
+        role = Role.FOLLOWER;
+        leaderId = -1;
+        votes = null;
+    }
+
+    private void startElection() {
+        role = Role.CANDIDATE;
+        currentTerm++;
+        votedFor = id;
+        saveState();
+        leaderId = -1;
+        votes = new HashSet<>();
+        votes.add(id);
+        resetElectionTimer();
+        if (votes.size() > clusterSize / 2) {
+            becomeLeader();
+            return;
+        }
+        for (Peer peer : peers.values()) {
+            ByteBuffer request = message(VOTE, 8 + 8);
+            request.putLong(log.lastIndex()).putLong(log.termAt(log.lastIndex()));
+            send(peer, request);
+        }
+    }
+
+    private void becomeLeader() {
+        role = Role.LEADER;
+        leaderId = id;
+        votes = null;
+        for (Peer peer : peers.values()) {
+            peer.nextIndex = log.lastIndex() + 1;
+            peer.matchIndex = 0;
+            peer.inFlight = false;
+        }
+        // Entries from earlier terms only count as committed once one from this term is
+        log.append(currentTerm, new byte[] {NO_OP});
+        System.out.println("👑 Node " + id + " is the leader for term " + currentTerm);
+    }
+
+    private void resetElectionTimer() {
+        long timeout = ThreadLocalRandom.current().nextLong(ELECTION_MIN_MILLIS, ELECTION_MAX_MILLIS + 1);
+        electionDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    private void saveState() {
+        try {
+            log.saveState(currentTerm, votedFor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Leader: replication and commit
+
+    /**
+     * Sends new entries to every follower that is not waiting for an answer, and a heartbeat to any gone quiet
+     */
+    private void replicate(boolean force) {
+        long now = System.nanoTime();
+        for (Peer peer : peers.values()) {
+            boolean quiet = now - peer.lastSentNanos >= TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MILLIS);
+            if (force || quiet || (!peer.inFlight && peer.nextIndex <= log.lastIndex())) {
+                sendAppend(peer);
+            }
+        }
+    }
+
+    private void sendAppend(Peer peer) {
+        if (peer.nextIndex <= log.base()) {
+            sendSnapshot(peer);
+            return;
+        }
+        long prevIndex = peer.nextIndex - 1;
+        long last = Math.min(log.lastIndex(), prevIndex + MAX_BATCH_ENTRIES);
+        int bodyBytes = 8 + 8 + 8 + 4;
+        long index = prevIndex;
+        while (index < last && bodyBytes < MAX_BATCH_BYTES) {
+            index++;
+            bodyBytes += 8 + 4 + log.entryAt(index).length;
+        }
+        last = index;
+        ByteBuffer append = message(APPEND, bodyBytes);
+        append.putLong(prevIndex).putLong(log.termAt(prevIndex)).putLong(commitIndex).putInt((int) (last - prevIndex));
+        for (long i = prevIndex + 1; i <= last; i++) {
+            byte[] entry = log.entryAt(i);
+            append.putLong(log.termAt(i)).putInt(entry.length).put(entry);
+        }
+        peer.inFlight = true;
+        peer.lastSentNanos = System.nanoTime();
+        send(peer, append);
+    }
+
+    /**
+     * Sends the next chunk of the snapshot to a peer that needs entries the log no longer has
+     */
+    private void sendSnapshot(Peer peer) {
+        byte[] data = log.snapshot();
+        if (peer.snapshotIndex != log.base()) {
+            peer.snapshotIndex = log.base();
+            peer.snapshotOffset = 0;
+        }
+        int offset = (int) peer.snapshotOffset;
+        int length = Math.min(SNAPSHOT_CHUNK_BYTES, data.length - offset);
+        ByteBuffer chunk = message(SNAPSHOT, 8 + 8 + 4 + 4 + 4 + length);
+        chunk.putLong(log.base()).putLong(log.termAt(log.base())).putInt(data.length).putInt(offset)
+             .putInt(length).put(data, offset, length);
+        peer.inFlight = true;
+        peer.lastSentNanos = System.nanoTime();
+        send(peer, chunk);
+    }
+
+    private void advanceCommitIndex() {
+        long[] matched = new long[clusterSize];
+        int i = 0;
+        matched[i++] = log.lastIndex();
+        for (Peer peer : peers.values()) {
+            matched[i++] = peer.matchIndex;
+        }
+        Arrays.sort(matched);
+        long majorityIndex = matched[clusterSize - (clusterSize / 2 + 1)];
+        if (majorityIndex > commitIndex && log.termAt(majorityIndex) == currentTerm) {
+            commitIndex = majorityIndex;
+        }
+    }
+
+    private void applyCommitted() {
+        while (lastApplied < commitIndex) {
+            long index = lastApplied + 1;
+            applying = index;
+            Object result = apply(log.entryAt(index));
+            applying = 0;
+            lastApplied = index;
+            Waiting pending = waiting.remove(index);
+            if (pending != null) {
+                pending.result().complete(pending.term() == log.termAt(index) ? result : NOT_COMMITTED);
+            }
+        }
+        if (lastApplied - log.base() >= snapshotEvery) {
+            compact();
+        }
+    }
+
+    /**
+     * Saves the store as of the last applied entry and drops the log up to it
+     */
+    private void compact() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            AppointmentCodec.StreamWriter slots = new AppointmentCodec.StreamWriter(Channels.newChannel(bytes));
+            for (Appointment appointment : store.allSlots()) {
+                slots.write(appointment);
+            }
+            slots.finish();
+            log.compact(lastApplied, log.termAt(lastApplied), bytes.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Loads the saved snapshot at startup, before the node serves anyone.
+     * An empty store gets it in one {@link AppointmentStore#restore}.
+     */
+    private void load(byte[] snapshot) throws IOException {
+        if (store.size() != 0) {
+            restore(snapshot);
+            return;
+        }
+        AppointmentCodec.StreamReader slots =
+                new AppointmentCodec.StreamReader(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+        List<Appointment> restored = new ArrayList<>();
+        Appointment slot;
+        while ((slot = slots.next()) != null) {
+            restored.add(slot);
+        }
+        store.restore(restored);
+    }
+
+    /**
+     * Brings the store in line with a snapshot. The snapshot is ahead of
+     * the store, so it adds the slots the store lacks and rebooks those
+     * whose booking differs.
+     */
+    private void restore(byte[] snapshot) throws IOException {
+        AppointmentCodec.StreamReader slots =
+                new AppointmentCodec.StreamReader(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+        Appointment slot;
+        while ((slot = slots.next()) != null) {
+            Appointment existing = store.findById(slot.getId());
+            if (existing == null) {
+                store.add(slot);
+                continue;
+            }
+            Appointment.Booking booking = slot.getBooking();
+            if (Objects.equals(existing.getBooking(), booking)) {
+                continue;
+            }
+            if (existing.isBooked()) {
+                store.cancel(existing);
+            }
+            if (booking != null) {
+                store.book(existing, booking.patientName(), booking.patientEmail());
+            }
+        }
+    }
+
+    // Transport
+
+    private void send(Peer peer, ByteBuffer message) {
+        if (peer == null || blocked.contains(peer.id) || !running) {
+            return;
+        }
+        message.flip();
+        if (peer.channel == null && !connect(peer)) {
+            return;
+        }
+        if (peer.queuedBytes + message.remaining() > MAX_QUEUED_BYTES) {
+            // The peer is not keeping up; the protocol retries what is lost
+            return;
+        }
+        peer.outgoing.add(message);
+        peer.queuedBytes += message.remaining();
+        if (peer.connected) {
+            try {
+                writeQueued(peer);
+            } catch (IOException e) {
+                disconnect(peer);
+            }
+        }
+    }
+
+    private boolean connect(Peer peer) {
+        long now = System.nanoTime();
+        if (now - peer.nextConnectNanos < 0) {
+            return false;
+        }
+        peer.nextConnectNanos = now + TimeUnit.MILLISECONDS.toNanos(RECONNECT_MILLIS);
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            peer.channel = channel;
+            peer.connected = channel.connect(peer.address);
+            channel.register(selector, peer.connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, peer);
+            return true;
+        } catch (IOException e) {
+            disconnect(peer);
+            return false;
+        }
+    }
+
+    private void writeQueued(Peer peer) throws IOException {
+        while (!peer.outgoing.isEmpty()) {
+            ByteBuffer head = peer.outgoing.peek();
+            int written = peer.channel.write(head);
+            peer.queuedBytes -= written;
+            if (head.hasRemaining()) {
+                break;
+            }
+            peer.outgoing.poll();
+        }
+        SelectionKey key = peer.channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.interestOps(peer.outgoing.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void disconnect(Peer peer) {
+        if (peer.channel != null) {
+            try {
+                peer.channel.close();
+            } catch (IOException e) {
+                // Already broken
+            }
+        }
+        peer.channel = null;
+        peer.connected = false;
+        peer.outgoing.clear();
+        peer.queuedBytes = 0;
+        peer.inFlight = false;
+    }
+
+    // Log entries
+
+    private Object apply(byte[] entry) {
+        ByteBuffer in = ByteBuffer.wrap(entry);
+        byte type = AppointmentCodec.getType(in);
+        switch (type) {
+            case NO_OP:
+                return null;
+            case AppointmentCodec.SLOTS: {
+                String doctor = AppointmentCodec.getDoctor(in, doctorNames);
+                return store.createAll(doctor, AppointmentCodec.getTimes(in));
+            }
+            case AppointmentCodec.BOOKED:
+                return applyBook(AppointmentCodec.getUnsigned(in), AppointmentCodec.getString(in),
+                                 AppointmentCodec.getString(in));
+            case AppointmentCodec.CANCELLED:
+                return applyCancel(AppointmentCodec.getUnsigned(in));
+            case LEGACY_ADD_SLOTS: {
+                String doctor = doctorNames.intern(readLegacyString(in));
+                int count = in.getInt();
+                List<LocalDateTime> times = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    times.add(AppointmentCodec.fromEpochMinute(in.getLong()));
+                }
+                return store.createAll(doctor, times);
+            }
+            case LEGACY_BOOK:
+                return applyBook(in.getInt(), readLegacyString(in), readLegacyString(in));
+            case LEGACY_CANCEL:
+                return applyCancel(in.getInt());
+            default:
+                throw new IllegalStateException("Unknown log entry type " + type);
+        }
+    }
+
+    private BookingService.Outcome applyBook(int appointmentId, String patientName, String patientEmail) {
+        Appointment appointment = store.findById(appointmentId);
+        if (appointment == null) {
+            return BookingService.Outcome.NOT_FOUND;
+        }
+        if (store.book(appointment, patientName, patientEmail)) {
+            return BookingService.Outcome.BOOKED;
+        }
+        return appointment.isHeld() ? BookingService.Outcome.HELD : BookingService.Outcome.ALREADY_BOOKED;
+    }
+
+    private BookingService.Outcome applyCancel(int appointmentId) {
+        Appointment appointment = store.findById(appointmentId);
+        if (appointment == null) {
+            return BookingService.Outcome.NOT_FOUND;
+        }
+        return store.cancel(appointment) ? BookingService.Outcome.CANCELLED : BookingService.Outcome.NOT_BOOKED;
+    }
+
+    private static byte[] encodeAddSlots(String doctor, List<LocalDateTime> times) {
+        ByteBuffer entry = ByteBuffer.allocate(AppointmentCodec.slotsSize(doctor, times, INLINE));
+        AppointmentCodec.putSlots(entry, doctor, times, INLINE);
+        return entry.array();
+    }
+
+    private static byte[] encodeBook(int appointmentId, String patientName, String patientEmail) {
+        ByteBuffer entry = ByteBuffer.allocate(AppointmentCodec.bookedSize(appointmentId, patientName, patientEmail));
+        AppointmentCodec.putBooked(entry, appointmentId, patientName, patientEmail);
+        return entry.array();
+    }
+
+    private static byte[] encodeCancel(int appointmentId) {
+        ByteBuffer entry = ByteBuffer.allocate(AppointmentCodec.cancelledSize(appointmentId));
+        AppointmentCodec.putCancelled(entry, appointmentId);
+        return entry.array();
+    }
+
+    private static String readLegacyString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The replicated log plus the node's current term and vote.
+     *
+     * Entries after the latest snapshot are kept in memory and, given a
+     * directory, appended to a log file as [length][crc32][term][entry]
+     * records. The log file is named after the index it starts behind
+     * (replication.log starts at 0, replication-N.log behind entry N). The
+     * snapshot holds the store as of its index, as an AppointmentCodec
+     * stream in replication.snapshot. The term and vote live in
+     * replication.state. Every file is replaced atomically. Appends are
+     * buffered until {@link #flush()}, which writes them all and forces
+     * them to disk once.
+     */
+    private static final class ReplicationLog implements Closeable {
+        private static final String LOG_PREFIX = "replication";
+        private static final String LOG_SUFFIX = ".log";
+        private static final String STATE_FILE = "replication.state";
+        private static final String SNAPSHOT_FILE = "replication.snapshot";
+        private static final int SNAPSHOT_MAGIC = 0x4D42524E;
+        private static final int SNAPSHOT_VERSION = 1;
+        private static final int HEADER_BYTES = 8;
+
+        private final Path directory;
+        private FileChannel channel;
+        private Path current;
+        private final List<byte[]> entries = new ArrayList<>();
+        private long[] terms = new long[1024];
+        private long[] offsets = new long[1024];
+        private final List<ByteBuffer> unflushed = new ArrayList<>();
+        private long fileEnd;
+        private long savedTerm;
+        private int savedVote = -1;
+        // Last entry covered by the snapshot, its term and the encoded store as of it (null before the first)
+        private long base;
+        private long baseTerm;
+        private byte[] snapshot;
+
+        ReplicationLog(Path directory) throws IOException {
+            this.directory = directory;
+            if (directory == null) {
+                return;
+            }
+            Files.createDirectories(directory);
+            Path state = directory.resolve(STATE_FILE);
+            if (Files.exists(state)) {
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(state))) {
+                    savedTerm = in.readLong();
+                    savedVote = in.readInt();
+                }
+            }
+            loadSnapshot();
+            load();
+        }
+
+        private void loadSnapshot() throws IOException {
+            Path file = directory.resolve(SNAPSHOT_FILE);
+            if (!Files.exists(file)) {
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                    throw new IOException("Unrecognized replication snapshot: " + file);
+                }
+                long index = in.readLong();
+                long term = in.readLong();
+                byte[] data = new byte[in.readInt()];
+                int checksum = in.readInt();
+                in.readFully(data);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Replication snapshot " + file + " is corrupt");
+                }
+                base = index;
+                baseTerm = term;
+                snapshot = data;
+            }
+        }
+
+        /**
+         * Reads the newest log file. Entries it holds up to the snapshot are
+         * skipped; they are left over from a compaction cut short by a crash.
+         */
+        private void load() throws IOException {
+            TreeMap<Long, Path> logs = new TreeMap<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    String start = name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length());
+                    if (start.isEmpty()) {
+                        logs.put(0L, file);
+                    } else if (start.startsWith("-")) {
+                        try {
+                            logs.put(Long.parseLong(start.substring(1)), file);
+                        } catch (NumberFormatException e) {
+                            // Not one of ours
+                        }
+                    }
+                }
+            }
+            long start = logs.isEmpty() ? base : logs.lastKey();
+            if (start > base) {
+                throw new IOException("Replication log starts after entry " + start
+                                      + " but the snapshot only covers " + base);
+            }
+            Path file = logs.isEmpty() ? logPath(base) : logs.get(start);
+            for (Path older : logs.values()) {
+                if (!older.equals(file)) {
+                    Files.delete(older);
+                }
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            current = file;
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8);
+            CRC32 crc = new CRC32();
+            long position = 0;
+            long index = start;
+            while (position + header.capacity() <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                long term = header.getLong();
+                if (length < 8 || position + HEADER_BYTES + length > size) {
+                    break;
+                }
+                ByteBuffer entry = ByteBuffer.allocate(length - 8);
+                channel.read(entry, position + HEADER_BYTES + 8);
+                crc.reset();
+                crc.update(header.array(), HEADER_BYTES, 8);
+                crc.update(entry.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                if (++index > base) {
+                    remember(term, entry.array(), position);
+                }
+                position += HEADER_BYTES + length;
+            }
+            if (position < size) {
+                System.err.println("Replication log: discarding " + (size - position)
+                                   + " byte(s) of incomplete or corrupt records");
+                channel.truncate(position);
+            }
+            if (start < base) {
+                // A compaction stopped between saving the snapshot and cutting the log
+                rewrite();
+            }
+            fileEnd = channel.size();
+        }
+
+        private Path logPath(long start) {
+            return directory.resolve(start == 0 ? LOG_PREFIX + LOG_SUFFIX : LOG_PREFIX + "-" + start + LOG_SUFFIX);
+        }
+
+        long savedTerm() {
+            return savedTerm;
+        }
+
+        int savedVote() {
+            return savedVote;
+        }
+
+        /**
+         * Index of the last entry the snapshot covers; the log holds only the entries after it
+         */
+        long base() {
+            return base;
+        }
+
+        /**
+         * The store as of {@link #base()}, or null if there is no snapshot yet
+         */
+        byte[] snapshot() {
+            return snapshot;
+        }
+
+        long lastIndex() {
+            return base + entries.size();
+        }
+
+        long termAt(long index) {
+            if (index == base) {
+                return baseTerm;
+            }
+            if (index < base) {
+                throw new IllegalArgumentException("Entry " + index + " is compacted into the snapshot");
+            }
+            return terms[(int) (index - base) - 1];
+        }
+
+        byte[] entryAt(long index) {
+            return entries.get((int) (index - base) - 1);
+        }
+
+        void append(long term, byte[] entry) {
+            remember(term, entry, fileEnd);
+            if (channel == null) {
+                return;
+            }
+            ByteBuffer record = record(term, entry);
+            unflushed.add(record);
+            fileEnd += record.remaining();
+        }
+
+        private static ByteBuffer record(long term, byte[] entry) {
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + 8 + entry.length);
+            record.putInt(8 + entry.length).putInt(0).putLong(term).put(entry);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), HEADER_BYTES, 8 + entry.length);
+            record.putInt(4, (int) crc.getValue());
+            return record.flip();
+        }
+
+        private void remember(long term, byte[] entry, long offset) {
+            int index = entries.size();
+            if (index == terms.length) {
+                terms = Arrays.copyOf(terms, index * 2);
+                offsets = Arrays.copyOf(offsets, index * 2);
+            }
+            terms[index] = term;
+            offsets[index] = offset;
+            entries.add(entry);
+        }
+
+        /**
+         * Removes the entry at {@code index} and everything after it
+         */
+        void truncateFrom(long index) throws IOException {
+            flush();
+            long offset = offsets[(int) (index - base) - 1];
+            entries.subList((int) (index - base) - 1, entries.size()).clear();
+            if (channel != null) {
+                channel.truncate(offset);
+                channel.force(false);
+                fileEnd = offset;
+            }
+        }
+
+        /**
+         * Replaces every entry up to {@code index} by a snapshot of the store
+         * as of it. Later entries stay if the entry at index has the given
+         * term; otherwise they conflict with the snapshot and go too. The
+         * snapshot is saved before the log is cut, so a crash in between
+         * leaves a log that still reaches it.
+         */
+        void compact(long index, long term, byte[] data) throws IOException {
+            flush();
+            List<byte[]> keptEntries = new ArrayList<>();
+            List<Long> keptTerms = new ArrayList<>();
+            if (index < lastIndex() && termAt(index) == term) {
+                for (long i = index + 1; i <= lastIndex(); i++) {
+                    keptTerms.add(termAt(i));
+                    keptEntries.add(entryAt(i));
+                }
+            }
+            if (directory != null) {
+                saveSnapshot(index, term, data);
+            }
+            base = index;
+            baseTerm = term;
+            snapshot = data;
+            entries.clear();
+            for (int i = 0; i < keptEntries.size(); i++) {
+                remember(keptTerms.get(i), keptEntries.get(i), 0);
+            }
+            if (directory != null) {
+                rewrite();
+            }
+        }
+
+        private void saveSnapshot(long index, long term, byte[] data) throws IOException {
+            Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(index);
+                out.writeLong(term);
+                out.writeInt(data.length);
+                out.writeInt((int) crc.getValue());
+                out.write(data);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Writes the entries after the snapshot to a new log file named after
+         * it, switches appends to that file and deletes the old one
+         */
+        private void rewrite() throws IOException {
+            Path file = logPath(base);
+            Path temp = directory.resolve(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = 0;
+                for (int i = 0; i < entries.size(); i++) {
+                    ByteBuffer record = record(terms[i], entries.get(i));
+                    offsets[i] = position;
+                    position += record.remaining();
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                }
+                out.force(true);
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (current != null && !current.equals(file)) {
+                Files.deleteIfExists(current);
+            }
+            current = file;
+            fileEnd = channel.size();
+        }
+
+        void flush() throws IOException {
+            if (unflushed.isEmpty()) {
+                return;
+            }
+            ByteBuffer[] batch = unflushed.toArray(new ByteBuffer[0]);
+            unflushed.clear();
+            long position = fileEnd;
+            for (ByteBuffer record : batch) {
+                position -= record.remaining();
+            }
+            channel.position(position);
+            while (batch[batch.length - 1].hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        }
+
+        void saveState(long term, int vote) throws IOException {
+            savedTerm = term;
+            savedVote = vote;
+            if (directory == null) {
+                return;
+            }
+            Path temp = directory.resolve(STATE_FILE + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(file)) {
+                out.writeLong(term);
+                out.writeInt(vote);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp, directory.resolve(STATE_FILE),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                flush();
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Utilization figures kept current as slots are added, booked and
+ * cancelled, so dashboards read counters instead of scanning the store.
+ *
+ * It starts from one fork/join {@link UtilizationReport#scan scan} and
+ * then listens to the store. Each change bumps a few striped counters
+ * (per doctor, per day, per hour and in the free-slot heatmap) without
+ * taking a lock. Totals and one doctor's or day's figures are read in
+ * constant time. {@link #snapshot()} assembles a full report in time
+ * proportional to the number of doctors and days, not slots. Bookings
+ * count those that existed when the rollup was attached plus every one
+ * since; cancellations count from the moment it was attached.
+ */
+public class ReportRollup implements StoreListener {
+    private static final class Counters {
+        final String name;
+        final LongAdder slots = new LongAdder();
+        final LongAdder booked = new LongAdder();
+        final LongAdder bookings = new LongAdder();
+        final LongAdder cancellations = new LongAdder();
+
+        Counters(String name) {
+            this.name = name;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Counters> doctors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<LocalDate, Counters> days = new ConcurrentHashMap<>();
+    private final LongAdder[] hourSlots = adders(24);
+    private final LongAdder[] hourBooked = adders(24);
+    private final LongAdder[] free = adders(7 * 24);
+    private final Counters totals = new Counters("all");
+
+    private ReportRollup() {
+    }
+
+    /**
+     * Scans the store once and keeps the figures current from then on.
+     * Attach before the store is shared, as changes made during the scan could be counted twice.
+     */
+    public static ReportRollup attach(AppointmentStore store) {
+        ReportRollup rollup = new ReportRollup();
+        rollup.seed(UtilizationReport.scan(store));
+        store.addListener(rollup);
+        return rollup;
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private void seed(UtilizationReport report) {
+        for (UtilizationReport.DoctorUtilization doctor : report.doctors()) {
+            Counters counters = doctorCounters(doctor.doctor());
+            counters.slots.add(doctor.slots());
+            counters.booked.add(doctor.booked());
+            counters.bookings.add(doctor.bookings());
+        }
+        for (UtilizationReport.DayUtilization day : report.days()) {
+            Counters counters = days.computeIfAbsent(day.day(), d -> new Counters(d.toString()));
+            counters.slots.add(day.slots());
+            counters.booked.add(day.booked());
+        }
+        for (int hour = 0; hour < 24; hour++) {
+            hourSlots[hour].add(report.slotsAtHour(hour));
+            hourBooked[hour].add(report.bookedAtHour(hour));
+            for (DayOfWeek weekday : DayOfWeek.values()) {
+                free[(weekday.getValue() - 1) * 24 + hour].add(report.freeSlots(weekday, hour));
+            }
+        }
+        totals.slots.add(report.slots());
+        totals.booked.add(report.booked());
+        totals.bookings.add(report.bookings());
+    }
+
+    private Counters doctorCounters(String name) {
+        return doctors.computeIfAbsent(AppointmentStore.normalizeDoctor(name), key -> new Counters(name));
+    }
+
+    private Counters dayCounters(LocalDateTime dateTime) {
+        return days.computeIfAbsent(dateTime.toLocalDate(), d -> new Counters(d.toString()));
+    }
+
+    private LongAdder freeCell(LocalDateTime dateTime) {
+        return free[(dateTime.getDayOfWeek().getValue() - 1) * 24 + dateTime.getHour()];
+    }
+
+    // Store events
+
+    @Override
+    public void slotAdded(Appointment appointment) {
+        LocalDateTime dateTime = appointment.getDateTime();
+        boolean isBooked = appointment.isBooked();
+        Counters doctor = doctorCounters(appointment.getDoctorName());
+        Counters day = dayCounters(dateTime);
+        totals.slots.increment();
+        doctor.slots.increment();
+        day.slots.increment();
+        hourSlots[dateTime.getHour()].increment();
+        if (isBooked) {
+            totals.booked.increment();
+            totals.bookings.increment();
+            doctor.booked.increment();
+            doctor.bookings.increment();
+            day.booked.increment();
+            hourBooked[dateTime.getHour()].increment();
+        } else {
+            freeCell(dateTime).increment();
+        }
+    }
+
+    @Override
+    public void slotBooked(Appointment appointment, Appointment.Booking booking) {
+        LocalDateTime dateTime = appointment.getDateTime();
+        Counters doctor = doctorCounters(appointment.getDoctorName());
+        doctor.booked.increment();
+        doctor.bookings.increment();
+        totals.booked.increment();
+        totals.bookings.increment();
+        dayCounters(dateTime).booked.increment();
+        hourBooked[dateTime.getHour()].increment();
+        freeCell(dateTime).decrement();
+    }
+
+    @Override
+    public void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+        LocalDateTime dateTime = appointment.getDateTime();
+        Counters doctor = doctorCounters(appointment.getDoctorName());
+        doctor.booked.decrement();
+        doctor.cancellations.increment();
+        totals.booked.decrement();
+        totals.cancellations.increment();
+        dayCounters(dateTime).booked.decrement();
+        hourBooked[dateTime.getHour()].decrement();
+        freeCell(dateTime).increment();
+    }
+
+    // Constant-time reads
+
+    public long slots() {
+        return totals.slots.sum();
+    }
+
+    public long booked() {
+        return totals.booked.sum();
+    }
+
+    public double utilization() {
+        long slots = slots();
+        return slots == 0 ? 0 : (double) booked() / slots;
+    }
+
+    public double cancellationRate() {
+        long bookings = totals.bookings.sum();
+        return bookings == 0 ? 0 : (double) totals.cancellations.sum() / bookings;
+    }
+
+    /**
+     * One doctor's figures (case-insensitive), or null if the doctor has no slots
+     */
+    public UtilizationReport.DoctorUtilization doctor(String name) {
+        Counters counters = doctors.get(AppointmentStore.normalizeDoctor(name));
+        return counters == null ? null : doctorFigures(counters);
+    }
+
+    private static UtilizationReport.DoctorUtilization doctorFigures(Counters counters) {
+        return new UtilizationReport.DoctorUtilization(counters.name, counters.slots.sum(), counters.booked.sum(),
+                                                       counters.bookings.sum(), counters.cancellations.sum());
+    }
+
+    /**
+     * One day's figures, or null if the day has no slots
+     */
+    public UtilizationReport.DayUtilization day(LocalDate date) {
+        Counters counters = days.get(date);
+        return counters == null ? null : new UtilizationReport.DayUtilization(date, counters.slots.sum(),
+                                                                              counters.booked.sum());
+    }
+
+    /**
+     * The full report from the current counters, without touching the store
+     */
+    public UtilizationReport snapshot() {
+        List<UtilizationReport.DoctorUtilization> doctorList = new ArrayList<>(doctors.size());
+        for (Counters counters : doctors.values()) {
+            doctorList.add(doctorFigures(counters));
+        }
+        doctorList.sort(Comparator.comparing(UtilizationReport.DoctorUtilization::doctor,
+                                             String.CASE_INSENSITIVE_ORDER));
+        List<UtilizationReport.DayUtilization> dayList = new ArrayList<>(days.size());
+        for (Map.Entry<LocalDate, Counters> entry : new TreeMap<>(days).entrySet()) {
+            dayList.add(new UtilizationReport.DayUtilization(entry.getKey(), entry.getValue().slots.sum(),
+                                                             entry.getValue().booked.sum()));
+        }
+        return new UtilizationReport(doctorList, dayList, sums(hourSlots), sums(hourBooked), sums(free));
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+}
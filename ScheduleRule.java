@@ -0,0 +1,170 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * Declarative doctor schedule that expands into appointment slots, e.g.
+ * "Smith; MON-FRI; 09:00-17:00; 15; 2030-01-01; 2030-06-30; 2030-01-01,2030-05-01"
+ * (doctor; days; working hours; slot minutes; first day; last day; optional holidays).
+ */
+public class ScheduleRule {
+    private final String doctorName;
+    private final EnumSet<DayOfWeek> days;
+    private final LocalTime startTime;
+    private final LocalTime endTime;
+    private final int slotMinutes;
+    private final LocalDate firstDay;
+    private final LocalDate lastDay;
+    private final Set<LocalDate> holidays;
+
+    public ScheduleRule(String doctorName, Set<DayOfWeek> days, LocalTime startTime, LocalTime endTime,
+                        int slotMinutes, LocalDate firstDay, LocalDate lastDay, Set<LocalDate> holidays) {
+        if (doctorName == null || doctorName.trim().isEmpty()) {
+            throw new IllegalArgumentException("Doctor name cannot be empty");
+        }
+        if (days.isEmpty()) {
+            throw new IllegalArgumentException("At least one working day is required");
+        }
+        if (!startTime.isBefore(endTime)) {
+            throw new IllegalArgumentException("Start time must be before end time");
+        }
+        if (slotMinutes <= 0) {
+            throw new IllegalArgumentException("Slot length must be positive");
+        }
+        if (lastDay.isBefore(firstDay)) {
+            throw new IllegalArgumentException("Last day must not be before first day");
+        }
+        this.doctorName = doctorName.trim();
+        this.days = EnumSet.copyOf(days);
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.slotMinutes = slotMinutes;
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+        this.holidays = new HashSet<>(holidays);
+    }
+
+    /**
+     * Parses a one-line rule: doctor; days; hours; slot minutes; first day; last day[; holidays]
+     */
+    public static ScheduleRule parse(String line) {
+        String[] fields = line.split(";");
+        if (fields.length < 6 || fields.length > 7) {
+            throw new IllegalArgumentException(
+                "Expected: doctor; days; HH:mm-HH:mm; slot minutes; yyyy-MM-dd; yyyy-MM-dd[; holidays]");
+        }
+        try {
+            LocalTime[] hours = parseHours(fields[2]);
+            return new ScheduleRule(fields[0], parseDays(fields[1]), hours[0], hours[1],
+                                    Integer.parseInt(fields[3].trim()),
+                                    LocalDate.parse(fields[4].trim()), LocalDate.parse(fields[5].trim()),
+                                    fields.length == 7 ? parseDates(fields[6]) : Collections.emptySet());
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rule '" + line.trim() + "': " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parses "MON-FRI", "MON,WED,FRI" or a mix such as "MON-WED,SAT"
+     */
+    public static EnumSet<DayOfWeek> parseDays(String text) {
+        EnumSet<DayOfWeek> result = EnumSet.noneOf(DayOfWeek.class);
+        for (String part : text.split(",")) {
+            String[] range = part.trim().split("-");
+            DayOfWeek from = parseDay(range[0]);
+            DayOfWeek to = range.length > 1 ? parseDay(range[1]) : from;
+            for (DayOfWeek day = from; ; day = day.plus(1)) {
+                result.add(day);
+                if (day == to) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static DayOfWeek parseDay(String text) {
+        String prefix = text.trim().toUpperCase(Locale.ROOT);
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if (prefix.length() >= 3 && day.name().startsWith(prefix)) {
+                return day;
+            }
+        }
+        throw new IllegalArgumentException("Unknown day: " + text.trim());
+    }
+
+    /**
+     * Parses "09:00-17:00"
+     */
+    public static LocalTime[] parseHours(String text) {
+        String[] range = text.trim().split("-");
+        if (range.length != 2) {
+            throw new IllegalArgumentException("Hours must look like 09:00-17:00");
+        }
+        return new LocalTime[] {LocalTime.parse(range[0].trim()), LocalTime.parse(range[1].trim())};
+    }
+
+    /**
+     * Parses a comma-separated list of yyyy-MM-dd dates (blank means none)
+     */
+    public static Set<LocalDate> parseDates(String text) {
+        Set<LocalDate> dates = new HashSet<>();
+        for (String part : text.split(",")) {
+            if (!part.isBlank()) {
+                dates.add(LocalDate.parse(part.trim()));
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * Expands the rule into the store, skipping slots in the past and slots
+     * the doctor already has. Slots are generated one day at a time in time
+     * order and inserted as a batch. Returns the number of slots added.
+     */
+    public int generate(AppointmentStore store) {
+        long start = Metrics.start();
+        int added = forEachDay(batch -> store.createAll(doctorName, batch));
+        Metrics.record(Metrics.Operation.GENERATE_SLOTS, start, true);
+        return added;
+    }
+
+    /**
+     * Hands each working day's future slot times, in time order, to {@code day}
+     * and returns the sum of what it returns. The list is reused between days.
+     */
+    public int forEachDay(ToIntFunction<List<LocalDateTime>> day) {
+        LocalDateTime now = LocalDateTime.now();
+        int perDay = (endTime.toSecondOfDay() - startTime.toSecondOfDay()) / 60 / slotMinutes;
+        List<LocalDateTime> batch = new ArrayList<>(perDay);
+        int total = 0;
+        for (LocalDate date = firstDay; !date.isAfter(lastDay); date = date.plusDays(1)) {
+            if (!days.contains(date.getDayOfWeek()) || holidays.contains(date)) {
+                continue;
+            }
+            batch.clear();
+            LocalDateTime slot = date.atTime(startTime);
+            for (int i = 0; i < perDay; i++, slot = slot.plusMinutes(slotMinutes)) {
+                if (!slot.isBefore(now)) {
+                    batch.add(slot);
+                }
+            }
+            total += day.applyAsInt(batch);
+        }
+        return total;
+    }
+
+    public String getDoctorName() {
+        return doctorName;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Dr. %s | %s | %s-%s | %d min | %s to %s | %d holiday(s)",
+                             doctorName, days, startTime, endTime, slotMinutes, firstDay, lastDay, holidays.size());
+    }
+}
@@ -0,0 +1,94 @@
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two-phase booking: reserve a slot, then confirm or release it.
+ *
+ * Reserving places a short hold on the slot, which takes it out of the
+ * available partition. Other clerks therefore stop seeing it and cannot
+ * book it while the patient's details are collected. Confirming with the
+ * hold's token turns it into a booking. Releasing it, or letting it
+ * expire, makes the slot available again. Expiries run on a shared
+ * {@link TimingWheel}, which drops all holds that are due in the same
+ * tick in one pass.
+ */
+public class SlotHolds {
+    private static final SecureRandom TOKENS = new SecureRandom();
+
+    private final AppointmentStore store;
+    private final Duration ttl;
+    private final TimingWheel timers;
+    private final Map<Long, TimingWheel.Timeout> expiries;
+
+    public SlotHolds(AppointmentStore store, Duration ttl, TimingWheel timers) {
+        this.store = store;
+        this.ttl = ttl;
+        this.timers = timers;
+        this.expiries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * New unguessable, positive hold token
+     */
+    static long newToken() {
+        return TOKENS.nextLong() & Long.MAX_VALUE;
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Holds a free slot for the given holder. Returns null if it is booked or already held.
+     */
+    public Appointment.Hold reserve(Appointment appointment, String holder) {
+        Appointment.Hold hold = new Appointment.Hold(newToken(), holder, System.currentTimeMillis() + ttl.toMillis());
+        if (!store.hold(appointment, hold)) {
+            return null;
+        }
+        expiries.put(hold.token(), timers.schedule(ttl.toMillis(), TimeUnit.MILLISECONDS, () -> {
+            expiries.remove(hold.token());
+            store.releaseHold(appointment, hold.token());
+        }));
+        return hold;
+    }
+
+    /**
+     * Books a held slot. Returns false if the hold expired or the token does not match.
+     */
+    public boolean confirm(Appointment appointment, long token, Appointment.Booking booking) {
+        if (!store.confirmHold(appointment, token, booking)) {
+            return false;
+        }
+        cancelExpiry(token);
+        return true;
+    }
+
+    /**
+     * Gives a held slot back. Returns false if the hold is no longer in place.
+     */
+    public boolean release(Appointment appointment, long token) {
+        if (!store.releaseHold(appointment, token)) {
+            return false;
+        }
+        cancelExpiry(token);
+        return true;
+    }
+
+    /**
+     * Holds waiting for confirmation or expiry
+     */
+    public int activeCount() {
+        return expiries.size();
+    }
+
+    private void cancelExpiry(long token) {
+        TimingWheel.Timeout expiry = expiries.remove(token);
+        if (expiry != null) {
+            expiry.cancel();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Recommends the best next slots for a patient's constraints: preferred
+ * doctors, days of the week, a time-of-day window and an earliest date.
+ *
+ * Each doctor's day is a bitmap with one bit per minute of the day (23
+ * words), set where that doctor has a free slot. A query walks the days
+ * in order from the earliest date and, for each allowed day and doctor,
+ * ANDs the bitmap with the time window and reads the set bits in order.
+ * No slot outside the answer is visited, filtered or sorted. Bitmaps are
+ * kept current from store events, so a booking, cancellation or hold
+ * flips a single bit. Slots are recommended earliest first.
+ *
+ * Resolution is one minute: if a doctor has two slots within the same
+ * minute, only the first one added is recommended.
+ */
+public class SlotRecommender implements StoreListener {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int WORDS = (MINUTES_PER_DAY + 63) / 64;
+
+    /**
+     * What the patient wants; empty doctors or days mean any, a null
+     * earliest means now, and the window is [from, to) within each day
+     */
+    public record Constraints(Collection<String> doctors, Set<DayOfWeek> days, LocalTime from, LocalTime to,
+                              LocalDateTime earliest, int limit) {
+        public Constraints {
+            doctors = doctors == null ? List.of() : List.copyOf(doctors);
+            days = days == null || days.isEmpty() ? EnumSet.allOf(DayOfWeek.class) : EnumSet.copyOf(days);
+            from = from == null ? LocalTime.MIDNIGHT : from;
+            if (to != null && !to.isAfter(from)) {
+                throw new IllegalArgumentException("The time window must end after it starts");
+            }
+            if (limit < 1) {
+                throw new IllegalArgumentException("limit must be at least 1");
+            }
+        }
+    }
+
+    /**
+     * One doctor's slots on one day. present has a bit per minute that
+     * has a slot, free a bit per minute whose slot can be booked; slots
+     * holds the slots in minute order, so a minute's slot sits at the
+     * number of present bits below it.
+     */
+    private static final class DayBits {
+        final long[] present = new long[WORDS];
+        final long[] free = new long[WORDS];
+        Appointment[] slots = new Appointment[8];
+        int size;
+
+        synchronized void add(Appointment appointment) {
+            int minute = minuteOf(appointment.getDateTime());
+            int word = minute >>> 6;
+            long bit = 1L << minute;
+            if ((present[word] & bit) != 0) {
+                // Same appointment seen twice (seeding races an event), or a second slot in the minute
+                if (slots[rank(minute)] == appointment) {
+                    update(appointment);
+                }
+                return;
+            }
+            int rank = rank(minute);
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            System.arraycopy(slots, rank, slots, rank + 1, size - rank);
+            slots[rank] = appointment;
+            size++;
+            present[word] |= bit;
+            update(appointment);
+        }
+
+        synchronized void update(Appointment appointment) {
+            int minute = minuteOf(appointment.getDateTime());
+            if ((present[minute >>> 6] & (1L << minute)) == 0 || slots[rank(minute)] != appointment) {
+                // Not added yet; the seeding pass will pick up its state
+                return;
+            }
+            if (!appointment.isBooked() && !appointment.isHeld()) {
+                free[minute >>> 6] |= 1L << minute;
+            } else {
+                free[minute >>> 6] &= ~(1L << minute);
+            }
+        }
+
+        private int rank(int minute) {
+            int word = minute >>> 6;
+            int rank = Long.bitCount(present[word] & ((1L << minute) - 1));
+            for (int i = 0; i < word; i++) {
+                rank += Long.bitCount(present[i]);
+            }
+            return rank;
+        }
+
+        /**
+         * Adds up to {@code limit} free slots inside the window, earliest first
+         */
+        synchronized void collect(long[] window, int limit, List<Appointment> into) {
+            int found = 0;
+            int rankBase = 0;
+            for (int word = 0; word < WORDS && found < limit; word++) {
+                long bits = free[word] & window[word];
+                while (bits != 0 && found < limit) {
+                    long lowest = bits & -bits;
+                    into.add(slots[rankBase + Long.bitCount(present[word] & (lowest - 1))]);
+                    bits ^= lowest;
+                    found++;
+                }
+                rankBase += Long.bitCount(present[word]);
+            }
+        }
+    }
+
+    private final DoctorIndex doctorNames;
+    private final ConcurrentSkipListMap<LocalDate, ConcurrentHashMap<String, DayBits>> days =
+        new ConcurrentSkipListMap<>();
+
+    private SlotRecommender(DoctorIndex doctorNames) {
+        this.doctorNames = doctorNames;
+    }
+
+    /**
+     * Builds the bitmaps from the store and keeps them current from then on
+     */
+    public static SlotRecommender attach(AppointmentStore store) {
+        SlotRecommender recommender = new SlotRecommender(store.doctors());
+        // Listen first so nothing added during the seeding pass is missed; adding twice is harmless
+        store.addListener(recommender);
+        for (Appointment appointment : store.allSlots()) {
+            recommender.slotAdded(appointment);
+        }
+        return recommender;
+    }
+
+    private static int minuteOf(LocalDateTime dateTime) {
+        return minuteOf(dateTime.toLocalTime());
+    }
+
+    private static int minuteOf(LocalTime time) {
+        return time.getHour() * 60 + time.getMinute();
+    }
+
+    private DayBits bitsFor(Appointment appointment) {
+        return days.computeIfAbsent(appointment.getDateTime().toLocalDate(), d -> new ConcurrentHashMap<>())
+            .computeIfAbsent(AppointmentStore.normalizeDoctor(appointment.getDoctorName()), d -> new DayBits());
+    }
+
+    // Store events
+
+    @Override
+    public void slotAdded(Appointment appointment) {
+        bitsFor(appointment).add(appointment);
+    }
+
+    @Override
+    public void slotBooked(Appointment appointment, Appointment.Booking booking) {
+        bitsFor(appointment).update(appointment);
+    }
+
+    @Override
+    public void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+        bitsFor(appointment).update(appointment);
+    }
+
+    @Override
+    public void holdChanged(Appointment appointment, Appointment.Hold previous, Appointment.Hold current) {
+        bitsFor(appointment).update(appointment);
+    }
+
+    // Queries
+
+    /**
+     * Up to {@code limit} free slots matching the constraints, earliest first.
+     * Preferred doctors are matched like the doctor search (partial names and
+     * small typos); if none of them matches a doctor, nothing is recommended.
+     */
+    public List<Appointment> recommend(Constraints constraints) {
+        long start = Metrics.start();
+        List<Appointment> recommended = find(constraints);
+        Metrics.record(Metrics.Operation.RECOMMEND, start, true);
+        return recommended;
+    }
+
+    private List<Appointment> find(Constraints constraints) {
+        Set<String> doctors = null;
+        if (!constraints.doctors().isEmpty()) {
+            doctors = new HashSet<>();
+            for (String doctor : constraints.doctors()) {
+                doctors.addAll(doctorNames.match(doctor));
+            }
+            if (doctors.isEmpty()) {
+                return List.of();
+            }
+        }
+        LocalDateTime earliest = constraints.earliest() == null ? LocalDateTime.now() : constraints.earliest();
+        int windowStart = minuteOf(constraints.from());
+        int windowEnd = constraints.to() == null ? MINUTES_PER_DAY : minuteOf(constraints.to());
+        long[] window = mask(windowStart, windowEnd);
+        // On the earliest day the window starts no sooner than the first whole minute at or after 'earliest'
+        int firstMinute = minuteOf(earliest) + (earliest.getSecond() == 0 && earliest.getNano() == 0 ? 0 : 1);
+        long[] firstDayWindow = mask(Math.max(windowStart, firstMinute), windowEnd);
+
+        int limit = constraints.limit();
+        List<Appointment> recommended = new ArrayList<>(Math.min(limit, 256));
+        List<Appointment> day = new ArrayList<>();
+        ConcurrentNavigableMap<LocalDate, ConcurrentHashMap<String, DayBits>> ahead =
+            days.tailMap(earliest.toLocalDate(), true);
+        for (Map.Entry<LocalDate, ConcurrentHashMap<String, DayBits>> entry : ahead.entrySet()) {
+            if (!constraints.days().contains(entry.getKey().getDayOfWeek())) {
+                continue;
+            }
+            long[] dayWindow = entry.getKey().equals(earliest.toLocalDate()) ? firstDayWindow : window;
+            int wanted = limit - recommended.size();
+            if (doctors == null) {
+                for (DayBits bits : entry.getValue().values()) {
+                    bits.collect(dayWindow, wanted, day);
+                }
+            } else {
+                for (String doctor : doctors) {
+                    DayBits bits = entry.getValue().get(doctor);
+                    if (bits != null) {
+                        bits.collect(dayWindow, wanted, day);
+                    }
+                }
+            }
+            if (day.size() > 1) {
+                day.sort(AppointmentStore.SLOT_ORDER);
+            }
+            recommended.addAll(day.subList(0, Math.min(wanted, day.size())));
+            day.clear();
+            if (recommended.size() >= limit) {
+                break;
+            }
+        }
+        return recommended;
+    }
+
+    /**
+     * Parses a comma-separated list of days such as "mon,wed,friday";
+     * blank means every day
+     */
+    public static Set<DayOfWeek> parseDays(String text) {
+        Set<DayOfWeek> parsed = EnumSet.noneOf(DayOfWeek.class);
+        if (text == null || text.isBlank()) {
+            return parsed;
+        }
+        for (String token : text.split(",")) {
+            String day = token.trim().toUpperCase(Locale.ROOT);
+            DayOfWeek match = null;
+            for (DayOfWeek candidate : DayOfWeek.values()) {
+                if (day.length() >= 3 && candidate.name().startsWith(day)) {
+                    match = candidate;
+                }
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("Unknown day of week: " + token.trim());
+            }
+            parsed.add(match);
+        }
+        return parsed;
+    }
+
+    /**
+     * Bitmap with the minutes in [from, to) set
+     */
+    private static long[] mask(int from, int to) {
+        long[] mask = new long[WORDS];
+        for (int word = 0; word < WORDS; word++) {
+            int lo = Math.max(from, word * 64);
+            int hi = Math.min(to, word * 64 + 64);
+            if (lo < hi) {
+                long bits = hi - lo == 64 ? -1L : ((1L << (hi - lo)) - 1);
+                mask[word] = bits << (lo - word * 64);
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+
+/**
+ * Fixed-width table renderer for appointment slot listings.
+ * Rows are assembled in one reusable buffer, dates are written digit by
+ * digit instead of going through a DateTimeFormatter, and the output goes
+ * to a single Writer that is flushed once per page. Rows skipped by
+ * pagination are never formatted.
+ */
+public class SlotTable {
+    /**
+     * A table column with its heading and minimum width
+     */
+    public enum Column {
+        ID("ID", 5),
+        DOCTOR("Doctor", 20),
+        DATE_TIME("Date & Time", 25),
+        STATUS("Status", 10),
+        WIDE_STATUS("Status", 15),
+        PATIENT("Patient", 20),
+        EMAIL("Email", 25);
+
+        private final String heading;
+        private final int width;
+
+        Column(String heading, int width) {
+            this.heading = heading;
+            this.width = width;
+        }
+    }
+
+    private final Writer out;
+    private final Column[] columns;
+    private final StringBuilder row;
+    private char[] chars;
+
+    public SlotTable(Writer out, Column... columns) {
+        this.out = out;
+        this.columns = columns.clone();
+        this.row = new StringBuilder(160);
+        this.chars = new char[160];
+    }
+
+    /**
+     * Writes the heading line followed by a dashed rule of the given width
+     */
+    public void writeHeader(int ruleWidth) {
+        row.setLength(0);
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                row.append(' ');
+            }
+            int start = row.length();
+            row.append(columns[i].heading);
+            pad(start, columns[i].width);
+        }
+        row.append(System.lineSeparator());
+        for (int i = 0; i < ruleWidth; i++) {
+            row.append('-');
+        }
+        row.append(System.lineSeparator());
+        write();
+    }
+
+    /**
+     * Writes one slot as a row
+     */
+    public void writeRow(Appointment appointment) {
+        Appointment.Booking booking = appointment.getBooking();
+        row.setLength(0);
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                row.append(' ');
+            }
+            int start = row.length();
+            switch (columns[i]) {
+                case ID:
+                    row.append(appointment.getId());
+                    break;
+                case DOCTOR:
+                    row.append("Dr. ").append(appointment.getDoctorName());
+                    break;
+                case DATE_TIME:
+                    appendDateTime(row, appointment.getDateTime());
+                    break;
+                case STATUS:
+                case WIDE_STATUS:
+                    row.append(booking != null ? "BOOKED" : appointment.isHeld() ? "HELD" : "AVAILABLE");
+                    break;
+                case PATIENT:
+                    row.append(booking != null ? booking.patientName() : "");
+                    break;
+                case EMAIL:
+                    row.append(booking != null ? booking.patientEmail() : "");
+                    break;
+            }
+            pad(start, columns[i].width);
+        }
+        row.append(System.lineSeparator());
+        write();
+    }
+
+    /**
+     * Formats and writes up to {@code pageSize} rows, after skipping
+     * {@code skip} rows unformatted. Returns the number of rows written.
+     */
+    public int writeRows(Iterator<Appointment> slots, int skip, int pageSize) {
+        for (int i = 0; i < skip && slots.hasNext(); i++) {
+            slots.next();
+        }
+        int written = 0;
+        while (written < pageSize && slots.hasNext()) {
+            writeRow(slots.next());
+            written++;
+        }
+        flush();
+        return written;
+    }
+
+    public void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void pad(int start, int width) {
+        for (int i = row.length() - start; i < width; i++) {
+            row.append(' ');
+        }
+    }
+
+    private void write() {
+        int length = row.length();
+        if (length > chars.length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        row.getChars(0, length, chars, 0);
+        try {
+            out.write(chars, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends yyyy-MM-dd HH:mm without a formatter (years 0-9999)
+     */
+    static void appendDateTime(StringBuilder buffer, LocalDateTime dateTime) {
+        int year = dateTime.getYear();
+        buffer.append((char) ('0' + year / 1000 % 10)).append((char) ('0' + year / 100 % 10));
+        appendTwoDigits(buffer, year % 100);
+        buffer.append('-');
+        appendTwoDigits(buffer, dateTime.getMonthValue());
+        buffer.append('-');
+        appendTwoDigits(buffer, dateTime.getDayOfMonth());
+        buffer.append(' ');
+        appendTwoDigits(buffer, dateTime.getHour());
+        buffer.append(':');
+        appendTwoDigits(buffer, dateTime.getMinute());
+    }
+
+    private static void appendTwoDigits(StringBuilder buffer, int value) {
+        buffer.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}
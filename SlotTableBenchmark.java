@@ -0,0 +1,109 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the original printf-per-row listing with {@link SlotTable}.
+ * Both write through a buffered PrintStream into a null sink, so the
+ * numbers measure formatting and encoding rather than the terminal.
+ *
+ * Usage: java SlotTableBenchmark [rows] [rounds]   (the last, warmed-up round is reported)
+ */
+public class SlotTableBenchmark {
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<Appointment> slots = new ArrayList<>(rows);
+        LocalDateTime start = LocalDateTime.of(2030, 1, 7, 9, 0);
+        for (int i = 0; i < rows; i++) {
+            Appointment appointment = new Appointment(i + 1, "Doctor " + (i % 50), start.plusMinutes(15L * i));
+            if (i % 3 == 0) {
+                appointment.bookAppointment("Patient " + i, "patient" + i + "@example.com");
+            }
+            slots.add(appointment);
+        }
+
+        if (!render(slots.subList(0, Math.min(rows, 1000)), true).equals(
+                render(slots.subList(0, Math.min(rows, 1000)), false))) {
+            System.out.println("❌ SlotTable output differs from the printf output");
+            System.exit(1);
+        }
+
+        System.out.printf("Rendering %,d rows, last of %d rounds%n", rows, rounds);
+        System.out.printf("%-12s %12s %16s%n", "Path", "Time (ms)", "Allocated (MB)");
+        for (int round = 0; round < rounds; round++) {
+            boolean last = round == rounds - 1;
+            long[] printf = measure(slots, true);
+            long[] table = measure(slots, false);
+            if (last) {
+                System.out.printf("%-12s %12.1f %16.1f%n", "printf", printf[0] / 1e6, printf[1] / 1e6);
+                System.out.printf("%-12s %12.1f %16.1f%n", "SlotTable", table[0] / 1e6, table[1] / 1e6);
+                System.out.printf("Speed-up: %.1fx%n", (double) printf[0] / table[0]);
+            }
+        }
+    }
+
+    /**
+     * Returns {elapsed nanos, allocated bytes} for one full render
+     */
+    private static long[] measure(List<Appointment> slots, boolean printf) {
+        PrintStream out = new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 8192), true);
+        long allocatedBefore = allocatedBytes();
+        long startNanos = System.nanoTime();
+        if (printf) {
+            renderPrintf(slots, out);
+        } else {
+            renderTable(slots, out);
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        return new long[] {elapsed, allocatedBytes() - allocatedBefore};
+    }
+
+    private static String render(List<Appointment> slots, boolean printf) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true);
+        if (printf) {
+            renderPrintf(slots, out);
+        } else {
+            renderTable(slots, out);
+        }
+        return bytes.toString();
+    }
+
+    /**
+     * The listing as it was written before SlotTable
+     */
+    private static void renderPrintf(List<Appointment> slots, PrintStream out) {
+        out.printf("%-5s %-20s %-25s %-15s %-20s%n", "ID", "Doctor", "Date & Time", "Status", "Patient");
+        out.println("-".repeat(85));
+        for (Appointment appointment : slots) {
+            out.printf("%-5d %-20s %-25s %-15s %-20s%n",
+                appointment.getId(),
+                "Dr. " + appointment.getDoctorName(),
+                appointment.getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")),
+                appointment.isBooked() ? "BOOKED" : "AVAILABLE",
+                appointment.isBooked() ? appointment.getPatientName() : "");
+        }
+        out.flush();
+    }
+
+    private static void renderTable(List<Appointment> slots, PrintStream out) {
+        SlotTable table = new SlotTable(new BufferedWriter(new OutputStreamWriter(out), 1 << 16),
+                                        SlotTable.Column.ID, SlotTable.Column.DOCTOR, SlotTable.Column.DATE_TIME,
+                                        SlotTable.Column.WIDE_STATUS, SlotTable.Column.PATIENT);
+        table.writeHeader(85);
+        table.writeRows(slots.iterator(), 0, slots.size());
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,750 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Streaming bulk import and export of slots and bookings.
+ *
+ * Files are CSV with a header row, JSON Lines with one flat object per
+ * line, or an {@link AppointmentCodec} stream. The format is chosen by
+ * extension: .csv, .json/.jsonl/.ndjson, .mbk for binary, or .cols for
+ * a {@link ColumnarSlotStore} directory.
+ * The columns are id, doctor, dateTime, patientName and patientEmail.
+ * Only doctor and dateTime are required. A row without an ID gets a new
+ * one, and a row with a patient is imported as booked.
+ *
+ * The import reads the file in chunks of lines. Worker threads parse and
+ * insert the chunks while the reader continues, and only a few chunks are
+ * in flight at a time, so memory stays flat however large the file is.
+ * The store's indexes reject duplicates without a scan. Rows that fail
+ * are written to a CSV error report along with their line numbers. The
+ * export streams from the store's time index straight into a buffered
+ * writer. A binary file is read and written record by record on one
+ * thread, since there is no text to parse; its error report numbers
+ * records instead of lines. A columnar archive is read row by row the
+ * same way, and written in ID order into a new directory.
+ */
+public class SlotTransfer {
+    private static final int CHUNK_ROWS = 4096;
+    private static final String[] COLUMNS = {"id", "doctor", "dateTime", "patientName", "patientEmail"};
+    private static final int ID = 0;
+    private static final int DOCTOR = 1;
+    private static final int DATE_TIME = 2;
+    private static final int PATIENT_NAME = 3;
+    private static final int PATIENT_EMAIL = 4;
+
+    /**
+     * File formats, chosen by extension
+     */
+    public enum Format {
+        CSV, JSON_LINES, BINARY, COLUMNAR;
+
+        public static Format of(Path path) {
+            String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+                return JSON_LINES;
+            }
+            if (name.endsWith(".mbk")) {
+                return BINARY;
+            }
+            if (name.endsWith(".cols")) {
+                return COLUMNAR;
+            }
+            throw new IllegalArgumentException("Unsupported file type (use .csv, .jsonl, .mbk or .cols): " + path);
+        }
+    }
+
+    /**
+     * Outcome of an import; errors counts rejected rows, including duplicates
+     */
+    public record ImportResult(long rows, long imported, long booked, long duplicates, long errors) {
+    }
+
+    private static final class Chunk {
+        final long firstLine;
+        final String[] lines;
+        final int count;
+
+        Chunk(long firstLine, String[] lines, int count) {
+            this.firstLine = firstLine;
+            this.lines = lines;
+            this.count = count;
+        }
+    }
+
+    private static final class ChunkResult {
+        long rows;
+        long imported;
+        long booked;
+        long duplicates;
+        long rejected;
+        final List<String> errors = new ArrayList<>();
+    }
+
+    private final AppointmentStore store;
+    private final int threads;
+
+    public SlotTransfer(AppointmentStore store) {
+        this(store, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SlotTransfer(AppointmentStore store, int threads) {
+        this.store = store;
+        this.threads = Math.max(1, threads);
+    }
+
+    // Import
+
+    /**
+     * Imports every row of the file. Rejected rows go to the error report,
+     * which is only created when there is at least one (an old report is removed).
+     */
+    public ImportResult importFrom(Path input, Path errorReport) throws IOException {
+        Format format = Format.of(input);
+        Files.deleteIfExists(errorReport);
+        if (format == Format.BINARY) {
+            return importBinary(input, errorReport);
+        }
+        if (format == Format.COLUMNAR) {
+            return importColumnar(input, errorReport);
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "slot-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<ChunkResult>> inFlight = new ArrayDeque<>();
+        ChunkResult total = new ChunkResult();
+        Writer report = null;
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            long lineNumber = 0;
+            int[] columns = null;
+            if (format == Format.CSV) {
+                String header = reader.readLine();
+                lineNumber++;
+                if (header == null) {
+                    return new ImportResult(0, 0, 0, 0, 0);
+                }
+                columns = csvColumns(header);
+            }
+            int[] columnMap = columns;
+            String[] lines = new String[CHUNK_ROWS];
+            int count = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines[count++] = line;
+                lineNumber++;
+                if (count == CHUNK_ROWS) {
+                    Chunk chunk = new Chunk(lineNumber - count + 1, lines, count);
+                    inFlight.add(workers.submit(() -> importChunk(chunk, format, columnMap)));
+                    lines = new String[CHUNK_ROWS];
+                    count = 0;
+                    if (inFlight.size() >= threads * 2) {
+                        report = collect(inFlight.poll(), total, report, errorReport);
+                    }
+                }
+            }
+            if (count > 0) {
+                Chunk chunk = new Chunk(lineNumber - count + 1, lines, count);
+                inFlight.add(workers.submit(() -> importChunk(chunk, format, columnMap)));
+            }
+            while (!inFlight.isEmpty()) {
+                report = collect(inFlight.poll(), total, report, errorReport);
+            }
+        } finally {
+            workers.shutdownNow();
+            if (report != null) {
+                report.close();
+            }
+        }
+        return new ImportResult(total.rows, total.imported, total.booked, total.duplicates, total.rejected);
+    }
+
+    private ImportResult importBinary(Path input, Path errorReport) throws IOException {
+        ChunkResult result = new ChunkResult();
+        Writer report = null;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            AppointmentCodec.StreamReader slots = new AppointmentCodec.StreamReader(in);
+            Appointment appointment;
+            while ((appointment = slots.next()) != null) {
+                report = importRecord(appointment, slots.records(), result, report, errorReport);
+            }
+        } finally {
+            if (report != null) {
+                report.close();
+            }
+        }
+        return new ImportResult(result.rows, result.imported, result.booked, result.duplicates, result.rejected);
+    }
+
+    private ImportResult importColumnar(Path input, Path errorReport) throws IOException {
+        if (!Files.isDirectory(input)) {
+            throw new NoSuchFileException(input.toString());
+        }
+        ChunkResult result = new ChunkResult();
+        Writer report = null;
+        try (ColumnarSlotStore columns = ColumnarSlotStore.open(input)) {
+            ColumnarSlotStore.Row row = columns.cursor();
+            for (int r = 0; r < columns.size(); r++) {
+                report = importRecord(row.moveTo(r).toAppointment(), r + 1, result, report, errorReport);
+            }
+        } finally {
+            if (report != null) {
+                report.close();
+            }
+        }
+        return new ImportResult(result.rows, result.imported, result.booked, result.duplicates, result.rejected);
+    }
+
+    /**
+     * Adds one decoded slot, or reports it as a duplicate; returns the report, opened on the first one
+     */
+    private Writer importRecord(Appointment appointment, long record, ChunkResult result, Writer report,
+                                Path errorReport) throws IOException {
+        result.rows++;
+        if (store.add(appointment)) {
+            result.imported++;
+            if (appointment.isBooked()) {
+                result.booked++;
+            }
+            return report;
+        }
+        result.duplicates++;
+        result.rejected++;
+        if (report == null) {
+            report = Files.newBufferedWriter(errorReport, StandardCharsets.UTF_8);
+            report.write("record,error,row\n");
+        }
+        StringBuilder row = new StringBuilder(160);
+        appendCsvRow(row, appointment);
+        StringBuilder problem = new StringBuilder(80);
+        if (store.exists(appointment.getDoctorName(), appointment.getDateTime())) {
+            problem.append("Duplicate: Dr. ").append(appointment.getDoctorName()).append(" already has a slot at ");
+            SlotTable.appendDateTime(problem, appointment.getDateTime());
+        } else {
+            problem.append("Duplicate: ID ").append(appointment.getId()).append(" is already in use");
+        }
+        report.write(record + "," + csvField(problem.toString()) + "," + csvField(row.toString()) + "\n");
+        return report;
+    }
+
+    /**
+     * Waits for the oldest chunk and appends its errors to the report, so the report stays in line order
+     */
+    private static Writer collect(Future<ChunkResult> pending, ChunkResult total, Writer report, Path errorReport)
+            throws IOException {
+        ChunkResult result;
+        try {
+            result = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed: " + e.getCause(), e.getCause());
+        }
+        total.rows += result.rows;
+        total.imported += result.imported;
+        total.booked += result.booked;
+        total.duplicates += result.duplicates;
+        total.rejected += result.errors.size();
+        if (!result.errors.isEmpty()) {
+            if (report == null) {
+                report = Files.newBufferedWriter(errorReport, StandardCharsets.UTF_8);
+                report.write("line,error,row\n");
+            }
+            for (String error : result.errors) {
+                report.write(error);
+                report.write('\n');
+            }
+        }
+        return report;
+    }
+
+    private ChunkResult importChunk(Chunk chunk, Format format, int[] columns) {
+        ChunkResult result = new ChunkResult();
+        String[] fields = new String[COLUMNS.length];
+        StringBuilder scratch = new StringBuilder(64);
+        for (int i = 0; i < chunk.count; i++) {
+            String line = chunk.lines[i];
+            if (line.isBlank()) {
+                continue;
+            }
+            result.rows++;
+            long lineNumber = chunk.firstLine + i;
+            Arrays.fill(fields, null);
+            String problem = format == Format.CSV
+                             ? parseCsvRow(line, columns, fields, scratch)
+                             : parseJsonRow(line, fields, scratch);
+            if (problem == null) {
+                problem = importRow(fields, result);
+            }
+            if (problem != null) {
+                result.errors.add(lineNumber + "," + csvField(problem) + "," + csvField(line));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Validates and inserts one row; returns null on success or the reason it was rejected
+     */
+    private String importRow(String[] fields, ChunkResult result) {
+        String doctor = fields[DOCTOR];
+        if (doctor == null || doctor.isBlank()) {
+            return "Missing doctor";
+        }
+        if (fields[DATE_TIME] == null) {
+            return "Missing dateTime";
+        }
+        LocalDateTime dateTime = parseDateTime(fields[DATE_TIME]);
+        if (dateTime == null) {
+            return "Invalid dateTime (expected yyyy-MM-dd HH:mm): " + fields[DATE_TIME];
+        }
+        String patientName = fields[PATIENT_NAME];
+        String patientEmail = fields[PATIENT_EMAIL];
+        boolean booked = patientName != null && !patientName.isBlank();
+        if (booked && !EmailServiceSimple.isValidEmail(patientEmail)) {
+            return "Invalid patientEmail: " + patientEmail;
+        }
+        int id;
+        if (fields[ID] == null || fields[ID].isBlank()) {
+            id = store.nextId();
+        } else {
+            try {
+                id = Integer.parseInt(fields[ID].trim());
+            } catch (NumberFormatException e) {
+                return "Invalid id: " + fields[ID];
+            }
+            if (id <= 0) {
+                return "Invalid id: " + fields[ID];
+            }
+        }
+
+        Appointment appointment = new Appointment(id, doctor.trim(), dateTime);
+        if (booked) {
+            appointment.bookAppointment(patientName.trim(), patientEmail.trim());
+        }
+        if (!store.add(appointment)) {
+            result.duplicates++;
+            return store.exists(doctor, dateTime)
+                   ? "Duplicate: Dr. " + doctor.trim() + " already has a slot at " + fields[DATE_TIME].trim()
+                   : "Duplicate: ID " + id + " is already in use";
+        }
+        result.imported++;
+        if (booked) {
+            result.booked++;
+        }
+        return null;
+    }
+
+    /**
+     * Parses "yyyy-MM-dd HH:mm" or "yyyy-MM-ddTHH:mm", optionally followed by
+     * ":ss", by fixed character positions. Returns null if the text is not a
+     * valid date and time.
+     */
+    static LocalDateTime parseDateTime(String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        int length = end - start;
+        if (length != 16 && length != 19) {
+            return null;
+        }
+        char separator = text.charAt(start + 10);
+        if (text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-'
+                || (separator != ' ' && separator != 'T') || text.charAt(start + 13) != ':'
+                || (length == 19 && text.charAt(start + 16) != ':')) {
+            return null;
+        }
+        int year = digits(text, start, 4);
+        int month = digits(text, start + 5, 2);
+        int day = digits(text, start + 8, 2);
+        int hour = digits(text, start + 11, 2);
+        int minute = digits(text, start + 14, 2);
+        int second = length == 19 ? digits(text, start + 17, 2) : 0;
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 59
+                || day > Month.of(month).length(Year.isLeap(year))) {
+            return null;
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second);
+    }
+
+    /**
+     * Decimal value of {@code count} digits at {@code offset}, or -1 if any of them is not a digit
+     */
+    private static int digits(String text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Maps each header column to its field index (-1 for unknown columns)
+     */
+    private static int[] csvColumns(String header) {
+        List<String> names = new ArrayList<>();
+        String problem = splitCsv(header, names, new StringBuilder());
+        if (problem != null) {
+            throw new IllegalArgumentException("Invalid CSV header: " + problem);
+        }
+        int[] columns = new int[names.size()];
+        boolean[] seen = new boolean[COLUMNS.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = fieldIndex(names.get(i).trim());
+            if (columns[i] >= 0) {
+                seen[columns[i]] = true;
+            }
+        }
+        if (!seen[DOCTOR] || !seen[DATE_TIME]) {
+            throw new IllegalArgumentException("CSV header must name the doctor and dateTime columns");
+        }
+        return columns;
+    }
+
+    private static int fieldIndex(String name) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String parseCsvRow(String line, int[] columns, String[] fields, StringBuilder scratch) {
+        List<String> values = new ArrayList<>(columns.length);
+        String problem = splitCsv(line, values, scratch);
+        if (problem != null) {
+            return problem;
+        }
+        if (values.size() != columns.length) {
+            return "Expected " + columns.length + " fields but found " + values.size();
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] >= 0 && !values.get(i).isEmpty()) {
+                fields[columns[i]] = values.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits one RFC 4180 line; quoted fields may contain commas and doubled
+     * quotes but not line breaks. Returns null or the reason the line is malformed.
+     */
+    private static String splitCsv(String line, List<String> values, StringBuilder scratch) {
+        int i = 0;
+        int length = line.length();
+        while (true) {
+            scratch.setLength(0);
+            if (i < length && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        return "Unterminated quoted field";
+                    }
+                    char c = line.charAt(i++);
+                    if (c == '"') {
+                        if (i < length && line.charAt(i) == '"') {
+                            scratch.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        scratch.append(c);
+                    }
+                }
+                if (i < length && line.charAt(i) != ',') {
+                    return "Unexpected character after quoted field at column " + (i + 1);
+                }
+            } else {
+                int comma = line.indexOf(',', i);
+                int stop = comma < 0 ? length : comma;
+                scratch.append(line, i, stop);
+                i = stop;
+            }
+            values.add(scratch.toString());
+            if (i >= length) {
+                return null;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Reads one flat JSON object; unknown keys are ignored and values may be
+     * strings, numbers or null. Returns null or the reason the line is malformed.
+     */
+    private static String parseJsonRow(String line, String[] fields, StringBuilder scratch) {
+        int[] position = {skipSpace(line, 0)};
+        if (position[0] >= line.length() || line.charAt(position[0]) != '{') {
+            return "Expected a JSON object";
+        }
+        position[0] = skipSpace(line, position[0] + 1);
+        if (position[0] < line.length() && line.charAt(position[0]) == '}') {
+            return null;
+        }
+        while (true) {
+            String key = readJsonString(line, position, scratch);
+            if (key == null) {
+                return "Expected a quoted key at column " + (position[0] + 1);
+            }
+            position[0] = skipSpace(line, position[0]);
+            if (position[0] >= line.length() || line.charAt(position[0]) != ':') {
+                return "Expected ':' at column " + (position[0] + 1);
+            }
+            position[0] = skipSpace(line, position[0] + 1);
+            String value;
+            if (position[0] < line.length() && line.charAt(position[0]) == '"') {
+                value = readJsonString(line, position, scratch);
+                if (value == null) {
+                    return "Invalid string at column " + (position[0] + 1);
+                }
+            } else {
+                int start = position[0];
+                while (position[0] < line.length() && ",} \t".indexOf(line.charAt(position[0])) < 0) {
+                    position[0]++;
+                }
+                value = line.substring(start, position[0]);
+                if (value.isEmpty() || value.charAt(0) == '{' || value.charAt(0) == '[') {
+                    return "Unsupported value for '" + key + "'";
+                }
+                if (value.equals("null")) {
+                    value = null;
+                }
+            }
+            int index = fieldIndex(key);
+            if (index >= 0) {
+                fields[index] = value;
+            }
+            position[0] = skipSpace(line, position[0]);
+            if (position[0] >= line.length()) {
+                return "Unterminated object";
+            }
+            char c = line.charAt(position[0]);
+            if (c == '}') {
+                return skipSpace(line, position[0] + 1) == line.length() ? null : "Trailing characters after object";
+            }
+            if (c != ',') {
+                return "Expected ',' or '}' at column " + (position[0] + 1);
+            }
+            position[0] = skipSpace(line, position[0] + 1);
+        }
+    }
+
+    /**
+     * Reads a quoted JSON string at position[0] and moves past it; returns null if it is malformed
+     */
+    private static String readJsonString(String line, int[] position, StringBuilder scratch) {
+        int i = position[0];
+        if (i >= line.length() || line.charAt(i) != '"') {
+            return null;
+        }
+        scratch.setLength(0);
+        i++;
+        while (i < line.length()) {
+            char c = line.charAt(i++);
+            if (c == '"') {
+                position[0] = i;
+                return scratch.toString();
+            }
+            if (c != '\\') {
+                scratch.append(c);
+                continue;
+            }
+            if (i >= line.length()) {
+                return null;
+            }
+            char escape = line.charAt(i++);
+            switch (escape) {
+                case '"': case '\\': case '/': scratch.append(escape); break;
+                case 'b': scratch.append('\b'); break;
+                case 'f': scratch.append('\f'); break;
+                case 'n': scratch.append('\n'); break;
+                case 'r': scratch.append('\r'); break;
+                case 't': scratch.append('\t'); break;
+                case 'u':
+                    if (i + 4 > line.length()) {
+                        return null;
+                    }
+                    try {
+                        scratch.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    i += 4;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    private static int skipSpace(String line, int i) {
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    // Export
+
+    /**
+     * Writes every slot in date/time order; returns the number of rows written.
+     * Held slots are exported as available because holds are not persistent.
+     */
+    public long exportTo(Path output) throws IOException {
+        Format format = Format.of(output);
+        if (format == Format.BINARY) {
+            return exportBinary(output);
+        }
+        if (format == Format.COLUMNAR) {
+            return exportColumnar(output);
+        }
+        long written = 0;
+        StringBuilder row = new StringBuilder(160);
+        char[] chars = new char[160];
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(output, StandardCharsets.UTF_8), 1 << 16);
+             Stream<Appointment> slots = store.slotsInOrder()) {
+            if (format == Format.CSV) {
+                out.write(String.join(",", COLUMNS));
+                out.write('\n');
+            }
+            Iterator<Appointment> iterator = slots.iterator();
+            while (iterator.hasNext()) {
+                row.setLength(0);
+                if (format == Format.CSV) {
+                    appendCsvRow(row, iterator.next());
+                } else {
+                    appendJsonRow(row, iterator.next());
+                }
+                row.append('\n');
+                if (chars.length < row.length()) {
+                    chars = new char[row.length() * 2];
+                }
+                row.getChars(0, row.length(), chars, 0);
+                out.write(chars, 0, row.length());
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private long exportBinary(Path output) throws IOException {
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING);
+             Stream<Appointment> slots = store.slotsInOrder()) {
+            AppointmentCodec.StreamWriter writer = new AppointmentCodec.StreamWriter(out);
+            Iterator<Appointment> iterator = slots.iterator();
+            while (iterator.hasNext()) {
+                writer.write(iterator.next());
+            }
+            writer.finish();
+            return writer.records();
+        }
+    }
+
+    /**
+     * Writes a new columnar archive in ID order; an existing one is not overwritten
+     */
+    private long exportColumnar(Path output) throws IOException {
+        if (Files.isDirectory(output)) {
+            try (Stream<Path> files = Files.list(output)) {
+                if (files.findAny().isPresent()) {
+                    throw new FileAlreadyExistsException(output.toString(), null, "columnar archive is not empty");
+                }
+            }
+        }
+        try (ColumnarSlotStore columns = ColumnarSlotStore.open(output)) {
+            columns.appendAll(store);
+            return columns.size();
+        }
+    }
+
+    private static void appendCsvRow(StringBuilder row, Appointment appointment) {
+        Appointment.Booking booking = appointment.getBooking();
+        row.append(appointment.getId()).append(',');
+        appendCsvField(row, appointment.getDoctorName());
+        row.append(',');
+        SlotTable.appendDateTime(row, appointment.getDateTime());
+        row.append(',');
+        if (booking != null) {
+            appendCsvField(row, booking.patientName());
+            row.append(',');
+            appendCsvField(row, booking.patientEmail());
+        } else {
+            row.append(',');
+        }
+    }
+
+    private static void appendJsonRow(StringBuilder row, Appointment appointment) {
+        Appointment.Booking booking = appointment.getBooking();
+        row.append("{\"id\":").append(appointment.getId()).append(",\"doctor\":");
+        BookingApiServer.appendString(row, appointment.getDoctorName());
+        row.append(",\"dateTime\":\"");
+        SlotTable.appendDateTime(row, appointment.getDateTime());
+        row.append('"');
+        if (booking != null) {
+            row.append(",\"patientName\":");
+            BookingApiServer.appendString(row, booking.patientName());
+            row.append(",\"patientEmail\":");
+            BookingApiServer.appendString(row, booking.patientEmail());
+        }
+        row.append('}');
+    }
+
+    private static void appendCsvField(StringBuilder row, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            row.append(value);
+            return;
+        }
+        row.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                row.append('"');
+            }
+            row.append(c);
+        }
+        row.append('"');
+    }
+
+    private static String csvField(String value) {
+        StringBuilder field = new StringBuilder(value.length() + 2);
+        appendCsvField(field, value);
+        return field.toString();
+    }
+}
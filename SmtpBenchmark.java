@@ -0,0 +1,114 @@
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares sending confirmations with a new SMTP connection per message
+ * (what {@code Transport.send} does) against {@link EmailService}'s
+ * pooled connections, all against a local {@link FakeSmtpServer}. The
+ * server's handshake delay stands in for the connect, STARTTLS and AUTH
+ * round trips of a real provider. Optionally the server drops every
+ * connection after a number of messages, so the pool has to reconnect.
+ *
+ * Needs JavaMail on the classpath:
+ * java -cp ".:lib/*" SmtpBenchmark [messages] [threads] [handshake millis] [batch size] [drop after]
+ */
+public class SmtpBenchmark {
+    private static final String FROM = "clinic@localhost";
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        long handshake = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int dropAfter = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        List<Appointment> appointments = new ArrayList<>(messages);
+        LocalDateTime first = LocalDateTime.of(2030, 1, 7, 9, 0);
+        for (int i = 0; i < messages; i++) {
+            Appointment appointment = new Appointment(i + 1, "Doctor " + (i % 20), first.plusMinutes(15L * i));
+            appointment.bookAppointment("Patient " + i, "patient" + i + "@example.com");
+            appointments.add(appointment);
+        }
+
+        try (FakeSmtpServer server = new FakeSmtpServer(0, handshake, dropAfter)) {
+            System.out.printf("%,d messages, %d threads, %d ms handshake, batches of %d%s%n", messages, threads,
+                              handshake, batchSize, dropAfter > 0 ? ", server drops after " + dropAfter : "");
+            System.out.printf("%-26s %12s %12s %12s%n", "Mode", "msgs/s", "connections", "delivered");
+
+            // Connection per message, as Transport.send does
+            Properties properties = new Properties();
+            properties.put("mail.smtp.auth", "true");
+            Session session = Session.getInstance(properties, null);
+            run("connection per message", server, threads, appointments, 1, batch -> {
+                Appointment appointment = batch.get(0);
+                Message message = new MimeMessage(session);
+                message.setFrom(new InternetAddress(FROM));
+                message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(appointment.getPatientEmail()));
+                message.setSubject("Appointment Confirmation - Dr. " + appointment.getDoctorName());
+                message.setContent("Confirmed: " + appointment.getDateTime(), "text/plain; charset=utf-8");
+                Transport transport = session.getTransport("smtp");
+                transport.connect("localhost", server.getPort(), FROM, "secret");
+                try {
+                    transport.sendMessage(message, message.getAllRecipients());
+                } finally {
+                    transport.close();
+                }
+                return ConfirmationSender.Delivery.all(1);
+            });
+
+            try (EmailService service = new EmailService(FROM, "secret", "localhost", server.getPort(), false,
+                                                         threads)) {
+                run("pooled, one per send", server, threads, appointments, 1, service::sendBatch);
+                run("pooled, batches of " + batchSize, server, threads, appointments, batchSize, service::sendBatch);
+                SmtpConnectionPool pool = service.getPool();
+                System.out.printf("Pool: %,d opened, %,d reused, %,d discarded%n", pool.opened(), pool.reused(),
+                                  pool.discarded());
+            }
+        }
+    }
+
+    private interface Sender {
+        ConfirmationSender.Delivery send(List<Appointment> batch) throws MessagingException;
+    }
+
+    private static void run(String mode, FakeSmtpServer server, int threads, List<Appointment> appointments,
+                            int batchSize, Sender sender) throws InterruptedException {
+        long connectionsBefore = server.connections();
+        long messagesBefore = server.messages();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                int from;
+                while ((from = next.getAndAdd(batchSize)) < appointments.size()) {
+                    List<Appointment> batch = appointments.subList(from, Math.min(from + batchSize, appointments.size()));
+                    try {
+                        failed.addAndGet(batch.size() - sender.send(batch).sent());
+                    } catch (MessagingException e) {
+                        failed.addAndGet(batch.size());
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long delivered = server.messages() - messagesBefore;
+        System.out.printf("%-26s %,12.0f %,12d %,12d%s%n", mode, delivered / seconds,
+                          server.connections() - connectionsBefore, delivered,
+                          failed.get() > 0 ? "  (" + failed.get() + " failed)" : "");
+    }
+}
@@ -0,0 +1,290 @@
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of long-lived, authenticated SMTP connections.
+ *
+ * Opening a connection costs a TCP connect, the STARTTLS handshake and
+ * AUTH, which can take hundreds of milliseconds. Senders borrow an open
+ * {@link Transport} instead, send any number of messages over it and
+ * give it back. A connection that has been idle for a while is checked
+ * with NOOP ({@code SMTPTransport.isConnected()} sends one) before it
+ * is lent out again. A keep-alive thread sends NOOP to idle connections
+ * so the server does not time them out, and closes connections that
+ * have not been used for the maximum idle time. A connection that fails
+ * is {@link #invalidate invalidated} and replaced on the next borrow.
+ */
+public class SmtpConnectionPool implements AutoCloseable {
+    private static final long DEFAULT_VALIDATE_AFTER_MILLIS = 5_000;
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 30_000;
+    private static final long DEFAULT_MAX_IDLE_MILLIS = 300_000;
+    private static final long BORROW_TIMEOUT_MILLIS = 30_000;
+
+    private static final class Idle {
+        final Transport transport;
+        final long lastUsedNanos;
+        long lastCheckedNanos;
+
+        Idle(Transport transport, long lastUsedNanos, long lastCheckedNanos) {
+            this.transport = transport;
+            this.lastUsedNanos = lastUsedNanos;
+            this.lastCheckedNanos = lastCheckedNanos;
+        }
+    }
+
+    private final Session session;
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final int maxConnections;
+    private final long validateAfterNanos;
+    private final long keepAliveNanos;
+    private final long maxIdleNanos;
+
+    /**
+     * Lent-out connections; at most maxConnections at once
+     */
+    private final Semaphore permits;
+
+    /**
+     * Open connections nobody is using, most recently used first, so a
+     * light load keeps a few connections warm and lets the rest expire
+     */
+    private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+    private final Thread keepAlive;
+    private volatile boolean closed;
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    public SmtpConnectionPool(Session session, String host, int port, String user, String password,
+                              int maxConnections) {
+        this(session, host, port, user, password, maxConnections, DEFAULT_VALIDATE_AFTER_MILLIS,
+             DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_MAX_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param validateAfter idle time after which a connection is checked with NOOP before reuse
+     * @param keepAlive     idle time after which the keep-alive thread sends NOOP
+     * @param maxIdle       idle time after which a connection is closed
+     */
+    public SmtpConnectionPool(Session session, String host, int port, String user, String password,
+                              int maxConnections, long validateAfter, long keepAlive, long maxIdle,
+                              TimeUnit unit) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.session = session;
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+        this.maxConnections = maxConnections;
+        this.validateAfterNanos = unit.toNanos(validateAfter);
+        this.keepAliveNanos = unit.toNanos(keepAlive);
+        this.maxIdleNanos = unit.toNanos(maxIdle);
+        this.permits = new Semaphore(maxConnections, true);
+        this.keepAlive = new Thread(this::runKeepAlive, "smtp-keep-alive");
+        this.keepAlive.setDaemon(true);
+        this.keepAlive.start();
+    }
+
+    /**
+     * Lends out an open, authenticated connection, waiting while all are in use.
+     * Every borrow must be followed by {@link #release} or {@link #invalidate}.
+     */
+    public Transport borrow() throws MessagingException {
+        return borrow(false);
+    }
+
+    /**
+     * Like {@link #borrow()}, but with {@code validate} an idle connection is
+     * always checked with NOOP first, e.g. after another one has just failed
+     */
+    public Transport borrow(boolean validate) throws MessagingException {
+        if (closed) {
+            throw new IllegalStateException("SMTP connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("No SMTP connection free after " + BORROW_TIMEOUT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection");
+        }
+        try {
+            Idle candidate;
+            while ((candidate = pollIdle()) != null) {
+                long now = System.nanoTime();
+                if (!validate && now - candidate.lastCheckedNanos < validateAfterNanos
+                    || candidate.transport.isConnected()) {
+                    reused.increment();
+                    return candidate.transport;
+                }
+                discard(candidate.transport);
+            }
+            return open();
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a healthy connection for reuse
+     */
+    public void release(Transport transport) {
+        long now = System.nanoTime();
+        boolean keep;
+        synchronized (idle) {
+            keep = !closed && idle.size() < maxConnections;
+            if (keep) {
+                idle.addFirst(new Idle(transport, now, now));
+            }
+        }
+        if (!keep) {
+            discard(transport);
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes a connection that failed; the next borrow opens a fresh one
+     */
+    public void invalidate(Transport transport) {
+        discard(transport);
+        permits.release();
+    }
+
+    private Idle pollIdle() {
+        synchronized (idle) {
+            return idle.pollFirst();
+        }
+    }
+
+    private Transport open() throws MessagingException {
+        Transport transport = session.getTransport("smtp");
+        transport.connect(host, port, user, password);
+        opened.increment();
+        return transport;
+    }
+
+    private void discard(Transport transport) {
+        discarded.increment();
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            // Already broken; nothing left to release
+        }
+    }
+
+    /**
+     * Keep-alive loop: NOOP connections idle past the keep-alive time,
+     * close those idle past the maximum or that fail the check
+     */
+    private void runKeepAlive() {
+        long interval = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(keepAliveNanos, maxIdleNanos) / 2);
+        List<Idle> due = new ArrayList<>();
+        while (!closed) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            synchronized (idle) {
+                for (Iterator<Idle> it = idle.iterator(); it.hasNext(); ) {
+                    Idle entry = it.next();
+                    if (now - entry.lastCheckedNanos >= keepAliveNanos || now - entry.lastUsedNanos >= maxIdleNanos) {
+                        due.add(entry);
+                        it.remove();
+                    }
+                }
+            }
+            // NOOP outside the lock; borrowers meanwhile open new connections if they must
+            for (Idle entry : due) {
+                if (now - entry.lastUsedNanos >= maxIdleNanos || !entry.transport.isConnected()) {
+                    discard(entry.transport);
+                    continue;
+                }
+                entry.lastCheckedNanos = System.nanoTime();
+                boolean keep;
+                synchronized (idle) {
+                    keep = !closed && idle.size() < maxConnections;
+                    if (keep) {
+                        idle.addLast(entry);
+                    }
+                }
+                if (!keep) {
+                    discard(entry.transport);
+                }
+            }
+            due.clear();
+        }
+    }
+
+    // Metrics
+    public int maxConnections() {
+        return maxConnections;
+    }
+
+    public int inUse() {
+        return maxConnections - permits.availablePermits();
+    }
+
+    public int idleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * Connections opened (each one a connect, STARTTLS and AUTH)
+     */
+    public long opened() {
+        return opened.sum();
+    }
+
+    /**
+     * Borrows served by an already open connection
+     */
+    public long reused() {
+        return reused.sum();
+    }
+
+    /**
+     * Connections closed because they failed, expired or were surplus
+     */
+    public long discarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * Closes idle connections and stops the keep-alive thread. Connections
+     * still lent out are closed when they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        keepAlive.interrupt();
+        List<Idle> remaining;
+        synchronized (idle) {
+            remaining = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (Idle entry : remaining) {
+            discard(entry.transport);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.Collection;
+
+/**
+ * Receives appointment store changes.
+ * Callbacks run while the slot's stripe lock is held, in the order the
+ * changes were applied to that slot, so implementations must be quick and
+ * must not block (queue the work instead).
+ */
+public interface StoreListener {
+    /**
+     * A new slot was added (it may already carry a booking)
+     */
+    default void slotAdded(Appointment appointment) {
+    }
+
+    /**
+     * Slots were loaded in bulk by {@link AppointmentStore#restore}, in
+     * date/time order; some may carry bookings or holds. Called once for
+     * the whole batch, before the store is shared and without a stripe
+     * lock. By default each slot is passed to {@link #slotAdded}.
+     */
+    default void slotsRestored(Collection<Appointment> slots) {
+        for (Appointment appointment : slots) {
+            slotAdded(appointment);
+        }
+    }
+
+    /**
+     * A free slot was booked
+     */
+    default void slotBooked(Appointment appointment, Appointment.Booking booking) {
+    }
+
+    /**
+     * A booking was cancelled; previous holds the cancelled booking
+     */
+    default void slotCancelled(Appointment appointment, Appointment.Booking previous) {
+    }
+
+    /**
+     * A hold was placed, replaced, released or confirmed; either side may be null
+     */
+    default void holdChanged(Appointment appointment, Appointment.Hold previous, Appointment.Hold current) {
+    }
+}
@@ -0,0 +1,217 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical timing wheel for large numbers of short-lived timeouts.
+ *
+ * Level 0 has 64 buckets of one tick each. Every higher level has 64
+ * buckets, each spanning a whole rotation of the level below. A timeout
+ * goes into the coarsest bucket that still matches its deadline. It moves
+ * down a level when the lower wheel wraps, and it fires with the rest of
+ * its level-0 bucket. Scheduling and cancelling are O(1) and lock-free. A
+ * single ticker thread does all the bucket work, so thousands of pending
+ * timeouts cost no threads and no scans.
+ *
+ * Actions run on the ticker thread and must be short and non-blocking.
+ */
+public class TimingWheel implements AutoCloseable {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    /**
+     * Handle for a scheduled action
+     */
+    public interface Timeout {
+        /**
+         * Prevents the action from running. Returns false if it already ran or was cancelled.
+         */
+        boolean cancel();
+    }
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int FIRED = 2;
+
+    private final class Task implements Timeout {
+        private static final AtomicIntegerFieldUpdater<Task> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
+
+        final long deadlineTick;
+        final Runnable action;
+        volatile int state;
+
+        Task(long deadlineTick, Runnable action) {
+            this.deadlineTick = deadlineTick;
+            this.action = action;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                pendingCount.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        boolean claim() {
+            return STATE.compareAndSet(this, PENDING, FIRED);
+        }
+    }
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final ArrayDeque<Task>[][] wheels;
+    private final Queue<Task> incoming;
+    private final AtomicInteger pendingCount;
+    private final Thread ticker;
+    private volatile boolean running;
+    private long currentTick;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tick, TimeUnit unit, String name) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.tickNanos = unit.toNanos(tick);
+        this.startNanos = System.nanoTime();
+        this.wheels = new ArrayDeque[LEVELS][WHEEL_SIZE];
+        for (ArrayDeque<Task>[] wheel : wheels) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                wheel[i] = new ArrayDeque<>();
+            }
+        }
+        this.incoming = new ConcurrentLinkedQueue<>();
+        this.pendingCount = new AtomicInteger();
+        this.running = true;
+        this.ticker = new Thread(this::run, name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Runs the action once, no earlier than the given delay (rounded up to a whole tick)
+     */
+    public Timeout schedule(long delay, TimeUnit unit, Runnable action) {
+        long deadlineNanos = System.nanoTime() + Math.max(0, unit.toNanos(delay)) - startNanos;
+        Task task = new Task((deadlineNanos + tickNanos - 1) / tickNanos, action);
+        pendingCount.incrementAndGet();
+        incoming.add(task);
+        return task;
+    }
+
+    /**
+     * Number of scheduled actions that have neither run nor been cancelled
+     */
+    public int pendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Stops the ticker; actions that have not run yet are dropped
+     */
+    @Override
+    public void close() {
+        running = false;
+        ticker.interrupt();
+        try {
+            ticker.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Task> due = new ArrayList<>();
+        while (running) {
+            long wakeAt = startNanos + (currentTick + 1) * tickNanos;
+            long now;
+            while (running && (now = System.nanoTime()) < wakeAt) {
+                LockSupport.parkNanos(this, wakeAt - now);
+            }
+            if (!running) {
+                break;
+            }
+            currentTick++;
+            Task task;
+            while ((task = incoming.poll()) != null) {
+                place(task, due);
+            }
+            advance(due);
+            for (Task expired : due) {
+                if (expired.claim()) {
+                    pendingCount.decrementAndGet();
+                    try {
+                        expired.action.run();
+                    } catch (RuntimeException e) {
+                        System.err.println("⚠️  Timed task failed: " + e);
+                    }
+                }
+            }
+            due.clear();
+        }
+    }
+
+    /**
+     * Files a task into the bucket matching its remaining delay, or into
+     * {@code due} if its deadline has been reached
+     */
+    private void place(Task task, List<Task> due) {
+        if (task.state != PENDING) {
+            return;
+        }
+        long delta = task.deadlineTick - currentTick;
+        if (delta <= 0) {
+            due.add(task);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (WHEEL_BITS * (level + 1)) || level == LEVELS - 1) {
+                // Beyond the top level's range: park in the furthest top bucket and re-file later
+                long slotTick = level == LEVELS - 1 && delta >= 1L << (WHEEL_BITS * LEVELS)
+                                ? currentTick + (1L << (WHEEL_BITS * LEVELS)) - 1
+                                : task.deadlineTick;
+                wheels[level][(int) (slotTick >>> (WHEEL_BITS * level)) & WHEEL_MASK].add(task);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cascades higher-level buckets that came due when the lower wheels
+     * wrapped, then collects the current level-0 bucket
+     */
+    private void advance(List<Task> due) {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            ArrayDeque<Task> bucket = wheels[level][(int) (currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK];
+            Task task;
+            while ((task = bucket.poll()) != null) {
+                place(task, due);
+            }
+        }
+        ArrayDeque<Task> bucket = wheels[0][(int) currentTick & WHEEL_MASK];
+        Task task;
+        while ((task = bucket.poll()) != null) {
+            if (task.state != PENDING) {
+                continue;
+            }
+            if (task.deadlineTick <= currentTick) {
+                due.add(task);
+            } else {
+                place(task, due);
+            }
+        }
+    }
+}
@@ -0,0 +1,394 @@
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.TextStyle;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Utilization, cancellation and availability figures for a calendar:
+ * per doctor, per day, per hour of the day, and a heatmap of free slots
+ * by weekday and hour.
+ *
+ * {@link #scan} computes a report from scratch with fork/join. It splits
+ * the slots into ranges, counts the ranges in parallel and merges the
+ * counts. On a {@link ColumnarSlotStore} it reads the doctor, minute and
+ * status columns directly. {@link ReportRollup} keeps the same figures
+ * current on every change, so dashboards never need a scan.
+ */
+public final class UtilizationReport {
+    /**
+     * One doctor's figures. Bookings and cancellations count from when the
+     * figures started being kept; a scan sees only current bookings and no cancellations.
+     */
+    public record DoctorUtilization(String doctor, long slots, long booked, long bookings, long cancellations) {
+        public double utilization() {
+            return slots == 0 ? 0 : (double) booked / slots;
+        }
+
+        /** Share of bookings that were cancelled again */
+        public double cancellationRate() {
+            return bookings == 0 ? 0 : (double) cancellations / bookings;
+        }
+    }
+
+    public record DayUtilization(LocalDate day, long slots, long booked) {
+        public double utilization() {
+            return slots == 0 ? 0 : (double) booked / slots;
+        }
+    }
+
+    private static final int LEAF_ROWS = 1 << 14;
+
+    private final List<DoctorUtilization> doctors;
+    private final List<DayUtilization> days;
+    private final long[] hourSlots;
+    private final long[] hourBooked;
+    private final long[] freeByWeekdayHour;
+    private final long slots;
+    private final long booked;
+    private final long bookings;
+    private final long cancellations;
+
+    /**
+     * Doctors sorted by name, days by date; hours and the weekday x hour heatmap are copied
+     */
+    UtilizationReport(List<DoctorUtilization> doctors, List<DayUtilization> days, long[] hourSlots,
+                      long[] hourBooked, long[] freeByWeekdayHour) {
+        this.doctors = List.copyOf(doctors);
+        this.days = List.copyOf(days);
+        this.hourSlots = hourSlots.clone();
+        this.hourBooked = hourBooked.clone();
+        this.freeByWeekdayHour = freeByWeekdayHour.clone();
+        long totalSlots = 0;
+        long totalBooked = 0;
+        long totalBookings = 0;
+        long totalCancellations = 0;
+        for (DoctorUtilization doctor : doctors) {
+            totalSlots += doctor.slots();
+            totalBooked += doctor.booked();
+            totalBookings += doctor.bookings();
+            totalCancellations += doctor.cancellations();
+        }
+        this.slots = totalSlots;
+        this.booked = totalBooked;
+        this.bookings = totalBookings;
+        this.cancellations = totalCancellations;
+    }
+
+    // Fork/join scans
+
+    /**
+     * Counts one range of rows into a tally
+     */
+    private interface Leaf {
+        void count(int from, int to, Tally tally);
+    }
+
+    private static final class Scan extends RecursiveTask<Tally> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final Leaf leaf;
+
+        Scan(int from, int to, Leaf leaf) {
+            this.from = from;
+            this.to = to;
+            this.leaf = leaf;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (to - from <= LEAF_ROWS) {
+                Tally tally = new Tally();
+                leaf.count(from, to, tally);
+                return tally;
+            }
+            int middle = (from + to) >>> 1;
+            Scan left = new Scan(from, middle, leaf);
+            left.fork();
+            Tally right = new Scan(middle, to, leaf).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    /**
+     * Scans every slot of an in-memory store
+     */
+    public static UtilizationReport scan(AppointmentStore store) {
+        Appointment[] slots = store.allSlots().toArray(new Appointment[0]);
+        return ForkJoinPool.commonPool().invoke(new Scan(0, slots.length, (from, to, tally) -> {
+            String doctorName = null;
+            Tally.Doctor doctor = null;
+            for (int i = from; i < to; i++) {
+                Appointment appointment = slots[i];
+                // Slots are mostly grouped by doctor, so the lookup is rarely repeated
+                if (appointment.getDoctorName() != doctorName) {
+                    doctorName = appointment.getDoctorName();
+                    doctor = tally.doctor(doctorName);
+                }
+                tally.add(doctor, BookingJournal.toEpochMinute(appointment.getDateTime()), appointment.isBooked());
+            }
+        })).toReport();
+    }
+
+    /**
+     * Scans the columns of a memory-mapped store without materializing any appointment
+     */
+    public static UtilizationReport scan(ColumnarSlotStore store) {
+        return ForkJoinPool.commonPool().invoke(new Scan(0, store.size(), (from, to, tally) -> {
+            ColumnarSlotStore.Row row = store.cursor();
+            int doctorId = -1;
+            Tally.Doctor doctor = null;
+            for (int r = from; r < to; r++) {
+                row.moveTo(r);
+                if (row.getDoctorId() != doctorId) {
+                    doctorId = row.getDoctorId();
+                    doctor = tally.doctor(row.getDoctorName());
+                }
+                tally.add(doctor, row.getEpochMinute(), row.isBooked());
+            }
+        })).toReport();
+    }
+
+    /**
+     * Counts for one range of slots; ranges are merged pairwise
+     */
+    private static final class Tally {
+        static final class Doctor {
+            final String name;
+            long slots;
+            long booked;
+
+            Doctor(String name) {
+                this.name = name;
+            }
+        }
+
+        final Map<String, Doctor> doctors = new HashMap<>();
+        final long[] hourSlots = new long[24];
+        final long[] hourBooked = new long[24];
+        final long[] free = new long[7 * 24];
+        long firstDay;
+        long[] daySlots = new long[0];
+        long[] dayBooked = new long[0];
+
+        Doctor doctor(String name) {
+            return doctors.computeIfAbsent(AppointmentStore.normalizeDoctor(name), key -> new Doctor(name));
+        }
+
+        void add(Doctor doctor, long epochMinute, boolean isBooked) {
+            long day = Math.floorDiv(epochMinute, 1440);
+            int hour = Math.floorMod(epochMinute, 1440) / 60;
+            int index = dayIndex(day);
+            doctor.slots++;
+            daySlots[index]++;
+            hourSlots[hour]++;
+            if (isBooked) {
+                doctor.booked++;
+                dayBooked[index]++;
+                hourBooked[hour]++;
+            } else {
+                free[weekdayIndex(day) * 24 + hour]++;
+            }
+        }
+
+        /**
+         * Index of a day in the day arrays, widening them to cover it
+         */
+        private int dayIndex(long day) {
+            if (daySlots.length == 0) {
+                firstDay = day;
+                daySlots = new long[32];
+                dayBooked = new long[32];
+            }
+            if (day < firstDay) {
+                int shift = (int) (firstDay - day);
+                daySlots = shifted(daySlots, shift);
+                dayBooked = shifted(dayBooked, shift);
+                firstDay = day;
+            }
+            int index = (int) (day - firstDay);
+            if (index >= daySlots.length) {
+                int length = Math.max(index + 1, daySlots.length * 2);
+                daySlots = Arrays.copyOf(daySlots, length);
+                dayBooked = Arrays.copyOf(dayBooked, length);
+            }
+            return index;
+        }
+
+        private static long[] shifted(long[] counts, int shift) {
+            long[] widened = new long[counts.length + Math.max(shift, counts.length)];
+            System.arraycopy(counts, 0, widened, shift, counts.length);
+            return widened;
+        }
+
+        Tally merge(Tally other) {
+            for (Map.Entry<String, Doctor> entry : other.doctors.entrySet()) {
+                Doctor theirs = entry.getValue();
+                Doctor mine = doctors.computeIfAbsent(entry.getKey(), key -> new Doctor(theirs.name));
+                mine.slots += theirs.slots;
+                mine.booked += theirs.booked;
+            }
+            for (int i = 0; i < other.daySlots.length; i++) {
+                if (other.daySlots[i] > 0) {
+                    int index = dayIndex(other.firstDay + i);
+                    daySlots[index] += other.daySlots[i];
+                    dayBooked[index] += other.dayBooked[i];
+                }
+            }
+            for (int i = 0; i < 24; i++) {
+                hourSlots[i] += other.hourSlots[i];
+                hourBooked[i] += other.hourBooked[i];
+            }
+            for (int i = 0; i < free.length; i++) {
+                free[i] += other.free[i];
+            }
+            return this;
+        }
+
+        UtilizationReport toReport() {
+            List<DoctorUtilization> doctorList = new ArrayList<>(doctors.size());
+            for (Doctor doctor : doctors.values()) {
+                doctorList.add(new DoctorUtilization(doctor.name, doctor.slots, doctor.booked, doctor.booked, 0));
+            }
+            doctorList.sort(Comparator.comparing(DoctorUtilization::doctor, String.CASE_INSENSITIVE_ORDER));
+            List<DayUtilization> dayList = new ArrayList<>();
+            for (int i = 0; i < daySlots.length; i++) {
+                if (daySlots[i] > 0) {
+                    dayList.add(new DayUtilization(LocalDate.ofEpochDay(firstDay + i), daySlots[i], dayBooked[i]));
+                }
+            }
+            return new UtilizationReport(doctorList, dayList, hourSlots, hourBooked, free);
+        }
+    }
+
+    /**
+     * Monday = 0 ... Sunday = 6 (epoch day 0 was a Thursday)
+     */
+    static int weekdayIndex(long epochDay) {
+        return Math.floorMod(epochDay + 3, 7);
+    }
+
+    // Figures
+
+    /**
+     * Every doctor, sorted by name
+     */
+    public List<DoctorUtilization> doctors() {
+        return doctors;
+    }
+
+    /**
+     * Every day that has slots, in date order
+     */
+    public List<DayUtilization> days() {
+        return days;
+    }
+
+    public long slotsAtHour(int hour) {
+        return hourSlots[hour];
+    }
+
+    public long bookedAtHour(int hour) {
+        return hourBooked[hour];
+    }
+
+    /**
+     * Free slots starting in the given hour on the given weekday, over all weeks
+     */
+    public long freeSlots(DayOfWeek day, int hour) {
+        return freeByWeekdayHour[(day.getValue() - 1) * 24 + hour];
+    }
+
+    public long slots() {
+        return slots;
+    }
+
+    public long booked() {
+        return booked;
+    }
+
+    public long bookings() {
+        return bookings;
+    }
+
+    public long cancellations() {
+        return cancellations;
+    }
+
+    public double utilization() {
+        return slots == 0 ? 0 : (double) booked / slots;
+    }
+
+    public double cancellationRate() {
+        return bookings == 0 ? 0 : (double) cancellations / bookings;
+    }
+
+    /**
+     * Renders the report as text: totals, the {@code doctorLimit} busiest
+     * doctors, the next {@code dayLimit} days from {@code today}, the
+     * hourly profile and the free-slot heatmap
+     */
+    public String format(LocalDate today, int doctorLimit, int dayLimit) {
+        StringBuilder text = new StringBuilder(4096);
+        Formatter out = new Formatter(text, Locale.ROOT);
+        out.format("Slots: %,d   Booked: %,d (%.1f%%)   Bookings: %,d   Cancellations: %,d (%.1f%%)%n",
+                   slots, booked, 100 * utilization(), bookings, cancellations, 100 * cancellationRate());
+
+        List<DoctorUtilization> busiest = new ArrayList<>(doctors);
+        busiest.sort(Comparator.comparingDouble(DoctorUtilization::utilization).reversed());
+        out.format("%n%-28s %10s %10s %7s %12s%n", "Doctor", "Slots", "Booked", "Util.", "Cancel rate");
+        for (DoctorUtilization doctor : busiest.subList(0, Math.min(doctorLimit, busiest.size()))) {
+            out.format("%-28.28s %,10d %,10d %6.1f%% %11.1f%%%n", doctor.doctor(), doctor.slots(), doctor.booked(),
+                       100 * doctor.utilization(), 100 * doctor.cancellationRate());
+        }
+        if (busiest.size() > doctorLimit) {
+            out.format("... and %,d more doctor(s)%n", busiest.size() - doctorLimit);
+        }
+
+        out.format("%n%-16s %10s %10s %7s%n", "Day", "Slots", "Booked", "Util.");
+        int shown = 0;
+        for (DayUtilization day : days) {
+            if (!day.day().isBefore(today) && shown++ < dayLimit) {
+                out.format("%-16s %,10d %,10d %6.1f%%%n", day.day() + " "
+                           + day.day().getDayOfWeek().getDisplayName(TextStyle.SHORT, Locale.ENGLISH),
+                           day.slots(), day.booked(), 100 * day.utilization());
+            }
+        }
+
+        out.format("%n%-16s %10s %10s %7s%n", "Hour", "Slots", "Booked", "Util.");
+        int firstHour = 24;
+        int lastHour = -1;
+        for (int hour = 0; hour < 24; hour++) {
+            if (hourSlots[hour] > 0) {
+                firstHour = Math.min(firstHour, hour);
+                lastHour = hour;
+                out.format("%02d:00-%02d:59      %,10d %,10d %6.1f%%%n", hour, hour, hourSlots[hour],
+                           hourBooked[hour], 100.0 * hourBooked[hour] / hourSlots[hour]);
+            }
+        }
+
+        if (lastHour >= 0) {
+            long most = 1;
+            for (long count : freeByWeekdayHour) {
+                most = Math.max(most, count);
+            }
+            int width = Math.max(3, Long.toString(most).length() + 1);
+            out.format("%nFree slots by weekday and hour%n%-4s", "");
+            for (int hour = firstHour; hour <= lastHour; hour++) {
+                out.format("%" + width + "s", String.format(Locale.ROOT, "%02d", hour));
+            }
+            text.append('\n');
+            for (DayOfWeek day : DayOfWeek.values()) {
+                out.format("%-4s", day.getDisplayName(TextStyle.SHORT, Locale.ENGLISH));
+                for (int hour = firstHour; hour <= lastHour; hour++) {
+                    out.format("%" + width + "d", freeSlots(day, hour));
+                }
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,284 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-doctor waitlists that hand cancelled slots to waiting patients.
+ *
+ * Waiting patients are indexed by doctor. Each doctor's entries are kept
+ * in service order, by priority and then by arrival, under that doctor's
+ * own lock, and each patient waits for a time window. When a booking is
+ * cancelled, only that doctor's entries are walked: the slot goes straight
+ * to a hold for the first patient whose window contains it, so nobody else
+ * can grab it, and entries whose window has passed are dropped on the way.
+ * The patient is emailed the offer, with the slot ID to accept or decline
+ * it by, and has until the hold expires to answer. An expired or declined
+ * offer moves on to the next patient, and the slot is released once the
+ * waitlist is exhausted. Expiry runs on a shared {@link TimingWheel}, so
+ * pending offers cost no threads and no polling.
+ *
+ * Waitlists and offers are kept in memory only.
+ */
+public class Waitlist {
+    /**
+     * A patient waiting for a slot with one doctor between two times
+     */
+    public record Entry(long sequence, String doctorKey, String patientName, String patientEmail,
+                        LocalDateTime from, LocalDateTime to, int priority) {
+        boolean accepts(Appointment appointment) {
+            LocalDateTime time = appointment.getDateTime();
+            return !time.isBefore(from) && time.isBefore(to);
+        }
+    }
+
+    /**
+     * A slot currently held for a waitlisted patient
+     */
+    public record Offer(Appointment appointment, Entry entry, Appointment.Hold hold) {
+    }
+
+    /**
+     * Lower priority values go first; equal priorities are served in arrival order
+     */
+    private static final Comparator<Entry> SERVICE_ORDER =
+        Comparator.comparingInt(Entry::priority).thenComparingLong(Entry::sequence);
+
+    /**
+     * One doctor's waiting patients in service order; the object itself is
+     * the lock for them
+     */
+    private static final class DoctorQueue {
+        final NavigableSet<Entry> entries = new TreeSet<>(SERVICE_ORDER);
+    }
+
+    private static final int OFFER_BATCH_SIZE = 50;
+
+    private final AppointmentStore store;
+    private final Duration offerTtl;
+    private final TimingWheel timers;
+    private final NotificationQueue outbox;
+    private final ConcurrentHashMap<String, DoctorQueue> waiting;
+    private final Map<Integer, Offer> offers;
+    private final Map<Integer, TimingWheel.Timeout> expiries;
+    private final AtomicLong sequence;
+
+    /**
+     * @param offerSender sends the offer emails, in the background
+     */
+    public Waitlist(AppointmentStore store, Duration offerTtl, TimingWheel timers, ConfirmationSender offerSender) {
+        this.store = store;
+        this.offerTtl = offerTtl;
+        this.timers = timers;
+        this.outbox = new NotificationQueue(offerSender, 1, OFFER_BATCH_SIZE, "offer");
+        this.waiting = new ConcurrentHashMap<>();
+        this.offers = new ConcurrentHashMap<>();
+        this.expiries = new ConcurrentHashMap<>();
+        this.sequence = new AtomicLong();
+    }
+
+    /**
+     * Adds a patient to a doctor's waitlist for slots with from <= time < to
+     */
+    public Entry join(String doctorName, String patientName, String patientEmail,
+                      LocalDateTime from, LocalDateTime to, int priority) {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("The waiting window must end after it starts");
+        }
+        Entry entry = new Entry(sequence.incrementAndGet(), AppointmentStore.normalizeDoctor(doctorName),
+                                patientName, patientEmail, from, to, priority);
+        putBack(entry);
+        return entry;
+    }
+
+    /**
+     * Removes a patient's entries from a doctor's waitlist; returns how many were removed
+     */
+    public int leave(String doctorName, String patientEmail) {
+        DoctorQueue queue = waiting.get(AppointmentStore.normalizeDoctor(doctorName));
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            int before = queue.entries.size();
+            queue.entries.removeIf(entry -> entry.patientEmail().equalsIgnoreCase(patientEmail));
+            return before - queue.entries.size();
+        }
+    }
+
+    /**
+     * Number of patients waiting for a doctor
+     */
+    public int waitingCount(String doctorName) {
+        DoctorQueue queue = waiting.get(AppointmentStore.normalizeDoctor(doctorName));
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return queue.entries.size();
+        }
+    }
+
+    /**
+     * Cancels a booking. If a waitlisted patient wants the slot, it is
+     * held for them instead of becoming available. Returns false if the
+     * slot was not booked.
+     */
+    public boolean cancel(Appointment appointment) {
+        return cancel(appointment, null);
+    }
+
+    /**
+     * Cancels a booking only if it was made with the given email (null for any), as above
+     */
+    public boolean cancel(Appointment appointment, String patientEmail) {
+        Entry next = takeNext(appointment);
+        if (next == null) {
+            return store.cancel(appointment, null, patientEmail);
+        }
+        Appointment.Hold hold = newHold(next);
+        if (!store.cancel(appointment, hold, patientEmail)) {
+            putBack(next);
+            return false;
+        }
+        startOffer(appointment, next, hold);
+        return true;
+    }
+
+    /**
+     * Books the offered slot for the patient it is held for. Returns the
+     * booking made, or null if there is no such offer or it has lapsed.
+     */
+    public Appointment.Booking accept(int appointmentId, String patientEmail) {
+        Offer offer = offers.get(appointmentId);
+        if (offer == null || !offer.entry().patientEmail().equalsIgnoreCase(patientEmail)) {
+            return null;
+        }
+        Entry entry = offer.entry();
+        Appointment.Booking booking = new Appointment.Booking(entry.patientName(), entry.patientEmail());
+        if (!store.confirmHold(offer.appointment(), offer.hold().token(), booking)) {
+            return null;
+        }
+        finishOffer(offer);
+        return booking;
+    }
+
+    /**
+     * Turns down an offer; the slot moves on to the next waiting patient
+     */
+    public boolean decline(int appointmentId, String patientEmail) {
+        Offer offer = offers.get(appointmentId);
+        if (offer == null || !offer.entry().patientEmail().equalsIgnoreCase(patientEmail)) {
+            return false;
+        }
+        return passOn(offer);
+    }
+
+    /**
+     * Offers currently waiting for an answer
+     */
+    public Collection<Offer> pendingOffers() {
+        return Collections.unmodifiableCollection(offers.values());
+    }
+
+    private void startOffer(Appointment appointment, Entry entry, Appointment.Hold hold) {
+        Offer offer = new Offer(appointment, entry, hold);
+        offers.put(appointment.getId(), offer);
+        expiries.put(appointment.getId(), timers.schedule(offerTtl.toMillis(), TimeUnit.MILLISECONDS,
+                                                          () -> expire(offer)));
+        Appointment.Booking patient = new Appointment.Booking(entry.patientName(), entry.patientEmail());
+        if (!outbox.enqueue(appointment, patient, hold)) {
+            System.err.println("⚠️  Offer email for slot " + appointment.getId() + " to " + entry.patientEmail()
+                               + " could not be queued");
+        }
+    }
+
+    private void finishOffer(Offer offer) {
+        int id = offer.appointment().getId();
+        offers.remove(id, offer);
+        TimingWheel.Timeout expiry = expiries.remove(id);
+        if (expiry != null) {
+            expiry.cancel();
+        }
+    }
+
+    private void expire(Offer offer) {
+        if (offers.get(offer.appointment().getId()) == offer) {
+            passOn(offer);
+        }
+    }
+
+    /**
+     * Moves an unanswered or declined offer to the next patient, or releases the slot
+     */
+    private boolean passOn(Offer offer) {
+        Appointment appointment = offer.appointment();
+        Entry next = takeNext(appointment);
+        Appointment.Hold hold = next != null ? newHold(next) : null;
+        if (!store.replaceHold(appointment, offer.hold().token(), hold)) {
+            if (next != null) {
+                putBack(next);
+            }
+            return false;
+        }
+        finishOffer(offer);
+        if (next != null) {
+            startOffer(appointment, next, hold);
+        }
+        return true;
+    }
+
+    private Appointment.Hold newHold(Entry entry) {
+        return new Appointment.Hold(SlotHolds.newToken(), entry.patientEmail(),
+                                    System.currentTimeMillis() + offerTtl.toMillis());
+    }
+
+    /**
+     * Removes and returns the first waiting patient of the slot's doctor whose
+     * window contains the slot. Entries whose window has already passed are
+     * dropped on the way; the others stay where they are.
+     */
+    private Entry takeNext(Appointment appointment) {
+        DoctorQueue queue = waiting.get(AppointmentStore.normalizeDoctor(appointment.getDoctorName()));
+        if (queue == null) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        synchronized (queue) {
+            for (Iterator<Entry> entries = queue.entries.iterator(); entries.hasNext(); ) {
+                Entry entry = entries.next();
+                if (entry.accepts(appointment)) {
+                    entries.remove();
+                    return entry;
+                }
+                if (!entry.to().isAfter(now)) {
+                    entries.remove();
+                }
+            }
+            return null;
+        }
+    }
+
+    private void putBack(Entry entry) {
+        DoctorQueue queue = waiting.computeIfAbsent(entry.doctorKey(), k -> new DoctorQueue());
+        synchronized (queue) {
+            queue.entries.add(entry);
+        }
+    }
+
+    /**
+     * Stops taking offer emails and waits for queued ones to be sent
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        outbox.shutdown(timeout, unit);
+    }
+
+    /**
+     * Offer emails handed to the sender
+     */
+    public long offersSent() {
+        return outbox.sentCount();
+    }
+}
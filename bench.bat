@@ -0,0 +1,22 @@
+@echo off
+REM Doctor's Appointment Booking System - Benchmark Script for Windows
+REM Usage: bench.bat [--sizes 1000,10000,100000,1000000] [--warmup 3] [--iterations 5]
+REM                  [--time 500] [--filter name] [--out bench-results.json]
+
+echo ============================================
+echo   MediBook Benchmarks
+echo ============================================
+echo.
+
+REM javac picks up the classes the benchmarks use from the current directory
+echo 📦 Compiling benchmarks...
+javac -encoding UTF-8 BookingBenchmark.java SlotTableBenchmark.java
+
+if %errorlevel% equ 0 (
+    echo ✅ Compilation successful!
+    echo.
+    java -Xmx4g BookingBenchmark %*
+) else (
+    echo ❌ Compilation failed!
+    exit /b 1
+)
@@ -0,0 +1,22 @@
+#!/bin/bash
+
+# Doctor's Appointment Booking System - Benchmark Script
+# Usage: ./bench.sh [--sizes 1000,10000,100000,1000000] [--warmup 3] [--iterations 5]
+#                   [--time 500] [--filter name] [--out bench-results.json]
+echo "============================================"
+echo "  MediBook Benchmarks"
+echo "============================================"
+echo
+
+# javac picks up the classes the benchmarks use from the current directory
+echo "📦 Compiling benchmarks..."
+javac -encoding UTF-8 BookingBenchmark.java SlotTableBenchmark.java
+
+if [ $? -eq 0 ]; then
+    echo "✅ Compilation successful!"
+    echo
+    java -Xmx4g BookingBenchmark "$@"
+else
+    echo "❌ Compilation failed!"
+    exit 1
+fi
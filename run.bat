@@ -9,7 +9,7 @@ echo.
 
 REM Compile Java files
 echo 📦 Compiling Java files...
-javac Appointment.java EmailServiceSimple.java AppointmentBookingSystem.java
+javac Appointment.java AppointmentCodec.java AppointmentStore.java DoctorIndex.java StoreListener.java PersistentSortedMap.java AvailabilitySnapshots.java BookingJournal.java ColumnarSlotStore.java ScheduleRule.java SlotTable.java SlotTransfer.java LatencyHistogram.java Metrics.java UtilizationReport.java ReportRollup.java SlotRecommender.java PatientRegistry.java PatientTokens.java TimingWheel.java Waitlist.java SlotHolds.java ReplicationNode.java BookingService.java BookingApiServer.java ConfirmationSender.java NotificationQueue.java ReminderScheduler.java EmailTemplate.java EmailServiceSimple.java AppointmentBookingSystem.java
 
 if %errorlevel% equ 0 (
     echo ✅ Compilation successful!